@@ -0,0 +1,60 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A typical typed JSON message: a few scalar fields and a short list, serialized with its java type.
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.CLASS, property = "javaType")
+public class BenchmarkMessage {
+
+    private String accountId;
+    private String eventName;
+    private long eventTimestamp;
+    private List<String> tags = new ArrayList<>();
+
+    public BenchmarkMessage() {
+    }
+
+    public BenchmarkMessage(String accountId, String eventName, long eventTimestamp, List<String> tags) {
+        this.accountId = accountId;
+        this.eventName = eventName;
+        this.eventTimestamp = eventTimestamp;
+        this.tags = tags;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(String accountId) {
+        this.accountId = accountId;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    public void setEventName(String eventName) {
+        this.eventName = eventName;
+    }
+
+    public long getEventTimestamp() {
+        return eventTimestamp;
+    }
+
+    public void setEventTimestamp(long eventTimestamp) {
+        this.eventTimestamp = eventTimestamp;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+}
@@ -0,0 +1,56 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.utility.JsonUtility;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures typed JSON deserialization and the JsonMessageHandlerAbstractBase dispatch built on it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonBenchmark {
+
+    private String messageJson;
+    private MessageReceiveContext messageReceiveContext;
+    private JsonMessageHandlerAbstractBase messageHandler;
+
+    @Setup
+    public void setup() throws Exception {
+
+        messageJson = JsonUtility.objectToJson(new BenchmarkMessage("account-1234567890", "AccountUpdated",
+                1556668800000L, Arrays.asList("billing", "profile", "notification")));
+
+        messageReceiveContext = MessageReceiveContext.builder()
+                .messageId("message-1")
+                .receiptHandle("receipt-1")
+                .messageText(messageJson)
+                .build();
+
+        messageHandler = new JsonMessageHandlerAbstractBase(BenchmarkMessage.class) {
+            @Override
+            protected MessageHandlerStatus handleObjectMessage(MessageReceiveContext messageReceiveContext, Object messageObject) {
+                return MessageHandlerStatus.Message_Processed_Successfully;
+            }
+
+            @Override
+            public QueueConfiguration getTargetQueueConfiguration() {
+                return null;
+            }
+        };
+        messageHandler.afterPropertiesSet();
+    }
+
+    @Benchmark
+    public Object typedJsonToObject() throws Exception {
+        return JsonUtility.typedJsonToObject("javaType", messageJson);
+    }
+
+    @Benchmark
+    public MessageHandlerStatus handleMessageDispatch() {
+        return messageHandler.handleMessage(messageReceiveContext);
+    }
+}
@@ -0,0 +1,85 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a MessageSendContext and turning it into an SDK SendMessageRequest, for standard queues and for
+ * FIFO queues where the de-duplication id is generated from the message body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageSendContextBenchmark {
+
+    @Param({"256", "4096"})
+    public int messageSize;
+
+    private QueueManager queueManager;
+    private QueueConfiguration standardQueue;
+    private QueueConfiguration fifoQueue;
+    private String messageText;
+    private MessageAttributeValue attributeValue;
+
+    @Setup
+    public void setup() {
+
+        queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "Benchmark");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+
+        standardQueue = QueueConfiguration.builder()
+                .queueBaseName("Standard")
+                .isFifoQueue(false)
+                .createDeadLetterQueue(false)
+                .build();
+        fifoQueue = QueueConfiguration.builder()
+                .queueBaseName("Ordered")
+                .isFifoQueue(true)
+                .createDeadLetterQueue(false)
+                .build();
+        queueManager.registerQueue(standardQueue);
+        queueManager.registerQueue(fifoQueue);
+
+        StringBuilder text = new StringBuilder(messageSize);
+        while( text.length() < messageSize ) {
+            text.append("{\"field\":\"value\"}");
+        }
+        messageText = text.substring(0, messageSize);
+
+        attributeValue = MessageAttributeValue.builder()
+                .dataType("String")
+                .stringValue("tenant-42")
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        queueManager.destroy();
+    }
+
+    @Benchmark
+    public SendMessageRequest standardSendRequest() {
+        MessageSendContext sendContext = MessageSendContext.builder()
+                .queueConfiguration(standardQueue)
+                .messageText(messageText)
+                .customAttribute("tenant", attributeValue)
+                .build();
+        return sendContext.toSendMessageRequest(sendContext.getTargetQueueConfiguration());
+    }
+
+    @Benchmark
+    public SendMessageRequest fifoSendRequestWithGeneratedDeduplicationId() {
+        MessageSendContext sendContext = MessageSendContext.builder()
+                .queueConfiguration(fifoQueue)
+                .messageText(messageText)
+                .messageFifoGroupId("group-7")
+                .customAttribute("tenant", attributeValue)
+                .build();
+        return sendContext.toSendMessageRequest(sendContext.getTargetQueueConfiguration());
+    }
+}
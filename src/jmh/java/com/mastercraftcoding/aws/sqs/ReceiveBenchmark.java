@@ -0,0 +1,79 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.regions.Region;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the receive side against a stubbed SqsClient that always returns a full batch of ten messages:
+ * converting SDK messages into MessageReceiveContexts in readMessages, and one full pass of the driver loop
+ * (read, dispatch to the handler, batch delete).  Results are reported per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReceiveBenchmark {
+
+    private static final int BATCH_SIZE = 10;
+    private static final String[] NO_ATTRIBUTES = new String[0];
+
+    @Param({"false", "true"})
+    public boolean trackMessageLatency;
+
+    private QueueManager queueManager;
+    private QueueConfiguration queueConfiguration;
+    private MessageHandlerDriverThread driver;
+
+    @Setup
+    public void setup() {
+
+        queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "Benchmark");
+        queueManager.setSqsClient(new StubSqsClient(BATCH_SIZE, "{\"javaType\":\"Benchmark\",\"value\":42}", trackMessageLatency));
+
+        queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Receive")
+                .isFifoQueue(false)
+                .createDeadLetterQueue(false)
+                .trackMessageLatency(trackMessageLatency)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        MessageHandler messageHandler = new MessageHandler() {
+            @Override
+            public QueueConfiguration getTargetQueueConfiguration() {
+                return queueConfiguration;
+            }
+
+            @Override
+            public String[] getDesiredMessageAttributes() {
+                return NO_ATTRIBUTES;
+            }
+
+            @Override
+            public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
+                return MessageHandlerStatus.Message_Processed_Successfully;
+            }
+        };
+
+        // The driver is never started; the benchmark runs its loop body directly.
+        driver = new MessageHandlerDriverThread(queueManager, messageHandler, queueConfiguration, NO_ATTRIBUTES, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        queueManager.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public MessageReceiveContext[] readMessages() {
+        return queueManager.readMessages(queueConfiguration, NO_ATTRIBUTES, BATCH_SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int driverLoop() {
+        return driver.processNextBatch();
+    }
+}
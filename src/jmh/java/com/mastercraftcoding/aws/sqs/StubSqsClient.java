@@ -0,0 +1,104 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * StubSqsClient answers every receive with the same pre-built batch of messages and acknowledges every delete, so
+ * that benchmarks measure the library's own work rather than a queue implementation.  Queue creation and attribute
+ * calls are delegated to an InMemorySqsClient so that QueueManager can register queues as usual.
+ */
+public class StubSqsClient implements SqsClient {
+
+    private static final SdkHttpResponse OK_RESPONSE = SdkHttpResponse.builder()
+            .statusCode(200)
+            .statusText("OK")
+            .build();
+
+    private final InMemorySqsClient queueAdministration = InMemorySqsClient.create();
+    private final ReceiveMessageResponse receiveMessageResponse;
+
+    public StubSqsClient(int messageCount, String messageBody, boolean includeSystemAttributes) {
+
+        long sentTimestamp = System.currentTimeMillis();
+        List<Message> messages = new ArrayList<>(messageCount);
+        for( int i = 0 ; i < messageCount ; i++ ) {
+            Message.Builder messageBuilder = Message.builder()
+                    .messageId("message-" + i)
+                    .receiptHandle("receipt-" + i)
+                    .body(messageBody)
+                    .messageAttributes(new HashMap<>());
+
+            if( includeSystemAttributes ) {
+                Map<String, String> systemAttributes = new HashMap<>();
+                systemAttributes.put(MessageSystemAttributeName.SENT_TIMESTAMP.toString(), Long.toString(sentTimestamp));
+                systemAttributes.put(MessageSystemAttributeName.APPROXIMATE_FIRST_RECEIVE_TIMESTAMP.toString(), Long.toString(sentTimestamp + 5));
+                systemAttributes.put(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT.toString(), "1");
+                messageBuilder.attributesWithStrings(systemAttributes);
+            }
+
+            messages.add(messageBuilder.build());
+        }
+
+        this.receiveMessageResponse = (ReceiveMessageResponse) ReceiveMessageResponse.builder()
+                .messages(messages)
+                .sdkHttpResponse(OK_RESPONSE)
+                .build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        queueAdministration.close();
+    }
+
+    @Override
+    public CreateQueueResponse createQueue(CreateQueueRequest createQueueRequest) {
+        return queueAdministration.createQueue(createQueueRequest);
+    }
+
+    @Override
+    public GetQueueAttributesResponse getQueueAttributes(GetQueueAttributesRequest getQueueAttributesRequest) {
+        return queueAdministration.getQueueAttributes(getQueueAttributesRequest);
+    }
+
+    @Override
+    public SetQueueAttributesResponse setQueueAttributes(SetQueueAttributesRequest setQueueAttributesRequest) {
+        return queueAdministration.setQueueAttributes(setQueueAttributesRequest);
+    }
+
+    @Override
+    public DeleteQueueResponse deleteQueue(DeleteQueueRequest deleteQueueRequest) {
+        return queueAdministration.deleteQueue(deleteQueueRequest);
+    }
+
+    @Override
+    public ReceiveMessageResponse receiveMessage(ReceiveMessageRequest receiveMessageRequest) {
+        return receiveMessageResponse;
+    }
+
+    @Override
+    public DeleteMessageBatchResponse deleteMessageBatch(DeleteMessageBatchRequest deleteMessageBatchRequest) {
+        List<DeleteMessageBatchResultEntry> successful = new ArrayList<>(deleteMessageBatchRequest.entries().size());
+        for( DeleteMessageBatchRequestEntry nextEntry : deleteMessageBatchRequest.entries() ) {
+            successful.add(DeleteMessageBatchResultEntry.builder().id(nextEntry.id()).build());
+        }
+
+        return (DeleteMessageBatchResponse) DeleteMessageBatchResponse.builder()
+                .successful(successful)
+                .failed(new ArrayList<>())
+                .sdkHttpResponse(OK_RESPONSE)
+                .build();
+    }
+}
@@ -0,0 +1,150 @@
+package com.mastercraftcoding.aws.sqs.loadtest;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CountingSqsClient wraps another SqsClient and counts the API calls made through it, per operation.  SQS bills
+ * per request, so the number of calls per message is as important to capacity planning as throughput.
+ */
+public class CountingSqsClient implements SqsClient {
+
+    private final SqsClient delegate;
+    private final ConcurrentHashMap<String, LongAdder> callCounts = new ConcurrentHashMap<>();
+
+    public CountingSqsClient(SqsClient delegate) {
+        if( delegate == null ) {
+            throw new IllegalArgumentException("delegate may not be null.");
+        }
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns a snapshot of the number of calls made since the last reset, keyed by operation name.
+     */
+    public Map<String, Long> getCallCounts() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        callCounts.forEach((operation, count) -> {
+            long callCount = count.sum();
+            if( callCount > 0 ) {
+                snapshot.put(operation, callCount);
+            }
+        });
+        return snapshot;
+    }
+
+    public long getTotalCallCount() {
+        long total = 0;
+        for( LongAdder nextCount : callCounts.values() ) {
+            total += nextCount.sum();
+        }
+        return total;
+    }
+
+    public void resetCallCounts() {
+        callCounts.values().forEach(LongAdder::reset);
+    }
+
+    private void count(String operation) {
+        callCounts.computeIfAbsent(operation, key -> new LongAdder()).increment();
+    }
+
+    @Override
+    public String serviceName() {
+        return delegate.serviceName();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public CreateQueueResponse createQueue(CreateQueueRequest createQueueRequest) {
+        count("CreateQueue");
+        return delegate.createQueue(createQueueRequest);
+    }
+
+    @Override
+    public DeleteQueueResponse deleteQueue(DeleteQueueRequest deleteQueueRequest) {
+        count("DeleteQueue");
+        return delegate.deleteQueue(deleteQueueRequest);
+    }
+
+    @Override
+    public GetQueueUrlResponse getQueueUrl(GetQueueUrlRequest getQueueUrlRequest) {
+        count("GetQueueUrl");
+        return delegate.getQueueUrl(getQueueUrlRequest);
+    }
+
+    @Override
+    public ListQueuesResponse listQueues(ListQueuesRequest listQueuesRequest) {
+        count("ListQueues");
+        return delegate.listQueues(listQueuesRequest);
+    }
+
+    @Override
+    public GetQueueAttributesResponse getQueueAttributes(GetQueueAttributesRequest getQueueAttributesRequest) {
+        count("GetQueueAttributes");
+        return delegate.getQueueAttributes(getQueueAttributesRequest);
+    }
+
+    @Override
+    public SetQueueAttributesResponse setQueueAttributes(SetQueueAttributesRequest setQueueAttributesRequest) {
+        count("SetQueueAttributes");
+        return delegate.setQueueAttributes(setQueueAttributesRequest);
+    }
+
+    @Override
+    public PurgeQueueResponse purgeQueue(PurgeQueueRequest purgeQueueRequest) {
+        count("PurgeQueue");
+        return delegate.purgeQueue(purgeQueueRequest);
+    }
+
+    @Override
+    public SendMessageResponse sendMessage(SendMessageRequest sendMessageRequest) {
+        count("SendMessage");
+        return delegate.sendMessage(sendMessageRequest);
+    }
+
+    @Override
+    public SendMessageBatchResponse sendMessageBatch(SendMessageBatchRequest sendMessageBatchRequest) {
+        count("SendMessageBatch");
+        return delegate.sendMessageBatch(sendMessageBatchRequest);
+    }
+
+    @Override
+    public ReceiveMessageResponse receiveMessage(ReceiveMessageRequest receiveMessageRequest) {
+        count("ReceiveMessage");
+        return delegate.receiveMessage(receiveMessageRequest);
+    }
+
+    @Override
+    public DeleteMessageResponse deleteMessage(DeleteMessageRequest deleteMessageRequest) {
+        count("DeleteMessage");
+        return delegate.deleteMessage(deleteMessageRequest);
+    }
+
+    @Override
+    public DeleteMessageBatchResponse deleteMessageBatch(DeleteMessageBatchRequest deleteMessageBatchRequest) {
+        count("DeleteMessageBatch");
+        return delegate.deleteMessageBatch(deleteMessageBatchRequest);
+    }
+
+    @Override
+    public ChangeMessageVisibilityResponse changeMessageVisibility(ChangeMessageVisibilityRequest changeMessageVisibilityRequest) {
+        count("ChangeMessageVisibility");
+        return delegate.changeMessageVisibility(changeMessageVisibilityRequest);
+    }
+
+    @Override
+    public ChangeMessageVisibilityBatchResponse changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest changeMessageVisibilityBatchRequest) {
+        count("ChangeMessageVisibilityBatch");
+        return delegate.changeMessageVisibilityBatch(changeMessageVisibilityBatchRequest);
+    }
+}
@@ -0,0 +1,319 @@
+package com.mastercraftcoding.aws.sqs.loadtest;
+
+/**
+ * The settings for one load test run.  Settings can be given on the command line as --name=value, using the same
+ * names as the builder methods, e.g. --producerCount=4 --consumerCount=8 --fifo=true.
+ */
+public class LoadTestConfiguration {
+
+    /**
+     * Where the queue under test lives.
+     */
+    public enum Backend {
+        /**
+         * The in-memory emulator, optionally with injected latency.
+         */
+        Emulator,
+
+        /**
+         * Real SQS, using the default AWS credentials provider chain.
+         */
+        Sqs
+    }
+
+    private Backend backend = Backend.Emulator;
+    private String region = "us-east-1";
+    private String applicationName = "LoadTest";
+    private String queueBaseName = "LoadTestQueue";
+
+    private int producerCount = 2;
+    private int consumerCount = 4;
+    private int warmupSeconds = 5;
+    private int durationSeconds = 30;
+    private int drainSeconds = 30;
+    private int targetSendRate = 0;
+    private int payloadBytes = 512;
+
+    private boolean fifo = false;
+    private int fifoGroupCount = 16;
+
+    private ServiceTimeDistribution serviceTimeDistribution = ServiceTimeDistribution.Fixed;
+    private long meanServiceTimeMicros = 1000;
+
+    private int receiveWaitTimeSeconds = 1;
+    private long emulatorLatencyMillis = 0;
+    private long emulatorLatencyJitterMillis = 0;
+    private int emulatorStripeCount = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private LoadTestConfiguration() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Parses --name=value command line arguments into a configuration.
+     */
+    public static LoadTestConfiguration fromArguments(String[] arguments) {
+
+        Builder builder = builder();
+        for( String nextArgument : arguments ) {
+            if( !nextArgument.startsWith("--") || nextArgument.indexOf('=') < 0 ) {
+                throw new IllegalArgumentException(String.format("Arguments must have the form --name=value: '%1$s'.", nextArgument));
+            }
+
+            String name = nextArgument.substring(2, nextArgument.indexOf('='));
+            String value = nextArgument.substring(nextArgument.indexOf('=') + 1);
+            try {
+                builder.set(name, value);
+            }
+            catch( IllegalArgumentException e ) {
+                throw new IllegalArgumentException(String.format("Invalid value '%1$s' for argument '%2$s'.", value, name), e);
+            }
+        }
+
+        return builder.build();
+    }
+
+    public static class Builder {
+
+        private final LoadTestConfiguration configuration = new LoadTestConfiguration();
+
+        public Builder backend(Backend backend) {
+            configuration.backend = backend;
+            return this;
+        }
+
+        public Builder region(String region) {
+            configuration.region = region;
+            return this;
+        }
+
+        public Builder applicationName(String applicationName) {
+            configuration.applicationName = applicationName;
+            return this;
+        }
+
+        public Builder queueBaseName(String queueBaseName) {
+            configuration.queueBaseName = queueBaseName;
+            return this;
+        }
+
+        public Builder producerCount(int producerCount) {
+            configuration.producerCount = producerCount;
+            return this;
+        }
+
+        public Builder consumerCount(int consumerCount) {
+            configuration.consumerCount = consumerCount;
+            return this;
+        }
+
+        public Builder warmupSeconds(int warmupSeconds) {
+            configuration.warmupSeconds = warmupSeconds;
+            return this;
+        }
+
+        public Builder durationSeconds(int durationSeconds) {
+            configuration.durationSeconds = durationSeconds;
+            return this;
+        }
+
+        public Builder drainSeconds(int drainSeconds) {
+            configuration.drainSeconds = drainSeconds;
+            return this;
+        }
+
+        /**
+         * The combined send rate of all producers in messages per second, or 0 to send as fast as possible.
+         */
+        public Builder targetSendRate(int targetSendRate) {
+            configuration.targetSendRate = targetSendRate;
+            return this;
+        }
+
+        public Builder payloadBytes(int payloadBytes) {
+            configuration.payloadBytes = payloadBytes;
+            return this;
+        }
+
+        public Builder fifo(boolean fifo) {
+            configuration.fifo = fifo;
+            return this;
+        }
+
+        public Builder fifoGroupCount(int fifoGroupCount) {
+            configuration.fifoGroupCount = fifoGroupCount;
+            return this;
+        }
+
+        public Builder serviceTimeDistribution(ServiceTimeDistribution serviceTimeDistribution) {
+            configuration.serviceTimeDistribution = serviceTimeDistribution;
+            return this;
+        }
+
+        public Builder meanServiceTimeMicros(long meanServiceTimeMicros) {
+            configuration.meanServiceTimeMicros = meanServiceTimeMicros;
+            return this;
+        }
+
+        public Builder receiveWaitTimeSeconds(int receiveWaitTimeSeconds) {
+            configuration.receiveWaitTimeSeconds = receiveWaitTimeSeconds;
+            return this;
+        }
+
+        public Builder emulatorLatencyMillis(long emulatorLatencyMillis) {
+            configuration.emulatorLatencyMillis = emulatorLatencyMillis;
+            return this;
+        }
+
+        public Builder emulatorLatencyJitterMillis(long emulatorLatencyJitterMillis) {
+            configuration.emulatorLatencyJitterMillis = emulatorLatencyJitterMillis;
+            return this;
+        }
+
+        public Builder emulatorStripeCount(int emulatorStripeCount) {
+            configuration.emulatorStripeCount = emulatorStripeCount;
+            return this;
+        }
+
+        private void set(String name, String value) {
+            switch( name ) {
+                case "backend": backend(Backend.valueOf(capitalize(value))); break;
+                case "region": region(value); break;
+                case "applicationName": applicationName(value); break;
+                case "queueBaseName": queueBaseName(value); break;
+                case "producerCount": producerCount(Integer.parseInt(value)); break;
+                case "consumerCount": consumerCount(Integer.parseInt(value)); break;
+                case "warmupSeconds": warmupSeconds(Integer.parseInt(value)); break;
+                case "durationSeconds": durationSeconds(Integer.parseInt(value)); break;
+                case "drainSeconds": drainSeconds(Integer.parseInt(value)); break;
+                case "targetSendRate": targetSendRate(Integer.parseInt(value)); break;
+                case "payloadBytes": payloadBytes(Integer.parseInt(value)); break;
+                case "fifo": fifo(Boolean.parseBoolean(value)); break;
+                case "fifoGroupCount": fifoGroupCount(Integer.parseInt(value)); break;
+                case "serviceTimeDistribution": serviceTimeDistribution(ServiceTimeDistribution.valueOf(capitalize(value))); break;
+                case "meanServiceTimeMicros": meanServiceTimeMicros(Long.parseLong(value)); break;
+                case "receiveWaitTimeSeconds": receiveWaitTimeSeconds(Integer.parseInt(value)); break;
+                case "emulatorLatencyMillis": emulatorLatencyMillis(Long.parseLong(value)); break;
+                case "emulatorLatencyJitterMillis": emulatorLatencyJitterMillis(Long.parseLong(value)); break;
+                case "emulatorStripeCount": emulatorStripeCount(Integer.parseInt(value)); break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown argument '%1$s'.", name));
+            }
+        }
+
+        private static String capitalize(String value) {
+            return value.isEmpty() ? value : Character.toUpperCase(value.charAt(0)) + value.substring(1);
+        }
+
+        public LoadTestConfiguration build() {
+
+            if( configuration.producerCount <= 0 || configuration.consumerCount <= 0 ) {
+                throw new IllegalArgumentException("producerCount and consumerCount must be greater than zero.");
+            }
+            if( configuration.durationSeconds <= 0 ) {
+                throw new IllegalArgumentException("durationSeconds must be greater than zero.");
+            }
+            if( configuration.warmupSeconds < 0 || configuration.drainSeconds < 0 || configuration.targetSendRate < 0 ) {
+                throw new IllegalArgumentException("warmupSeconds, drainSeconds and targetSendRate may not be negative.");
+            }
+            if( configuration.payloadBytes < 32 || configuration.payloadBytes > 262144 ) {
+                throw new IllegalArgumentException("payloadBytes must be between 32 and 262144.");
+            }
+            if( configuration.fifo && configuration.fifoGroupCount <= 0 ) {
+                throw new IllegalArgumentException("fifoGroupCount must be greater than zero.");
+            }
+            if( configuration.serviceTimeDistribution == null || configuration.meanServiceTimeMicros < 0 ) {
+                throw new IllegalArgumentException("A service time distribution and a non-negative mean service time are required.");
+            }
+
+            return configuration;
+        }
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public String getApplicationName() {
+        return applicationName;
+    }
+
+    public String getQueueBaseName() {
+        return queueBaseName;
+    }
+
+    public int getProducerCount() {
+        return producerCount;
+    }
+
+    public int getConsumerCount() {
+        return consumerCount;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getDrainSeconds() {
+        return drainSeconds;
+    }
+
+    public int getTargetSendRate() {
+        return targetSendRate;
+    }
+
+    public int getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    public boolean isFifo() {
+        return fifo;
+    }
+
+    public int getFifoGroupCount() {
+        return fifoGroupCount;
+    }
+
+    public ServiceTimeDistribution getServiceTimeDistribution() {
+        return serviceTimeDistribution;
+    }
+
+    public long getMeanServiceTimeMicros() {
+        return meanServiceTimeMicros;
+    }
+
+    public int getReceiveWaitTimeSeconds() {
+        return receiveWaitTimeSeconds;
+    }
+
+    public long getEmulatorLatencyMillis() {
+        return emulatorLatencyMillis;
+    }
+
+    public long getEmulatorLatencyJitterMillis() {
+        return emulatorLatencyJitterMillis;
+    }
+
+    public int getEmulatorStripeCount() {
+        return emulatorStripeCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("backend=%1$s producers=%2$d consumers=%3$d warmup=%4$ds duration=%5$ds targetSendRate=%6$s payload=%7$dB fifo=%8$s%9$s serviceTime=%10$s(mean %11$dus)",
+                backend, producerCount, consumerCount, warmupSeconds, durationSeconds,
+                targetSendRate > 0 ? targetSendRate + "/s" : "unbounded", payloadBytes, fifo,
+                fifo ? " groups=" + fifoGroupCount : "", serviceTimeDistribution, meanServiceTimeMicros);
+    }
+}
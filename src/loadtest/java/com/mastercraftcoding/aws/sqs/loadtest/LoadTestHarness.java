@@ -0,0 +1,233 @@
+package com.mastercraftcoding.aws.sqs.loadtest;
+
+import com.mastercraftcoding.aws.sqs.*;
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadTestHarness drives producers through MessageSendContext and consumers through MessageHandler against a
+ * pluggable SqsClient, and reports throughput, end-to-end latency percentiles and API call counts.
+ *
+ * Each message body starts with the System.nanoTime() at which it was due to be sent, so latency is measured from
+ * the intended send time.  When producers fall behind a target send rate the delay is therefore included in the
+ * latency rather than hidden.
+ */
+public class LoadTestHarness {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadTestHarness.class);
+
+    private final LoadTestConfiguration configuration;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong sendFailureCount = new AtomicLong();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong measuredSentCount = new AtomicLong();
+    private final AtomicLong measuredReceivedCount = new AtomicLong();
+    private final LatencyHistogram latencyMicros = new LatencyHistogram();
+
+    private volatile long measureStartNanos = Long.MAX_VALUE;
+    private volatile long measureEndNanos = Long.MAX_VALUE;
+    private volatile boolean producing;
+
+    public LoadTestHarness(LoadTestConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    public static void main(String[] arguments) throws InterruptedException {
+        LoadTestConfiguration configuration = LoadTestConfiguration.fromArguments(arguments);
+        LoadTestResult result = new LoadTestHarness(configuration).run();
+        System.out.println(result);
+    }
+
+    public LoadTestResult run() throws InterruptedException {
+
+        CountingSqsClient sqsClient = new CountingSqsClient(createSqsClient());
+
+        QueueManager queueManager = new QueueManager(Region.of(configuration.getRegion()),
+                RuntimeEnvironment.createCustomEnvironment("LoadTest"), configuration.getApplicationName());
+        queueManager.setSqsClient(sqsClient);
+
+        QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName(configuration.getQueueBaseName())
+                .isFifoQueue(configuration.isFifo())
+                .createDeadLetterQueue(false)
+                .receiveMessageWaitTimeSeconds(configuration.getReceiveWaitTimeSeconds())
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        try {
+            for( int i = 0 ; i < configuration.getConsumerCount() ; i++ ) {
+                queueManager.registerMessageHandler(new LoadTestMessageHandler(queueConfiguration));
+            }
+
+            // Start the producers and let the system warm up before measuring.
+            producing = true;
+            List<Thread> producers = new ArrayList<>();
+            for( int i = 0 ; i < configuration.getProducerCount() ; i++ ) {
+                int producerIndex = i;
+                Thread producer = new Thread(() -> produce(queueConfiguration, producerIndex), "LoadTestProducer-" + i);
+                producer.setDaemon(true);
+                producer.start();
+                producers.add(producer);
+            }
+
+            TimeUnit.SECONDS.sleep(configuration.getWarmupSeconds());
+
+            sqsClient.resetCallCounts();
+            measureStartNanos = System.nanoTime();
+            log.info(String.format("Measuring for %1$d seconds", configuration.getDurationSeconds()));
+
+            TimeUnit.SECONDS.sleep(configuration.getDurationSeconds());
+
+            measureEndNanos = System.nanoTime();
+            Map<String, Long> apiCallCounts = sqsClient.getCallCounts();
+            long totalApiCalls = sqsClient.getTotalCallCount();
+            long backlogAtEnd = sentCount.get() - receivedCount.get();
+
+            // Stop producing and give the consumers a chance to catch up.
+            producing = false;
+            for( Thread nextProducer : producers ) {
+                nextProducer.join();
+            }
+            long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(configuration.getDrainSeconds());
+            while( receivedCount.get() < sentCount.get() && System.nanoTime() < drainDeadline ) {
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+
+            double measuredSeconds = (measureEndNanos - measureStartNanos) / 1e9;
+            return new LoadTestResult(configuration, measuredSeconds, measuredSentCount.get(), measuredReceivedCount.get(),
+                    sendFailureCount.get(), backlogAtEnd, sentCount.get() - receivedCount.get(),
+                    latencyMicros, apiCallCounts, totalApiCalls);
+        }
+        finally {
+            producing = false;
+            queueManager.destroy();
+            queueManager.deleteQueue(queueConfiguration);
+            sqsClient.close();
+        }
+    }
+
+    private SqsClient createSqsClient() {
+        if( configuration.getBackend() == LoadTestConfiguration.Backend.Sqs ) {
+            return SqsClient.builder()
+                    .region(Region.of(configuration.getRegion()))
+                    .build();
+        }
+
+        return InMemorySqsClient.builder()
+                .stripeCount(configuration.getEmulatorStripeCount())
+                .apiLatencyMillis(configuration.getEmulatorLatencyMillis())
+                .apiLatencyJitterMillis(configuration.getEmulatorLatencyJitterMillis())
+                .build();
+    }
+
+    private void produce(QueueConfiguration queueConfiguration, int producerIndex) {
+
+        // Each producer sends an equal share of the target rate, paced against a fixed schedule.
+        long intervalNanos = configuration.getTargetSendRate() > 0 ?
+                TimeUnit.SECONDS.toNanos(configuration.getProducerCount()) / configuration.getTargetSendRate() : 0;
+        long nextSendNanos = System.nanoTime();
+        String padding = padding(configuration.getPayloadBytes());
+        long sequence = 0;
+
+        while( producing ) {
+
+            long intendedSendNanos = intervalNanos > 0 ? nextSendNanos : System.nanoTime();
+            if( intervalNanos > 0 ) {
+                long waitNanos = nextSendNanos - System.nanoTime();
+                if( waitNanos > 0 ) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+                nextSendNanos += intervalNanos;
+            }
+
+            String body = intendedSendNanos + ":" + producerIndex + ":" + sequence + ":";
+            MessageSendContext.Builder sendContextBuilder = MessageSendContext.builder()
+                    .queueConfiguration(queueConfiguration)
+                    .messageText(body + padding.substring(Math.min(body.length(), padding.length())));
+            if( configuration.isFifo() ) {
+                sendContextBuilder.messageFifoGroupId("group-" + Math.floorMod(producerIndex * 31 + sequence, configuration.getFifoGroupCount()));
+            }
+            sequence++;
+
+            try {
+                sendContextBuilder.build().sendMessage();
+                sentCount.incrementAndGet();
+                if( isMeasuring(System.nanoTime()) ) {
+                    measuredSentCount.incrementAndGet();
+                }
+            }
+            catch( RuntimeException e ) {
+                sendFailureCount.incrementAndGet();
+                log.warn(String.format("Send failed: %1$s", e.getMessage()));
+            }
+        }
+    }
+
+    private boolean isMeasuring(long nanos) {
+        return nanos >= measureStartNanos && nanos < measureEndNanos;
+    }
+
+    private static String padding(int payloadBytes) {
+        StringBuilder padding = new StringBuilder(payloadBytes);
+        while( padding.length() < payloadBytes ) {
+            padding.append('x');
+        }
+        return padding.toString();
+    }
+
+    private class LoadTestMessageHandler implements MessageHandler {
+
+        private final QueueConfiguration queueConfiguration;
+
+        private LoadTestMessageHandler(QueueConfiguration queueConfiguration) {
+            this.queueConfiguration = queueConfiguration;
+        }
+
+        @Override
+        public QueueConfiguration getTargetQueueConfiguration() {
+            return queueConfiguration;
+        }
+
+        @Override
+        public String[] getDesiredMessageAttributes() {
+            return new String[0];
+        }
+
+        @Override
+        public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
+
+            long handleNanos = System.nanoTime();
+            String body = messageReceiveContext.getMessageText();
+            long intendedSendNanos = Long.parseLong(body.substring(0, body.indexOf(':')));
+
+            receivedCount.incrementAndGet();
+            if( isMeasuring(handleNanos) ) {
+                measuredReceivedCount.incrementAndGet();
+                if( intendedSendNanos >= measureStartNanos ) {
+                    latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(handleNanos - intendedSendNanos));
+                }
+            }
+
+            // Simulate the handler's work.
+            long serviceTimeMicros = configuration.getServiceTimeDistribution()
+                    .sampleMicros(configuration.getMeanServiceTimeMicros(), ThreadLocalRandom.current());
+            if( serviceTimeMicros > 0 ) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(serviceTimeMicros));
+            }
+
+            return MessageHandlerStatus.Message_Processed_Successfully;
+        }
+    }
+}
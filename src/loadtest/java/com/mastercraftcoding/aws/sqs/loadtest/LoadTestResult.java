@@ -0,0 +1,105 @@
+package com.mastercraftcoding.aws.sqs.loadtest;
+
+import com.mastercraftcoding.aws.sqs.LatencyHistogram;
+
+import java.util.Map;
+
+/**
+ * The measurements from one load test run.  Throughput and latency cover only the measurement window, after the
+ * warm-up period; latencies are end-to-end, from the time a message was due to be sent until a handler started
+ * processing it.
+ */
+public class LoadTestResult {
+
+    private final LoadTestConfiguration configuration;
+    private final double measuredSeconds;
+    private final long sentCount;
+    private final long receivedCount;
+    private final long sendFailureCount;
+    private final long backlogAtEnd;
+    private final long undeliveredAfterDrain;
+    private final LatencyHistogram latencyMicros;
+    private final Map<String, Long> apiCallCounts;
+    private final long totalApiCalls;
+
+    public LoadTestResult(LoadTestConfiguration configuration, double measuredSeconds, long sentCount, long receivedCount,
+                          long sendFailureCount, long backlogAtEnd, long undeliveredAfterDrain,
+                          LatencyHistogram latencyMicros, Map<String, Long> apiCallCounts, long totalApiCalls) {
+        this.configuration = configuration;
+        this.measuredSeconds = measuredSeconds;
+        this.sentCount = sentCount;
+        this.receivedCount = receivedCount;
+        this.sendFailureCount = sendFailureCount;
+        this.backlogAtEnd = backlogAtEnd;
+        this.undeliveredAfterDrain = undeliveredAfterDrain;
+        this.latencyMicros = latencyMicros;
+        this.apiCallCounts = apiCallCounts;
+        this.totalApiCalls = totalApiCalls;
+    }
+
+    public double getSendThroughput() {
+        return sentCount / measuredSeconds;
+    }
+
+    public double getReceiveThroughput() {
+        return receivedCount / measuredSeconds;
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    public long getSendFailureCount() {
+        return sendFailureCount;
+    }
+
+    /**
+     * The number of messages sent but not yet handled when the measurement window closed.  A backlog that is large
+     * relative to the send rate means the consumers could not keep up, i.e. the send rate was not sustainable.
+     */
+    public long getBacklogAtEnd() {
+        return backlogAtEnd;
+    }
+
+    public long getUndeliveredAfterDrain() {
+        return undeliveredAfterDrain;
+    }
+
+    public LatencyHistogram getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    public Map<String, Long> getApiCallCounts() {
+        return apiCallCounts;
+    }
+
+    public double getApiCallsPerMessage() {
+        return receivedCount > 0 ? (double) totalApiCalls / receivedCount : 0.0;
+    }
+
+    @Override
+    public String toString() {
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Load test: %1$s%n", configuration));
+        report.append(String.format("  measured        %1$.1f s%n", measuredSeconds));
+        report.append(String.format("  sent            %1$d (%2$.1f msg/s, %3$d failed)%n", sentCount, getSendThroughput(), sendFailureCount));
+        report.append(String.format("  handled         %1$d (%2$.1f msg/s)%n", receivedCount, getReceiveThroughput()));
+        report.append(String.format("  backlog at end  %1$d, undelivered after drain %2$d%n", backlogAtEnd, undeliveredAfterDrain));
+        report.append(String.format("  latency (ms)    p50 %1$.2f  p99 %2$.2f  p99.9 %3$.2f  max %4$.2f  mean %5$.2f%n",
+                latencyMicros.getValueAtPercentile(50.0) / 1000.0,
+                latencyMicros.getValueAtPercentile(99.0) / 1000.0,
+                latencyMicros.getValueAtPercentile(99.9) / 1000.0,
+                latencyMicros.getMax() / 1000.0,
+                latencyMicros.getMean() / 1000.0));
+        report.append(String.format("  api calls       %1$.3f per handled message%n", getApiCallsPerMessage()));
+        for( Map.Entry<String, Long> nextCount : apiCallCounts.entrySet() ) {
+            report.append(String.format("    %1$-28s %2$d%n", nextCount.getKey(), nextCount.getValue()));
+        }
+        return report.toString();
+    }
+}
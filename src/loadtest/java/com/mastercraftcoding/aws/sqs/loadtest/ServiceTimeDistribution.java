@@ -0,0 +1,56 @@
+package com.mastercraftcoding.aws.sqs.loadtest;
+
+import java.util.Random;
+
+/**
+ * The distribution of the simulated time a message handler spends on each message.
+ */
+public enum ServiceTimeDistribution {
+
+    /**
+     * Every message takes exactly the mean service time.
+     */
+    Fixed,
+
+    /**
+     * Service times are spread evenly between zero and twice the mean.
+     */
+    Uniform,
+
+    /**
+     * Service times follow an exponential distribution with the given mean, as for independent arrivals.
+     */
+    Exponential,
+
+    /**
+     * Service times follow a log-normal distribution with the given mean and a long right tail, which is typical
+     * of handlers that call other services.
+     */
+    LogNormal;
+
+    private static final double LOG_NORMAL_SIGMA = 1.0;
+
+    /**
+     * Returns a service time, in microseconds, drawn from this distribution.
+     */
+    public long sampleMicros(long meanMicros, Random random) {
+
+        if( meanMicros <= 0 ) {
+            return 0;
+        }
+
+        switch( this ) {
+            case Uniform:
+                return (long) (random.nextDouble() * 2.0 * meanMicros);
+            case Exponential:
+                return (long) (-Math.log(1.0 - random.nextDouble()) * meanMicros);
+            case LogNormal:
+                // Choose mu so that the mean of the distribution equals meanMicros.
+                double mu = Math.log(meanMicros) - (LOG_NORMAL_SIGMA * LOG_NORMAL_SIGMA) / 2.0;
+                return (long) Math.exp(mu + LOG_NORMAL_SIGMA * random.nextGaussian());
+            case Fixed:
+            default:
+                return meanMicros;
+        }
+    }
+}
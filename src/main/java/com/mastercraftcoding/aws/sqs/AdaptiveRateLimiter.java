@@ -0,0 +1,118 @@
+package com.mastercraftcoding.aws.sqs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An additive-increase/multiplicative-decrease rate limiter.  Every throttling response cuts the permitted rate by
+ * decreaseFactor, and the rate then grows back by increasePerSecond for every second without throttling, so senders
+ * settle just below the rate SQS is willing to accept.
+ * <p>
+ * The limiter does not limit anything until it is first throttled (unless a maximum rate is given); the first cut is
+ * taken from the rate actually being sent at the time.  Permits are paced evenly rather than released in bursts.
+ */
+/* package */ final class AdaptiveRateLimiter {
+
+    // Throttling responses arriving within this interval of a cut are part of the same congestion event.
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long OBSERVATION_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double minRatePerSecond;
+    private final double maxRatePerSecond;
+    private final double increasePerSecond;
+    private final double decreaseFactor;
+
+    private double ratePerSecond;
+    private long nextPermitNanos;
+    private long lastIncreaseNanos;
+    private long lastDecreaseNanos;
+
+    // The rate actually requested, measured over the last complete window.
+    private long windowStartNanos;
+    private long windowCount;
+    private double observedRatePerSecond;
+
+    /**
+     * @param maxRatePerSecond the highest rate ever permitted, or zero for no maximum.
+     */
+    /* package */ AdaptiveRateLimiter(double minRatePerSecond, double maxRatePerSecond, double increasePerSecond, double decreaseFactor) {
+        this.minRatePerSecond = minRatePerSecond;
+        this.maxRatePerSecond = maxRatePerSecond > 0 ? maxRatePerSecond : Double.POSITIVE_INFINITY;
+        this.increasePerSecond = increasePerSecond;
+        this.decreaseFactor = decreaseFactor;
+        this.ratePerSecond = this.maxRatePerSecond;
+        this.windowStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until the caller may make its next request.
+     */
+    /* package */ void acquire() {
+
+        long permitNanos;
+        synchronized (this) {
+            long nowNanos = System.nanoTime();
+            observe(nowNanos);
+            if( Double.isInfinite(ratePerSecond) ) {
+                return;
+            }
+
+            permitNanos = Math.max(nowNanos, nextPermitNanos);
+            nextPermitNanos = permitNanos + (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        }
+
+        long waitNanos;
+        while( (waitNanos = permitNanos - System.nanoTime()) > 0 ) {
+            LockSupport.parkNanos(waitNanos);
+            if( Thread.currentThread().isInterrupted() ) {
+                return;
+            }
+        }
+    }
+
+    /* package */ synchronized void onSuccess() {
+        if( Double.isInfinite(ratePerSecond) ) {
+            return;
+        }
+
+        long nowNanos = System.nanoTime();
+        double elapsedSeconds = (nowNanos - lastIncreaseNanos) / 1e9;
+        lastIncreaseNanos = nowNanos;
+        ratePerSecond = Math.min(maxRatePerSecond, ratePerSecond + increasePerSecond * elapsedSeconds);
+    }
+
+    /* package */ synchronized void onThrottle() {
+
+        long nowNanos = System.nanoTime();
+        boolean unlimited = Double.isInfinite(ratePerSecond);
+        if( !unlimited && nowNanos - lastDecreaseNanos < DECREASE_INTERVAL_NANOS ) {
+            return;
+        }
+
+        double currentRate = unlimited ? currentObservedRate(nowNanos) : ratePerSecond;
+        ratePerSecond = Math.max(minRatePerSecond, currentRate * decreaseFactor);
+        lastDecreaseNanos = nowNanos;
+        lastIncreaseNanos = nowNanos;
+    }
+
+    /**
+     * Returns the permitted rate, or infinity while the limiter is not limiting.
+     */
+    /* package */ synchronized double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    private void observe(long nowNanos) {
+        if( nowNanos - windowStartNanos >= OBSERVATION_WINDOW_NANOS ) {
+            observedRatePerSecond = windowCount * 1e9 / (nowNanos - windowStartNanos);
+            windowStartNanos = nowNanos;
+            windowCount = 0;
+        }
+        windowCount++;
+    }
+
+    private double currentObservedRate(long nowNanos) {
+        long elapsedNanos = Math.max(nowNanos - windowStartNanos, TimeUnit.MILLISECONDS.toNanos(1));
+        return Math.max(observedRatePerSecond, windowCount * 1e9 / elapsedNanos);
+    }
+}
@@ -0,0 +1,87 @@
+package com.mastercraftcoding.aws.sqs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of QueueManager.sendMessages() - which messages SQS accepted, which failed and why, and how many
+ * SendMessageBatch requests it took.
+ */
+public class BatchSendResult {
+
+    /**
+     * A message that was not sent.
+     */
+    public static class Failure {
+
+        private final MessageSendContext message;
+        private final String errorCode;
+        private final String errorMessage;
+        private final boolean senderFault;
+
+        /* package */ Failure(MessageSendContext message, String errorCode, String errorMessage, boolean senderFault) {
+            this.message = message;
+            this.errorCode = errorCode;
+            this.errorMessage = errorMessage;
+            this.senderFault = senderFault;
+        }
+
+        public MessageSendContext getMessage() {
+            return message;
+        }
+
+        public String getErrorCode() {
+            return errorCode;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        /**
+         * True when the message itself was at fault, so sending it again will fail again.
+         */
+        public boolean isSenderFault() {
+            return senderFault;
+        }
+    }
+
+    private final List<MessageSendContext> successful = new ArrayList<>();
+    private final List<Failure> failed = new ArrayList<>();
+    private int requestCount;
+
+    /* package */ BatchSendResult() {
+    }
+
+    public boolean isAllSuccessful() {
+        return failed.isEmpty();
+    }
+
+    public List<MessageSendContext> getSuccessful() {
+        return Collections.unmodifiableList(successful);
+    }
+
+    public List<Failure> getFailed() {
+        return Collections.unmodifiableList(failed);
+    }
+
+    /**
+     * The number of SendMessageBatch requests made.
+     */
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    /* package */ void addSuccess(MessageSendContext message) {
+        successful.add(message);
+    }
+
+    /* package */ void addFailure(MessageSendContext message, String errorCode, String errorMessage, boolean senderFault) {
+        failed.add(new Failure(message, errorCode, errorMessage, senderFault));
+    }
+
+    /* package */ void addRequest() {
+        requestCount++;
+    }
+}
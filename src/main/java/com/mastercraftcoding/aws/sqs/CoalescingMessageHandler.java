@@ -0,0 +1,42 @@
+package com.mastercraftcoding.aws.sqs;
+
+import java.util.List;
+
+/**
+ * A MessageHandler for messages that supersede one another - "entity X is now in state Y".  Its driver thread gathers
+ * messages for up to getCoalescingWindowMillis(), groups them by coalescing key and calls handleCoalescedMessages()
+ * once per key rather than handleMessage() once per message.  When that succeeds every message in the group is
+ * deleted; when it fails, none are.  During backlog catch-up this turns handler work per message into work per
+ * distinct key.
+ * <p>
+ * The window must be well inside the queue's visibility timeout, since the first messages of a window are held
+ * unhandled until it closes.
+ */
+public interface CoalescingMessageHandler extends MessageHandler {
+
+    /**
+     * Returns the key of the entity the message describes - typically read from an attribute or a JSON field - or
+     * null if the message must be handled on its own.
+     */
+    String getCoalescingKey(MessageReceiveContext messageReceiveContext);
+
+    /**
+     * How long to keep receiving before handling what has been gathered.  Zero coalesces within each receive batch
+     * only.  A window also closes when a receive comes back empty or getMaxCoalescedMessages() have been gathered.
+     */
+    default long getCoalescingWindowMillis() {
+        return 0;
+    }
+
+    default int getMaxCoalescedMessages() {
+        return 100;
+    }
+
+    /**
+     * Handles the messages received for one key, oldest first by sent timestamp.  By default only the newest is
+     * handled and the rest are discarded with it; override to merge them instead.
+     */
+    default MessageHandlerStatus handleCoalescedMessages(List<MessageReceiveContext> messages) {
+        return handleMessage(messages.get(messages.size() - 1));
+    }
+}
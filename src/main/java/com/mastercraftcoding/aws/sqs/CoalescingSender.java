@@ -0,0 +1,368 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+
+/**
+ * CoalescingSender collapses bursts of superseded messages - "entity X changed" sent dozens of times within a few
+ * milliseconds - into one.  Messages are sent with a coalescing key; while a message for the same queue and key is
+ * still waiting, a new one replaces it (or is merged into it by mergeFunction) instead of being sent as well.  Each
+ * key waits at most coalescingWindowMillis from its first message, and the survivors are sent in batches through
+ * QueueManager.sendMessages().
+ * <p>
+ * Waiting messages are kept in a striped map, each stripe with its own lock, so senders of different keys rarely
+ * contend.  Each stripe holds at most maxPendingKeys / stripeCount keys; a send that finds its stripe full sends the
+ * stripe's waiting messages itself before adding its own, which bounds memory.
+ * <p>
+ * Coalescing drops and reorders messages, so it is only offered for standard queues.
+ * <p>
+ * {@code
+ * CoalescingSender sender = CoalescingSender.builder()
+ *     .coalescingWindowMillis( 200 )
+ *     .build();
+ * sender.send( "customer-" + customerId, customerChangedMessage );
+ * }
+ */
+public class CoalescingSender implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(CoalescingSender.class);
+
+    /**
+     * coalescingWindowMillis is the longest a message waits for a newer one with the same key.
+     */
+    private long coalescingWindowMillis = 100;
+
+    /**
+     * mergeFunction combines the waiting message for a key with a newer one.  By default the newer message replaces
+     * the waiting one.
+     */
+    private BinaryOperator<MessageSendContext> mergeFunction = (waitingMessage, newerMessage) -> newerMessage;
+
+    /**
+     * maxPendingKeys bounds the number of keys with a message waiting, across every stripe.
+     */
+    private int maxPendingKeys = 10000;
+
+    /**
+     * stripeCount is the number of independently locked stripes the keys are spread over.
+     */
+    private int stripeCount = 16;
+
+    private Stripe[] stripes;
+    private Thread flusherThread;
+    private volatile boolean closed;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private CoalescingSender() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final CoalescingSender returnSender;
+
+        private Builder() {
+            this.returnSender = new CoalescingSender();
+        }
+
+        public Builder coalescingWindowMillis(long coalescingWindowMillis) {
+            returnSender.coalescingWindowMillis = coalescingWindowMillis;
+            return this;
+        }
+
+        public Builder mergeFunction(BinaryOperator<MessageSendContext> mergeFunction) {
+            returnSender.mergeFunction = mergeFunction;
+            return this;
+        }
+
+        public Builder maxPendingKeys(int maxPendingKeys) {
+            returnSender.maxPendingKeys = maxPendingKeys;
+            return this;
+        }
+
+        public Builder stripeCount(int stripeCount) {
+            returnSender.stripeCount = stripeCount;
+            return this;
+        }
+
+        public CoalescingSender build() {
+            returnSender.validate();
+            returnSender.start();
+            return returnSender;
+        }
+    }
+
+    private void validate() {
+
+        if( coalescingWindowMillis < 1 ) {
+            throw new IllegalStateException("coalescingWindowMillis must be at least 1.");
+        }
+
+        if( mergeFunction == null ) {
+            throw new IllegalStateException("mergeFunction may not be null.");
+        }
+
+        if( stripeCount < 1 ) {
+            throw new IllegalStateException("stripeCount must be at least 1.");
+        }
+
+        if( maxPendingKeys < stripeCount ) {
+            throw new IllegalStateException("maxPendingKeys must be at least stripeCount.");
+        }
+    }
+
+    private void start() {
+
+        stripes = new Stripe[stripeCount];
+        for( int i = 0 ; i < stripeCount ; i++ ) {
+            stripes[i] = new Stripe(maxPendingKeys / stripeCount);
+        }
+
+        flusherThread = new Thread(this::runFlusher, "CoalescingSender");
+        flusherThread.setDaemon(true);
+        flusherThread.start();
+    }
+
+    /**
+     * The number of messages passed to send().
+     */
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    /**
+     * The number of messages that were replaced by, or merged into, another message and so never sent on their own.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Sends a message once no newer message with the same key arrives within the coalescing window, or as soon as the
+     * window of the first waiting message for the key ends.
+     */
+    public void send(String coalescingKey, MessageSendContext message) {
+
+        if( coalescingKey == null || message == null ) {
+            throw new IllegalArgumentException("coalescingKey and message must be set.");
+        }
+        if( message.getQueueConfiguration().isFifoQueue() ) {
+            throw new IllegalArgumentException("Coalescing would drop and reorder messages in their FIFO message groups.");
+        }
+        if( closed ) {
+            throw new IllegalStateException("The CoalescingSender has been closed.");
+        }
+
+        submittedCount.incrementAndGet();
+        PendingKey pendingKey = new PendingKey(message.getQueueConfiguration(), coalescingKey);
+        Stripe stripe = stripes[Math.floorMod(pendingKey.hashCode(), stripes.length)];
+
+        List<MessageSendContext> overflowMessages = null;
+        stripe.lock.lock();
+        try {
+            PendingMessage waitingMessage = stripe.pendingMessages.get(pendingKey);
+            if( waitingMessage != null ) {
+                waitingMessage.message = mergeFunction.apply(waitingMessage.message, message);
+                coalescedCount.incrementAndGet();
+                return;
+            }
+
+            // A full stripe is emptied by the sender that finds it full.
+            if( stripe.pendingMessages.size() >= stripe.maxPendingKeys ) {
+                overflowMessages = stripe.takeDue(Long.MAX_VALUE);
+            }
+            stripe.pendingMessages.put(pendingKey, new PendingMessage(message, System.nanoTime()));
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+
+        if( overflowMessages != null ) {
+            sendAll(overflowMessages);
+        }
+    }
+
+    /**
+     * Sends every waiting message now.
+     */
+    public void flush() {
+        for( Stripe nextStripe : stripes ) {
+            sendStripe(nextStripe, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Stops accepting messages and sends every waiting message.
+     */
+    @Override
+    public void destroy() {
+
+        closed = true;
+        LockSupport.unpark(flusherThread);
+        try {
+            flusherThread.join();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+
+        flush();
+    }
+
+    private void runFlusher() {
+
+        // Check a few times per window, so no key waits much longer than the window.
+        long checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, coalescingWindowMillis / 4));
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(coalescingWindowMillis);
+
+        while( !closed ) {
+            LockSupport.parkNanos(checkIntervalNanos);
+
+            long dueBeforeNanos = System.nanoTime() - windowNanos;
+            for( Stripe nextStripe : stripes ) {
+                try {
+                    sendStripe(nextStripe, dueBeforeNanos);
+                }
+                catch( RuntimeException e ) {
+                    log.error("CoalescingSender failed to send coalesced messages", e);
+                }
+            }
+        }
+    }
+
+    private void sendStripe(Stripe stripe, long dueBeforeNanos) {
+
+        List<MessageSendContext> dueMessages;
+        stripe.lock.lock();
+        try {
+            dueMessages = stripe.takeDue(dueBeforeNanos);
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+        sendAll(dueMessages);
+    }
+
+    private void sendAll(List<MessageSendContext> messages) {
+
+        if( messages.isEmpty() ) {
+            return;
+        }
+
+        // sendMessages() batches by queue, but only for the queues of one QueueManager.
+        Map<QueueManager, List<MessageSendContext>> messagesByManager = new LinkedHashMap<>();
+        for( MessageSendContext nextMessage : messages ) {
+            messagesByManager.computeIfAbsent(nextMessage.getQueueConfiguration().getOwningQueueManager(), queueManager -> new ArrayList<>()).add(nextMessage);
+        }
+
+        for( Map.Entry<QueueManager, List<MessageSendContext>> nextManager : messagesByManager.entrySet() ) {
+            BatchSendResult result = nextManager.getKey().sendMessages(nextManager.getValue());
+            sentCount.addAndGet(result.getSuccessful().size());
+            failedCount.addAndGet(result.getFailed().size());
+
+            for( BatchSendResult.Failure nextFailure : result.getFailed() ) {
+                log.warn(String.format("Could not send a coalesced message to '%1$s': %2$s %3$s",
+                        nextFailure.getMessage().getQueueConfiguration().getQueueBaseName(), nextFailure.getErrorCode(), nextFailure.getErrorMessage()));
+            }
+        }
+    }
+
+    /**
+     * The queue and coalescing key a message waits under.
+     */
+    private static final class PendingKey {
+
+        private final QueueConfiguration queueConfiguration;
+        private final String coalescingKey;
+
+        private PendingKey(QueueConfiguration queueConfiguration, String coalescingKey) {
+            this.queueConfiguration = queueConfiguration;
+            this.coalescingKey = coalescingKey;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if( !(other instanceof PendingKey) ) {
+                return false;
+            }
+            PendingKey otherKey = (PendingKey) other;
+            return queueConfiguration == otherKey.queueConfiguration && coalescingKey.equals(otherKey.coalescingKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(queueConfiguration), coalescingKey);
+        }
+    }
+
+    private static final class PendingMessage {
+
+        private MessageSendContext message;
+        private final long firstSubmittedNanos;
+
+        private PendingMessage(MessageSendContext message, long firstSubmittedNanos) {
+            this.message = message;
+            this.firstSubmittedNanos = firstSubmittedNanos;
+        }
+    }
+
+    private static final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int maxPendingKeys;
+
+        // In the order each key's first message arrived - replacing a message keeps its place.
+        private final LinkedHashMap<PendingKey, PendingMessage> pendingMessages = new LinkedHashMap<>();
+
+        private Stripe(int maxPendingKeys) {
+            this.maxPendingKeys = maxPendingKeys;
+        }
+
+        /**
+         * Removes and returns the messages whose first message arrived before dueBeforeNanos.  Called with the lock
+         * held.
+         */
+        private List<MessageSendContext> takeDue(long dueBeforeNanos) {
+
+            List<MessageSendContext> dueMessages = new ArrayList<>();
+            Iterator<Map.Entry<PendingKey, PendingMessage>> entryIterator = pendingMessages.entrySet().iterator();
+            while( entryIterator.hasNext() ) {
+                PendingMessage nextMessage = entryIterator.next().getValue();
+                if( dueBeforeNanos != Long.MAX_VALUE && nextMessage.firstSubmittedNanos - dueBeforeNanos > 0 ) {
+                    break;
+                }
+                dueMessages.add(nextMessage.message);
+                entryIterator.remove();
+            }
+            return dueMessages;
+        }
+    }
+}
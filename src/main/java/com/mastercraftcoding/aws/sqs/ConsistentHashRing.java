@@ -0,0 +1,62 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.utility.HashUtility;
+
+import java.util.Arrays;
+
+/**
+ * ConsistentHashRing maps routing keys onto a fixed number of shards.  Each shard is placed on the ring at many
+ * "virtual node" positions so that keys are spread evenly, and a given key always maps to the same shard for a
+ * given shard count and ring name.
+ */
+/* package */ class ConsistentHashRing {
+
+    private static final int VIRTUAL_NODES_PER_SHARD = 128;
+
+    private final long[] ringPositions;
+    private final int[] ringShards;
+
+    /* package */ ConsistentHashRing(String ringName, int shardCount) {
+
+        if( shardCount <= 0 ) {
+            throw new IllegalArgumentException("shardCount must be greater than zero.");
+        }
+
+        int pointCount = shardCount * VIRTUAL_NODES_PER_SHARD;
+        long[] positions = new long[pointCount];
+        Integer[] order = new Integer[pointCount];
+
+        // Hash every virtual node, then sort the virtual nodes by their position around the ring.
+        for( int point = 0 ; point < pointCount ; point++ ) {
+            int shard = point / VIRTUAL_NODES_PER_SHARD;
+            int virtualNode = point % VIRTUAL_NODES_PER_SHARD;
+            positions[point] = HashUtility.hash64(ringName + "#" + shard + "#" + virtualNode);
+            order[point] = point;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(positions[a], positions[b]));
+
+        this.ringPositions = new long[pointCount];
+        this.ringShards = new int[pointCount];
+        for( int i = 0 ; i < pointCount ; i++ ) {
+            int point = order[i];
+            this.ringPositions[i] = positions[point];
+            this.ringShards[i] = point / VIRTUAL_NODES_PER_SHARD;
+        }
+    }
+
+    /* package */ int shardFor(CharSequence routingKey) {
+
+        long keyPosition = HashUtility.hash64(routingKey);
+
+        // Find the first virtual node at or after the key's position, wrapping around the ring.
+        int index = Arrays.binarySearch(ringPositions, keyPosition);
+        if( index < 0 ) {
+            index = -index - 1;
+        }
+        if( index == ringPositions.length ) {
+            index = 0;
+        }
+
+        return ringShards[index];
+    }
+}
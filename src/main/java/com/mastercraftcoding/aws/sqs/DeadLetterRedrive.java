@@ -0,0 +1,347 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * DeadLetterRedrive carries out one RedriveRequest.  Each worker thread receives batches of ten from a dead letter
+ * queue, sends the messages its filters accept to the target queue with SendMessageBatch and deletes the ones that
+ * were sent with DeleteMessageBatch, until the dead letter queue comes back empty.
+ * <p>
+ * A message is deleted only after the target queue has accepted it, so a failure part way leaves a message in both
+ * queues rather than in neither.
+ */
+/* package */ final class DeadLetterRedrive {
+
+    private static final Logger log = LoggerFactory.getLogger(DeadLetterRedrive.class);
+
+    // A worker stops after this many empty long polls in a row.
+    private static final int EMPTY_RECEIVES_TO_FINISH = 2;
+    private static final int RECEIVE_WAIT_TIME_SECONDS = 1;
+
+    private final QueueManager queueManager;
+    private final RedriveRequest request;
+    private final SqsClient sqsClient;
+    private final AdaptiveRateLimiter rateLimiter;
+
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong matchedCount = new AtomicLong();
+    private final AtomicLong movedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong remainingMessages;
+    private final AtomicReference<RuntimeException> workerFailure = new AtomicReference<>();
+    private volatile boolean stopped;
+
+    private final long startNanos = System.nanoTime();
+    private long lastProgressNanos = startNanos;
+
+    /* package */ DeadLetterRedrive(QueueManager queueManager, RedriveRequest request) {
+        this.queueManager = queueManager;
+        this.request = request;
+        this.sqsClient = queueManager.SqsClient();
+        this.rateLimiter = request.getMaxMessagesPerSecond() > 0 ?
+                new AdaptiveRateLimiter(request.getMaxMessagesPerSecond(), request.getMaxMessagesPerSecond(), 0, 1.0) : null;
+        this.remainingMessages = new AtomicLong(request.getMaxMessages() > 0 ? request.getMaxMessages() : Long.MAX_VALUE);
+    }
+
+    /**
+     * Runs the redrive on request.getParallelism() threads and waits for it to finish.
+     */
+    /* package */ RedriveResult run() {
+
+        // A sharded queue has a dead letter queue per shard; the workers share them out.
+        QueueConfiguration sourceQueue = request.getSourceQueue();
+        List<QueueConfiguration> sourceShards = sourceQueue.isSharded() ? sourceQueue.getShards() : Collections.singletonList(sourceQueue);
+
+        List<Thread> workerThreads = new ArrayList<>(request.getParallelism());
+        for( int workerOffset = 0 ; workerOffset < request.getParallelism() ; workerOffset++ ) {
+
+            List<QueueConfiguration> workerShards = new ArrayList<>();
+            for( int shardOffset = workerOffset % sourceShards.size() ; shardOffset < sourceShards.size() ; shardOffset += request.getParallelism() ) {
+                workerShards.add(sourceShards.get(shardOffset));
+            }
+
+            String threadName = "Redrive - " + queueManager.fullDeadLetterQueueName(sourceQueue) + " - " + (workerOffset + 1);
+            Thread workerThread = new Thread(() -> runWorker(workerShards), threadName);
+            workerThread.setDaemon(true);
+            workerThreads.add(workerThread);
+            workerThread.start();
+        }
+
+        for( Thread nextThread : workerThreads ) {
+            try {
+                nextThread.join();
+            }
+            catch( InterruptedException e ) {
+                // Stop the workers, and report what was done so far.
+                stopped = true;
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        RuntimeException failure = workerFailure.get();
+        if( failure != null ) {
+            throw failure;
+        }
+
+        RedriveResult result = snapshot(true);
+        if( request.getProgressListener() != null ) {
+            synchronized (this) {
+                request.getProgressListener().onProgress(result);
+            }
+        }
+        return result;
+    }
+
+    private void runWorker(List<QueueConfiguration> sourceShards) {
+        try {
+            for( QueueConfiguration nextShard : sourceShards ) {
+                redriveShard(nextShard);
+            }
+        }
+        catch( RuntimeException e ) {
+            workerFailure.compareAndSet(null, e);
+            stopped = true;
+        }
+    }
+
+    private void redriveShard(QueueConfiguration sourceShard) {
+
+        QueueCallController sourceCallController = sourceShard.getSystemConfiguration().getCallController();
+        ReceiveMessageRequest receiveMessageRequest = ReceiveMessageRequest.builder()
+                .queueUrl(sourceShard.getQueueDeadLetterUrl())
+                .maxNumberOfMessages(10)
+                .waitTimeSeconds(RECEIVE_WAIT_TIME_SECONDS)
+                .visibilityTimeout(request.getVisibilityTimeoutSeconds())
+                .attributeNamesWithStrings("All")
+                .messageAttributeNames("All")
+                .build();
+
+        int emptyReceives = 0;
+        while( !stopped && remainingMessages.get() > 0 && emptyReceives < EMPTY_RECEIVES_TO_FINISH ) {
+
+            List<Message> messages = sourceCallController.call(() -> sqsClient.receiveMessage(receiveMessageRequest)).messages();
+            if( messages == null || messages.isEmpty() ) {
+                emptyReceives++;
+                continue;
+            }
+            emptyReceives = 0;
+            receivedCount.addAndGet(messages.size());
+
+            // Filter the batch - messages that are not moved stay hidden for the rest of the redrive.
+            long receiveTimestamp = System.currentTimeMillis();
+            List<Message> matchedMessages = new ArrayList<>(messages.size());
+            for( Message nextMessage : messages ) {
+                if( request.accepts(MessageReceiveContext.fromSdkMessage(nextMessage, sourceShard, receiveTimestamp)) ) {
+                    matchedMessages.add(nextMessage);
+                }
+            }
+
+            // Take no more than maxMessages allows, and hand the rest straight back.
+            int allowedCount = reserve(matchedMessages.size());
+            if( allowedCount < matchedMessages.size() ) {
+                release(sourceShard, matchedMessages.subList(allowedCount, matchedMessages.size()));
+                matchedMessages = matchedMessages.subList(0, allowedCount);
+            }
+            matchedCount.addAndGet(matchedMessages.size());
+
+            if( !request.isDryRun() && !matchedMessages.isEmpty() ) {
+                moveMessages(sourceShard, matchedMessages);
+            }
+
+            reportProgress();
+        }
+    }
+
+    private int reserve(int messageCount) {
+        while( true ) {
+            long remaining = remainingMessages.get();
+            int allowedCount = (int) Math.min(remaining, messageCount);
+            if( remainingMessages.compareAndSet(remaining, remaining - allowedCount) ) {
+                return allowedCount;
+            }
+        }
+    }
+
+    private void moveMessages(QueueConfiguration sourceShard, List<Message> messages) {
+
+        if( rateLimiter != null ) {
+            for( int i = 0 ; i < messages.size() ; i++ ) {
+                rateLimiter.acquire();
+            }
+        }
+
+        // A sharded target routes each message to its shard; redriving a sharded queue to itself returns each message
+        // to the shard it came from.
+        QueueConfiguration targetQueue = request.getTargetQueue();
+        Map<QueueConfiguration, List<Message>> messagesByTarget = new LinkedHashMap<>();
+        for( Message nextMessage : messages ) {
+            QueueConfiguration nextTarget;
+            if( targetQueue == request.getSourceQueue() ) {
+                nextTarget = sourceShard;
+            }
+            else if( targetQueue.isSharded() ) {
+                String groupId = nextMessage.attributesAsStrings().get(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString());
+                nextTarget = targetQueue.shardFor(groupId != null ? groupId : nextMessage.messageId());
+            }
+            else {
+                nextTarget = targetQueue;
+            }
+            messagesByTarget.computeIfAbsent(nextTarget, queue -> new ArrayList<>()).add(nextMessage);
+        }
+
+        List<Message> sentMessages = new ArrayList<>(messages.size());
+        for( Map.Entry<QueueConfiguration, List<Message>> nextTarget : messagesByTarget.entrySet() ) {
+            sentMessages.addAll(sendMessages(nextTarget.getKey(), nextTarget.getValue()));
+        }
+
+        if( !sentMessages.isEmpty() ) {
+            deleteMessages(sourceShard, sentMessages);
+        }
+    }
+
+    /**
+     * Sends the messages to the target queue, returning the ones it accepted.
+     */
+    private List<Message> sendMessages(QueueConfiguration targetQueue, List<Message> messages) {
+
+        // Entries are identified by their position in the batch.
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(messages.size());
+        for( Message nextMessage : messages ) {
+            SendMessageBatchRequestEntry.Builder entryBuilder = SendMessageBatchRequestEntry.builder()
+                    .id(Integer.toString(entries.size()))
+                    .messageBody(nextMessage.body())
+                    .messageAttributes(nextMessage.messageAttributes());
+
+            // The dead letter message id is unique, and the same on a retry, so it makes a good de-duplication id.
+            if( targetQueue.isFifoQueue() ) {
+                entryBuilder.messageGroupId(nextMessage.attributesAsStrings().get(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString()));
+                entryBuilder.messageDeduplicationId(nextMessage.messageId());
+            }
+            entries.add(entryBuilder.build());
+        }
+
+        SendMessageBatchRequest sendMessageBatchRequest = SendMessageBatchRequest.builder()
+                .queueUrl(targetQueue.getQueueUrl())
+                .entries(entries)
+                .build();
+
+        SendMessageBatchResponse sendMessageBatchResponse;
+        try {
+            sendMessageBatchResponse = targetQueue.getSystemConfiguration().getCallController()
+                    .send(() -> sqsClient.sendMessageBatch(sendMessageBatchRequest));
+        }
+        catch( SdkException e ) {
+            log.warn(String.format("Failed to redrive %1$d messages to %2$s: %3$s", messages.size(), targetQueue.getQueueUrl(), e.getMessage()));
+            failedCount.addAndGet(messages.size());
+            return new ArrayList<>();
+        }
+
+        List<Message> sentMessages = new ArrayList<>(messages.size());
+        for( SendMessageBatchResultEntry nextResult : sendMessageBatchResponse.successful() ) {
+            sentMessages.add(messages.get(Integer.parseInt(nextResult.id())));
+        }
+        if( !sendMessageBatchResponse.failed().isEmpty() ) {
+            failedCount.addAndGet(sendMessageBatchResponse.failed().size());
+            if( log.isWarnEnabled() ) {
+                BatchResultErrorEntry firstFailure = sendMessageBatchResponse.failed().get(0);
+                log.warn(String.format("Failed to redrive %1$d messages to %2$s: %3$s %4$s", sendMessageBatchResponse.failed().size(),
+                        targetQueue.getQueueUrl(), firstFailure.code(), firstFailure.message()));
+            }
+        }
+        return sentMessages;
+    }
+
+    private void deleteMessages(QueueConfiguration sourceShard, List<Message> messages) {
+
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(messages.size());
+        for( Message nextMessage : messages ) {
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(Integer.toString(entries.size()))
+                    .receiptHandle(nextMessage.receiptHandle())
+                    .build());
+        }
+
+        DeleteMessageBatchRequest deleteMessageBatchRequest = DeleteMessageBatchRequest.builder()
+                .queueUrl(sourceShard.getQueueDeadLetterUrl())
+                .entries(entries)
+                .build();
+
+        // A message that was sent but not deleted will be redriven again - count it as failed, not moved.
+        int deleteFailures;
+        try {
+            deleteFailures = sourceShard.getSystemConfiguration().getCallController()
+                    .call(() -> sqsClient.deleteMessageBatch(deleteMessageBatchRequest)).failed().size();
+        }
+        catch( SdkException e ) {
+            log.warn(String.format("Failed to delete %1$d redriven messages from %2$s: %3$s", messages.size(), sourceShard.getQueueDeadLetterUrl(), e.getMessage()));
+            deleteFailures = messages.size();
+        }
+
+        movedCount.addAndGet(messages.size() - deleteFailures);
+        failedCount.addAndGet(deleteFailures);
+    }
+
+    /**
+     * Makes messages this redrive will not move visible again straight away.
+     */
+    private void release(QueueConfiguration sourceShard, List<Message> messages) {
+
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(messages.size());
+        for( Message nextMessage : messages ) {
+            entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                    .id(Integer.toString(entries.size()))
+                    .receiptHandle(nextMessage.receiptHandle())
+                    .visibilityTimeout(0)
+                    .build());
+        }
+
+        ChangeMessageVisibilityBatchRequest changeMessageVisibilityBatchRequest = ChangeMessageVisibilityBatchRequest.builder()
+                .queueUrl(sourceShard.getQueueDeadLetterUrl())
+                .entries(entries)
+                .build();
+
+        // Not worth failing the redrive over - the messages reappear after the visibility timeout anyway.
+        try {
+            sourceShard.getSystemConfiguration().getCallController()
+                    .call(() -> sqsClient.changeMessageVisibilityBatch(changeMessageVisibilityBatchRequest));
+        }
+        catch( SdkException e ) {
+            log.warn(String.format("Failed to release %1$d messages in %2$s: %3$s", messages.size(), sourceShard.getQueueDeadLetterUrl(), e.getMessage()));
+        }
+    }
+
+    private void reportProgress() {
+        RedriveProgressListener progressListener = request.getProgressListener();
+        if( progressListener == null ) {
+            return;
+        }
+
+        synchronized (this) {
+            long nowNanos = System.nanoTime();
+            if( nowNanos - lastProgressNanos < TimeUnit.MILLISECONDS.toNanos(request.getProgressIntervalMillis()) ) {
+                return;
+            }
+            lastProgressNanos = nowNanos;
+            progressListener.onProgress(snapshot(false));
+        }
+    }
+
+    private RedriveResult snapshot(boolean complete) {
+        return new RedriveResult(request.isDryRun(), complete, receivedCount.get(), matchedCount.get(), movedCount.get(),
+                failedCount.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+}
@@ -0,0 +1,206 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.utility.MessageSizeUtility;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EnvelopePacker collects the logical messages sent to one physical queue into envelopes.  An envelope is sent as
+ * soon as the next message would take it past envelopeMaxBytes, or once its first message has waited
+ * envelopeLingerMillis, whichever comes first.  A message too large to share an envelope is left to be sent on its
+ * own.
+ * <p>
+ * A full envelope is sent on the thread whose message filled it; lingering envelopes are sent by the QueueManager's
+ * envelope flusher.  Each message added gets a future that completes once its envelope has been sent, or fails with
+ * the envelope's error, so no message is reported sent before SQS (or the spool) has accepted it.
+ * @see MessageEnvelope
+ */
+/* package */ class EnvelopePacker {
+
+    private static final Logger log = LoggerFactory.getLogger(EnvelopePacker.class);
+
+    // Room for the EnvelopeCount attribute's name, data type and value.
+    private static final int ENVELOPE_ATTRIBUTE_BYTES = 32;
+
+    private final QueueConfiguration targetQueue;
+    private final ScheduledExecutorService flushExecutor;
+    private final int maxBodyBytes;
+    private final long lingerMillis;
+
+    private List<String> pendingEntries = new ArrayList<>();
+    private List<CompletableFuture<Void>> pendingCompletions = new ArrayList<>();
+    private int pendingBodyBytes;
+
+    // Bumped each time the pending envelope is taken, so a linger flush scheduled for an envelope that has already
+    // been sent does nothing.
+    private long envelopeGeneration;
+
+    /* package */ EnvelopePacker(QueueConfiguration targetQueue, ScheduledExecutorService flushExecutor) {
+        this.targetQueue = targetQueue;
+        this.flushExecutor = flushExecutor;
+        this.maxBodyBytes = targetQueue.getEnvelopeMaxBytes() - ENVELOPE_ATTRIBUTE_BYTES;
+        this.lingerMillis = targetQueue.getEnvelopeLingerMillis();
+    }
+
+    /**
+     * Adds the message to the pending envelope, sending the envelope first if the message would overfill it.
+     * Returns a future that completes when the message's envelope has been sent, or null, without adding it, if the
+     * message is too large to share an envelope.
+     */
+    /* package */ CompletableFuture<Void> add(MessageSendContext message) {
+
+        Map<String, MessageAttributeValue> attributes = new HashMap<>();
+        for( String nextAttributeName : message.getCustomAttributeNames() ) {
+            attributes.put(nextAttributeName, message.getCustomAttribute(nextAttributeName));
+        }
+        String entry = MessageEnvelope.encodeEntry(message.getMessageText(), attributes);
+
+        // Two bytes for the brackets around the entries.
+        int entryBytes = MessageSizeUtility.utf8Length(entry);
+        if( entryBytes + 2 > maxBodyBytes ) {
+            return null;
+        }
+
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        PendingEnvelope fullEnvelope = null;
+        synchronized (this) {
+            // Every entry after the first is preceded by a comma.
+            if( !pendingEntries.isEmpty() && pendingBodyBytes + 1 + entryBytes > maxBodyBytes ) {
+                fullEnvelope = takePending();
+            }
+
+            if( pendingEntries.isEmpty() ) {
+                long flushGeneration = envelopeGeneration;
+                flushExecutor.schedule(() -> lingerFlush(flushGeneration), lingerMillis, TimeUnit.MILLISECONDS);
+                pendingBodyBytes = 2 + entryBytes;
+            }
+            else {
+                pendingBodyBytes += 1 + entryBytes;
+            }
+            pendingEntries.add(entry);
+            pendingCompletions.add(sent);
+        }
+
+        // The message that filled the envelope is already in the next one; the full envelope's senders hear how it went.
+        if( fullEnvelope != null ) {
+            sendPacked(fullEnvelope);
+        }
+        return sent;
+    }
+
+    /**
+     * Waits for a message's envelope to be sent, throwing the envelope's error if it could not be.
+     */
+    /* package */ static void awaitSent(CompletableFuture<Void> sent) {
+        try {
+            sent.join();
+        }
+        catch( CompletionException e ) {
+            if( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the pending envelope now, if there is one.
+     */
+    /* package */ void flush() {
+
+        PendingEnvelope pendingEnvelope;
+        synchronized (this) {
+            pendingEnvelope = takePending();
+        }
+        if( !pendingEnvelope.entries.isEmpty() ) {
+            sendPacked(pendingEnvelope);
+        }
+    }
+
+    /**
+     * Sends the encoded entries as one envelope, straight away.  The entries are expected to fit.
+     */
+    /* package */ void sendEnvelope(List<String> encodedEntries) {
+
+        SendMessageRequest sendMessageRequest = SendMessageRequest.builder()
+                .queueUrl(targetQueue.getQueueUrl())
+                .messageBody(MessageEnvelope.envelopeBody(encodedEntries))
+                .messageAttributes(Collections.singletonMap(MessageEnvelope.ENVELOPE_ATTRIBUTE,
+                        MessageAttributeValue.builder().dataType("Number").stringValue(Integer.toString(encodedEntries.size())).build()))
+                .build();
+
+        // A spooled send is complete once the envelope is on local disk.
+        if( targetQueue.isSpoolSends() ) {
+            targetQueue.getOwningQueueManager().sendSpool().append(sendMessageRequest);
+            return;
+        }
+
+        targetQueue.getSystemConfiguration().getCallController()
+                .send(() -> targetQueue.getOwningQueueManager().SqsClient().sendMessage(sendMessageRequest));
+    }
+
+    private void lingerFlush(long flushGeneration) {
+
+        PendingEnvelope pendingEnvelope;
+        synchronized (this) {
+            if( flushGeneration != envelopeGeneration || pendingEntries.isEmpty() ) {
+                return;
+            }
+            pendingEnvelope = takePending();
+        }
+        sendPacked(pendingEnvelope);
+    }
+
+    private void sendPacked(PendingEnvelope envelope) {
+        try {
+            sendEnvelope(envelope.entries);
+        }
+        catch( RuntimeException e ) {
+            if( log.isWarnEnabled() ) {
+                log.warn(String.format("Could not send an envelope of %1$d messages to '%2$s': %3$s", envelope.entries.size(), targetQueue.getQueueBaseName(), e.getMessage()));
+            }
+            for( CompletableFuture<Void> nextCompletion : envelope.completions ) {
+                nextCompletion.completeExceptionally(e);
+            }
+            return;
+        }
+        for( CompletableFuture<Void> nextCompletion : envelope.completions ) {
+            nextCompletion.complete(null);
+        }
+    }
+
+    /**
+     * Removes and returns the pending envelope.  Called with the lock held.
+     */
+    private PendingEnvelope takePending() {
+        PendingEnvelope takenEnvelope = new PendingEnvelope(pendingEntries, pendingCompletions);
+        pendingEntries = new ArrayList<>();
+        pendingCompletions = new ArrayList<>();
+        pendingBodyBytes = 0;
+        envelopeGeneration++;
+        return takenEnvelope;
+    }
+
+    private static final class PendingEnvelope {
+
+        private final List<String> entries;
+        private final List<CompletableFuture<Void>> completions;
+
+        private PendingEnvelope(List<String> entries, List<CompletableFuture<Void>> completions) {
+            this.entries = entries;
+            this.completions = completions;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.mastercraftcoding.aws.sqs;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Jittered exponential back-off.  Each delay is half of the current ceiling plus a random share of the other half,
+ * and the ceiling doubles up to maxDelayMillis.  The fixed half guarantees a failing caller always slows down, and
+ * the random half keeps callers that failed together from retrying together.
+ * <p>
+ * Instances are not thread safe; each retrying caller uses its own.
+ */
+/* package */ final class ExponentialBackoff {
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private long ceilingMillis;
+
+    /* package */ ExponentialBackoff(long initialDelayMillis, long maxDelayMillis) {
+        if( initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis ) {
+            throw new IllegalArgumentException("initialDelayMillis must be greater than zero and no more than maxDelayMillis.");
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /* package */ long nextDelayMillis() {
+        ceilingMillis = ceilingMillis == 0 ? initialDelayMillis : Math.min(ceilingMillis * 2, maxDelayMillis);
+        long halfCeiling = ceilingMillis / 2;
+        return ceilingMillis - halfCeiling + ThreadLocalRandom.current().nextLong(halfCeiling + 1);
+    }
+
+    /* package */ void reset() {
+        ceilingMillis = 0;
+    }
+}
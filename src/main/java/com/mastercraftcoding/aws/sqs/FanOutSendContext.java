@@ -0,0 +1,247 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.utility.HashUtility;
+import com.mastercraftcoding.aws.sqs.utility.MessageSizeUtility;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A single message published to several queues at once.  The message is encoded once and sent to every queue in
+ * parallel, so publishing an event to fifteen queues takes about as long as sending it to one.
+ */
+public class FanOutSendContext {
+
+    private final List<QueueConfiguration> queueConfigurations = new ArrayList<>();
+
+    private String messageFifoDeduplicationId;
+    private String messageFifoGroupId;
+    private String shardKey;
+    private String messageText;
+    private int messageDelaySeconds;
+    private final HashMap<String, MessageAttributeValue> customAttributes = new HashMap<>();
+
+    // The encoded entries, shared by every queue of the same kind.
+    private SendMessageBatchRequestEntry standardEntry;
+    private SendMessageBatchRequestEntry fifoEntry;
+
+    private FanOutSendContext() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final FanOutSendContext fanOutSendContext;
+
+        private Builder() {
+            this.fanOutSendContext = new FanOutSendContext();
+        }
+
+        /**
+         * Adds a queue to send the message to.  Adding the same queue twice sends the message once.
+         */
+        public Builder queueConfiguration(QueueConfiguration queueConfiguration) {
+            if( !fanOutSendContext.queueConfigurations.contains(queueConfiguration) ) {
+                fanOutSendContext.queueConfigurations.add(queueConfiguration);
+            }
+            return this;
+        }
+
+        public Builder queueConfigurations(Collection<QueueConfiguration> queueConfigurations) {
+            for( QueueConfiguration nextQueueConfiguration : queueConfigurations ) {
+                queueConfiguration(nextQueueConfiguration);
+            }
+            return this;
+        }
+
+        public Builder messageFifoDeduplicationId(String messageFifoDeduplicationId) {
+            fanOutSendContext.messageFifoDeduplicationId = messageFifoDeduplicationId;
+            return this;
+        }
+
+        /**
+         * Sets the message group id, which must be set when any of the queues is a FIFO queue.  It is ignored by
+         * standard queues.
+         */
+        public Builder messageFifoGroupId(String messageFifoGroupId) {
+            fanOutSendContext.messageFifoGroupId = messageFifoGroupId;
+            return this;
+        }
+
+        /**
+         * Sets the key used to pick a shard of each sharded queue, as for MessageSendContext.
+         */
+        public Builder shardKey(String shardKey) {
+            fanOutSendContext.shardKey = shardKey;
+            return this;
+        }
+
+        public Builder messageText(String messageText) {
+            fanOutSendContext.messageText = messageText;
+            return this;
+        }
+
+        public Builder messageDelaySeconds(int messageDelaySeconds) {
+            fanOutSendContext.messageDelaySeconds = messageDelaySeconds;
+            return this;
+        }
+
+        public Builder customAttribute(String name, MessageAttributeValue value) {
+            fanOutSendContext.customAttributes.put(name, value);
+            return this;
+        }
+
+        public Builder customAttributes(Map<String, MessageAttributeValue> attributes) {
+            fanOutSendContext.customAttributes.putAll(attributes);
+            return this;
+        }
+
+        public FanOutSendContext build() {
+
+            if( fanOutSendContext.queueConfigurations.isEmpty() ) {
+                throw new IllegalStateException("At least one queueConfiguration must be set.");
+            }
+
+            if( fanOutSendContext.messageText == null ) {
+                throw new IllegalStateException("messageText must be set.");
+            }
+
+            // All of the queues must belong to the same QueueManager, which makes the sends.
+            QueueManager queueManager = fanOutSendContext.queueConfigurations.get(0).getOwningQueueManager();
+            boolean generateDeduplicationId = false;
+            for( QueueConfiguration nextQueueConfiguration : fanOutSendContext.queueConfigurations ) {
+                if( nextQueueConfiguration.getOwningQueueManager() == null || nextQueueConfiguration.getOwningQueueManager() != queueManager ) {
+                    throw new IllegalStateException("All of the queues must be registered with the same QueueManager.");
+                }
+                if( nextQueueConfiguration.isFifoQueue() ) {
+                    if( fanOutSendContext.messageFifoGroupId == null ) {
+                        throw new IllegalStateException("messageFifoGroupId must be set when sending to FIFO queues.");
+                    }
+                    generateDeduplicationId |= !nextQueueConfiguration.isContentBasedDeduplication();
+                }
+            }
+
+            // The same id MessageSendContext would generate, so a fanned out message de-duplicates with a single send.
+            if( generateDeduplicationId && fanOutSendContext.messageFifoDeduplicationId == null ) {
+                fanOutSendContext.messageFifoDeduplicationId = HashUtility.hash128Hex(fanOutSendContext.messageText,
+                        HashUtility.hash64(fanOutSendContext.messageFifoGroupId));
+            }
+
+            return fanOutSendContext;
+        }
+    }
+
+    public List<QueueConfiguration> getQueueConfigurations() {
+        return Collections.unmodifiableList(queueConfigurations);
+    }
+
+    public String getMessageFifoDeduplicationId() {
+        return messageFifoDeduplicationId;
+    }
+
+    public String getMessageFifoGroupId() {
+        return messageFifoGroupId;
+    }
+
+    public String getShardKey() {
+        return shardKey;
+    }
+
+    public String getMessageText() {
+        return messageText;
+    }
+
+    public int getMessageDelaySeconds() {
+        return messageDelaySeconds;
+    }
+
+    public boolean hasCustomAttribute(String attributeName) {
+        return customAttributes.containsKey(attributeName);
+    }
+
+    public MessageAttributeValue getCustomAttribute(String attributeName) {
+        return customAttributes.get(attributeName);
+    }
+
+    public Set<String> getCustomAttributeNames() {
+        return customAttributes.keySet();
+    }
+
+    /**
+     * Returns the size SQS counts against its 256 KB limit, as for MessageSendContext.
+     */
+    public int getMessageSize() {
+        return MessageSizeUtility.messageSize(messageText, customAttributes);
+    }
+
+    /**
+     * Sends the message to every queue and waits for all of the sends to complete.  A failure to send to one queue
+     * does not stop the others; the result lists the queues that failed and why.
+     */
+    public FanOutSendResult sendMessage() {
+        return queueConfigurations.get(0).getOwningQueueManager().sendFanOut(this);
+    }
+
+    /**
+     * Returns the physical queue the message is sent to for one of its queues - the queue itself, or the shard
+     * selected by the shard key or FIFO group id when the queue is sharded.
+     */
+    /* package */ QueueConfiguration targetQueueConfiguration(QueueConfiguration queueConfiguration) {
+        if( !queueConfiguration.isSharded() ) {
+            return queueConfiguration;
+        }
+        return queueConfiguration.shardFor(shardKey != null ? shardKey : messageFifoGroupId);
+    }
+
+    /**
+     * Returns the batch entry sent to queues of the given kind.  Entries carry no queue URL, so one entry is built
+     * for all the standard queues and one for all the FIFO queues.
+     */
+    /* package */ synchronized SendMessageBatchRequestEntry toSendMessageBatchRequestEntry(boolean isFifoQueue) {
+
+        if( isFifoQueue && fifoEntry == null ) {
+            fifoEntry = SendMessageBatchRequestEntry.builder()
+                    .id("0")
+                    .messageBody(messageText)
+                    .delaySeconds(messageDelaySeconds)
+                    .messageAttributes(customAttributes)
+                    .messageDeduplicationId(messageFifoDeduplicationId)
+                    .messageGroupId(messageFifoGroupId)
+                    .build();
+        }
+        else if( !isFifoQueue && standardEntry == null ) {
+            standardEntry = SendMessageBatchRequestEntry.builder()
+                    .id("0")
+                    .messageBody(messageText)
+                    .delaySeconds(messageDelaySeconds)
+                    .messageAttributes(customAttributes)
+                    .build();
+        }
+
+        return isFifoQueue ? fifoEntry : standardEntry;
+    }
+
+    /* package */ SendMessageRequest toSendMessageRequest(QueueConfiguration targetQueue) {
+
+        SendMessageBatchRequestEntry entry = toSendMessageBatchRequestEntry(targetQueue.isFifoQueue());
+        return SendMessageRequest.builder()
+                .queueUrl(targetQueue.getQueueUrl())
+                .messageBody(entry.messageBody())
+                .delaySeconds(entry.delaySeconds())
+                .messageAttributes(entry.messageAttributes())
+                .messageDeduplicationId(entry.messageDeduplicationId())
+                .messageGroupId(entry.messageGroupId())
+                .build();
+    }
+}
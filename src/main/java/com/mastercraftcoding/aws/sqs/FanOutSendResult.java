@@ -0,0 +1,74 @@
+package com.mastercraftcoding.aws.sqs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of FanOutSendContext.sendMessage() - which queues accepted the message, and which failed and why.
+ */
+public class FanOutSendResult {
+
+    /**
+     * A queue the message was not sent to.
+     */
+    public static class Failure {
+
+        private final QueueConfiguration queueConfiguration;
+        private final String errorCode;
+        private final String errorMessage;
+        private final boolean senderFault;
+
+        /* package */ Failure(QueueConfiguration queueConfiguration, String errorCode, String errorMessage, boolean senderFault) {
+            this.queueConfiguration = queueConfiguration;
+            this.errorCode = errorCode;
+            this.errorMessage = errorMessage;
+            this.senderFault = senderFault;
+        }
+
+        public QueueConfiguration getQueueConfiguration() {
+            return queueConfiguration;
+        }
+
+        public String getErrorCode() {
+            return errorCode;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        /**
+         * True when the message itself was at fault, so sending it again will fail again.
+         */
+        public boolean isSenderFault() {
+            return senderFault;
+        }
+    }
+
+    private final List<QueueConfiguration> successful = new ArrayList<>();
+    private final List<Failure> failed = new ArrayList<>();
+
+    /* package */ FanOutSendResult() {
+    }
+
+    public boolean isAllSuccessful() {
+        return failed.isEmpty();
+    }
+
+    public List<QueueConfiguration> getSuccessful() {
+        return Collections.unmodifiableList(successful);
+    }
+
+    public List<Failure> getFailed() {
+        return Collections.unmodifiableList(failed);
+    }
+
+    /* package */ void addSuccess(QueueConfiguration queueConfiguration) {
+        successful.add(queueConfiguration);
+    }
+
+    /* package */ void addFailure(QueueConfiguration queueConfiguration, String errorCode, String errorMessage, boolean senderFault) {
+        failed.add(new Failure(queueConfiguration, errorCode, errorMessage, senderFault));
+    }
+}
@@ -0,0 +1,20 @@
+package com.mastercraftcoding.aws.sqs;
+
+/**
+ * FifoDeduplicationScope determines whether SQS de-duplicates FIFO messages across the whole queue or only within
+ * each message group.  Message group scope is required for FIFO high throughput mode.
+ */
+public enum FifoDeduplicationScope {
+    Queue("queue"),
+    MessageGroup("messageGroup");
+
+    private final String attributeValue;
+
+    FifoDeduplicationScope(String attributeValue) {
+        this.attributeValue = attributeValue;
+    }
+
+    /* package */ String getAttributeValue() {
+        return attributeValue;
+    }
+}
@@ -0,0 +1,582 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * FifoProducer sends to a FIFO queue from any number of threads without serializing unrelated message groups.  Each
+ * message group has its own ordered pipeline: a group has at most one message in flight, so its messages reach SQS
+ * in the order they were sent, while the sender threads batch the next message of up to ten different groups into
+ * each SendMessageBatch request.
+ * <p>
+ * A message that fails with a server error is retried before anything after it in its group is sent.  A message
+ * that fails for good fails the messages queued behind it in its group as well, with the error code
+ * PreviousMessageInGroupFailed, so that later messages never overtake it.
+ * <p>
+ * Memory is bounded by maxPendingMessages and maxActiveGroups - send() blocks while either limit is reached.
+ * <p>
+ * {@code
+ * FifoProducer producer = FifoProducer.builder()
+ *     .queueConfiguration( orderQueue )
+ *     .senderThreads( 8 )
+ *     .build();
+ * producer.send( message ).join();
+ * }
+ */
+public class FifoProducer implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(FifoProducer.class);
+
+    private static final int MAX_BATCH_ENTRIES = MessageBatchPacker.MAX_BATCH_ENTRIES;
+    private static final int MAX_BATCH_BYTES = MessageBatchPacker.MAX_BATCH_BYTES;
+
+    private QueueConfiguration queueConfiguration;
+
+    /**
+     * senderThreads is the number of SendMessageBatch requests in flight at once.
+     */
+    private int senderThreads = 4;
+
+    /**
+     * maxActiveGroups is the most message groups that may have messages waiting at once.  send() for a new group
+     * blocks until a group empties.
+     */
+    private int maxActiveGroups = 1000;
+
+    /**
+     * maxPendingMessages is the most messages that may be waiting or in flight at once.
+     */
+    private int maxPendingMessages = 10000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition sendable = lock.newCondition();
+    private final Condition capacityAvailable = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+
+    // Every group with messages waiting or in flight, and the ones whose next message can be sent now.
+    private final Map<GroupKey, GroupPipeline> activeGroups = new HashMap<>();
+    private final ArrayDeque<GroupPipeline> readyGroups = new ArrayDeque<>();
+    private int pendingMessageCount;
+    private boolean closed;
+
+    private final List<Thread> senderThreadList = new ArrayList<>();
+
+    private FifoProducer() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final FifoProducer returnProducer;
+
+        private Builder() {
+            this.returnProducer = new FifoProducer();
+        }
+
+        public Builder queueConfiguration(QueueConfiguration queueConfiguration) {
+            returnProducer.queueConfiguration = queueConfiguration;
+            return this;
+        }
+
+        public Builder senderThreads(int senderThreads) {
+            returnProducer.senderThreads = senderThreads;
+            return this;
+        }
+
+        public Builder maxActiveGroups(int maxActiveGroups) {
+            returnProducer.maxActiveGroups = maxActiveGroups;
+            return this;
+        }
+
+        public Builder maxPendingMessages(int maxPendingMessages) {
+            returnProducer.maxPendingMessages = maxPendingMessages;
+            return this;
+        }
+
+        /**
+         * Validates the configuration and starts the sender threads.
+         */
+        public FifoProducer build() {
+            returnProducer.validate();
+            returnProducer.start();
+            return returnProducer;
+        }
+    }
+
+    private void validate() {
+
+        if( queueConfiguration == null || queueConfiguration.getOwningQueueManager() == null ) {
+            throw new IllegalStateException("queueConfiguration must be set to a queue registered with a QueueManager.");
+        }
+
+        if( !queueConfiguration.isFifoQueue() ) {
+            throw new IllegalStateException("queueConfiguration must be a FIFO queue.");
+        }
+
+        // The spool already sends in order from a single flusher.
+        if( queueConfiguration.isSpoolSends() ) {
+            throw new IllegalStateException("A FifoProducer cannot send to a queue with spoolSends enabled.");
+        }
+
+        if( senderThreads < 1 ) {
+            throw new IllegalStateException("senderThreads must be at least 1.");
+        }
+
+        if( maxActiveGroups < 1 ) {
+            throw new IllegalStateException("maxActiveGroups must be at least 1.");
+        }
+
+        if( maxPendingMessages < 1 ) {
+            throw new IllegalStateException("maxPendingMessages must be at least 1.");
+        }
+    }
+
+    private void start() {
+        String queueName = queueConfiguration.getOwningQueueManager().fullQueueName(queueConfiguration);
+        for( int i = 0 ; i < senderThreads ; i++ ) {
+            Thread senderThread = new Thread(this::runSender, "FifoProducer - " + queueName + " - " + (i + 1));
+            senderThread.setDaemon(true);
+            senderThreadList.add(senderThread);
+            senderThread.start();
+        }
+    }
+
+    public QueueConfiguration getQueueConfiguration() {
+        return queueConfiguration;
+    }
+
+    /**
+     * Queues a message for sending after every message sent before it in the same message group.  Blocks while the
+     * producer is at its maxPendingMessages or maxActiveGroups limit.  The returned future completes once SQS has
+     * accepted the message, or exceptionally with the SdkException that stopped it from being sent.
+     */
+    public CompletableFuture<Void> send(MessageSendContext message) throws InterruptedException {
+
+        if( message.getQueueConfiguration() != queueConfiguration ) {
+            throw new IllegalArgumentException("The message must be for this producer's queueConfiguration.");
+        }
+
+        int messageSize = message.getMessageSize();
+        if( messageSize > MAX_BATCH_BYTES ) {
+            throw new IllegalArgumentException(String.format("The message is %1$d bytes, which exceeds the SQS maximum of %2$d bytes.", messageSize, MAX_BATCH_BYTES));
+        }
+
+        QueueConfiguration targetQueue = message.getTargetQueueConfiguration();
+        GroupKey groupKey = new GroupKey(targetQueue, message.getMessageFifoGroupId());
+        PendingMessage pendingMessage = new PendingMessage(message, messageSize);
+
+        lock.lockInterruptibly();
+        try {
+            GroupPipeline group;
+            while( true ) {
+                if( closed ) {
+                    throw new IllegalStateException("The FifoProducer has been closed.");
+                }
+                group = activeGroups.get(groupKey);
+                if( pendingMessageCount < maxPendingMessages && (group != null || activeGroups.size() < maxActiveGroups) ) {
+                    break;
+                }
+                capacityAvailable.await();
+            }
+
+            if( group == null ) {
+                group = new GroupPipeline(groupKey);
+                activeGroups.put(groupKey, group);
+            }
+            group.pendingMessages.addLast(pendingMessage);
+            pendingMessageCount++;
+
+            // A group that is idle becomes ready; one that is queued or in flight picks the message up in turn.
+            if( !group.scheduled ) {
+                group.scheduled = true;
+                readyGroups.addLast(group);
+                sendable.signal();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        return pendingMessage.future;
+    }
+
+    /**
+     * Returns the number of messages waiting or in flight.
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pendingMessageCount;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of message groups with messages waiting or in flight.
+     */
+    public int getActiveGroupCount() {
+        lock.lock();
+        try {
+            return activeGroups.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to timeoutMillis for every message sent so far to complete, returning true if they did.
+     */
+    public boolean flush(long timeoutMillis) {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while( pendingMessageCount > 0 ) {
+                if( remainingNanos <= 0 ) {
+                    return false;
+                }
+                remainingNanos = drained.awaitNanos(remainingNanos);
+            }
+            return true;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting messages, waits for the ones already sent to complete and stops the sender threads.
+     */
+    @Override
+    public void destroy() {
+
+        lock.lock();
+        try {
+            closed = true;
+            capacityAvailable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        flush(Long.MAX_VALUE);
+
+        lock.lock();
+        try {
+            sendable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        for( Thread nextThread : senderThreadList ) {
+            try {
+                nextThread.join();
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runSender() {
+        List<GroupPipeline> batchGroups = new ArrayList<>(MAX_BATCH_ENTRIES);
+        while( true ) {
+            try {
+                if( !takeBatch(batchGroups) ) {
+                    return;
+                }
+                sendBatch(batchGroups);
+            }
+            catch( InterruptedException e ) {
+                return;
+            }
+            catch( RuntimeException e ) {
+                // Never leave a group stuck in flight - fail its messages instead.
+                log.error("FifoProducer failed to send a batch", e);
+                completeBatch(batchGroups, null, SqsException.builder().message(e.getMessage()).cause(e).build());
+            }
+            batchGroups.clear();
+        }
+    }
+
+    /**
+     * Waits for ready groups and takes up to a batch of them bound for the same physical queue, returning false
+     * once the producer is closed and drained.
+     */
+    private boolean takeBatch(List<GroupPipeline> batchGroups) throws InterruptedException {
+
+        lock.lock();
+        try {
+            while( true ) {
+
+                long nowNanos = System.nanoTime();
+                long nextRetryNanos = Long.MAX_VALUE;
+                QueueConfiguration batchQueue = null;
+                int batchBytes = 0;
+
+                Iterator<GroupPipeline> readyIterator = readyGroups.iterator();
+                while( readyIterator.hasNext() && batchGroups.size() < MAX_BATCH_ENTRIES ) {
+                    GroupPipeline nextGroup = readyIterator.next();
+
+                    // A group backing off after a failure waits its turn.
+                    if( nextGroup.attempts > 0 && nextGroup.retryAtNanos - nowNanos > 0 ) {
+                        nextRetryNanos = Math.min(nextRetryNanos, nextGroup.retryAtNanos - nowNanos);
+                        continue;
+                    }
+
+                    int messageBytes = nextGroup.pendingMessages.peekFirst().messageSize;
+                    if( (batchQueue != null && nextGroup.key.targetQueue != batchQueue) || batchBytes + messageBytes > MAX_BATCH_BYTES ) {
+                        continue;
+                    }
+
+                    batchQueue = nextGroup.key.targetQueue;
+                    batchBytes += messageBytes;
+                    batchGroups.add(nextGroup);
+                    readyIterator.remove();
+                }
+
+                if( !batchGroups.isEmpty() ) {
+                    return true;
+                }
+                if( closed && pendingMessageCount == 0 ) {
+                    return false;
+                }
+
+                if( nextRetryNanos == Long.MAX_VALUE ) {
+                    sendable.await();
+                }
+                else {
+                    sendable.awaitNanos(nextRetryNanos);
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void sendBatch(List<GroupPipeline> batchGroups) {
+
+        QueueConfiguration targetQueue = batchGroups.get(0).key.targetQueue;
+
+        // Entries are identified by their position in the batch; each holds the next message of a different group.
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batchGroups.size());
+        for( GroupPipeline nextGroup : batchGroups ) {
+            entries.add(nextGroup.pendingMessages.peekFirst().message.toSendMessageBatchRequestEntry(Integer.toString(entries.size())));
+        }
+
+        SendMessageBatchRequest sendMessageBatchRequest = SendMessageBatchRequest.builder()
+                .queueUrl(targetQueue.getQueueUrl())
+                .entries(entries)
+                .build();
+
+        // The call controller retries whole-request failures; nothing else of these groups is sent meanwhile.
+        SqsClient sqsClient = targetQueue.getOwningQueueManager().SqsClient();
+        SendMessageBatchResponse sendMessageBatchResponse;
+        try {
+            sendMessageBatchResponse = targetQueue.getSystemConfiguration().getCallController()
+                    .send(() -> sqsClient.sendMessageBatch(sendMessageBatchRequest));
+        }
+        catch( SdkException e ) {
+            completeBatch(batchGroups, null, e);
+            return;
+        }
+
+        completeBatch(batchGroups, sendMessageBatchResponse, null);
+    }
+
+    private void completeBatch(List<GroupPipeline> batchGroups, SendMessageBatchResponse response, SdkException requestFailure) {
+
+        BatchResultErrorEntry[] entryFailures = new BatchResultErrorEntry[batchGroups.size()];
+        boolean[] entrySent = new boolean[batchGroups.size()];
+        if( response != null ) {
+            for( SendMessageBatchResultEntry nextResult : response.successful() ) {
+                entrySent[Integer.parseInt(nextResult.id())] = true;
+            }
+            for( BatchResultErrorEntry nextFailure : response.failed() ) {
+                entryFailures[Integer.parseInt(nextFailure.id())] = nextFailure;
+            }
+        }
+
+        List<Runnable> completions = new ArrayList<>();
+        lock.lock();
+        try {
+            for( int entryOffset = 0 ; entryOffset < batchGroups.size() ; entryOffset++ ) {
+
+                GroupPipeline nextGroup = batchGroups.get(entryOffset);
+                PendingMessage headMessage = nextGroup.pendingMessages.peekFirst();
+                BatchResultErrorEntry entryFailure = entryFailures[entryOffset];
+
+                if( entrySent[entryOffset] ) {
+                    nextGroup.pendingMessages.removeFirst();
+                    pendingMessageCount--;
+                    nextGroup.attempts = 0;
+                    nextGroup.backoff = null;
+                    completions.add(() -> headMessage.future.complete(null));
+                }
+                else if( entryFailure != null && !Boolean.TRUE.equals(entryFailure.senderFault()) && retryEntry(nextGroup) ) {
+                    // Keep the message at the head of its group and send it again after a back-off.
+                    if( log.isDebugEnabled() ) {
+                        log.debug(String.format("Retrying FIFO message in group %1$s after %2$s", nextGroup.key.messageGroupId, entryFailure.code()));
+                    }
+                }
+                else {
+                    SdkException failure = requestFailure != null ? requestFailure : entryFailure != null ?
+                            entryException(entryFailure.code(), entryFailure.message(), Boolean.TRUE.equals(entryFailure.senderFault()) ? 400 : 500) :
+                            entryException("MissingResult", "SQS did not return a result for the message.", 500);
+                    failGroup(nextGroup, failure, completions);
+                }
+
+                // Put the group back in line, or retire it once it is empty.
+                if( nextGroup.pendingMessages.isEmpty() ) {
+                    nextGroup.scheduled = false;
+                    activeGroups.remove(nextGroup.key);
+                }
+                else {
+                    readyGroups.addLast(nextGroup);
+                }
+            }
+
+            capacityAvailable.signalAll();
+            sendable.signalAll();
+            if( pendingMessageCount == 0 ) {
+                drained.signalAll();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        // Complete futures outside the lock, so callbacks can send again.
+        for( Runnable nextCompletion : completions ) {
+            nextCompletion.run();
+        }
+    }
+
+    private boolean retryEntry(GroupPipeline group) {
+        QueueRetryConfiguration retryConfiguration = group.key.targetQueue.getSystemConfiguration().getCallController().getRetryConfiguration();
+        if( ++group.attempts >= retryConfiguration.getMaxAttempts() ) {
+            return false;
+        }
+        if( group.backoff == null ) {
+            group.backoff = new ExponentialBackoff(retryConfiguration.getInitialBackoffMillis(), retryConfiguration.getMaxBackoffMillis());
+        }
+        group.retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(group.backoff.nextDelayMillis());
+        return true;
+    }
+
+    /**
+     * Fails the group's head message and everything queued behind it.
+     */
+    private void failGroup(GroupPipeline group, SdkException failure, List<Runnable> completions) {
+
+        PendingMessage headMessage = group.pendingMessages.removeFirst();
+        completions.add(() -> headMessage.future.completeExceptionally(failure));
+        pendingMessageCount--;
+
+        SdkException groupFailure = entryException("PreviousMessageInGroupFailed", "An earlier message in the same message group was not sent.", 400);
+        for( PendingMessage nextMessage : group.pendingMessages ) {
+            completions.add(() -> nextMessage.future.completeExceptionally(groupFailure));
+        }
+        pendingMessageCount -= group.pendingMessages.size();
+        group.pendingMessages.clear();
+        group.attempts = 0;
+        group.backoff = null;
+    }
+
+    private static SdkException entryException(String errorCode, String errorMessage, int statusCode) {
+        return SqsException.builder()
+                .message(errorMessage)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).errorMessage(errorMessage).build())
+                .statusCode(statusCode)
+                .build();
+    }
+
+    /**
+     * A message group of one physical queue - shards of a sharded queue each keep their own group order.
+     */
+    private static final class GroupKey {
+
+        private final QueueConfiguration targetQueue;
+        private final String messageGroupId;
+
+        private GroupKey(QueueConfiguration targetQueue, String messageGroupId) {
+            this.targetQueue = targetQueue;
+            this.messageGroupId = messageGroupId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if( !(other instanceof GroupKey) ) {
+                return false;
+            }
+            GroupKey otherKey = (GroupKey) other;
+            return targetQueue == otherKey.targetQueue && messageGroupId.equals(otherKey.messageGroupId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(targetQueue) + messageGroupId.hashCode();
+        }
+    }
+
+    private static final class GroupPipeline {
+
+        private final GroupKey key;
+        private final ArrayDeque<PendingMessage> pendingMessages = new ArrayDeque<>();
+
+        // True while the group is in readyGroups or has a message in flight.
+        private boolean scheduled;
+        private int attempts;
+        private ExponentialBackoff backoff;
+        private long retryAtNanos;
+
+        private GroupPipeline(GroupKey key) {
+            this.key = key;
+        }
+    }
+
+    private static final class PendingMessage {
+
+        private final MessageSendContext message;
+        private final int messageSize;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingMessage(MessageSendContext message, int messageSize) {
+            this.message = message;
+            this.messageSize = messageSize;
+        }
+    }
+}
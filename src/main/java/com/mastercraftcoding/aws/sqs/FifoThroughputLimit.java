@@ -0,0 +1,20 @@
+package com.mastercraftcoding.aws.sqs;
+
+/**
+ * FifoThroughputLimit determines whether the SQS FIFO throughput quota applies to the whole queue or to each
+ * message group.  A per message group limit enables FIFO high throughput mode.
+ */
+public enum FifoThroughputLimit {
+    PerQueue("perQueue"),
+    PerMessageGroupId("perMessageGroupId");
+
+    private final String attributeValue;
+
+    FifoThroughputLimit(String attributeValue) {
+        this.attributeValue = attributeValue;
+    }
+
+    /* package */ String getAttributeValue() {
+        return attributeValue;
+    }
+}
@@ -0,0 +1,379 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HandlerCircuitBreaker class stops a message handler's driver threads from polling while whatever the handler
+ * depends on is failing, so an outage doesn't burn receive counts toward the dead letter queue.  It watches the last
+ * windowSize messages handled: once at least minimumCalls have been seen and the share that failed reaches
+ * failureRateThreshold, or the share slower than slowCallMillis reaches slowCallRateThreshold, the breaker opens.
+ * <p>
+ * While open, the driver threads stop receiving and release the messages they hold with a visibility timeout of
+ * releaseVisibilitySeconds.  After openDurationMillis the breaker is half open: the driver threads between them
+ * receive one message at a time, then one more per success, up to a full batch.  A failure opens the breaker again;
+ * closeAfterSuccesses successes in a row close it.
+ * <p>
+ * A breaker is returned from MessageHandler.getCircuitBreaker() and is shared by all of the handler's driver threads.
+ * <p>
+ * {@code
+ * return HandlerCircuitBreaker.builder()
+ *     .failureRateThreshold( 0.5 )
+ *     .slowCallMillis( 2000 )
+ *     .openDurationMillis( 30000 )
+ *     .build();
+ * }
+ */
+public class HandlerCircuitBreaker implements InitializingBean {
+
+    private static final Logger log = LoggerFactory.getLogger(HandlerCircuitBreaker.class);
+
+    private static final int FULL_BATCH = 10;
+    private static final long PROBE_POLL_MILLIS = 50;
+
+    /* package */ enum State { Closed, Open, HalfOpen }
+
+    /**
+     * windowSize is the number of most recent messages the failure and slow call rates are taken over.
+     */
+    private int windowSize = 50;
+
+    /**
+     * minimumCalls is the fewest messages in the window before the breaker may open.
+     */
+    private int minimumCalls = 10;
+
+    /**
+     * failureRateThreshold is the share of failed messages at which the breaker opens.
+     */
+    private double failureRateThreshold = 0.5;
+
+    /**
+     * slowCallMillis is how long a handler call may take before it counts as slow.  Zero disables the slow call rate.
+     */
+    private long slowCallMillis;
+
+    /**
+     * slowCallRateThreshold is the share of slow calls at which the breaker opens.
+     */
+    private double slowCallRateThreshold = 1.0;
+
+    /**
+     * openDurationMillis is how long the breaker stays open before probing.
+     */
+    private long openDurationMillis = 30000;
+
+    /**
+     * closeAfterSuccesses is the number of successes in a row, while half open, that close the breaker.
+     */
+    private int closeAfterSuccesses = 10;
+
+    /**
+     * releaseVisibilitySeconds is the visibility timeout given to messages released when the breaker opens.
+     */
+    private int releaseVisibilitySeconds = 5;
+
+    // Outcomes of the last windowSize calls, as a ring, allocated on the first call after the window size is set.
+    private boolean[] failedCalls;
+    private boolean[] slowCalls;
+    private int nextCall;
+    private int callCount;
+    private int failedCount;
+    private int slowCount;
+
+    private State state = State.Closed;
+    private long openedAtNanos;
+    private int halfOpenSuccesses;
+    private int probesInFlight;
+    private long openCount;
+
+    public HandlerCircuitBreaker() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final HandlerCircuitBreaker returnBreaker;
+
+        private Builder() {
+            returnBreaker = new HandlerCircuitBreaker();
+        }
+
+        public Builder windowSize(int windowSize) {
+            returnBreaker.setWindowSize(windowSize);
+            return this;
+        }
+
+        public Builder minimumCalls(int minimumCalls) {
+            returnBreaker.setMinimumCalls(minimumCalls);
+            return this;
+        }
+
+        public Builder failureRateThreshold(double failureRateThreshold) {
+            returnBreaker.setFailureRateThreshold(failureRateThreshold);
+            return this;
+        }
+
+        public Builder slowCallMillis(long slowCallMillis) {
+            returnBreaker.setSlowCallMillis(slowCallMillis);
+            return this;
+        }
+
+        public Builder slowCallRateThreshold(double slowCallRateThreshold) {
+            returnBreaker.setSlowCallRateThreshold(slowCallRateThreshold);
+            return this;
+        }
+
+        public Builder openDurationMillis(long openDurationMillis) {
+            returnBreaker.setOpenDurationMillis(openDurationMillis);
+            return this;
+        }
+
+        public Builder closeAfterSuccesses(int closeAfterSuccesses) {
+            returnBreaker.setCloseAfterSuccesses(closeAfterSuccesses);
+            return this;
+        }
+
+        public Builder releaseVisibilitySeconds(int releaseVisibilitySeconds) {
+            returnBreaker.setReleaseVisibilitySeconds(releaseVisibilitySeconds);
+            return this;
+        }
+
+        public HandlerCircuitBreaker build() {
+            returnBreaker.validate();
+            return returnBreaker;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        validate();
+    }
+
+    private synchronized void validate() {
+        if( windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize ) {
+            throw new IllegalStateException("windowSize and minimumCalls must be at least 1, and minimumCalls no more than windowSize.");
+        }
+        if( failureRateThreshold <= 0 || failureRateThreshold > 1 || slowCallRateThreshold <= 0 || slowCallRateThreshold > 1 ) {
+            throw new IllegalStateException("failureRateThreshold and slowCallRateThreshold must be greater than 0 and no more than 1.");
+        }
+        if( slowCallMillis < 0 || openDurationMillis < 0 ) {
+            throw new IllegalStateException("slowCallMillis and openDurationMillis may not be negative.");
+        }
+        if( closeAfterSuccesses < 1 ) {
+            throw new IllegalStateException("closeAfterSuccesses must be at least 1.");
+        }
+        if( releaseVisibilitySeconds < 0 || releaseVisibilitySeconds > 43200 ) {
+            throw new IllegalStateException("releaseVisibilitySeconds must be between 0 and 43200.");
+        }
+    }
+
+    /**
+     * Returns how many messages a driver thread may receive now: a full batch while closed, a share of a growing
+     * number while half open, and zero while open.  The permits are handed back with finished() once the batch is
+     * done.
+     */
+    /* package */ synchronized int permittedMessages() {
+
+        if( state == State.Open ) {
+            if( System.nanoTime() - openedAtNanos < TimeUnit.MILLISECONDS.toNanos(openDurationMillis) ) {
+                return 0;
+            }
+            state = State.HalfOpen;
+            halfOpenSuccesses = 0;
+            probesInFlight = 0;
+            if( log.isInfoEnabled() ) {
+                log.info("Handler circuit breaker half open - probing");
+            }
+        }
+
+        // The probes permitted are shared by every driver thread, not granted to each.
+        if( state == State.HalfOpen ) {
+            int probeCount = Math.max(0, Math.min(FULL_BATCH, Math.max(1, halfOpenSuccesses)) - probesInFlight);
+            probesInFlight += probeCount;
+            return probeCount;
+        }
+        return FULL_BATCH;
+    }
+
+    /**
+     * Hands back the permits a driver thread was given by permittedMessages(), once its batch is done.
+     */
+    /* package */ synchronized void finished(int permittedCount) {
+        if( state == State.HalfOpen ) {
+            probesInFlight = Math.max(0, probesInFlight - permittedCount);
+        }
+    }
+
+    /**
+     * Returns how long until an open breaker lets a probe through, or how long to wait before asking again when
+     * every probe of a half open breaker is taken.
+     */
+    /* package */ synchronized long millisUntilProbe() {
+        if( state == State.HalfOpen ) {
+            return PROBE_POLL_MILLIS;
+        }
+        if( state != State.Open ) {
+            return 0;
+        }
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis) - (System.nanoTime() - openedAtNanos);
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(remainingNanos));
+    }
+
+    /**
+     * Records the outcome of one handler call.
+     */
+    /* package */ synchronized void recordCall(boolean failed, long durationNanos) {
+
+        boolean slow = slowCallMillis > 0 && durationNanos > TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+
+        if( state == State.HalfOpen ) {
+            if( failed || slow ) {
+                open();
+            }
+            else if( ++halfOpenSuccesses >= closeAfterSuccesses ) {
+                close();
+            }
+            return;
+        }
+        if( state == State.Open ) {
+            // Calls already under way when the breaker opened.
+            return;
+        }
+
+        if( failedCalls == null ) {
+            failedCalls = new boolean[windowSize];
+            slowCalls = new boolean[windowSize];
+        }
+        if( callCount == windowSize ) {
+            failedCount -= failedCalls[nextCall] ? 1 : 0;
+            slowCount -= slowCalls[nextCall] ? 1 : 0;
+        }
+        else {
+            callCount++;
+        }
+        failedCalls[nextCall] = failed;
+        slowCalls[nextCall] = slow;
+        failedCount += failed ? 1 : 0;
+        slowCount += slow ? 1 : 0;
+        nextCall = (nextCall + 1) % windowSize;
+
+        if( callCount >= minimumCalls
+                && (failedCount >= failureRateThreshold * callCount || (slowCallMillis > 0 && slowCount >= slowCallRateThreshold * callCount)) ) {
+            open();
+        }
+    }
+
+    /* package */ synchronized State getState() {
+        return state;
+    }
+
+    /* package */ synchronized boolean isOpen() {
+        return state == State.Open;
+    }
+
+    /**
+     * The number of times the breaker has opened.
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    private void open() {
+        state = State.Open;
+        openedAtNanos = System.nanoTime();
+        openCount++;
+        if( log.isWarnEnabled() ) {
+            log.warn(String.format("Handler circuit breaker opened (%1$d of %2$d recent calls failed, %3$d slow) - pausing for %4$d ms",
+                    failedCount, callCount, slowCount, openDurationMillis));
+        }
+    }
+
+    private void close() {
+        state = State.Closed;
+        clearWindow();
+        if( log.isInfoEnabled() ) {
+            log.info("Handler circuit breaker closed");
+        }
+    }
+
+    private void clearWindow() {
+        failedCalls = null;
+        slowCalls = null;
+        callCount = 0;
+        failedCount = 0;
+        slowCount = 0;
+        nextCall = 0;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public synchronized void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+        clearWindow();
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public long getSlowCallMillis() {
+        return slowCallMillis;
+    }
+
+    public void setSlowCallMillis(long slowCallMillis) {
+        this.slowCallMillis = slowCallMillis;
+    }
+
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public long getOpenDurationMillis() {
+        return openDurationMillis;
+    }
+
+    public void setOpenDurationMillis(long openDurationMillis) {
+        this.openDurationMillis = openDurationMillis;
+    }
+
+    public int getCloseAfterSuccesses() {
+        return closeAfterSuccesses;
+    }
+
+    public void setCloseAfterSuccesses(int closeAfterSuccesses) {
+        this.closeAfterSuccesses = closeAfterSuccesses;
+    }
+
+    public int getReleaseVisibilitySeconds() {
+        return releaseVisibilitySeconds;
+    }
+
+    public void setReleaseVisibilitySeconds(int releaseVisibilitySeconds) {
+        this.releaseVisibilitySeconds = releaseVisibilitySeconds;
+    }
+}
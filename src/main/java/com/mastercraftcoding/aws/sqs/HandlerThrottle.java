@@ -0,0 +1,229 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HandlerThrottle class limits how fast, and how many at a time, a message handler's driver threads take messages
+ * off their queues.  Permits are taken before each receive, so a driver never holds messages it cannot handle soon:
+ * a handler calling a rate limited partner API doesn't sleep inside handleMessage() while the visibility timeouts of
+ * the rest of its batch run down.
+ * <p>
+ * messagesPerSecond is enforced with a token bucket holding up to burstMessages tokens; each message received takes
+ * one.  maxMessagesInFlight is a bulkhead: the most messages received but not yet finished across all of the
+ * handler's driver threads.  Either limit may be zero for none, and both may be changed while the drivers run.
+ * <p>
+ * A throttle is returned from MessageHandler.getThrottle() and is shared by all of the handler's driver threads.
+ * <p>
+ * {@code
+ * return HandlerThrottle.builder()
+ *     .messagesPerSecond( 20 )
+ *     .maxMessagesInFlight( 5 )
+ *     .build();
+ * }
+ */
+public class HandlerThrottle implements InitializingBean {
+
+    /**
+     * messagesPerSecond is the highest rate at which messages are received.  Zero does not limit the rate.
+     */
+    private double messagesPerSecond;
+
+    /**
+     * burstMessages is the most messages that may be received at once after the handler has been idle.  Zero allows
+     * one second's worth (and at least one).
+     */
+    private int burstMessages;
+
+    /**
+     * maxMessagesInFlight is the most messages held by the handler's driver threads at once.  Zero does not limit it.
+     */
+    private int maxMessagesInFlight;
+
+    // The token bucket, refilled lazily when permits are taken.
+    private double tokens = -1;
+    private long refilledAtNanos = System.nanoTime();
+
+    private int messagesInFlight;
+
+    public HandlerThrottle() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final HandlerThrottle returnThrottle;
+
+        private Builder() {
+            returnThrottle = new HandlerThrottle();
+        }
+
+        public Builder messagesPerSecond(double messagesPerSecond) {
+            returnThrottle.setMessagesPerSecond(messagesPerSecond);
+            return this;
+        }
+
+        public Builder burstMessages(int burstMessages) {
+            returnThrottle.setBurstMessages(burstMessages);
+            return this;
+        }
+
+        public Builder maxMessagesInFlight(int maxMessagesInFlight) {
+            returnThrottle.setMaxMessagesInFlight(maxMessagesInFlight);
+            return this;
+        }
+
+        public HandlerThrottle build() {
+            returnThrottle.validate();
+            return returnThrottle;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        validate();
+    }
+
+    private synchronized void validate() {
+        if( messagesPerSecond < 0 || burstMessages < 0 || maxMessagesInFlight < 0 ) {
+            throw new IllegalStateException("messagesPerSecond, burstMessages and maxMessagesInFlight may not be negative.");
+        }
+    }
+
+    /**
+     * Blocks until at least one message may be received, then takes permits for up to maxMessages.  Returns the
+     * number taken; permits for messages that are not received are handed back with release().
+     */
+    /* package */ synchronized int acquire(int maxMessages) throws InterruptedException {
+
+        int permits;
+        while( (permits = availablePermits(maxMessages)) == 0 ) {
+            long waitMillis = 0;
+            if( maxMessagesInFlight == 0 || messagesInFlight < maxMessagesInFlight ) {
+                // Only the rate is in the way, so wait for the next token.
+                waitMillis = Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / messagesPerSecond));
+            }
+            wait(waitMillis);
+        }
+        take(permits);
+        return permits;
+    }
+
+    /**
+     * Takes permits for up to maxMessages without blocking, returning the number taken.
+     */
+    /* package */ synchronized int tryAcquire(int maxMessages) {
+        int permits = availablePermits(maxMessages);
+        take(permits);
+        return permits;
+    }
+
+    /**
+     * Hands back the permits of messages that were not received: they neither count against the rate nor occupy the
+     * bulkhead.
+     */
+    /* package */ synchronized void release(int unusedPermits) {
+        if( unusedPermits <= 0 ) {
+            return;
+        }
+        if( messagesPerSecond > 0 ) {
+            tokens = Math.min(burstCapacity(), tokens + unusedPermits);
+        }
+        finished(unusedPermits);
+    }
+
+    /**
+     * Frees the bulkhead slots of messages the driver is done with.
+     */
+    /* package */ synchronized void finished(int messageCount) {
+        messagesInFlight = Math.max(0, messagesInFlight - messageCount);
+        notifyAll();
+    }
+
+    /**
+     * The number of messages currently held by the handler's driver threads.
+     */
+    public synchronized int getMessagesInFlight() {
+        return messagesInFlight;
+    }
+
+    private int availablePermits(int maxMessages) {
+
+        int permits = maxMessages;
+        if( maxMessagesInFlight > 0 ) {
+            permits = Math.min(permits, maxMessagesInFlight - messagesInFlight);
+        }
+        if( messagesPerSecond > 0 ) {
+            refill();
+            permits = Math.min(permits, (int) tokens);
+        }
+        return Math.max(0, permits);
+    }
+
+    private void take(int permits) {
+        if( messagesPerSecond > 0 ) {
+            tokens -= permits;
+        }
+        messagesInFlight += permits;
+    }
+
+    private void refill() {
+        long nowNanos = System.nanoTime();
+        if( tokens < 0 ) {
+            tokens = burstCapacity();
+        }
+        else {
+            tokens = Math.min(burstCapacity(), tokens + messagesPerSecond * (nowNanos - refilledAtNanos) / TimeUnit.SECONDS.toNanos(1));
+        }
+        refilledAtNanos = nowNanos;
+    }
+
+    private double burstCapacity() {
+        return burstMessages > 0 ? burstMessages : Math.max(1, Math.floor(messagesPerSecond));
+    }
+
+    public synchronized double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    /**
+     * Changes the rate; takes effect for the next receive of every driver thread, including any waiting now.
+     */
+    public synchronized void setMessagesPerSecond(double messagesPerSecond) {
+        if( this.messagesPerSecond == 0 ) {
+            // A bucket starts full when the rate is first limited.
+            tokens = -1;
+        }
+        else if( messagesPerSecond > 0 ) {
+            refill();
+        }
+        this.messagesPerSecond = messagesPerSecond;
+        notifyAll();
+    }
+
+    public synchronized int getBurstMessages() {
+        return burstMessages;
+    }
+
+    public synchronized void setBurstMessages(int burstMessages) {
+        this.burstMessages = burstMessages;
+        tokens = Math.min(tokens, burstCapacity());
+        notifyAll();
+    }
+
+    public synchronized int getMaxMessagesInFlight() {
+        return maxMessagesInFlight;
+    }
+
+    /**
+     * Changes the bulkhead size; lowering it lets the messages already held finish.
+     */
+    public synchronized void setMaxMessagesInFlight(int maxMessagesInFlight) {
+        this.maxMessagesInFlight = maxMessagesInFlight;
+        notifyAll();
+    }
+}
@@ -71,23 +71,30 @@ public abstract class JsonMessageHandlerAbstractBase implements MessageHandler,
     @Override
     public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
 
-        // Attempt to deserialize the incoming message
+        // Attempt to deserialize the incoming message.  A message that can't be deserialized never will be, so it
+        // is poison rather than a failure worth retrying.
+        Object message;
         try {
             // Parse the incoming payload as a parse tree
-            Object message = JsonUtility.typedJsonToObject(jsonJavaTypeFieldName, messageReceiveContext.getMessageText());
-            if( message == null ) {
-                throw new IllegalArgumentException("Null message submitted to endpoint.");
-            }
+            message = JsonUtility.typedJsonToObject(jsonJavaTypeFieldName, messageReceiveContext.getMessageText());
+        } catch (Exception e) {
+            log.error( "Failed to parse incoming message as a JSON object.  Exception follows.");
+            log.error(e.getMessage(),e);
+            return messageReceiveContext.poison("Failed to parse the message as a JSON object: " + e.getMessage());
+        }
+
+        if( message == null ) {
+            return messageReceiveContext.poison("Null message submitted to endpoint.");
+        }
 
-            // Make sure this is a legal message for this endpoint
-            if(!validMessageClasses.contains(message.getClass())) {
-                throw new IllegalArgumentException("This endpoint does not support messages of this type.");
-            }
+        // Make sure this is a legal message for this endpoint
+        if(!validMessageClasses.contains(message.getClass())) {
+            return messageReceiveContext.poison(String.format("This endpoint does not support messages of type %1$s.", message.getClass().getName()));
+        }
 
+        try {
             return handleObjectMessage(messageReceiveContext, message);
-
         } catch (Exception e) {
-            log.error( "Failed to parse incoming message as a JSON object.  Exception follows.");
             log.error(e.getMessage(),e);
             return MessageHandlerStatus.Message_Processing_Failed;
         }
@@ -0,0 +1,133 @@
+package com.mastercraftcoding.aws.sqs;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class records a distribution of millisecond latency values using log-linear buckets.  Each
+ * power of two is split into 32 sub-buckets, so any reported percentile is within roughly 3% of the recorded value
+ * while the whole histogram stays a fixed size no matter how many values are recorded.
+ * <p>
+ * Recording is lock-free and safe to call from any number of threads.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT = 35; // Values are clamped at roughly 2^40 milliseconds (~34 years).
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_SHIFT + 1) * SUB_BUCKET_COUNT;
+    private static final long MAX_TRACKABLE_VALUE = (1L << (MAX_SHIFT + SUB_BUCKET_BITS + 1)) - 1;
+
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void record(long valueMillis) {
+
+        // Clock skew between SQS and this host can produce small negative values; treat them as zero.
+        long value = Math.min(Math.max(valueMillis, 0), MAX_TRACKABLE_VALUE);
+
+        bucketCounts.incrementAndGet(bucketIndex(value));
+        totalCount.increment();
+        totalSum.add(value);
+
+        long currentMax = maxValue.get();
+        while( value > currentMax && !maxValue.compareAndSet(currentMax, value) ) {
+            currentMax = maxValue.get();
+        }
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0.0 : (double) totalSum.sum() / count;
+    }
+
+    /**
+     * Returns the value at the given percentile (0.0 - 100.0).  The returned value is the upper bound of the bucket
+     * containing the percentile, capped by the largest value recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+
+        if( percentile < 0.0 || percentile > 100.0 ) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100.");
+        }
+
+        long count = totalCount.sum();
+        if( count == 0 ) {
+            return 0;
+        }
+
+        long targetCount = Math.max(1, (long) Math.ceil((percentile / 100.0) * count));
+        long runningCount = 0;
+        for( int i = 0 ; i < BUCKET_COUNT ; i++ ) {
+            runningCount += bucketCounts.get(i);
+            if( runningCount >= targetCount ) {
+                return Math.min(bucketUpperBound(i), maxValue.get());
+            }
+        }
+
+        return maxValue.get();
+    }
+
+    /**
+     * Adds every value recorded in another histogram to this one.
+     */
+    /* package */ void add(LatencyHistogram other) {
+        for( int i = 0 ; i < BUCKET_COUNT ; i++ ) {
+            long bucketCount = other.bucketCounts.get(i);
+            if( bucketCount > 0 ) {
+                bucketCounts.addAndGet(i, bucketCount);
+            }
+        }
+        totalCount.add(other.totalCount.sum());
+        totalSum.add(other.totalSum.sum());
+        maxValue.accumulateAndGet(other.maxValue.get(), Math::max);
+    }
+
+    public void reset() {
+        for( int i = 0 ; i < BUCKET_COUNT ; i++ ) {
+            bucketCounts.set(i, 0);
+        }
+        totalCount.reset();
+        totalSum.reset();
+        maxValue.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%1$d mean=%2$.1fms p50=%3$dms p90=%4$dms p99=%5$dms p99.9=%6$dms max=%7$dms",
+                getCount(), getMean(), getValueAtPercentile(50.0), getValueAtPercentile(90.0),
+                getValueAtPercentile(99.0), getValueAtPercentile(99.9), getMax());
+    }
+
+    private static int bucketIndex(long value) {
+        if( value < SUB_BUCKET_COUNT ) {
+            return (int) value;
+        }
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if( index < SUB_BUCKET_COUNT ) {
+            return index;
+        }
+
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lowerBound = ((long) (SUB_BUCKET_COUNT + subBucket)) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,229 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.springframework.beans.factory.InitializingBean;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The LoadSheddingPolicy class lets a queue's message handler driver threads shed messages that are no longer worth
+ * handling, before they are deserialized or handed to the handler, so that recovery from a long backlog is bounded
+ * by the fresh traffic rather than the stale backlog.
+ * <p>
+ * Messages older than messageTimeToLiveMillis (by their SentTimestamp) are expired: moved to the staleMessageQueue
+ * if one is set, and deleted otherwise.  While the driver is overloaded - some message in the batch it just received
+ * has waited overloadAgeMillis or more - messages whose priorityAttributeName attribute is below minimumPriority are
+ * moved to the deferralQueue, to be handled by whatever consumes it.  Messages without the attribute are never
+ * deferred.
+ * <p>
+ * The shed counts cover every queue the policy is set on.
+ * <p>
+ * {@code
+ * return LoadSheddingPolicy.builder()
+ *     .messageTimeToLiveMillis( 15 * 60 * 1000 )
+ *     .priorityAttributeName( "Priority" )
+ *     .minimumPriority( 5 )
+ *     .deferralQueue( deferredOrdersQueue )
+ *     .build();
+ * }
+ */
+public class LoadSheddingPolicy implements InitializingBean {
+
+    /**
+     * messageTimeToLiveMillis is the age beyond which a message is expired.  Zero never expires messages.
+     */
+    private long messageTimeToLiveMillis;
+
+    /**
+     * staleMessageQueue receives expired messages.  When it is not set, they are deleted.
+     */
+    private QueueConfiguration staleMessageQueue;
+
+    /**
+     * priorityAttributeName names the number attribute holding each message's priority.  When it is not set,
+     * nothing is deferred.
+     */
+    private String priorityAttributeName;
+
+    /**
+     * minimumPriority is the lowest priority handled while the driver is overloaded.
+     */
+    private int minimumPriority;
+
+    /**
+     * overloadAgeMillis is the message age at which the driver counts itself as overloaded.
+     */
+    private long overloadAgeMillis = 60000;
+
+    /**
+     * deferralQueue receives the low priority messages deferred while overloaded.
+     */
+    private QueueConfiguration deferralQueue;
+
+    private final AtomicLong expiredMessageCount = new AtomicLong();
+    private final AtomicLong deferredMessageCount = new AtomicLong();
+
+    public LoadSheddingPolicy() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final LoadSheddingPolicy returnPolicy;
+
+        private Builder() {
+            returnPolicy = new LoadSheddingPolicy();
+        }
+
+        public Builder messageTimeToLiveMillis(long messageTimeToLiveMillis) {
+            returnPolicy.setMessageTimeToLiveMillis(messageTimeToLiveMillis);
+            return this;
+        }
+
+        public Builder staleMessageQueue(QueueConfiguration staleMessageQueue) {
+            returnPolicy.setStaleMessageQueue(staleMessageQueue);
+            return this;
+        }
+
+        public Builder priorityAttributeName(String priorityAttributeName) {
+            returnPolicy.setPriorityAttributeName(priorityAttributeName);
+            return this;
+        }
+
+        public Builder minimumPriority(int minimumPriority) {
+            returnPolicy.setMinimumPriority(minimumPriority);
+            return this;
+        }
+
+        public Builder overloadAgeMillis(long overloadAgeMillis) {
+            returnPolicy.setOverloadAgeMillis(overloadAgeMillis);
+            return this;
+        }
+
+        public Builder deferralQueue(QueueConfiguration deferralQueue) {
+            returnPolicy.setDeferralQueue(deferralQueue);
+            return this;
+        }
+
+        public LoadSheddingPolicy build() {
+            returnPolicy.validate();
+            return returnPolicy;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        validate();
+    }
+
+    private void validate() {
+        if( messageTimeToLiveMillis < 0 ) {
+            throw new IllegalStateException("messageTimeToLiveMillis may not be negative.");
+        }
+        if( overloadAgeMillis < 0 ) {
+            throw new IllegalStateException("overloadAgeMillis may not be negative.");
+        }
+        if( priorityAttributeName != null && deferralQueue == null ) {
+            throw new IllegalStateException("A deferralQueue must be set to defer messages by priority.");
+        }
+    }
+
+    /**
+     * Returns true if the message has lived past messageTimeToLiveMillis.  Messages received without a SentTimestamp
+     * never expire.
+     */
+    /* package */ boolean isExpired(MessageReceiveContext message, long nowMillis) {
+        return messageTimeToLiveMillis > 0 && message.getSentTimestamp() > 0 && nowMillis - message.getSentTimestamp() > messageTimeToLiveMillis;
+    }
+
+    /* package */ boolean isOverloadAge(MessageReceiveContext message, long nowMillis) {
+        return priorityAttributeName != null && message.getSentTimestamp() > 0 && nowMillis - message.getSentTimestamp() >= overloadAgeMillis;
+    }
+
+    /**
+     * Returns true if the message carries a priority below minimumPriority.
+     */
+    /* package */ boolean isLowPriority(MessageReceiveContext message) {
+
+        if( priorityAttributeName == null ) {
+            return false;
+        }
+        MessageAttributeValue priority = message.getCustomAttribute(priorityAttributeName);
+        if( priority == null || priority.stringValue() == null ) {
+            return false;
+        }
+        try {
+            return Double.parseDouble(priority.stringValue()) < minimumPriority;
+        }
+        catch( NumberFormatException e ) {
+            return false;
+        }
+    }
+
+    /* package */ void recordExpired(int messageCount) {
+        expiredMessageCount.addAndGet(messageCount);
+    }
+
+    /* package */ void recordDeferred(int messageCount) {
+        deferredMessageCount.addAndGet(messageCount);
+    }
+
+    public long getExpiredMessageCount() {
+        return expiredMessageCount.get();
+    }
+
+    public long getDeferredMessageCount() {
+        return deferredMessageCount.get();
+    }
+
+    public long getMessageTimeToLiveMillis() {
+        return messageTimeToLiveMillis;
+    }
+
+    public void setMessageTimeToLiveMillis(long messageTimeToLiveMillis) {
+        this.messageTimeToLiveMillis = messageTimeToLiveMillis;
+    }
+
+    public QueueConfiguration getStaleMessageQueue() {
+        return staleMessageQueue;
+    }
+
+    public void setStaleMessageQueue(QueueConfiguration staleMessageQueue) {
+        this.staleMessageQueue = staleMessageQueue;
+    }
+
+    public String getPriorityAttributeName() {
+        return priorityAttributeName;
+    }
+
+    public void setPriorityAttributeName(String priorityAttributeName) {
+        this.priorityAttributeName = priorityAttributeName;
+    }
+
+    public int getMinimumPriority() {
+        return minimumPriority;
+    }
+
+    public void setMinimumPriority(int minimumPriority) {
+        this.minimumPriority = minimumPriority;
+    }
+
+    public long getOverloadAgeMillis() {
+        return overloadAgeMillis;
+    }
+
+    public void setOverloadAgeMillis(long overloadAgeMillis) {
+        this.overloadAgeMillis = overloadAgeMillis;
+    }
+
+    public QueueConfiguration getDeferralQueue() {
+        return deferralQueue;
+    }
+
+    public void setDeferralQueue(QueueConfiguration deferralQueue) {
+        this.deferralQueue = deferralQueue;
+    }
+}
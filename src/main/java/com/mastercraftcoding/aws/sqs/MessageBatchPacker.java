@@ -0,0 +1,120 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.utility.MessageSizeUtility;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Packs messages bound for one queue into as few SendMessageBatch requests as possible, within the SQS limits of 10
+ * entries and 256 KB per request.
+ * <p>
+ * Messages are taken in order and each goes into the oldest open batch with room for it, so small messages fill the
+ * space large ones leave behind.  When no open batch has room a new one is opened, and once maxOpenBatches are open
+ * the oldest is closed, which bounds how far a message can move ahead of the ones sent before it.  When a group
+ * function is given, a message is never placed in an earlier batch than the previous message of its group, so FIFO
+ * order within each message group is kept.
+ */
+/* package */ final class MessageBatchPacker {
+
+    /* package */ static final int MAX_BATCH_ENTRIES = 10;
+    /* package */ static final int MAX_BATCH_BYTES = MessageSizeUtility.MAXIMUM_MESSAGE_SIZE;
+
+    private final int maxOpenBatches;
+
+    /* package */ MessageBatchPacker(int maxOpenBatches) {
+        if( maxOpenBatches < 1 ) {
+            throw new IllegalArgumentException("maxOpenBatches must be at least 1.");
+        }
+        this.maxOpenBatches = maxOpenBatches;
+    }
+
+    /**
+     * Packs the items into batches, returned in the order they should be sent.
+     *
+     * @param sizeOf returns the size SQS counts for an item; no item may be larger than 256 KB.
+     * @param groupOf returns an item's FIFO message group, or is null when order does not matter.
+     */
+    /* package */ <T> List<List<T>> pack(List<T> items, ToIntFunction<T> sizeOf, Function<T, String> groupOf) {
+
+        List<List<T>> packedBatches = new ArrayList<>(items.size() / MAX_BATCH_ENTRIES + 1);
+        ArrayDeque<OpenBatch<T>> openBatches = new ArrayDeque<>(maxOpenBatches);
+        Map<String, Integer> lastBatchOfGroup = groupOf != null ? new HashMap<>() : null;
+        int nextBatchSequence = 0;
+
+        for( T nextItem : items ) {
+
+            int itemSize = sizeOf.applyAsInt(nextItem);
+            if( itemSize > MAX_BATCH_BYTES ) {
+                throw new IllegalArgumentException(String.format("A message of %1$d bytes exceeds the SQS maximum of %2$d bytes.", itemSize, MAX_BATCH_BYTES));
+            }
+
+            String group = groupOf != null ? groupOf.apply(nextItem) : null;
+            Integer earliestSequence = group != null ? lastBatchOfGroup.get(group) : null;
+
+            // First fit among the open batches the item is allowed to join.
+            OpenBatch<T> targetBatch = null;
+            for( OpenBatch<T> nextBatch : openBatches ) {
+                if( (earliestSequence == null || nextBatch.sequence >= earliestSequence) && nextBatch.fits(itemSize) ) {
+                    targetBatch = nextBatch;
+                    break;
+                }
+            }
+
+            if( targetBatch == null ) {
+                if( openBatches.size() == maxOpenBatches ) {
+                    packedBatches.add(openBatches.removeFirst().items);
+                }
+                targetBatch = new OpenBatch<>(nextBatchSequence++);
+                openBatches.addLast(targetBatch);
+            }
+
+            targetBatch.add(nextItem, itemSize);
+            if( group != null ) {
+                lastBatchOfGroup.put(group, targetBatch.sequence);
+            }
+
+            // Batches at the front that are full can go now.
+            Iterator<OpenBatch<T>> openIterator = openBatches.iterator();
+            while( openIterator.hasNext() ) {
+                OpenBatch<T> frontBatch = openIterator.next();
+                if( frontBatch.items.size() < MAX_BATCH_ENTRIES ) {
+                    break;
+                }
+                packedBatches.add(frontBatch.items);
+                openIterator.remove();
+            }
+        }
+
+        for( OpenBatch<T> nextBatch : openBatches ) {
+            packedBatches.add(nextBatch.items);
+        }
+        return packedBatches;
+    }
+
+    private static final class OpenBatch<T> {
+
+        private final int sequence;
+        private final List<T> items = new ArrayList<>(MAX_BATCH_ENTRIES);
+        private int bytes;
+
+        private OpenBatch(int sequence) {
+            this.sequence = sequence;
+        }
+
+        private boolean fits(int itemSize) {
+            return items.size() < MAX_BATCH_ENTRIES && bytes + itemSize <= MAX_BATCH_BYTES;
+        }
+
+        private void add(T item, int itemSize) {
+            items.add(item);
+            bytes += itemSize;
+        }
+    }
+}
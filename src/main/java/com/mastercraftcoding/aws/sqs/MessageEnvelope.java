@@ -0,0 +1,110 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The envelope format used by queues with envelopeMessages set.  An envelope is a single SQS message whose body is a
+ * JSON array of logical messages, each in the attribute layout of QueueArchiveFormat:
+ * <p>
+ * {@code
+ * [{"body":"...","attributes":{"Type":{"dataType":"String","stringValue":"OrderPlaced"}}},{"body":"..."}]
+ * }
+ * <p>
+ * Envelopes carry an EnvelopeCount number attribute with the count of logical messages, which is how a consumer
+ * tells them apart from plain messages sent to the same queue.
+ */
+/* package */ final class MessageEnvelope {
+
+    /* package */ static final String ENVELOPE_ATTRIBUTE = "EnvelopeCount";
+
+    private MessageEnvelope() {
+    }
+
+    /**
+     * A logical message unpacked from an envelope, along with its encoded form for re-enqueueing.
+     */
+    /* package */ static final class Entry {
+
+        /* package */ final String encoded;
+        /* package */ final MessageReceiveContext message;
+
+        private Entry(String encoded, MessageReceiveContext message) {
+            this.encoded = encoded;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Encodes one logical message as an envelope entry.
+     */
+    /* package */ static String encodeEntry(String messageText, Map<String, MessageAttributeValue> attributes) {
+
+        StringWriter entryWriter = new StringWriter(messageText.length() + 16);
+        try( JsonGenerator generator = QueueArchiveFormat.jsonFactory().createGenerator(entryWriter) ) {
+            generator.writeStartObject();
+            generator.writeStringField("body", messageText);
+            QueueArchiveFormat.writeAttributes(generator, attributes);
+            generator.writeEndObject();
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException(e);
+        }
+        return entryWriter.toString();
+    }
+
+    /**
+     * Joins encoded entries into an envelope body.
+     */
+    /* package */ static String envelopeBody(List<String> encodedEntries) {
+        return "[" + String.join(",", encodedEntries) + "]";
+    }
+
+    /* package */ static boolean isEnvelope(MessageReceiveContext message) {
+        return message.getCustomAttribute(ENVELOPE_ATTRIBUTE) != null;
+    }
+
+    /**
+     * Unpacks an envelope into its logical messages.  Each shares the envelope's receipt handle, queue and
+     * timestamps, and is identified by the envelope's message id and its position in the envelope.
+     */
+    /* package */ static List<Entry> unpack(MessageReceiveContext envelope) {
+
+        JsonNode entries;
+        try {
+            entries = QueueArchiveFormat.objectMapper().readTree(envelope.getMessageText());
+        }
+        catch( IOException e ) {
+            throw new IllegalStateException(String.format("Message '%1$s' is not a valid envelope.", envelope.getMessageId()), e);
+        }
+        if( entries == null || !entries.isArray() ) {
+            throw new IllegalStateException(String.format("Message '%1$s' is not a valid envelope.", envelope.getMessageId()));
+        }
+
+        List<Entry> unpackedEntries = new ArrayList<>(entries.size());
+        for( int i = 0 ; i < entries.size() ; i++ ) {
+            JsonNode nextEntry = entries.get(i);
+            MessageReceiveContext logicalMessage = MessageReceiveContext.builder()
+                    .messageId(envelope.getMessageId() + "#" + i)
+                    .receiptHandle(envelope.getReceiptHandle())
+                    .messageText(nextEntry.path("body").asText())
+                    .customAttributes(QueueArchiveFormat.readAttributes(nextEntry))
+                    .queueConfiguration(envelope.getQueueConfiguration())
+                    .sentTimestamp(envelope.getSentTimestamp())
+                    .approximateFirstReceiveTimestamp(envelope.getApproximateFirstReceiveTimestamp())
+                    .approximateReceiveCount(envelope.getApproximateReceiveCount())
+                    .receiveTimestamp(envelope.getReceiveTimestamp())
+                    .build();
+            unpackedEntries.add(new Entry(nextEntry.toString(), logicalMessage));
+        }
+        return unpackedEntries;
+    }
+}
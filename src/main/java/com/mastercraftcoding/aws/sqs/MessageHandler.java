@@ -4,4 +4,20 @@ public interface MessageHandler {
     QueueConfiguration getTargetQueueConfiguration();
     String[] getDesiredMessageAttributes();
     MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext);
+
+    /**
+     * Returns the circuit breaker that pauses this handler's driver threads while its calls keep failing, or null
+     * to always poll.
+     */
+    default HandlerCircuitBreaker getCircuitBreaker() {
+        return null;
+    }
+
+    /**
+     * Returns the throttle that limits the rate and number of messages this handler's driver threads receive, or
+     * null to receive as fast as the handler finishes.
+     */
+    default HandlerThrottle getThrottle() {
+        return null;
+    }
 }
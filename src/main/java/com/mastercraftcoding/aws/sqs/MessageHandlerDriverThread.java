@@ -4,7 +4,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 public class MessageHandlerDriverThread implements Runnable {
 
@@ -15,19 +23,80 @@ public class MessageHandlerDriverThread implements Runnable {
     private final MessageHandler messageHandler;
     private final QueueConfiguration targetQueue;
     private final String[] messageAttributeNames;
+    private final LoadSheddingPolicy sheddingPolicy;
+    private final HandlerCircuitBreaker circuitBreaker;
+    private final HandlerThrottle throttle;
+
+    // Reused by every batch; only touched by the thread that runs processNextBatch().
+    private final List<MessageReceiveContext> successfulMessageList = new ArrayList<>(10);
+    private final List<MessageReceiveContext> poisonMessageList = new ArrayList<>(10);
+    private final List<MessageReceiveContext> releasedMessageList = new ArrayList<>(10);
+    private int heldPermits;
+
+    // Set when the QueueManager shuts down; the driver stops receiving and hands back what it hasn't started.
+    private volatile boolean draining;
+    private volatile boolean holdingMessages;
+    private volatile boolean receiving;
 
     public MessageHandlerDriverThread(QueueManager queueManager, MessageHandler messageHandler, String[] messageAttributeNames) {
+        this(queueManager, messageHandler, messageHandler.getTargetQueueConfiguration(), messageAttributeNames);
+    }
+
+    public MessageHandlerDriverThread(QueueManager queueManager, MessageHandler messageHandler, QueueConfiguration targetQueue, String[] messageAttributeNames) {
+        this(queueManager, messageHandler, targetQueue, messageAttributeNames, true);
+    }
+
+    /**
+     * Creates a driver without starting its thread when startThread is false, so that batches can be processed
+     * directly with processNextBatch() (for example, by benchmarks).
+     */
+    /* package */ MessageHandlerDriverThread(QueueManager queueManager, MessageHandler messageHandler, QueueConfiguration targetQueue,
+                                             String[] messageAttributeNames, boolean startThread) {
         this.queueManager = queueManager;
         this.messageHandler = messageHandler;
-        this.targetQueue = this.messageHandler.getTargetQueueConfiguration();
-        this.messageAttributeNames = messageAttributeNames != null ? messageAttributeNames : new String[0];
+        this.targetQueue = targetQueue;
+        this.circuitBreaker = messageHandler.getCircuitBreaker();
+        this.throttle = messageHandler.getThrottle();
+        String[] desiredAttributeNames = messageAttributeNames != null ? messageAttributeNames : new String[0];
+
+        // Envelopes are recognised by their count attribute, so it is always read from envelope queues.
+        if( targetQueue.isEnvelopeMessages() ) {
+            desiredAttributeNames = Arrays.copyOf(desiredAttributeNames, desiredAttributeNames.length + 1);
+            desiredAttributeNames[desiredAttributeNames.length - 1] = MessageEnvelope.ENVELOPE_ATTRIBUTE;
+        }
+
+        // Shedding needs every message's age and priority, and moving a message elsewhere needs all its attributes.
+        this.sheddingPolicy = targetQueue.getLoadSheddingPolicy();
+        if( sheddingPolicy != null ) {
+            if( sheddingPolicy.getStaleMessageQueue() != null || sheddingPolicy.getDeferralQueue() != null ) {
+                desiredAttributeNames = new String[] { "All" };
+            }
+            else if( sheddingPolicy.getPriorityAttributeName() != null ) {
+                desiredAttributeNames = Arrays.copyOf(desiredAttributeNames, desiredAttributeNames.length + 1);
+                desiredAttributeNames[desiredAttributeNames.length - 1] = sheddingPolicy.getPriorityAttributeName();
+            }
+        }
+
+        // Poison messages are copied to the dead letter queue, which needs all of their attributes too.
+        if( targetQueue.isCreateDeadLetterQueue() ) {
+            desiredAttributeNames = new String[] { "All" };
+        }
+        this.messageAttributeNames = desiredAttributeNames;
+
+        // Coalescing keeps the newest message of each key, and shedding goes by age, which both take the sent timestamps.
+        if( messageHandler instanceof CoalescingMessageHandler || sheddingPolicy != null ) {
+            targetQueue.getSystemConfiguration().setReceiveTimestamps(true);
+        }
 
         this.driverThread = new Thread(this, "MessageHandlerDriverThread - " + queueManager.fullQueueName(targetQueue));
         this.driverThread.setDaemon(true);
-        this.driverThread.start();
+        if( startThread ) {
+            this.driverThread.start();
+        }
     }
 
     public void stop() {
+        beginDrain();
         this.driverThread.interrupt();
 
         try {
@@ -38,6 +107,47 @@ public class MessageHandlerDriverThread implements Runnable {
         }
     }
 
+    /**
+     * Stops the driver receiving.  The message being handled is finished, and the rest of the batch is handed back
+     * to the queue to be received at once by another consumer.
+     */
+    /* package */ void beginDrain() {
+        draining = true;
+    }
+
+    /**
+     * Waits until the driver holds no messages, or until deadlineNanos.  A driver blocked in a receive holds nothing,
+     * so it is not waited for.
+     */
+    /* package */ void awaitDrained(long deadlineNanos) {
+        awaitWhile(() -> holdingMessages, deadlineNanos);
+    }
+
+    /**
+     * Waits until the driver thread has exited, or until deadlineNanos.  Once draining, a driver blocked in a receive
+     * hands back whatever it receives without calling the handler, so it is not waited for either.
+     */
+    /* package */ void awaitStopped(long deadlineNanos) {
+        awaitWhile(() -> !receiving, deadlineNanos);
+    }
+
+    private void awaitWhile(BooleanSupplier condition, long deadlineNanos) {
+        long remainingNanos;
+        while( condition.getAsBoolean() && driverThread.isAlive() && (remainingNanos = deadlineNanos - System.nanoTime()) > 0 ) {
+            try {
+                driverThread.join(Math.max(1, Math.min(50, TimeUnit.NANOSECONDS.toMillis(remainingNanos))));
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /* package */ void interrupt() {
+        driverThread.interrupt();
+    }
+
     @Override
     public void run() {
 
@@ -45,56 +155,517 @@ public class MessageHandlerDriverThread implements Runnable {
             log.info(String.format("Message Driver Thread Starting - %1$s", queueManager.fullQueueName(targetQueue)));
         }
 
-        while(!Thread.interrupted()) {
+        // Back off while the queue keeps failing, rather than spinning on an SQS or credentials outage.
+        QueueRetryConfiguration retryConfiguration = queueManager.getRetryConfiguration();
+        ExponentialBackoff failureBackoff = new ExponentialBackoff(retryConfiguration.getInitialBackoffMillis(), retryConfiguration.getMaxBackoffMillis());
+        int consecutiveFailures = 0;
+
+        while(!Thread.interrupted() && !draining) {
             try {
-                List<MessageReceiveContext> successfulMessageList = new ArrayList<>();
+                processNextBatch();
 
-                // Read in the next batch of messages
-                MessageReceiveContext[] returnedMessages = queueManager.readMessages(targetQueue, messageAttributeNames, 10);
-                for( MessageReceiveContext nextMessage : returnedMessages ) {
+                if( consecutiveFailures > 0 ) {
+                    if( log.isInfoEnabled() ) {
+                        log.info(String.format("Message Driver Thread recovered after %1$d failures - %2$s", consecutiveFailures, queueManager.fullQueueName(targetQueue)));
+                    }
+                    consecutiveFailures = 0;
+                    failureBackoff.reset();
+                }
+            }
+            catch( Throwable t ) {
 
-                    try {
-                        if( log.isDebugEnabled()) {
-                            log.debug(String.format("Processing message with id %1$s", nextMessage.getMessageId()));
-                        }
+                // Log the first failure in full, and only a summary of the repeats.
+                consecutiveFailures++;
+                long delayMillis = failureBackoff.nextDelayMillis();
+                if( consecutiveFailures == 1 ) {
+                    log.error(t.getMessage(), t);
+                }
+                else if( log.isWarnEnabled() ) {
+                    log.warn(String.format("Message Driver Thread failed %1$d times in a row, retrying in %2$d ms - %3$s", consecutiveFailures, delayMillis, t.getMessage()));
+                }
 
-                        // Ask the messageHandler to process this message.
-                        MessageHandlerStatus status = messageHandler.handleMessage(nextMessage);
+                try {
+                    Thread.sleep(delayMillis);
+                }
+                catch( InterruptedException e ) {
+                    break;
+                }
+            }
+        }
 
-                        if( log.isDebugEnabled()) {
-                            log.debug(String.format("Successfully processed message with id %1$s", nextMessage.getMessageId()));
-                        }
+        if( log.isInfoEnabled()) {
+            log.info(String.format("Message Driver Thread Stopping - %1$s", queueManager.fullQueueName(targetQueue)));
+        }
+    }
 
-                        // If the message was processed successfully...
-                        if( status == MessageHandlerStatus.Message_Processed_Successfully ) {
-                            successfulMessageList.add(nextMessage);
-                        }
-                    }
-                    catch( Throwable t ) {
-                        log.error(t.getMessage(), t);
+    /**
+     * Reads the next batch of messages, hands each one to the message handler and deletes the ones that were
+     * processed successfully.  Returns the number of messages read.
+     */
+    /* package */ int processNextBatch() {
+
+        successfulMessageList.clear();
+        if( draining ) {
+            return 0;
+        }
+
+        // An open circuit breaker stops polling until it is time to probe.
+        int permittedCount = circuitBreaker != null ? circuitBreaker.permittedMessages() : 10;
+        if( permittedCount == 0 ) {
+            try {
+                Thread.sleep(Math.max(1, circuitBreaker.millisUntilProbe()));
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            return 0;
+        }
+
+        // Take the handler's rate and bulkhead permits before receiving, so nothing is received that must wait.  The
+        // messages received hold their bulkhead slots, and any probe permits, until the batch is done with them.
+        try {
+            int maxMessageCount = throttle != null ? throttle.acquire(permittedCount) : permittedCount;
+            return processMessages(maxMessageCount);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        finally {
+            if( throttle != null ) {
+                throttle.finished(heldPermits);
+                heldPermits = 0;
+            }
+            if( circuitBreaker != null ) {
+                circuitBreaker.finished(permittedCount);
+            }
+            holdingMessages = false;
+        }
+    }
+
+    private int processMessages(int maxMessageCount) {
+
+        // Read in the next batch of messages
+        MessageReceiveContext[] returnedMessages = readMessages(maxMessageCount, Integer.MAX_VALUE);
+        if( messageHandler instanceof CoalescingMessageHandler ) {
+            return processCoalescingWindow((CoalescingMessageHandler) messageHandler, returnedMessages, maxMessageCount);
+        }
+
+        for( MessageReceiveContext nextMessage : shedMessages(returnedMessages) ) {
+
+            // Once the breaker opens or the driver drains, the rest of the batch is handed back rather than failed.
+            if( isReleasing() ) {
+                releasedMessageList.add(nextMessage);
+                continue;
+            }
+
+            try {
+                if( log.isDebugEnabled()) {
+                    log.debug(String.format("Processing message with id %1$s", nextMessage.getMessageId()));
+                }
+
+                // An envelope is deleted once every message in it has been dealt with.
+                if( MessageEnvelope.isEnvelope(nextMessage) ) {
+                    if( processEnvelope(nextMessage) ) {
+                        successfulMessageList.add(nextMessage);
                     }
+                    continue;
                 }
 
-                // Tell SQS to delete the messages that we have successfully processed.
-                queueManager.deleteMessages(targetQueue, successfulMessageList);
+                // Ask the messageHandler to process this message.
+                MessageHandlerStatus status = handleMessage(nextMessage);
 
                 if( log.isDebugEnabled()) {
-                    for(MessageReceiveContext nextMessage : successfulMessageList) {
-                        log.debug(String.format("Successfully removed message from queue %1$s", nextMessage.getMessageId()));
+                    log.debug(String.format("Successfully processed message with id %1$s", nextMessage.getMessageId()));
+                }
+
+                // If the message was processed successfully...
+                if( status == MessageHandlerStatus.Message_Processed_Successfully ) {
+                    successfulMessageList.add(nextMessage);
+                }
+                else if( status == MessageHandlerStatus.Message_Poison ) {
+                    poisonMessageList.add(nextMessage);
+                }
+            }
+            catch( Throwable t ) {
+                log.error(t.getMessage(), t);
+            }
+        }
+
+        // Tell SQS to delete the messages that we have successfully processed.
+        queueManager.deleteMessages(targetQueue, successfulMessageList);
+
+        if( log.isDebugEnabled()) {
+            for(MessageReceiveContext nextMessage : successfulMessageList) {
+                log.debug(String.format("Successfully removed message from queue %1$s", nextMessage.getMessageId()));
+            }
+        }
+
+        // Poison messages go straight to the dead letter queue instead of waiting out their redelivery attempts.
+        movePoisonMessages(poisonMessageList, true);
+        releaseMessages(releasedMessageList);
+
+        // Don't keep the messages reachable until the next batch.
+        successfulMessageList.clear();
+        poisonMessageList.clear();
+        releasedMessageList.clear();
+
+        return returnedMessages.length;
+    }
+
+    /**
+     * Keeps receiving until the handler's coalescing window closes, then hands each key's messages to the handler
+     * in one call.  Messages without a key, and envelopes, are handled one at a time as usual.  Returns the number of
+     * messages read.
+     */
+    private int processCoalescingWindow(CoalescingMessageHandler coalescingHandler, MessageReceiveContext[] firstMessages, int maxMessageCount) {
+
+        int readCount = firstMessages.length;
+        List<MessageReceiveContext> windowMessages = new ArrayList<>(shedMessages(firstMessages));
+        long windowEndNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(coalescingHandler.getCoalescingWindowMillis());
+        while( firstMessages.length > 0 && windowMessages.size() < coalescingHandler.getMaxCoalescedMessages()
+                && System.nanoTime() - windowEndNanos < 0 && !draining ) {
+
+            // The window closes early rather than wait on the throttle while holding what it has.
+            int permittedCount = throttle != null ? throttle.tryAcquire(maxMessageCount) : maxMessageCount;
+            if( permittedCount == 0 ) {
+                break;
+            }
+
+            // Never long poll past the end of the window while holding the messages already received; under a
+            // second left polls without waiting.
+            long remainingMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(windowEndNanos - System.nanoTime()));
+            MessageReceiveContext[] returnedMessages = readMessages(permittedCount, (int) TimeUnit.MILLISECONDS.toSeconds(remainingMillis));
+            if( returnedMessages.length == 0 ) {
+                break;
+            }
+            readCount += returnedMessages.length;
+            windowMessages.addAll(shedMessages(returnedMessages));
+        }
+
+        // Group by key in order of each key's first message.
+        Map<String, List<MessageReceiveContext>> messagesByKey = new LinkedHashMap<>();
+        List<MessageReceiveContext> successfulMessages = new ArrayList<>();
+        List<MessageReceiveContext> poisonMessages = new ArrayList<>();
+        List<MessageReceiveContext> releasedMessages = new ArrayList<>();
+        for( MessageReceiveContext nextMessage : windowMessages ) {
+            if( isReleasing() ) {
+                releasedMessages.add(nextMessage);
+                continue;
+            }
+
+            try {
+                if( MessageEnvelope.isEnvelope(nextMessage) ) {
+                    if( processEnvelope(nextMessage) ) {
+                        successfulMessages.add(nextMessage);
                     }
+                    continue;
+                }
+
+                String coalescingKey = coalescingHandler.getCoalescingKey(nextMessage);
+                if( coalescingKey != null ) {
+                    messagesByKey.computeIfAbsent(coalescingKey, key -> new ArrayList<>()).add(nextMessage);
+                    continue;
+                }
+
+                MessageHandlerStatus status = handleMessage(nextMessage);
+                if( status == MessageHandlerStatus.Message_Processed_Successfully ) {
+                    successfulMessages.add(nextMessage);
+                }
+                else if( status == MessageHandlerStatus.Message_Poison ) {
+                    poisonMessages.add(nextMessage);
                 }
             }
             catch( Throwable t ) {
                 log.error(t.getMessage(), t);
+            }
+        }
 
-                if(Thread.interrupted()) {
-                    break;
+        for( Map.Entry<String, List<MessageReceiveContext>> nextKey : messagesByKey.entrySet() ) {
+            List<MessageReceiveContext> keyMessages = nextKey.getValue();
+            if( isReleasing() ) {
+                releasedMessages.addAll(keyMessages);
+                continue;
+            }
+
+            try {
+                // Oldest first; the sort is stable, so messages sent in the same millisecond keep their receive order.
+                keyMessages.sort(Comparator.comparingLong(MessageReceiveContext::getSentTimestamp));
+                MessageHandlerStatus status;
+                if( keyMessages.size() == 1 ) {
+                    status = handleMessage(keyMessages.get(0));
+                }
+                else {
+                    long startNanos = System.nanoTime();
+                    status = MessageHandlerStatus.Message_Processing_Failed;
+                    try {
+                        status = coalescingHandler.handleCoalescedMessages(Collections.unmodifiableList(keyMessages));
+                    }
+                    finally {
+                        recordCall(status, startNanos);
+                    }
+                }
+                if( status == MessageHandlerStatus.Message_Processed_Successfully ) {
+                    successfulMessages.addAll(keyMessages);
+                }
+                else if( status == MessageHandlerStatus.Message_Poison ) {
+                    poisonMessages.addAll(keyMessages);
                 }
             }
+            catch( Throwable t ) {
+                log.error(t.getMessage(), t);
+            }
         }
 
-        if( log.isInfoEnabled()) {
-            log.info(String.format("Message Driver Thread Stopping - %1$s", queueManager.fullQueueName(targetQueue)));
+        if( log.isDebugEnabled() ) {
+            log.debug(String.format("Coalesced %1$d messages into %2$d keys - %3$s", windowMessages.size(), messagesByKey.size(), queueManager.fullQueueName(targetQueue)));
+        }
+
+        // Superseded messages go with the message that superseded them.
+        deleteInBatches(successfulMessages);
+        movePoisonMessages(poisonMessages, true);
+        releaseMessages(releasedMessages);
+
+        return readCount;
+    }
+
+    /**
+     * Receives up to maxMessageCount messages, for which throttle permits have been taken, waiting no more than
+     * maxWaitTimeSeconds, and hands back the permits of any not received.
+     */
+    private MessageReceiveContext[] readMessages(int maxMessageCount, int maxWaitTimeSeconds) {
+
+        MessageReceiveContext[] returnedMessages = null;
+        receiving = true;
+        try {
+            returnedMessages = queueManager.readMessages(targetQueue, messageAttributeNames, maxMessageCount, maxWaitTimeSeconds);
+            return returnedMessages;
+        }
+        finally {
+            receiving = false;
+            if( throttle != null ) {
+                int receivedCount = returnedMessages != null ? returnedMessages.length : 0;
+                throttle.release(maxMessageCount - receivedCount);
+                heldPermits += receivedCount;
+            }
+            if( returnedMessages != null && returnedMessages.length > 0 ) {
+                holdingMessages = true;
+            }
+        }
+    }
+
+    /**
+     * Applies the queue's load shedding policy to a received batch, returning the messages left to handle.
+     */
+    private List<MessageReceiveContext> shedMessages(MessageReceiveContext[] messages) {
+
+        if( sheddingPolicy == null || messages.length == 0 ) {
+            return Arrays.asList(messages);
+        }
+
+        // The batch's oldest message says how far behind this driver is.
+        long nowMillis = System.currentTimeMillis();
+        boolean overloaded = false;
+        for( MessageReceiveContext nextMessage : messages ) {
+            overloaded |= sheddingPolicy.isOverloadAge(nextMessage, nowMillis);
+        }
+
+        List<MessageReceiveContext> keptMessages = new ArrayList<>(messages.length);
+        List<MessageReceiveContext> expiredMessages = new ArrayList<>();
+        List<MessageReceiveContext> deferredMessages = new ArrayList<>();
+        for( MessageReceiveContext nextMessage : messages ) {
+            if( sheddingPolicy.isExpired(nextMessage, nowMillis) ) {
+                expiredMessages.add(nextMessage);
+            }
+            else if( overloaded && sheddingPolicy.isLowPriority(nextMessage) ) {
+                deferredMessages.add(nextMessage);
+            }
+            else {
+                keptMessages.add(nextMessage);
+            }
+        }
+
+        sheddingPolicy.recordExpired(moveMessages(expiredMessages, sheddingPolicy.getStaleMessageQueue()));
+        sheddingPolicy.recordDeferred(moveMessages(deferredMessages, sheddingPolicy.getDeferralQueue()));
+        return keptMessages;
+    }
+
+    /**
+     * Sends copies of the messages to the destination queue, or nowhere if it is null, and deletes the originals
+     * that were copied.  Returns the number of messages moved; the rest are left to be received again.
+     */
+    private int moveMessages(List<MessageReceiveContext> messages, QueueConfiguration destinationQueue) {
+
+        if( messages.isEmpty() ) {
+            return 0;
+        }
+
+        List<MessageReceiveContext> movedMessages = messages;
+        try {
+            if( destinationQueue != null ) {
+                Map<MessageSendContext, MessageReceiveContext> originals = new IdentityHashMap<>();
+                for( MessageReceiveContext nextMessage : messages ) {
+                    MessageSendContext.Builder copyBuilder = MessageSendContext.builder()
+                            .queueConfiguration(destinationQueue)
+                            .messageText(nextMessage.getMessageText());
+                    for( String nextAttributeName : nextMessage.getCustomAttributeNames() ) {
+                        copyBuilder.customAttribute(nextAttributeName, nextMessage.getCustomAttribute(nextAttributeName));
+                    }
+                    originals.put(copyBuilder.build(), nextMessage);
+                }
+
+                BatchSendResult result = destinationQueue.getOwningQueueManager().sendMessages(new ArrayList<>(originals.keySet()));
+                movedMessages = new ArrayList<>(result.getSuccessful().size());
+                for( MessageSendContext nextCopy : result.getSuccessful() ) {
+                    movedMessages.add(originals.get(nextCopy));
+                }
+                if( !result.getFailed().isEmpty() && log.isWarnEnabled() ) {
+                    log.warn(String.format("Could not move %1$d shed messages to '%2$s': %3$s", result.getFailed().size(),
+                            destinationQueue.getQueueBaseName(), result.getFailed().get(0).getErrorMessage()));
+                }
+            }
+
+            deleteInBatches(movedMessages);
+            return movedMessages.size();
+        }
+        catch( RuntimeException e ) {
+            log.warn(String.format("Could not shed %1$d messages - %2$s: %3$s", messages.size(), queueManager.fullQueueName(targetQueue), e.getMessage()));
+            return 0;
+        }
+    }
+
+    /**
+     * Calls the handler, recording the outcome with the circuit breaker.  A call that throws counts as a failure.
+     */
+    private MessageHandlerStatus handleMessage(MessageReceiveContext message) {
+        long startNanos = System.nanoTime();
+        MessageHandlerStatus status = MessageHandlerStatus.Message_Processing_Failed;
+        try {
+            status = messageHandler.handleMessage(message);
+            return status;
+        }
+        finally {
+            recordCall(status, startNanos);
+        }
+    }
+
+    private void recordCall(MessageHandlerStatus status, long startNanos) {
+        // A poison message says nothing about the health of whatever the handler depends on.
+        if( circuitBreaker != null ) {
+            circuitBreaker.recordCall(status == MessageHandlerStatus.Message_Processing_Failed, System.nanoTime() - startNanos);
+        }
+    }
+
+    private boolean isReleasing() {
+        return draining || (circuitBreaker != null && circuitBreaker.isOpen());
+    }
+
+    /**
+     * Hands messages received but not handled back to the queue: at once when draining, otherwise to be received
+     * again once the breaker lets them through.
+     */
+    private void releaseMessages(List<MessageReceiveContext> messages) {
+
+        if( messages.isEmpty() ) {
+            return;
+        }
+
+        try {
+            int visibilitySeconds = draining || circuitBreaker == null ? 0 : circuitBreaker.getReleaseVisibilitySeconds();
+            queueManager.changeMessageVisibility(targetQueue, messages, visibilitySeconds);
+        }
+        catch( RuntimeException e ) {
+            log.warn(String.format("Could not release %1$d messages - %2$s: %3$s", messages.size(), queueManager.fullQueueName(targetQueue), e.getMessage()));
+        }
+    }
+
+    /**
+     * Moves poison messages to the queue's dead letter queue, returning the ones that were moved.  Without a dead
+     * letter queue they are left to be received again, like any other failure.
+     */
+    private List<MessageReceiveContext> movePoisonMessages(List<MessageReceiveContext> messages, boolean deleteOriginals) {
+
+        if( messages.isEmpty() ) {
+            return Collections.emptyList();
+        }
+
+        if( !targetQueue.isCreateDeadLetterQueue() ) {
+            if( log.isWarnEnabled() ) {
+                log.warn(String.format("%1$d poison messages left on a queue with no dead letter queue (%2$s) - %3$s",
+                        messages.size(), messages.get(0).getPoisonReason(), queueManager.fullQueueName(targetQueue)));
+            }
+            return Collections.emptyList();
+        }
+
+        try {
+            List<MessageReceiveContext> movedMessages = queueManager.moveToDeadLetterQueue(targetQueue, messages, deleteOriginals);
+            if( log.isWarnEnabled() ) {
+                log.warn(String.format("Moved %1$d of %2$d poison messages to the dead letter queue (%3$s) - %4$s",
+                        movedMessages.size(), messages.size(), messages.get(0).getPoisonReason(), queueManager.fullQueueName(targetQueue)));
+            }
+            return movedMessages;
+        }
+        catch( RuntimeException e ) {
+            log.warn(String.format("Could not move %1$d poison messages to the dead letter queue - %2$s: %3$s", messages.size(), queueManager.fullQueueName(targetQueue), e.getMessage()));
+            return Collections.emptyList();
+        }
+    }
+
+    private void deleteInBatches(List<MessageReceiveContext> messages) {
+        for( int i = 0 ; i < messages.size() ; i += 10 ) {
+            queueManager.deleteMessages(targetQueue, messages.subList(i, Math.min(i + 10, messages.size())));
+        }
+    }
+
+    /**
+     * Hands each logical message in the envelope to the message handler.  Returns true if the envelope can be
+     * deleted: every message succeeded, or the ones that failed have been sent again in an envelope of their own.
+     * When every message fails the envelope is left to be received again, so the queue's redrive policy applies.
+     */
+    private boolean processEnvelope(MessageReceiveContext envelope) {
+
+        List<MessageEnvelope.Entry> entries = MessageEnvelope.unpack(envelope);
+        List<String> failedEntries = new ArrayList<>();
+        Map<MessageReceiveContext, String> poisonEntries = new IdentityHashMap<>();
+        for( MessageEnvelope.Entry nextEntry : entries ) {
+            MessageHandlerStatus status;
+            try {
+                status = handleMessage(nextEntry.message);
+            }
+            catch( Throwable t ) {
+                log.error(t.getMessage(), t);
+                status = MessageHandlerStatus.Message_Processing_Failed;
+            }
+
+            if( status == MessageHandlerStatus.Message_Poison ) {
+                poisonEntries.put(nextEntry.message, nextEntry.encoded);
+            }
+            else if( status != MessageHandlerStatus.Message_Processed_Successfully ) {
+                failedEntries.add(nextEntry.encoded);
+            }
+        }
+
+        // Poison entries are copied to the dead letter queue on their own; any that can't be are retried with the failures.
+        if( !poisonEntries.isEmpty() ) {
+            List<MessageReceiveContext> movedEntries = movePoisonMessages(new ArrayList<>(poisonEntries.keySet()), false);
+            for( MessageReceiveContext nextMovedEntry : movedEntries ) {
+                poisonEntries.remove(nextMovedEntry);
+            }
+            failedEntries.addAll(poisonEntries.values());
+        }
+
+        if( failedEntries.isEmpty() ) {
+            return true;
+        }
+        if( failedEntries.size() == entries.size() ) {
+            return false;
+        }
+
+        // Re-enqueue only the failures; if that fails, the whole envelope comes back and the successes run again.
+        targetQueue.getSystemConfiguration().getEnvelopePacker().sendEnvelope(failedEntries);
+        if( log.isDebugEnabled() ) {
+            log.debug(String.format("Re-enqueued %1$d of the %2$d messages in envelope %3$s", failedEntries.size(), entries.size(), envelope.getMessageId()));
         }
+        return true;
     }
 }
@@ -2,5 +2,12 @@ package com.mastercraftcoding.aws.sqs;
 
 public enum MessageHandlerStatus {
     Message_Processed_Successfully,
-    Message_Processing_Failed
+    Message_Processing_Failed,
+
+    /**
+     * The message can never be processed - it is moved to the queue's dead letter queue straight away rather than
+     * being received again until the redrive policy gives up on it.
+     * @see MessageReceiveContext#poison(String)
+     */
+    Message_Poison
 }
@@ -0,0 +1,71 @@
+package com.mastercraftcoding.aws.sqs;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MessageLatencyStatistics tracks how long messages spend in a single SQS queue.  It is only populated for
+ * QueueConfiguration instances that have "trackMessageLatency" enabled, since the measurements depend on the
+ * SentTimestamp system attribute that SQS only returns when asked for it.
+ * <p>
+ * enqueueToReceive measures the time between SQS accepting a message and this process receiving it, which is the
+ * queue lag seen by consumers.  enqueueToAcknowledge measures the time between SQS accepting a message and this
+ * process deleting it after successful processing, which is the end-to-end latency seen by producers.
+ */
+public class MessageLatencyStatistics {
+
+    private final LatencyHistogram enqueueToReceive = new LatencyHistogram();
+    private final LatencyHistogram enqueueToAcknowledge = new LatencyHistogram();
+    private final LongAdder redeliveredMessageCount = new LongAdder();
+
+    public LatencyHistogram getEnqueueToReceive() {
+        return enqueueToReceive;
+    }
+
+    public LatencyHistogram getEnqueueToAcknowledge() {
+        return enqueueToAcknowledge;
+    }
+
+    /**
+     * Returns the number of received messages whose ApproximateReceiveCount was greater than one, meaning that
+     * an earlier delivery attempt was not acknowledged before its visibility timeout expired.
+     */
+    public long getRedeliveredMessageCount() {
+        return redeliveredMessageCount.sum();
+    }
+
+    /* package */ void recordReceive(MessageReceiveContext messageReceiveContext) {
+        if( messageReceiveContext.getSentTimestamp() > 0 ) {
+            enqueueToReceive.record(messageReceiveContext.getReceiveTimestamp() - messageReceiveContext.getSentTimestamp());
+        }
+        if( messageReceiveContext.getApproximateReceiveCount() > 1 ) {
+            redeliveredMessageCount.increment();
+        }
+    }
+
+    /* package */ void recordAcknowledge(MessageReceiveContext messageReceiveContext, long acknowledgeTimestamp) {
+        if( messageReceiveContext.getSentTimestamp() > 0 ) {
+            enqueueToAcknowledge.record(acknowledgeTimestamp - messageReceiveContext.getSentTimestamp());
+        }
+    }
+
+    /**
+     * Adds everything recorded in another queue's statistics to these.
+     */
+    /* package */ void add(MessageLatencyStatistics other) {
+        enqueueToReceive.add(other.enqueueToReceive);
+        enqueueToAcknowledge.add(other.enqueueToAcknowledge);
+        redeliveredMessageCount.add(other.redeliveredMessageCount.sum());
+    }
+
+    public void reset() {
+        enqueueToReceive.reset();
+        enqueueToAcknowledge.reset();
+        redeliveredMessageCount.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("enqueueToReceive[%1$s] enqueueToAcknowledge[%2$s] redelivered=%3$d",
+                enqueueToReceive, enqueueToAcknowledge, getRedeliveredMessageCount());
+    }
+}
@@ -1,17 +1,30 @@
 package com.mastercraftcoding.aws.sqs;
 
+import software.amazon.awssdk.services.sqs.model.Message;
 import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
 
 import java.util.*;
 
+/**
+ * MessageReceiveContext describes a message received from a queue.  Contexts created by the QueueManager are a thin
+ * view over the SDK Message: the message text and attributes are read from it on demand rather than copied, so a
+ * handler that never looks at attributes pays nothing for them.
+ */
 public class MessageReceiveContext {
 
     private QueueConfiguration queueConfiguration;
+    private Message sdkMessage;
 
     private String messageId;
     private String receiptHandle;
     private String messageText;
-    private final HashMap<String, MessageAttributeValue> customAttributes = new HashMap<>();
+    private long sentTimestamp;
+    private long approximateFirstReceiveTimestamp;
+    private int approximateReceiveCount;
+    private long receiveTimestamp;
+    private Map<String, MessageAttributeValue> customAttributes;
+    private String poisonReason;
 
     private MessageReceiveContext() {
 
@@ -21,6 +34,17 @@ public class MessageReceiveContext {
         return new Builder();
     }
 
+    /**
+     * Creates a context that reads its message id, receipt handle, text and attributes from the given SDK message.
+     */
+    /* package */ static MessageReceiveContext fromSdkMessage(Message sdkMessage, QueueConfiguration queueConfiguration, long receiveTimestamp) {
+        MessageReceiveContext receiveContext = new MessageReceiveContext();
+        receiveContext.sdkMessage = sdkMessage;
+        receiveContext.queueConfiguration = queueConfiguration;
+        receiveContext.receiveTimestamp = receiveTimestamp;
+        return receiveContext;
+    }
+
     public static class Builder {
 
         private final MessageReceiveContext receiveContext;
@@ -45,12 +69,12 @@ public class MessageReceiveContext {
         }
 
         public Builder customAttribute(String name, MessageAttributeValue value) {
-            receiveContext.customAttributes.put(name,value);
+            receiveContext.writableCustomAttributes().put(name,value);
             return this;
         }
 
         public Builder customAttributes(Map<String, MessageAttributeValue> attributes) {
-            receiveContext.customAttributes.putAll(attributes);
+            receiveContext.writableCustomAttributes().putAll(attributes);
             return this;
         }
 
@@ -59,6 +83,26 @@ public class MessageReceiveContext {
             return this;
         }
 
+        public Builder sentTimestamp(long sentTimestamp) {
+            receiveContext.sentTimestamp = sentTimestamp;
+            return this;
+        }
+
+        public Builder approximateFirstReceiveTimestamp(long approximateFirstReceiveTimestamp) {
+            receiveContext.approximateFirstReceiveTimestamp = approximateFirstReceiveTimestamp;
+            return this;
+        }
+
+        public Builder approximateReceiveCount(int approximateReceiveCount) {
+            receiveContext.approximateReceiveCount = approximateReceiveCount;
+            return this;
+        }
+
+        public Builder receiveTimestamp(long receiveTimestamp) {
+            receiveContext.receiveTimestamp = receiveTimestamp;
+            return this;
+        }
+
         public MessageReceiveContext build() {
             return receiveContext;
         }
@@ -69,27 +113,123 @@ public class MessageReceiveContext {
     }
 
     public String getMessageId() {
-        return messageId;
+        return sdkMessage != null ? sdkMessage.messageId() : messageId;
     }
 
     public String getReceiptHandle() {
-        return receiptHandle;
+        return sdkMessage != null ? sdkMessage.receiptHandle() : receiptHandle;
     }
 
     public String getMessageText() {
-        return messageText;
+        return sdkMessage != null ? sdkMessage.body() : messageText;
+    }
+
+    /**
+     * Returns the time (epoch milliseconds) at which SQS accepted this message, or zero if the SentTimestamp
+     * system attribute was not requested.
+     * @see QueueConfiguration#isTrackMessageLatency()
+     */
+    public long getSentTimestamp() {
+        return sdkMessage != null ? systemAttribute(MessageSystemAttributeName.SENT_TIMESTAMP) : sentTimestamp;
+    }
+
+    /**
+     * Returns the time (epoch milliseconds) at which SQS first delivered this message to any consumer, or zero if
+     * the ApproximateFirstReceiveTimestamp system attribute was not requested.
+     */
+    public long getApproximateFirstReceiveTimestamp() {
+        return sdkMessage != null ? systemAttribute(MessageSystemAttributeName.APPROXIMATE_FIRST_RECEIVE_TIMESTAMP) : approximateFirstReceiveTimestamp;
+    }
+
+    /**
+     * Returns the number of times SQS has delivered this message, including this delivery, or zero if the
+     * ApproximateReceiveCount system attribute was not requested.
+     */
+    public int getApproximateReceiveCount() {
+        return sdkMessage != null ? (int) systemAttribute(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT) : approximateReceiveCount;
+    }
+
+    /**
+     * Returns the local time (epoch milliseconds) at which this message was received from SQS.
+     */
+    public long getReceiveTimestamp() {
+        return receiveTimestamp;
+    }
+
+    /**
+     * Returns the number of milliseconds this message waited in SQS before it was received, or -1 if the
+     * SentTimestamp system attribute was not requested.
+     */
+    public long getMessageAgeMillis() {
+        long messageSentTimestamp = getSentTimestamp();
+        return messageSentTimestamp > 0 ? Math.max(0, receiveTimestamp - messageSentTimestamp) : -1;
+    }
+
+    /**
+     * Records why this message can never be processed, returning Message_Poison for the handler to return.  The
+     * reason goes with the message to the dead letter queue.
+     */
+    public MessageHandlerStatus poison(String reason) {
+        this.poisonReason = reason;
+        return MessageHandlerStatus.Message_Poison;
+    }
+
+    /**
+     * Returns the reason given to poison(), or null.
+     */
+    public String getPoisonReason() {
+        return poisonReason;
+    }
+
+    /**
+     * Returns the FIFO message group id, or null if this is not a FIFO message or the MessageGroupId system
+     * attribute was not requested.
+     */
+    /* package */ String getMessageGroupId() {
+        return sdkMessage != null ? sdkMessage.attributesAsStrings().get(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString()) : null;
     }
 
     public boolean hasCustomAttribute(String attributeName) {
-        return customAttributes.containsKey(attributeName);
+        return customAttributes().containsKey(attributeName);
     }
 
     public MessageAttributeValue getCustomAttribute(String attributeName) {
-        return customAttributes.get(attributeName);
+        return customAttributes().get(attributeName);
     }
 
     public Set<String> getCustomAttributeNames() {
-        return customAttributes.keySet();
+        return customAttributes().keySet();
+    }
+
+    private Map<String, MessageAttributeValue> customAttributes() {
+        if( sdkMessage != null ) {
+            return sdkMessage.messageAttributes();
+        }
+        return customAttributes != null ? customAttributes : Collections.emptyMap();
+    }
+
+    private Map<String, MessageAttributeValue> writableCustomAttributes() {
+        if( customAttributes == null ) {
+            customAttributes = new HashMap<>();
+        }
+        return customAttributes;
+    }
+
+    /**
+     * Returns a numeric SQS system attribute of the SDK message, or zero if it was not requested.
+     */
+    private long systemAttribute(MessageSystemAttributeName attributeName) {
+        String attributeValue = sdkMessage.attributesAsStrings().get(attributeName.toString());
+        if( attributeValue == null ) {
+            return 0;
+        }
+
+        try {
+            return Long.parseLong(attributeValue);
+        }
+        catch( NumberFormatException e ) {
+            return 0;
+        }
     }
 
     public void delete() {
@@ -0,0 +1,998 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.utility.MessageSizeUtility;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * MessageScheduler delivers messages at an arbitrary future time - hours or days out, well beyond the 15 minute
+ * limit of an SQS delivery delay.  Scheduled messages are appended to a local log and tracked by a hierarchical
+ * timing wheel that holds only each message's release time and log position, so millions of pending schedules take
+ * little heap.
+ * <p>
+ * Shortly before a message is due (releaseAheadSeconds) it is read back from the log and sent with
+ * QueueManager.sendMessages(), batched with everything else being released at the same time, with a delivery delay
+ * covering the rest of the wait.  FIFO queues do not allow per-message delays, so their messages are released when
+ * they are due.
+ * <p>
+ * Schedules survive restarts - the log is replayed when the scheduler is built - and the log is compacted once most
+ * of it is released or cancelled schedules.  Release is at-least-once: a message released just before a crash may
+ * be released again.
+ * <p>
+ * {@code
+ * MessageScheduler scheduler = MessageScheduler.builder()
+ *     .queueManager( queueManager )
+ *     .scheduleDirectory( "/var/lib/my-application/schedules" )
+ *     .build();
+ * long scheduleId = scheduler.schedule( reminderMessage, Instant.now().plus( 3, ChronoUnit.DAYS ) );
+ * }
+ */
+public class MessageScheduler implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageScheduler.class);
+
+    private static final int MAX_DELAY_SECONDS = 900;
+
+    // Each record is a payload length, a CRC32C of the payload and the payload - a version, a record type and the
+    // schedule id, followed by the delivery and release times and the message for a scheduled record.
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final byte RECORD_VERSION = 1;
+    private static final byte RECORD_SCHEDULED = 1;
+    private static final byte RECORD_DONE = 2;
+    private static final byte RECORD_NEXT_ID = 3;
+    private static final int TYPE_OFFSET = 1;
+    private static final int ID_OFFSET = 2;
+    private static final int DELIVER_AT_OFFSET = 10;
+    private static final int RELEASE_AT_OFFSET = 18;
+    private static final int MESSAGE_OFFSET = 26;
+
+    private static final String LOG_FILE = "schedule.log";
+    private static final String COMPACT_FILE = "schedule.log.compact";
+    private static final String LOCK_FILE = "schedule.lock";
+
+    private static final int READ_BUFFER_BYTES = 65536;
+    private static final long RETRY_INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long RETRY_MAX_BACKOFF_MILLIS = 60000;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30000;
+
+    private QueueManager queueManager;
+
+    /**
+     * scheduleDirectory is the directory holding the schedule log.  It is created if it does not exist and may only
+     * be used by one scheduler at a time.
+     */
+    private String scheduleDirectory;
+
+    /**
+     * tickMillis is the resolution of the timing wheel - how often the scheduler looks for messages to release.
+     */
+    private long tickMillis = 1000;
+
+    /**
+     * releaseAheadSeconds is how long before its delivery time a message is sent to SQS, with a delivery delay for
+     * the rest.  At most 900, the longest delay SQS allows.
+     */
+    private int releaseAheadSeconds = 60;
+
+    /**
+     * releaseBatchSize is the most messages handed to QueueManager.sendMessages() at once.
+     */
+    private int releaseBatchSize = 1000;
+
+    /**
+     * syncToDisk forces every schedule and cancellation to the storage device before it returns.  When false, they
+     * only reach the operating system's page cache, which survives a process crash but not a machine crash.
+     */
+    private boolean syncToDisk = true;
+
+    /**
+     * compactionThresholdBytes is the smallest log that is compacted.  Above it, the log is rewritten with only the
+     * pending schedules once more than half of it is released or cancelled ones.
+     */
+    private long compactionThresholdBytes = 64L * 1024 * 1024;
+
+    private Path directory;
+    private FileChannel lockChannel;
+    private FileLock directoryLock;
+
+    // The log and the wheel, guarded by lock.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeUp = lock.newCondition();
+    private FileChannel logChannel;
+    private long writePosition;
+    private long deadBytes;
+    private TimingWheel timingWheel;
+    private final Set<Long> cancelledIds = new HashSet<>();
+    private volatile boolean closed;
+
+    // The wheel entries due for release, only touched by the releaser thread.
+    private long[] dueEntries = new long[64];
+    private int dueEntryCount;
+
+    private Thread releaserThread;
+    private final AtomicLong nextScheduleId = new AtomicLong(1);
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicLong releasedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private MessageScheduler() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final MessageScheduler returnScheduler;
+
+        private Builder() {
+            this.returnScheduler = new MessageScheduler();
+        }
+
+        public Builder queueManager(QueueManager queueManager) {
+            returnScheduler.queueManager = queueManager;
+            return this;
+        }
+
+        public Builder scheduleDirectory(String scheduleDirectory) {
+            returnScheduler.scheduleDirectory = scheduleDirectory;
+            return this;
+        }
+
+        public Builder tickMillis(long tickMillis) {
+            returnScheduler.tickMillis = tickMillis;
+            return this;
+        }
+
+        public Builder releaseAheadSeconds(int releaseAheadSeconds) {
+            returnScheduler.releaseAheadSeconds = releaseAheadSeconds;
+            return this;
+        }
+
+        public Builder releaseBatchSize(int releaseBatchSize) {
+            returnScheduler.releaseBatchSize = releaseBatchSize;
+            return this;
+        }
+
+        public Builder syncToDisk(boolean syncToDisk) {
+            returnScheduler.syncToDisk = syncToDisk;
+            return this;
+        }
+
+        public Builder compactionThresholdBytes(long compactionThresholdBytes) {
+            returnScheduler.compactionThresholdBytes = compactionThresholdBytes;
+            return this;
+        }
+
+        /**
+         * Opens the schedule log, recovering any schedules left by a previous run, and starts releasing messages.
+         */
+        public MessageScheduler build() {
+            returnScheduler.validate();
+            returnScheduler.start();
+            return returnScheduler;
+        }
+    }
+
+    private void validate() {
+
+        if( queueManager == null ) {
+            throw new IllegalStateException("queueManager must be set.");
+        }
+
+        if( scheduleDirectory == null || scheduleDirectory.isEmpty() ) {
+            throw new IllegalStateException("scheduleDirectory must be set.");
+        }
+
+        if( tickMillis < 1 ) {
+            throw new IllegalStateException("tickMillis must be at least 1.");
+        }
+
+        if( releaseAheadSeconds < 0 || releaseAheadSeconds > MAX_DELAY_SECONDS ) {
+            throw new IllegalStateException(String.format("releaseAheadSeconds must be between 0 and %1$d.", MAX_DELAY_SECONDS));
+        }
+
+        if( releaseBatchSize < 1 ) {
+            throw new IllegalStateException("releaseBatchSize must be at least 1.");
+        }
+    }
+
+    private void start() {
+
+        directory = Paths.get(scheduleDirectory);
+        try {
+            open();
+        }
+        catch( IOException e ) {
+            closeFiles();
+            throw new IllegalStateException(String.format("Could not open the schedule log in '%1$s'.", directory), e);
+        }
+
+        if( log.isInfoEnabled() ) {
+            log.info(String.format("Message scheduler opened in '%1$s' with %2$d messages scheduled", directory, pendingCount.get()));
+        }
+
+        releaserThread = new Thread(this::runReleaser, "MessageScheduler - " + directory);
+        releaserThread.setDaemon(true);
+        releaserThread.start();
+    }
+
+    /**
+     * The number of messages scheduled but not yet released, including cancelled ones whose release time has not
+     * yet come.
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * The number of messages accepted by SQS since the scheduler was built.
+     */
+    public long getReleasedCount() {
+        return releasedCount.get();
+    }
+
+    /**
+     * The number of messages SQS rejected as invalid (sender faults), or whose records could not be read.  These
+     * can never succeed, so they are logged and dropped rather than retried.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Schedules a message for delivery at deliverAt, returning an id that can be used to cancel it.  The message's
+     * own messageDelaySeconds is ignored, and a deliverAt in the past delivers the message right away.  The
+     * message's queue is looked up by name when the message is released, so after a restart it must be registered
+     * with the QueueManager again.
+     */
+    public long schedule(MessageSendContext message, Instant deliverAt) {
+
+        if( message == null || deliverAt == null ) {
+            throw new IllegalArgumentException("message and deliverAt must be set.");
+        }
+
+        QueueConfiguration queueConfiguration = message.getQueueConfiguration();
+        if( queueConfiguration.getOwningQueueManager() != queueManager ) {
+            throw new IllegalArgumentException("The message's queue is not registered with this scheduler's QueueManager.");
+        }
+
+        // Don't keep a message for days only for SQS to reject it.
+        int messageSize = message.getMessageSize();
+        if( messageSize > MessageSizeUtility.MAXIMUM_MESSAGE_SIZE ) {
+            throw new IllegalArgumentException(String.format("The message is %1$d bytes, which exceeds the SQS maximum of %2$d bytes.", messageSize, MessageSizeUtility.MAXIMUM_MESSAGE_SIZE));
+        }
+
+        long deliverAtMillis = deliverAt.toEpochMilli();
+        long releaseAtMillis = queueConfiguration.isFifoQueue() ? deliverAtMillis : deliverAtMillis - TimeUnit.SECONDS.toMillis(releaseAheadSeconds);
+        long scheduleId = nextScheduleId.getAndIncrement();
+        ByteBuffer record = record(encodeScheduled(scheduleId, deliverAtMillis, releaseAtMillis, message));
+
+        lock.lock();
+        try {
+            if( closed ) {
+                throw new IllegalStateException("The message scheduler has been closed.");
+            }
+            long position = append(record);
+            timingWheel.add(releaseAtMillis, position);
+            pendingCount.incrementAndGet();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        return scheduleId;
+    }
+
+    /**
+     * Cancels a scheduled message.  Cancelling a message that has already been released has no effect.
+     */
+    public void cancel(long scheduleId) {
+
+        ByteBuffer record = record(encodeDone(scheduleId));
+
+        lock.lock();
+        try {
+            if( closed ) {
+                throw new IllegalStateException("The message scheduler has been closed.");
+            }
+            append(record);
+            deadBytes += record.capacity();
+            cancelledIds.add(scheduleId);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops releasing messages and closes the log.  Anything not yet released is released the next time a scheduler
+     * is built on the same directory.
+     */
+    @Override
+    public void destroy() {
+
+        lock.lock();
+        try {
+            if( closed ) {
+                return;
+            }
+            closed = true;
+            wakeUp.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        try {
+            releaserThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+
+        lock.lock();
+        try {
+            closeFiles();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // ------------------------------------------------------
+    // Releaser
+    // ------------------------------------------------------
+
+    private void runReleaser() {
+
+        ExponentialBackoff backoff = new ExponentialBackoff(RETRY_INITIAL_BACKOFF_MILLIS, RETRY_MAX_BACKOFF_MILLIS);
+
+        while( !closed ) {
+            try {
+                lock.lock();
+                try {
+                    timingWheel.advance(System.currentTimeMillis(), this::addDueEntry);
+                }
+                finally {
+                    lock.unlock();
+                }
+
+                // Anything not released before a shutdown is still in the log without a done record.
+                for( int start = 0 ; start < dueEntryCount && !closed ; start += releaseBatchSize * 2 ) {
+                    releaseEntries(start, Math.min(dueEntryCount, start + releaseBatchSize * 2), backoff);
+                }
+                dueEntryCount = 0;
+                if( dueEntries.length > releaseBatchSize * 2 ) {
+                    dueEntries = new long[64];
+                }
+
+                lock.lock();
+                try {
+                    if( !closed && shouldCompact() ) {
+                        compact();
+                    }
+                    if( !closed ) {
+                        wakeUp.awaitNanos(TimeUnit.MILLISECONDS.toNanos(tickMillis));
+                    }
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+            catch( InterruptedException e ) {
+                return;
+            }
+            catch( RuntimeException | IOException e ) {
+                log.error(String.format("Message scheduler in '%1$s' failed to release messages", directory), e);
+                dueEntryCount = 0;
+            }
+        }
+    }
+
+    private void addDueEntry(long releaseAtMillis, long position) {
+        if( dueEntryCount + 2 > dueEntries.length ) {
+            dueEntries = Arrays.copyOf(dueEntries, dueEntries.length * 2);
+        }
+        dueEntries[dueEntryCount++] = releaseAtMillis;
+        dueEntries[dueEntryCount++] = position;
+    }
+
+    /**
+     * Reads the due entries from the log and sends them.  Messages that fail with anything but a sender fault go
+     * back on the wheel to be retried after a back-off.
+     */
+    private void releaseEntries(int start, int end, ExponentialBackoff backoff) {
+
+        long nowMillis = System.currentTimeMillis();
+        List<MessageSendContext> messages = new ArrayList<>((end - start) / 2);
+        Map<MessageSendContext, ScheduledMessage> scheduledMessages = new IdentityHashMap<>();
+        List<Long> retryPositions = new ArrayList<>();
+        List<ScheduledMessage> completedMessages = new ArrayList<>();
+
+        for( int i = start ; i < end ; i += 2 ) {
+
+            long position = dueEntries[i + 1];
+            ScheduledMessage scheduledMessage;
+            try {
+                scheduledMessage = readScheduled(position);
+            }
+            catch( IOException e ) {
+                log.warn(String.format("Could not read the schedule at position %1$d of '%2$s' - retrying later: %3$s", position, directory, e.getMessage()));
+                retryPositions.add(position);
+                continue;
+            }
+            catch( IllegalStateException e ) {
+                log.error(String.format("Dropping an unreadable schedule at position %1$d of '%2$s': %3$s", position, directory, e.getMessage()));
+                droppedCount.incrementAndGet();
+                pendingCount.decrementAndGet();
+                continue;
+            }
+
+            lock.lock();
+            try {
+                if( cancelledIds.remove(scheduledMessage.scheduleId) ) {
+                    deadBytes += scheduledMessage.recordBytes;
+                    pendingCount.decrementAndGet();
+                    continue;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+
+            QueueConfiguration queueConfiguration = queueManager.registeredQueue(scheduledMessage.queueBaseName);
+            if( queueConfiguration == null ) {
+                log.warn(String.format("Scheduled message %1$d is for queue '%2$s', which is not registered - retrying later",
+                        scheduledMessage.scheduleId, scheduledMessage.queueBaseName));
+                retryPositions.add(position);
+                continue;
+            }
+
+            MessageSendContext message = scheduledMessage.toMessageSendContext(queueConfiguration, nowMillis);
+            messages.add(message);
+            scheduledMessages.put(message, scheduledMessage);
+        }
+
+        if( !messages.isEmpty() ) {
+            BatchSendResult result;
+            try {
+                result = queueManager.sendMessages(messages);
+            }
+            catch( RuntimeException e ) {
+                log.warn(String.format("Message scheduler could not release %1$d messages: %2$s", messages.size(), e.getMessage()));
+                result = null;
+                for( MessageSendContext nextMessage : messages ) {
+                    retryPositions.add(scheduledMessages.get(nextMessage).position);
+                }
+            }
+
+            if( result != null ) {
+                for( MessageSendContext nextMessage : result.getSuccessful() ) {
+                    completedMessages.add(scheduledMessages.get(nextMessage));
+                }
+                releasedCount.addAndGet(result.getSuccessful().size());
+
+                // Sender faults will fail every time, so drop them.  Anything else is retried.
+                for( BatchSendResult.Failure nextFailure : result.getFailed() ) {
+                    ScheduledMessage failedMessage = scheduledMessages.get(nextFailure.getMessage());
+                    if( nextFailure.isSenderFault() ) {
+                        log.error(String.format("Dropping scheduled message %1$d rejected by SQS: %2$s %3$s",
+                                failedMessage.scheduleId, nextFailure.getErrorCode(), nextFailure.getErrorMessage()));
+                        droppedCount.incrementAndGet();
+                        completedMessages.add(failedMessage);
+                    }
+                    else {
+                        retryPositions.add(failedMessage.position);
+                    }
+                }
+            }
+        }
+
+        long retryAtMillis = retryPositions.isEmpty() ? 0 : System.currentTimeMillis() + backoff.nextDelayMillis();
+        if( retryPositions.isEmpty() ) {
+            backoff.reset();
+        }
+
+        lock.lock();
+        try {
+            for( Long nextPosition : retryPositions ) {
+                timingWheel.add(retryAtMillis, nextPosition);
+            }
+            if( !completedMessages.isEmpty() && !closed ) {
+                appendDone(completedMessages);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the completed messages in the log with a single write.  These are not synced - after a crash the
+     * messages are released again.
+     */
+    private void appendDone(List<ScheduledMessage> completedMessages) {
+
+        ByteArrayOutputStream doneRecords = new ByteArrayOutputStream(completedMessages.size() * 32);
+        for( ScheduledMessage nextMessage : completedMessages ) {
+            ByteBuffer record = record(encodeDone(nextMessage.scheduleId));
+            doneRecords.write(record.array(), 0, record.capacity());
+            deadBytes += nextMessage.recordBytes + record.capacity();
+        }
+        pendingCount.addAndGet(-completedMessages.size());
+
+        ByteBuffer writeBuffer = ByteBuffer.wrap(doneRecords.toByteArray());
+        try {
+            write(logChannel, writeBuffer, writePosition);
+            writePosition += writeBuffer.capacity();
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ------------------------------------------------------
+    // Schedule log
+    // ------------------------------------------------------
+
+    /**
+     * Appends a record to the log, syncing it if configured to, and returns its position.  Called with the lock held.
+     */
+    private long append(ByteBuffer record) {
+        long position = writePosition;
+        try {
+            write(logChannel, record, position);
+            if( syncToDisk ) {
+                logChannel.force(false);
+            }
+        }
+        catch( IOException e ) {
+            throw new IllegalStateException(String.format("Could not write to the schedule log in '%1$s'.", directory), e);
+        }
+        writePosition += record.capacity();
+        return position;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while( buffer.hasRemaining() ) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private ScheduledMessage readScheduled(long position) throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        readFully(position, header);
+        ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+        readFully(position + RECORD_HEADER_BYTES, payload);
+
+        if( !isValidPayload(payload.array(), payload.capacity(), header.getInt(4)) || payload.get(TYPE_OFFSET) != RECORD_SCHEDULED ) {
+            throw new IllegalStateException("The record is corrupt.");
+        }
+        return decodeScheduled(payload, position, RECORD_HEADER_BYTES + payload.capacity());
+    }
+
+    private void readFully(long position, ByteBuffer buffer) throws IOException {
+        while( buffer.hasRemaining() ) {
+            if( logChannel.read(buffer, position + buffer.position()) < 0 ) {
+                throw new IllegalStateException("The record is truncated.");
+            }
+        }
+    }
+
+    private boolean shouldCompact() {
+        return writePosition >= compactionThresholdBytes && deadBytes > writePosition / 2;
+    }
+
+    /**
+     * Rewrites the log with only the pending schedules, under a temporary name that replaces the log once complete.
+     * Called with the lock held, by the releaser between releases or while opening, so every pending schedule is on
+     * the wheel.
+     */
+    private void compact() throws IOException {
+
+        Path logPath = directory.resolve(LOG_FILE);
+        Path compactPath = directory.resolve(COMPACT_FILE);
+        long[] entries = timingWheel.removeAll();
+        long[] compactedEntries = new long[entries.length];
+        int compactedCount = 0;
+        int cancelledCount = 0;
+        long compactedPosition;
+
+        try {
+            try( FileChannel compactChannel = FileChannel.open(compactPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE) ) {
+
+                OutputStream output = new BufferedOutputStream(Channels.newOutputStream(compactChannel), READ_BUFFER_BYTES);
+                ByteBuffer nextIdRecord = record(encodeNextId(nextScheduleId.get()));
+                output.write(nextIdRecord.array());
+                compactedPosition = nextIdRecord.capacity();
+
+                for( int i = 0 ; i < entries.length ; i += 2 ) {
+                    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+                    readFully(entries[i + 1], header);
+                    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + header.getInt(0));
+                    readFully(entries[i + 1], record);
+
+                    if( cancelledIds.contains(record.getLong(RECORD_HEADER_BYTES + ID_OFFSET)) ) {
+                        cancelledCount++;
+                        continue;
+                    }
+
+                    output.write(record.array());
+                    compactedEntries[compactedCount++] = entries[i];
+                    compactedEntries[compactedCount++] = compactedPosition;
+                    compactedPosition += record.capacity();
+                }
+
+                output.flush();
+                compactChannel.force(true);
+            }
+            Files.move(compactPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch( IOException | RuntimeException e ) {
+            // Carry on with the log as it was.
+            for( int i = 0 ; i < entries.length ; i += 2 ) {
+                timingWheel.add(entries[i], entries[i + 1]);
+            }
+            Files.deleteIfExists(compactPath);
+            throw e;
+        }
+
+        closeQuietly(logChannel);
+        logChannel = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long previousSize = writePosition;
+        writePosition = compactedPosition;
+        deadBytes = 0;
+        cancelledIds.clear();
+        pendingCount.addAndGet(-cancelledCount);
+        for( int i = 0 ; i < compactedCount ; i += 2 ) {
+            timingWheel.add(compactedEntries[i], compactedEntries[i + 1]);
+        }
+
+        if( log.isInfoEnabled() ) {
+            log.info(String.format("Compacted the schedule log in '%1$s' from %2$d to %3$d bytes", directory, previousSize, writePosition));
+        }
+    }
+
+    // ------------------------------------------------------
+    // Recovery and files
+    // ------------------------------------------------------
+
+    /**
+     * Receives each valid record in the log, in order.
+     */
+    private interface RecordVisitor {
+        void visit(long position, int recordBytes, ByteBuffer payload);
+    }
+
+    private void open() throws IOException {
+
+        Files.createDirectories(directory);
+
+        // Two schedulers on the same directory would release every message twice.
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            directoryLock = lockChannel.tryLock();
+        }
+        catch( OverlappingFileLockException e ) {
+            directoryLock = null;
+        }
+        if( directoryLock == null ) {
+            throw new IllegalStateException(String.format("The schedule directory '%1$s' is already in use.", directory));
+        }
+
+        // A compaction that did not complete leaves the log untouched.
+        Files.deleteIfExists(directory.resolve(COMPACT_FILE));
+        logChannel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        timingWheel = new TimingWheel(tickMillis, System.currentTimeMillis());
+
+        // The first pass finds the schedules that are done and the end of the log, the second puts the rest on the
+        // wheel.  Anything after a bad record is the remains of a write that never completed.
+        Set<Long> doneIds = new HashSet<>();
+        long[] maxScheduleId = new long[1];
+        long endPosition = scanLog((position, recordBytes, payload) -> {
+            byte recordType = payload.get(TYPE_OFFSET);
+            long scheduleId = payload.getLong(ID_OFFSET);
+            if( recordType == RECORD_NEXT_ID ) {
+                maxScheduleId[0] = Math.max(maxScheduleId[0], scheduleId - 1);
+                return;
+            }
+            maxScheduleId[0] = Math.max(maxScheduleId[0], scheduleId);
+            if( recordType == RECORD_DONE ) {
+                doneIds.add(scheduleId);
+            }
+        });
+
+        if( endPosition < logChannel.size() ) {
+            log.warn(String.format("Discarding %1$d bytes of incomplete records at the end of the schedule log in '%2$s'", logChannel.size() - endPosition, directory));
+            logChannel.truncate(endPosition);
+        }
+
+        long[] liveBytes = new long[1];
+        scanLog((position, recordBytes, payload) -> {
+            if( payload.get(TYPE_OFFSET) == RECORD_SCHEDULED && !doneIds.contains(payload.getLong(ID_OFFSET)) ) {
+                timingWheel.add(payload.getLong(RELEASE_AT_OFFSET), position);
+                pendingCount.incrementAndGet();
+                liveBytes[0] += recordBytes;
+            }
+        });
+
+        nextScheduleId.set(maxScheduleId[0] + 1);
+        writePosition = endPosition;
+        deadBytes = endPosition - liveBytes[0];
+        if( shouldCompact() ) {
+            compact();
+        }
+    }
+
+    /**
+     * Passes every valid record to the visitor and returns the position after the last one.
+     */
+    private long scanLog(RecordVisitor visitor) throws IOException {
+
+        logChannel.position(0);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(logChannel), READ_BUFFER_BYTES));
+
+        long position = 0;
+        while( true ) {
+            byte[] payload;
+            int crc;
+            try {
+                int payloadLength = input.readInt();
+                crc = input.readInt();
+                if( payloadLength < ID_OFFSET + 8 || payloadLength > logChannel.size() - position - RECORD_HEADER_BYTES ) {
+                    return position;
+                }
+                payload = new byte[payloadLength];
+                input.readFully(payload);
+            }
+            catch( EOFException e ) {
+                return position;
+            }
+
+            if( !isValidPayload(payload, payload.length, crc) || payload[0] != RECORD_VERSION ) {
+                return position;
+            }
+
+            visitor.visit(position, RECORD_HEADER_BYTES + payload.length, ByteBuffer.wrap(payload));
+            position += RECORD_HEADER_BYTES + payload.length;
+        }
+    }
+
+    private void closeFiles() {
+        closeQuietly(logChannel);
+        if( directoryLock != null ) {
+            try {
+                directoryLock.release();
+            }
+            catch( IOException e ) {
+                // Closing the channel releases the lock anyway.
+            }
+        }
+        closeQuietly(lockChannel);
+
+        if( pendingCount.get() > 0 && log.isInfoEnabled() ) {
+            log.info(String.format("Message scheduler in '%1$s' closed with %2$d messages scheduled", directory, pendingCount.get()));
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if( channel == null ) {
+            return;
+        }
+        try {
+            channel.close();
+        }
+        catch( IOException e ) {
+            log.warn(String.format("Could not close a schedule file: %1$s", e.getMessage()));
+        }
+    }
+
+    // ------------------------------------------------------
+    // Record encoding
+    // ------------------------------------------------------
+
+    private static ByteBuffer record(byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        return record;
+    }
+
+    private static boolean isValidPayload(byte[] payload, int payloadLength, int expectedCrc) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload, 0, payloadLength);
+        return (int) crc.getValue() == expectedCrc;
+    }
+
+    private static byte[] encodeScheduled(long scheduleId, long deliverAtMillis, long releaseAtMillis, MessageSendContext message) {
+
+        ByteArrayOutputStream encodedBytes = new ByteArrayOutputStream(message.getMessageText().length() + 256);
+        try( DataOutputStream output = new DataOutputStream(encodedBytes) ) {
+            output.writeByte(RECORD_VERSION);
+            output.writeByte(RECORD_SCHEDULED);
+            output.writeLong(scheduleId);
+            output.writeLong(deliverAtMillis);
+            output.writeLong(releaseAtMillis);
+            writeString(output, message.getQueueConfiguration().getQueueBaseName());
+            writeString(output, message.getMessageText());
+            writeString(output, message.getMessageFifoGroupId());
+            writeString(output, message.getMessageFifoDeduplicationId());
+            writeString(output, message.getShardKey());
+
+            Set<String> attributeNames = message.getCustomAttributeNames();
+            output.writeInt(attributeNames.size());
+            for( String nextName : attributeNames ) {
+                MessageAttributeValue attributeValue = message.getCustomAttribute(nextName);
+                writeString(output, nextName);
+                writeString(output, attributeValue.dataType());
+                writeString(output, attributeValue.stringValue());
+                writeBytes(output, attributeValue.binaryValue() != null ? attributeValue.binaryValue().asByteArray() : null);
+            }
+        }
+        catch( IOException e ) {
+            // Writes to a ByteArrayOutputStream do not fail.
+            throw new UncheckedIOException(e);
+        }
+        return encodedBytes.toByteArray();
+    }
+
+    private static byte[] encodeDone(long scheduleId) {
+        return ByteBuffer.allocate(ID_OFFSET + 8).put(RECORD_VERSION).put(RECORD_DONE).putLong(scheduleId).array();
+    }
+
+    private static byte[] encodeNextId(long nextScheduleId) {
+        return ByteBuffer.allocate(ID_OFFSET + 8).put(RECORD_VERSION).put(RECORD_NEXT_ID).putLong(nextScheduleId).array();
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        writeBytes(output, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] value) throws IOException {
+        if( value == null ) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(value.length);
+        output.write(value);
+    }
+
+    private static ScheduledMessage decodeScheduled(ByteBuffer payload, long position, int recordBytes) {
+
+        payload.position(ID_OFFSET);
+        long scheduleId = payload.getLong();
+        long deliverAtMillis = payload.getLong();
+        payload.position(MESSAGE_OFFSET);
+
+        ScheduledMessage scheduledMessage = new ScheduledMessage(position, recordBytes, scheduleId, deliverAtMillis,
+                readString(payload), readString(payload), readString(payload), readString(payload), readString(payload));
+
+        int attributeCount = payload.getInt();
+        for( int i = 0 ; i < attributeCount ; i++ ) {
+            String name = readString(payload);
+            MessageAttributeValue.Builder attributeBuilder = MessageAttributeValue.builder()
+                    .dataType(readString(payload));
+            String stringValue = readString(payload);
+            if( stringValue != null ) {
+                attributeBuilder.stringValue(stringValue);
+            }
+            byte[] binaryValue = readBytes(payload);
+            if( binaryValue != null ) {
+                attributeBuilder.binaryValue(SdkBytes.fromByteArray(binaryValue));
+            }
+            scheduledMessage.attributes.put(name, attributeBuilder.build());
+        }
+
+        return scheduledMessage;
+    }
+
+    private static String readString(ByteBuffer readBuffer) {
+        byte[] value = readBytes(readBuffer);
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+
+    private static byte[] readBytes(ByteBuffer readBuffer) {
+        int length = readBuffer.getInt();
+        if( length < 0 ) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        readBuffer.get(value);
+        return value;
+    }
+
+    /**
+     * A scheduled message read back from the log.
+     */
+    private static final class ScheduledMessage {
+
+        private final long position;
+        private final int recordBytes;
+        private final long scheduleId;
+        private final long deliverAtMillis;
+        private final String queueBaseName;
+        private final String messageText;
+        private final String messageFifoGroupId;
+        private final String messageFifoDeduplicationId;
+        private final String shardKey;
+        private final Map<String, MessageAttributeValue> attributes = new HashMap<>();
+
+        private ScheduledMessage(long position, int recordBytes, long scheduleId, long deliverAtMillis, String queueBaseName,
+                                 String messageText, String messageFifoGroupId, String messageFifoDeduplicationId, String shardKey) {
+            this.position = position;
+            this.recordBytes = recordBytes;
+            this.scheduleId = scheduleId;
+            this.deliverAtMillis = deliverAtMillis;
+            this.queueBaseName = queueBaseName;
+            this.messageText = messageText;
+            this.messageFifoGroupId = messageFifoGroupId;
+            this.messageFifoDeduplicationId = messageFifoDeduplicationId;
+            this.shardKey = shardKey;
+        }
+
+        /**
+         * Builds the message to send now, delayed by whatever is left of the wait.
+         */
+        private MessageSendContext toMessageSendContext(QueueConfiguration queueConfiguration, long nowMillis) {
+
+            MessageSendContext.Builder messageBuilder = MessageSendContext.builder()
+                    .queueConfiguration(queueConfiguration)
+                    .messageText(messageText)
+                    .messageFifoGroupId(messageFifoGroupId)
+                    .messageFifoDeduplicationId(messageFifoDeduplicationId)
+                    .shardKey(shardKey)
+                    .customAttributes(attributes);
+
+            if( !queueConfiguration.isFifoQueue() && deliverAtMillis > nowMillis ) {
+                long remainingSeconds = (deliverAtMillis - nowMillis + 999) / 1000;
+                messageBuilder.messageDelaySeconds((int) Math.min(remainingSeconds, MAX_DELAY_SECONDS));
+            }
+
+            return messageBuilder.build();
+        }
+    }
+}
@@ -1,19 +1,25 @@
 package com.mastercraftcoding.aws.sqs;
 
+import com.mastercraftcoding.aws.sqs.utility.HashUtility;
+import com.mastercraftcoding.aws.sqs.utility.MessageSizeUtility;
+import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
 import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
-import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class MessageSendContext {
 
     private QueueConfiguration queueConfiguration;
 
     private String messageFifoDeduplicationId;
+    private boolean deduplicationIdGenerated;
     private String messageFifoGroupId;
+    private String shardKey;
     private String messageText;
     private int messageDelaySeconds;
     private final HashMap<String, MessageAttributeValue> customAttributes = new HashMap<>();
@@ -43,6 +49,15 @@ public class MessageSendContext {
             return this;
         }
 
+        /**
+         * Sets the key used to route this message to a shard of a sharded queue.  When not set, the FIFO message
+         * group id is used, and messages for standard queues without either are spread across random shards.
+         */
+        public Builder shardKey(String shardKey) {
+            messageSendContext.shardKey = shardKey;
+            return this;
+        }
+
         public Builder messageText(String messageText) {
             messageSendContext.messageText = messageText;
             return this;
@@ -78,20 +93,25 @@ public class MessageSendContext {
                 throw new IllegalStateException("queueConfiguration must be set to the SQS Queue that is the destination or origination point.");
             }
 
-            // For FIFO queues, you must have set a groupid and dedup id.
-            if(messageSendContext.queueConfiguration.isFifoQueue()) {
-                if( messageSendContext.messageFifoDeduplicationId == null ) {
-                    throw new IllegalStateException("messageFifoDeduplicationId must be set for FIFO queues.");
-                }
+            // Make sure that the message text has been set.
+            if( messageSendContext.messageText == null) {
+                throw new IllegalStateException("messageText must be set.");
+            }
 
+            // For FIFO queues, you must have set a groupid.
+            if(messageSendContext.queueConfiguration.isFifoQueue()) {
                 if( messageSendContext.messageFifoGroupId == null) {
                     throw new IllegalStateException("messageFifoGroupId must be set for FIFO queues.");
                 }
-            }
 
-            // Make sure that the message text has been set.
-            if( messageSendContext.messageText == null) {
-                throw new IllegalStateException("messageText must be set.");
+                // Without a dedup id, either let SQS hash the body (content based de-duplication) or generate
+                // an equivalent id here from a fast hash of the group id and body.
+                if( messageSendContext.messageFifoDeduplicationId == null
+                        && !messageSendContext.queueConfiguration.isContentBasedDeduplication() ) {
+                    messageSendContext.messageFifoDeduplicationId = HashUtility.hash128Hex(messageSendContext.messageText,
+                            HashUtility.hash64(messageSendContext.messageFifoGroupId));
+                    messageSendContext.deduplicationIdGenerated = true;
+                }
             }
 
             return messageSendContext;
@@ -102,10 +122,21 @@ public class MessageSendContext {
         return messageFifoDeduplicationId;
     }
 
+    /**
+     * Returns true when the deduplication id was generated from the message rather than set by the caller.
+     */
+    /* package */ boolean isDeduplicationIdGenerated() {
+        return deduplicationIdGenerated;
+    }
+
     public String getMessageFifoGroupId() {
         return messageFifoGroupId;
     }
 
+    public String getShardKey() {
+        return shardKey;
+    }
+
     public String getMessageText() {
         return messageText;
     }
@@ -126,15 +157,97 @@ public class MessageSendContext {
         return customAttributes.keySet();
     }
 
+    /**
+     * Returns the size SQS counts against its 256 KB limit - the UTF-8 message text plus every custom attribute's
+     * name, data type and value.
+     */
+    public int getMessageSize() {
+        return MessageSizeUtility.messageSize(messageText, customAttributes);
+    }
+
     /* package */ QueueConfiguration getQueueConfiguration() { return this.queueConfiguration; }
 
+    /**
+     * Returns the physical queue this message is sent to - the queue configuration itself, or the shard selected
+     * by this message's shard key or FIFO group id when the queue is sharded.
+     */
+    /* package */ QueueConfiguration getTargetQueueConfiguration() {
+        if( !queueConfiguration.isSharded() ) {
+            return queueConfiguration;
+        }
+        return queueConfiguration.shardFor(shardKey != null ? shardKey : messageFifoGroupId);
+    }
+
+    /**
+     * Sends the message, throwing if it could not be sent.  On a queue with envelopeMessages set, an undelayed
+     * message waits (up to the queue's envelopeLingerMillis) for its envelope to be sent.
+     */
     public void sendMessage() {
+        CompletableFuture<Void> envelopeSent = send();
+        if( envelopeSent != null ) {
+            EnvelopePacker.awaitSent(envelopeSent);
+        }
+    }
+
+    /**
+     * Sends the message, returning a future that completes once it has been sent or fails with the reason it could
+     * not be.  Only a message waiting to share an envelope is sent after this returns, so a single thread can fill
+     * envelopes without waiting on each one.
+     */
+    public CompletableFuture<Void> sendMessageAsync() {
+        try {
+            CompletableFuture<Void> envelopeSent = send();
+            return envelopeSent != null ? envelopeSent : CompletableFuture.completedFuture(null);
+        }
+        catch( RuntimeException e ) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Sends the message, or adds it to the pending envelope and returns the future of the envelope's send.
+     */
+    private CompletableFuture<Void> send() {
+
+        QueueConfiguration targetQueue = getTargetQueueConfiguration();
+
+        // Don't spend a request (or a spool record) on a message SQS will reject.
+        int messageSize = getMessageSize();
+        if( messageSize > MessageSizeUtility.MAXIMUM_MESSAGE_SIZE ) {
+            throw new IllegalArgumentException(String.format("The message is %1$d bytes, which exceeds the SQS maximum of %2$d bytes.", messageSize, MessageSizeUtility.MAXIMUM_MESSAGE_SIZE));
+        }
+
+        // Undelayed messages share an envelope, which the packer sends once it is full or has lingered long enough.
+        if( targetQueue.isEnvelopeMessages() && getMessageDelaySeconds() == 0 ) {
+            CompletableFuture<Void> envelopeSent = targetQueue.getSystemConfiguration().getEnvelopePacker().add(this);
+            if( envelopeSent != null ) {
+                return envelopeSent;
+            }
+        }
+
+        // Build the message class.
+        SendMessageRequest sendMessageRequest = toSendMessageRequest(targetQueue);
+
+        // A spooled send is complete once the message is on local disk; the spool's flusher delivers it.
+        if( targetQueue.isSpoolSends() ) {
+            targetQueue.getOwningQueueManager().sendSpool().append(sendMessageRequest);
+            return null;
+        }
+
+        // Send the request to AWS SQS, retrying and pacing as the queue's retry configuration allows.
+        SqsClient sqsClient = targetQueue.getOwningQueueManager().SqsClient();
+        targetQueue.getSystemConfiguration().getCallController().send(() -> sqsClient.sendMessage(sendMessageRequest));
+        return null;
+    }
+
+    /* package */ SendMessageRequest toSendMessageRequest(QueueConfiguration targetQueue) {
 
         // Create and message builder and set the message body text.
         SendMessageRequest.Builder sendMessageRequestBuilder = SendMessageRequest.builder();
         sendMessageRequestBuilder.messageBody(getMessageText());
 
-        // if this is a FIFO queue, then a deduplication id and a messageFifoGroupId must be set.
+        // if this is a FIFO queue, then a messageFifoGroupId must be set.  The deduplication id may be left
+        // unset when the queue uses content based de-duplication.
         if( getQueueConfiguration().isFifoQueue()) {
             sendMessageRequestBuilder.messageDeduplicationId(getMessageFifoDeduplicationId());
             sendMessageRequestBuilder.messageGroupId(getMessageFifoGroupId());
@@ -151,15 +264,24 @@ public class MessageSendContext {
             messageAttributes.put(nextAttributeName, nextAttributeValue);
         }
         sendMessageRequestBuilder.messageAttributes(messageAttributes);
-        sendMessageRequestBuilder.queueUrl(getQueueConfiguration().getQueueUrl());
+        sendMessageRequestBuilder.queueUrl(targetQueue.getQueueUrl());
 
-        // Build the message class.
-        SendMessageRequest sendMessageRequest = sendMessageRequestBuilder.build();
+        return sendMessageRequestBuilder.build();
+    }
 
-        // Send the request to AWS SQS
-        SendMessageResponse sendMessageResponse = getQueueConfiguration().getOwningQueueManager().SqsClient().sendMessage(sendMessageRequest);
-        if(!sendMessageResponse.sdkHttpResponse().isSuccessful()) {
-            throw new IllegalStateException(sendMessageResponse.sdkHttpResponse().statusText().get());
+    /* package */ SendMessageBatchRequestEntry toSendMessageBatchRequestEntry(String entryId) {
+
+        SendMessageBatchRequestEntry.Builder entryBuilder = SendMessageBatchRequestEntry.builder()
+                .id(entryId)
+                .messageBody(getMessageText())
+                .delaySeconds(getMessageDelaySeconds())
+                .messageAttributes(customAttributes);
+
+        if( getQueueConfiguration().isFifoQueue() ) {
+            entryBuilder.messageDeduplicationId(getMessageFifoDeduplicationId());
+            entryBuilder.messageGroupId(getMessageFifoGroupId());
         }
+
+        return entryBuilder.build();
     }
 }
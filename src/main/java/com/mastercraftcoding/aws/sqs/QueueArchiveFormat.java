@@ -0,0 +1,217 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The queue archive file format shared by QueueExporter and QueueReplayer.  An archive is a directory of gzip
+ * compressed segments named archive-000001.ndjson.gz and so on, each holding one JSON object per line:
+ * <p>
+ * {@code
+ * {"messageId":"...","sentTimestamp":1556000000000,"messageGroupId":"...","body":"...",
+ *  "attributes":{"Type":{"dataType":"String","stringValue":"OrderPlaced"},"Key":{"dataType":"Binary","binaryValue":"AAEC"}}}
+ * }
+ * <p>
+ * A segment is written under a .tmp name and renamed once complete, so readers only ever see whole segments.
+ */
+/* package */ final class QueueArchiveFormat {
+
+    /* package */ static final String SEGMENT_PREFIX = "archive-";
+    /* package */ static final String SEGMENT_SUFFIX = ".ndjson.gz";
+    /* package */ static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final ObjectMapper objectMapper = new ObjectMapper(jsonFactory);
+
+    private QueueArchiveFormat() {
+    }
+
+    /**
+     * A message read back from an archive.
+     */
+    /* package */ static final class ArchivedMessage {
+
+        /* package */ final String messageId;
+        /* package */ final long sentTimestamp;
+        /* package */ final String messageGroupId;
+        /* package */ final String body;
+        /* package */ final Map<String, MessageAttributeValue> attributes;
+
+        private ArchivedMessage(String messageId, long sentTimestamp, String messageGroupId, String body, Map<String, MessageAttributeValue> attributes) {
+            this.messageId = messageId;
+            this.sentTimestamp = sentTimestamp;
+            this.messageGroupId = messageGroupId;
+            this.body = body;
+            this.attributes = attributes;
+        }
+    }
+
+    /* package */ static JsonFactory jsonFactory() {
+        return jsonFactory;
+    }
+
+    /* package */ static ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    /* package */ static String segmentFileName(int segmentIndex) {
+        return String.format("%1$s%2$06d%3$s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Returns the complete segments in the archive directory, oldest first.
+     */
+    /* package */ static List<Path> listSegments(Path archiveDirectory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if( !Files.isDirectory(archiveDirectory) ) {
+            return segments;
+        }
+        try( DirectoryStream<Path> directoryStream = Files.newDirectoryStream(archiveDirectory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX) ) {
+            for( Path nextPath : directoryStream ) {
+                segments.add(nextPath);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /* package */ static int segmentIndex(Path segment) {
+        String fileName = segment.getFileName().toString();
+        return Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Writes one received message as a line of the archive.
+     */
+    /* package */ static void writeMessage(JsonGenerator generator, Message message) throws IOException {
+
+        generator.writeStartObject();
+        generator.writeStringField("messageId", message.messageId());
+
+        String sentTimestamp = message.attributesAsStrings().get(MessageSystemAttributeName.SENT_TIMESTAMP.toString());
+        if( sentTimestamp != null ) {
+            generator.writeNumberField("sentTimestamp", Long.parseLong(sentTimestamp));
+        }
+
+        String messageGroupId = message.attributesAsStrings().get(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString());
+        if( messageGroupId != null ) {
+            generator.writeStringField("messageGroupId", messageGroupId);
+        }
+
+        generator.writeStringField("body", message.body());
+
+        writeAttributes(generator, message.messageAttributes());
+
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * Writes an "attributes" field holding the message attributes, if there are any.  Binary values are base64
+     * encoded.
+     */
+    /* package */ static void writeAttributes(JsonGenerator generator, Map<String, MessageAttributeValue> attributes) throws IOException {
+
+        if( attributes == null || attributes.isEmpty() ) {
+            return;
+        }
+
+        generator.writeObjectFieldStart("attributes");
+        for( Map.Entry<String, MessageAttributeValue> nextAttribute : attributes.entrySet() ) {
+            MessageAttributeValue attributeValue = nextAttribute.getValue();
+            generator.writeObjectFieldStart(nextAttribute.getKey());
+            generator.writeStringField("dataType", attributeValue.dataType());
+            if( attributeValue.stringValue() != null ) {
+                generator.writeStringField("stringValue", attributeValue.stringValue());
+            }
+            if( attributeValue.binaryValue() != null ) {
+                generator.writeStringField("binaryValue", Base64.getEncoder().encodeToString(attributeValue.binaryValue().asByteArray()));
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Parses one line of the archive.
+     */
+    /* package */ static ArchivedMessage readMessage(String line) throws IOException {
+
+        JsonNode record = objectMapper.readTree(line);
+
+        return new ArchivedMessage(record.path("messageId").asText(null), record.path("sentTimestamp").asLong(0),
+                record.path("messageGroupId").asText(null), record.path("body").asText(), readAttributes(record));
+    }
+
+    /**
+     * Reads the "attributes" field of a record written by writeAttributes().
+     */
+    /* package */ static Map<String, MessageAttributeValue> readAttributes(JsonNode record) {
+
+        Map<String, MessageAttributeValue> attributes = new HashMap<>();
+        JsonNode attributesNode = record.get("attributes");
+        if( attributesNode != null ) {
+            Iterator<Map.Entry<String, JsonNode>> attributeIterator = attributesNode.fields();
+            while( attributeIterator.hasNext() ) {
+                Map.Entry<String, JsonNode> nextAttribute = attributeIterator.next();
+                MessageAttributeValue.Builder valueBuilder = MessageAttributeValue.builder()
+                        .dataType(nextAttribute.getValue().path("dataType").asText());
+                if( nextAttribute.getValue().has("stringValue") ) {
+                    valueBuilder.stringValue(nextAttribute.getValue().get("stringValue").asText());
+                }
+                if( nextAttribute.getValue().has("binaryValue") ) {
+                    valueBuilder.binaryValue(SdkBytes.fromByteArray(Base64.getDecoder().decode(nextAttribute.getValue().get("binaryValue").asText())));
+                }
+                attributes.put(nextAttribute.getKey(), valueBuilder.build());
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Returns a stream over a memory-mapped buffer.
+     */
+    /* package */ static InputStream bufferInputStream(ByteBuffer buffer) {
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if( !buffer.hasRemaining() ) {
+                    return -1;
+                }
+                int readLength = Math.min(length, buffer.remaining());
+                buffer.get(bytes, offset, readLength);
+                return readLength;
+            }
+
+            @Override
+            public int available() {
+                return buffer.remaining();
+            }
+        };
+    }
+}
@@ -0,0 +1,127 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.sqs.model.SqsResponse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * QueueCallController makes the send, receive, delete and change visibility calls for one queue.  Calls that fail
+ * with a throttling, server or network error are retried with jittered exponential back-off while the queue's retry
+ * budget allows, and sends are paced by the queue's adaptive rate limiter.
+ */
+/* package */ final class QueueCallController {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueCallController.class);
+
+    private final QueueRetryConfiguration retryConfiguration;
+    private final RetryBudget retryBudget;
+    private final AdaptiveRateLimiter sendRateLimiter;
+
+    /* package */ QueueCallController(QueueRetryConfiguration retryConfiguration) {
+        this.retryConfiguration = retryConfiguration;
+        this.retryBudget = new RetryBudget(retryConfiguration.getRetryBudgetRatio(), retryConfiguration.getRetryBudgetCapacity());
+        this.sendRateLimiter = retryConfiguration.isAdaptiveSendRate() || retryConfiguration.getMaxSendRatePerSecond() > 0 ?
+                new AdaptiveRateLimiter(retryConfiguration.getMinSendRatePerSecond(), retryConfiguration.getMaxSendRatePerSecond(),
+                        retryConfiguration.isAdaptiveSendRate() ? retryConfiguration.getSendRateIncreasePerSecond() : 0,
+                        retryConfiguration.isAdaptiveSendRate() ? retryConfiguration.getSendRateDecreaseFactor() : 1.0) : null;
+    }
+
+    /* package */ QueueRetryConfiguration getRetryConfiguration() {
+        return retryConfiguration;
+    }
+
+    /**
+     * Makes a send call, paced by the send rate limiter.
+     */
+    /* package */ <T extends SqsResponse> T send(Supplier<T> sqsCall) {
+        return execute(sqsCall, true);
+    }
+
+    /**
+     * Makes a receive, delete or change visibility call.
+     */
+    /* package */ <T extends SqsResponse> T call(Supplier<T> sqsCall) {
+        return execute(sqsCall, false);
+    }
+
+    /**
+     * Returns the permitted send rate, or infinity when sends are not being limited.
+     */
+    /* package */ double getSendRatePerSecond() {
+        return sendRateLimiter != null ? sendRateLimiter.getRatePerSecond() : Double.POSITIVE_INFINITY;
+    }
+
+    private <T extends SqsResponse> T execute(Supplier<T> sqsCall, boolean isSend) {
+
+        AdaptiveRateLimiter rateLimiter = isSend ? sendRateLimiter : null;
+        ExponentialBackoff backoff = null;
+        retryBudget.recordRequest();
+
+        for( int attempt = 1 ; ; attempt++ ) {
+
+            if( rateLimiter != null ) {
+                rateLimiter.acquire();
+            }
+
+            try {
+                T response = sqsCall.get();
+                QueueManager.throwOnFailure(response);
+                if( rateLimiter != null ) {
+                    rateLimiter.onSuccess();
+                }
+                return response;
+            }
+            catch( SdkException e ) {
+
+                boolean throttled = isThrottling(e);
+                if( throttled && rateLimiter != null ) {
+                    rateLimiter.onThrottle();
+                }
+
+                // Give up on errors a retry won't fix, and when this queue has used up its retries.
+                if( !(throttled || isRetryable(e)) || attempt >= retryConfiguration.getMaxAttempts() || !retryBudget.tryAcquireRetry() ) {
+                    throw e;
+                }
+
+                if( backoff == null ) {
+                    backoff = new ExponentialBackoff(retryConfiguration.getInitialBackoffMillis(), retryConfiguration.getMaxBackoffMillis());
+                }
+                long delayMillis = backoff.nextDelayMillis();
+                if( log.isDebugEnabled() ) {
+                    log.debug(String.format("Retrying SQS call in %1$d ms after attempt %2$d failed: %3$s", delayMillis, attempt, e.getMessage()));
+                }
+
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delayMillis);
+                }
+                catch( InterruptedException interrupted ) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /* package */ static boolean isThrottling(SdkException e) {
+        if( e instanceof AwsServiceException ) {
+            AwsServiceException serviceException = (AwsServiceException) e;
+            return serviceException.isThrottlingException()
+                    || (serviceException.awsErrorDetails() != null && "KMS.ThrottlingException".equals(serviceException.awsErrorDetails().errorCode()));
+        }
+        return e instanceof SdkServiceException && ((SdkServiceException) e).isThrottlingException();
+    }
+
+    /* package */ static boolean isRetryable(SdkException e) {
+        if( e instanceof SdkServiceException ) {
+            return ((SdkServiceException) e).statusCode() >= 500;
+        }
+        return e instanceof SdkClientException;
+    }
+}
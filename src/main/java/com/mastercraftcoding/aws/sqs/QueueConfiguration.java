@@ -1,7 +1,12 @@
 package com.mastercraftcoding.aws.sqs;
 
+import com.mastercraftcoding.aws.sqs.utility.MessageSizeUtility;
 import org.springframework.beans.factory.InitializingBean;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * The QueueConfiguration class is used to configure and reference an SQS Queue using the Master Craft Coding
  * AWS SQS library.  Once this Spring Bean has been created, it will validate it's configuration to ensure
@@ -89,6 +94,79 @@ public class QueueConfiguration implements InitializingBean {
          */
         private int deadLetterRetentionPeriodSeconds = 345600; // 4 days - Default matches AWS' default timeout.
 
+        /**
+         * trackMessageLatency asks the QueueManager to request the SentTimestamp, ApproximateFirstReceiveTimestamp
+         * and ApproximateReceiveCount system attributes with every receive from this queue.  The values are made
+         * available on each MessageReceiveContext and are used to record enqueue-to-receive and enqueue-to-acknowledge
+         * latency distributions for this queue.
+         * @see MessageLatencyStatistics
+         */
+        private boolean trackMessageLatency;
+
+        /**
+         * shardCount splits this logical queue into the given number of physical SQS queues.  Each shard is a
+         * full queue (with its own dead letter queue if requested) named after the queueBaseName with a "_ShardNN"
+         * suffix.  Messages are routed to a shard by consistent hashing of their shard key, or of their FIFO message
+         * group id, so all messages for a given key are kept in order on one shard.  The default of 1 creates a
+         * single, unsharded queue.
+         */
+        private int shardCount = 1;
+
+        /**
+         * contentBasedDeduplication tells SQS to use a SHA-256 hash of the message body as the deduplication id of
+         * FIFO messages that are sent without one.  Only valid for FIFO queues.
+         */
+        private boolean contentBasedDeduplication;
+
+        /**
+         * deduplicationScope sets whether FIFO message de-duplication applies across the whole queue or within each
+         * message group.  When null, the SQS default (queue) is used.  Only valid for FIFO queues.
+         */
+        private FifoDeduplicationScope deduplicationScope;
+
+        /**
+         * fifoThroughputLimit sets whether the FIFO throughput quota applies to the whole queue or to each message
+         * group.  Setting this to PerMessageGroupId (with a MessageGroup deduplicationScope) enables FIFO high
+         * throughput mode.  When null, the SQS default (per queue) is used.  Only valid for FIFO queues.
+         * @see <a href="https://docs.aws.amazon.com/AWSSimpleQueueService/latest/SQSDeveloperGuide/high-throughput-fifo.html">AWS High Throughput FIFO Docs</a>
+         */
+        private FifoThroughputLimit fifoThroughputLimit;
+
+        /**
+         * spoolSends makes MessageSendContext.sendMessage() append messages for this queue to the QueueManager's
+         * durable send spool instead of calling SQS directly.  sendMessage() then returns once the message is on
+         * local disk, and a background flusher delivers it, so SQS outages and throttling do not reach the sender.
+         * Requires a SendSpoolConfiguration on the QueueManager.
+         * @see SendSpoolConfiguration
+         */
+        private boolean spoolSends;
+
+        /**
+         * envelopeMessages packs the messages sent to this standard queue into envelopes - single SQS messages
+         * holding many logical messages - so small messages share the cost of each request.  A MessageHandlerDriverThread
+         * unpacks envelopes and hands each logical message to its MessageHandler.  Messages with a delivery delay are
+         * sent on their own.
+         * @see MessageEnvelope
+         */
+        private boolean envelopeMessages;
+
+        /**
+         * envelopeMaxBytes is the largest envelope sent.  SQS bills each 64 KB of a request as one request, so the
+         * default fills exactly one.
+         */
+        private int envelopeMaxBytes = 65536;
+
+        /**
+         * envelopeLingerMillis is the longest a logical message waits for others to share its envelope.
+         */
+        private long envelopeLingerMillis = 50;
+
+        /**
+         * loadSheddingPolicy lets the message handler driver threads expire stale messages and defer low priority
+         * ones under overload, without handing them to the handler.
+         */
+        private LoadSheddingPolicy loadSheddingPolicy;
+
         public String getQueueBaseName() {
             return queueBaseName;
         }
@@ -152,6 +230,107 @@ public class QueueConfiguration implements InitializingBean {
         public void setDeadLetterRetentionPeriodSeconds(int deadLetterRetentionPeriodSeconds) {
             this.deadLetterRetentionPeriodSeconds = deadLetterRetentionPeriodSeconds;
         }
+
+        public boolean isTrackMessageLatency() {
+            return trackMessageLatency;
+        }
+
+        public void setTrackMessageLatency(boolean trackMessageLatency) {
+            this.trackMessageLatency = trackMessageLatency;
+        }
+
+        public int getShardCount() {
+            return shardCount;
+        }
+
+        public void setShardCount(int shardCount) {
+            this.shardCount = shardCount;
+        }
+
+        public boolean isContentBasedDeduplication() {
+            return contentBasedDeduplication;
+        }
+
+        public void setContentBasedDeduplication(boolean contentBasedDeduplication) {
+            this.contentBasedDeduplication = contentBasedDeduplication;
+        }
+
+        public FifoDeduplicationScope getDeduplicationScope() {
+            return deduplicationScope;
+        }
+
+        public void setDeduplicationScope(FifoDeduplicationScope deduplicationScope) {
+            this.deduplicationScope = deduplicationScope;
+        }
+
+        public FifoThroughputLimit getFifoThroughputLimit() {
+            return fifoThroughputLimit;
+        }
+
+        public void setFifoThroughputLimit(FifoThroughputLimit fifoThroughputLimit) {
+            this.fifoThroughputLimit = fifoThroughputLimit;
+        }
+
+        public boolean isSpoolSends() {
+            return spoolSends;
+        }
+
+        public void setSpoolSends(boolean spoolSends) {
+            this.spoolSends = spoolSends;
+        }
+
+        public boolean isEnvelopeMessages() {
+            return envelopeMessages;
+        }
+
+        public void setEnvelopeMessages(boolean envelopeMessages) {
+            this.envelopeMessages = envelopeMessages;
+        }
+
+        public int getEnvelopeMaxBytes() {
+            return envelopeMaxBytes;
+        }
+
+        public void setEnvelopeMaxBytes(int envelopeMaxBytes) {
+            this.envelopeMaxBytes = envelopeMaxBytes;
+        }
+
+        public long getEnvelopeLingerMillis() {
+            return envelopeLingerMillis;
+        }
+
+        public void setEnvelopeLingerMillis(long envelopeLingerMillis) {
+            this.envelopeLingerMillis = envelopeLingerMillis;
+        }
+
+        public LoadSheddingPolicy getLoadSheddingPolicy() {
+            return loadSheddingPolicy;
+        }
+
+        public void setLoadSheddingPolicy(LoadSheddingPolicy loadSheddingPolicy) {
+            this.loadSheddingPolicy = loadSheddingPolicy;
+        }
+
+        private void copyFrom(QueueUserConfiguration source) {
+            this.queueBaseName = source.queueBaseName;
+            this.isFifoQueue = source.isFifoQueue;
+            this.createDeadLetterQueue = source.createDeadLetterQueue;
+            this.deadLetterRetryCount = source.deadLetterRetryCount;
+            this.receiveMessageWaitTimeSeconds = source.receiveMessageWaitTimeSeconds;
+            this.messageVisibilityTimeoutSeconds = source.messageVisibilityTimeoutSeconds;
+            this.messageRetentionPeriodSeconds = source.messageRetentionPeriodSeconds;
+            this.deadLetterRetentionPeriodSeconds = source.deadLetterRetentionPeriodSeconds;
+            this.trackMessageLatency = source.trackMessageLatency;
+            this.shardCount = source.shardCount;
+            this.contentBasedDeduplication = source.contentBasedDeduplication;
+            this.deduplicationScope = source.deduplicationScope;
+            this.fifoThroughputLimit = source.fifoThroughputLimit;
+            this.spoolSends = source.spoolSends;
+            this.envelopeMessages = source.envelopeMessages;
+            this.envelopeMaxBytes = source.envelopeMaxBytes;
+            this.envelopeLingerMillis = source.envelopeLingerMillis;
+            this.loadSheddingPolicy = source.loadSheddingPolicy;
+        }
     }
 
     class QueueSystemConfiguration {
@@ -191,6 +370,47 @@ public class QueueConfiguration implements InitializingBean {
          */
         private String queueDeadLetterArn;
 
+        /**
+         * messageLatencyStatistics accumulates the latency measurements for this queue when trackMessageLatency
+         * is enabled.
+         */
+        private final MessageLatencyStatistics messageLatencyStatistics = new MessageLatencyStatistics();
+
+        /**
+         * shards contains the physical QueueConfiguration for each shard of a sharded queue.  It is set by the
+         * QueueManager upon registration and is empty for unsharded queues.
+         */
+        private List<QueueConfiguration> shards = Collections.emptyList();
+
+        /**
+         * shardRing routes shard keys to an index in the shards list.
+         */
+        private ConsistentHashRing shardRing;
+
+        /**
+         * logicalQueueConfiguration refers back to the sharded QueueConfiguration that created this shard, or is
+         * null if this QueueConfiguration is not a shard.
+         */
+        private QueueConfiguration logicalQueueConfiguration;
+
+        /**
+         * callController makes this queue's send, receive, delete and change visibility calls, applying the
+         * owning QueueManager's retry configuration.  It is set by the QueueManager upon registration.
+         */
+        private QueueCallController callController;
+
+        /**
+         * envelopePacker collects the logical messages for this queue into envelopes when envelopeMessages is
+         * enabled.  It is set by the QueueManager upon registration of a physical queue.
+         */
+        private EnvelopePacker envelopePacker;
+
+        /**
+         * receiveTimestamps asks SQS for each received message's timestamps even when latency is not tracked.  It is
+         * set by driver threads whose handler orders messages by sent time.
+         */
+        private volatile boolean receiveTimestamps;
+
         QueueManager getOwningQueueManager() {
             return owningQueueManager;
         }
@@ -237,6 +457,55 @@ public class QueueConfiguration implements InitializingBean {
         public void setQueueDeadLetterArn(String queueDeadLetterArn) {
             this.queueDeadLetterArn = queueDeadLetterArn;
         }
+
+        MessageLatencyStatistics getMessageLatencyStatistics() {
+            return messageLatencyStatistics;
+        }
+
+        List<QueueConfiguration> getShards() {
+            return shards;
+        }
+
+        public void setShards(List<QueueConfiguration> shards, ConsistentHashRing shardRing) {
+            this.shards = Collections.unmodifiableList(shards);
+            this.shardRing = shardRing;
+        }
+
+        ConsistentHashRing getShardRing() {
+            return shardRing;
+        }
+
+        QueueConfiguration getLogicalQueueConfiguration() {
+            return logicalQueueConfiguration;
+        }
+
+        public void setLogicalQueueConfiguration(QueueConfiguration logicalQueueConfiguration) {
+            this.logicalQueueConfiguration = logicalQueueConfiguration;
+        }
+
+        QueueCallController getCallController() {
+            return callController;
+        }
+
+        void setCallController(QueueCallController callController) {
+            this.callController = callController;
+        }
+
+        EnvelopePacker getEnvelopePacker() {
+            return envelopePacker;
+        }
+
+        void setEnvelopePacker(EnvelopePacker envelopePacker) {
+            this.envelopePacker = envelopePacker;
+        }
+
+        boolean isReceiveTimestamps() {
+            return receiveTimestamps;
+        }
+
+        void setReceiveTimestamps(boolean receiveTimestamps) {
+            this.receiveTimestamps = receiveTimestamps;
+        }
     }
 
     /* package */ QueueSystemConfiguration getSystemConfiguration() {
@@ -304,6 +573,68 @@ public class QueueConfiguration implements InitializingBean {
             return this;
         }
 
+        public Builder trackMessageLatency(boolean trackMessageLatency) {
+            returnConfiguration.userConfiguration.setTrackMessageLatency(trackMessageLatency);
+            return this;
+        }
+
+        public Builder shardCount(int shardCount) {
+            returnConfiguration.userConfiguration.setShardCount(shardCount);
+            return this;
+        }
+
+        public Builder contentBasedDeduplication(boolean contentBasedDeduplication) {
+            returnConfiguration.userConfiguration.setContentBasedDeduplication(contentBasedDeduplication);
+            return this;
+        }
+
+        public Builder deduplicationScope(FifoDeduplicationScope deduplicationScope) {
+            returnConfiguration.userConfiguration.setDeduplicationScope(deduplicationScope);
+            return this;
+        }
+
+        public Builder fifoThroughputLimit(FifoThroughputLimit fifoThroughputLimit) {
+            returnConfiguration.userConfiguration.setFifoThroughputLimit(fifoThroughputLimit);
+            return this;
+        }
+
+        public Builder spoolSends(boolean spoolSends) {
+            returnConfiguration.userConfiguration.setSpoolSends(spoolSends);
+            return this;
+        }
+
+        public Builder envelopeMessages(boolean envelopeMessages) {
+            returnConfiguration.userConfiguration.setEnvelopeMessages(envelopeMessages);
+            return this;
+        }
+
+        public Builder envelopeMaxBytes(int envelopeMaxBytes) {
+            returnConfiguration.userConfiguration.setEnvelopeMaxBytes(envelopeMaxBytes);
+            return this;
+        }
+
+        public Builder envelopeLingerMillis(long envelopeLingerMillis) {
+            returnConfiguration.userConfiguration.setEnvelopeLingerMillis(envelopeLingerMillis);
+            return this;
+        }
+
+        public Builder loadSheddingPolicy(LoadSheddingPolicy loadSheddingPolicy) {
+            returnConfiguration.userConfiguration.setLoadSheddingPolicy(loadSheddingPolicy);
+            return this;
+        }
+
+        /**
+         * Enables FIFO high throughput mode by setting a per message group deduplication scope and
+         * throughput limit.  False leaves any scope or limit set elsewhere in the builder as it is.
+         */
+        public Builder highThroughputFifo(boolean highThroughputFifo) {
+            if( highThroughputFifo ) {
+                returnConfiguration.userConfiguration.setDeduplicationScope(FifoDeduplicationScope.MessageGroup);
+                returnConfiguration.userConfiguration.setFifoThroughputLimit(FifoThroughputLimit.PerMessageGroupId);
+            }
+            return this;
+        }
+
         public QueueConfiguration build() {
 
             returnConfiguration.validate();
@@ -319,6 +650,37 @@ public class QueueConfiguration implements InitializingBean {
                 throw new IllegalStateException("The request queue configuration has a dead letter queue but 'deadLetterRetryCount' has not been set.");
             }
         }
+
+        if( userConfiguration.getShardCount() < 1 ) {
+            throw new IllegalStateException("'shardCount' must be at least 1.");
+        }
+
+        // The de-duplication and throughput settings only apply to FIFO queues.
+        if( !userConfiguration.isFifoQueue() ) {
+            if( userConfiguration.isContentBasedDeduplication() || userConfiguration.getDeduplicationScope() != null
+                    || userConfiguration.getFifoThroughputLimit() != null ) {
+                throw new IllegalStateException("'contentBasedDeduplication', 'deduplicationScope' and 'fifoThroughputLimit' may only be set for FIFO queues.");
+            }
+        }
+
+        // SQS only allows a per message group throughput limit with a per message group deduplication scope.
+        if( userConfiguration.getFifoThroughputLimit() == FifoThroughputLimit.PerMessageGroupId
+                && userConfiguration.getDeduplicationScope() != FifoDeduplicationScope.MessageGroup ) {
+            throw new IllegalStateException("A 'fifoThroughputLimit' of PerMessageGroupId requires a 'deduplicationScope' of MessageGroup.");
+        }
+
+        // Envelopes mix message groups, so they are only for standard queues.
+        if( userConfiguration.isEnvelopeMessages() ) {
+            if( userConfiguration.isFifoQueue() ) {
+                throw new IllegalStateException("'envelopeMessages' may only be set for standard queues.");
+            }
+            if( userConfiguration.getEnvelopeMaxBytes() < 1024 || userConfiguration.getEnvelopeMaxBytes() > MessageSizeUtility.MAXIMUM_MESSAGE_SIZE ) {
+                throw new IllegalStateException(String.format("'envelopeMaxBytes' must be between 1024 and %1$d.", MessageSizeUtility.MAXIMUM_MESSAGE_SIZE));
+            }
+            if( userConfiguration.getEnvelopeLingerMillis() < 0 ) {
+                throw new IllegalStateException("'envelopeLingerMillis' may not be negative.");
+            }
+        }
     }
 
     public String getQueueBaseName() {
@@ -412,4 +774,166 @@ public class QueueConfiguration implements InitializingBean {
     public void setDeadLetterRetentionPeriodSeconds(int deadLetterRetentionPeriodSeconds) {
         userConfiguration.setDeadLetterRetentionPeriodSeconds(deadLetterRetentionPeriodSeconds);
     }
+
+    public boolean isTrackMessageLatency() {
+        return userConfiguration.isTrackMessageLatency();
+    }
+
+    public void setTrackMessageLatency(boolean trackMessageLatency) {
+        userConfiguration.setTrackMessageLatency(trackMessageLatency);
+    }
+
+    /**
+     * Returns the latency statistics for this queue.  The shards of a sharded queue record their own, so for a
+     * sharded queue this is a snapshot of their sum; resetting it leaves the shards' statistics as they are.
+     */
+    public MessageLatencyStatistics getMessageLatencyStatistics() {
+        if( !isSharded() ) {
+            return systemConfiguration.getMessageLatencyStatistics();
+        }
+
+        MessageLatencyStatistics shardedStatistics = new MessageLatencyStatistics();
+        shardedStatistics.add(systemConfiguration.getMessageLatencyStatistics());
+        for( QueueConfiguration nextShard : getShards() ) {
+            shardedStatistics.add(nextShard.getMessageLatencyStatistics());
+        }
+        return shardedStatistics;
+    }
+
+    /**
+     * Returns the send rate currently permitted by this queue's adaptive rate limiter, or infinity while sends are
+     * not being limited.
+     */
+    public double getSendRateLimit() {
+        QueueCallController callController = systemConfiguration.getCallController();
+        return callController != null ? callController.getSendRatePerSecond() : Double.POSITIVE_INFINITY;
+    }
+
+    public int getShardCount() {
+        return userConfiguration.getShardCount();
+    }
+
+    public void setShardCount(int shardCount) {
+        userConfiguration.setShardCount(shardCount);
+    }
+
+    public boolean isSharded() {
+        return userConfiguration.getShardCount() > 1;
+    }
+
+    /**
+     * Returns the physical QueueConfiguration of every shard of this logical queue.  The list is empty for
+     * unsharded queues and for sharded queues that have not been registered yet.
+     */
+    public List<QueueConfiguration> getShards() {
+        return systemConfiguration.getShards();
+    }
+
+    /**
+     * Returns the sharded QueueConfiguration this shard belongs to, or null if this is not a shard.
+     */
+    public QueueConfiguration getLogicalQueueConfiguration() {
+        return systemConfiguration.getLogicalQueueConfiguration();
+    }
+
+    /**
+     * Returns the shard that messages with the given routing key are sent to.  A null key selects a random shard,
+     * which is only appropriate for standard queues where ordering does not matter.  Unsharded queues return
+     * themselves.
+     */
+    public QueueConfiguration shardFor(String routingKey) {
+
+        if( !isSharded() ) {
+            return this;
+        }
+
+        List<QueueConfiguration> shards = systemConfiguration.getShards();
+        if( shards.isEmpty() ) {
+            throw new IllegalStateException(String.format("The sharded queue '%1$s' has not been registered with a QueueManager.", getQueueBaseName()));
+        }
+
+        if( routingKey == null ) {
+            return shards.get(ThreadLocalRandom.current().nextInt(shards.size()));
+        }
+
+        return shards.get(systemConfiguration.getShardRing().shardFor(routingKey));
+    }
+
+    /* package */ QueueConfiguration createShardConfiguration(int shardIndex) {
+        QueueConfiguration shardConfiguration = new QueueConfiguration();
+        shardConfiguration.userConfiguration.copyFrom(this.userConfiguration);
+        shardConfiguration.userConfiguration.setQueueBaseName(String.format("%1$s_Shard%2$02d", getQueueBaseName(), shardIndex));
+        shardConfiguration.userConfiguration.setShardCount(1);
+        shardConfiguration.systemConfiguration.setLogicalQueueConfiguration(this);
+        return shardConfiguration;
+    }
+
+    public boolean isContentBasedDeduplication() {
+        return userConfiguration.isContentBasedDeduplication();
+    }
+
+    public void setContentBasedDeduplication(boolean contentBasedDeduplication) {
+        userConfiguration.setContentBasedDeduplication(contentBasedDeduplication);
+    }
+
+    public FifoDeduplicationScope getDeduplicationScope() {
+        return userConfiguration.getDeduplicationScope();
+    }
+
+    public void setDeduplicationScope(FifoDeduplicationScope deduplicationScope) {
+        userConfiguration.setDeduplicationScope(deduplicationScope);
+    }
+
+    public FifoThroughputLimit getFifoThroughputLimit() {
+        return userConfiguration.getFifoThroughputLimit();
+    }
+
+    public void setFifoThroughputLimit(FifoThroughputLimit fifoThroughputLimit) {
+        userConfiguration.setFifoThroughputLimit(fifoThroughputLimit);
+    }
+
+    public boolean isSpoolSends() {
+        return userConfiguration.isSpoolSends();
+    }
+
+    public void setSpoolSends(boolean spoolSends) {
+        userConfiguration.setSpoolSends(spoolSends);
+    }
+
+    public boolean isEnvelopeMessages() {
+        return userConfiguration.isEnvelopeMessages();
+    }
+
+    public void setEnvelopeMessages(boolean envelopeMessages) {
+        userConfiguration.setEnvelopeMessages(envelopeMessages);
+    }
+
+    public int getEnvelopeMaxBytes() {
+        return userConfiguration.getEnvelopeMaxBytes();
+    }
+
+    public void setEnvelopeMaxBytes(int envelopeMaxBytes) {
+        userConfiguration.setEnvelopeMaxBytes(envelopeMaxBytes);
+    }
+
+    public long getEnvelopeLingerMillis() {
+        return userConfiguration.getEnvelopeLingerMillis();
+    }
+
+    public void setEnvelopeLingerMillis(long envelopeLingerMillis) {
+        userConfiguration.setEnvelopeLingerMillis(envelopeLingerMillis);
+    }
+
+    public LoadSheddingPolicy getLoadSheddingPolicy() {
+        return userConfiguration.getLoadSheddingPolicy();
+    }
+
+    public void setLoadSheddingPolicy(LoadSheddingPolicy loadSheddingPolicy) {
+        userConfiguration.setLoadSheddingPolicy(loadSheddingPolicy);
+    }
+
+    public boolean isHighThroughputFifo() {
+        return userConfiguration.getDeduplicationScope() == FifoDeduplicationScope.MessageGroup
+                && userConfiguration.getFifoThroughputLimit() == FifoThroughputLimit.PerMessageGroupId;
+    }
 }
@@ -0,0 +1,433 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * QueueExporter copies the messages in a queue into an archive directory (see QueueArchiveFormat) for QueueReplayer
+ * to send again later.  Receiver threads take batches of ten and append them to a single gzip compressed segment
+ * file at a time through a large write buffer, starting a new segment every segmentMaxMessages messages.
+ * <p>
+ * A peek leaves the queue as it was: exported messages stay hidden for visibilityTimeoutSeconds so each is exported
+ * once, then reappear.  A drain deletes messages once their records have been flushed to the segment file.
+ * <p>
+ * A FIFO queue can only be drained, and each batch is deleted before the next receive: SQS returns nothing more
+ * from a message group while any of its messages are in flight, so a peek, or a drain holding its deletes, would
+ * stop after the first batch of each group.
+ * <p>
+ * {@code
+ * long exportedCount = QueueExporter.builder()
+ *     .queueConfiguration( orderQueue )
+ *     .archiveDirectory( "/var/archive/orders" )
+ *     .build()
+ *     .export();
+ * }
+ */
+public class QueueExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueExporter.class);
+
+    // A receiver stops after this many empty long polls in a row.
+    private static final int EMPTY_RECEIVES_TO_FINISH = 2;
+    private static final int RECEIVE_WAIT_TIME_SECONDS = 1;
+
+    // A drain deletes messages in groups of about this many, after flushing their records; a FIFO drain deletes
+    // every batch.
+    private static final int DELETE_INTERVAL_MESSAGES = 100;
+    private static final int WRITE_BUFFER_BYTES = 1024 * 1024;
+
+    private QueueConfiguration queueConfiguration;
+
+    /**
+     * archiveDirectory is where the segment files are written.  It is created if it does not exist; new segments
+     * are numbered after any already there.
+     */
+    private String archiveDirectory;
+
+    /**
+     * drain deletes messages from the queue once they are archived.
+     */
+    private boolean drain;
+
+    /**
+     * receiverThreads is the number of receives in flight at once.
+     */
+    private int receiverThreads = 4;
+
+    /**
+     * segmentMaxMessages is the most messages written to one segment file.
+     */
+    private int segmentMaxMessages = 100000;
+
+    /**
+     * maxMessages stops the export after this many messages, or is zero for no limit.
+     */
+    private long maxMessages;
+
+    /**
+     * visibilityTimeoutSeconds is how long received messages stay hidden, which must outlast a peek for each
+     * message to be exported once.
+     */
+    private int visibilityTimeoutSeconds = 900;
+
+    private final Object writeLock = new Object();
+    private Path segmentPath;
+    private JsonGenerator segmentGenerator;
+    private int segmentIndex;
+    private int segmentMessageCount;
+    private final Map<QueueConfiguration, List<Message>> pendingDeletes = new LinkedHashMap<>();
+    private int pendingDeleteCount;
+
+    private final AtomicLong exportedCount = new AtomicLong();
+    private final AtomicLong remainingMessages = new AtomicLong();
+    private final AtomicReference<RuntimeException> receiverFailure = new AtomicReference<>();
+    private volatile boolean stopped;
+
+    private QueueExporter() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final QueueExporter returnExporter;
+
+        private Builder() {
+            this.returnExporter = new QueueExporter();
+        }
+
+        public Builder queueConfiguration(QueueConfiguration queueConfiguration) {
+            returnExporter.queueConfiguration = queueConfiguration;
+            return this;
+        }
+
+        public Builder archiveDirectory(String archiveDirectory) {
+            returnExporter.archiveDirectory = archiveDirectory;
+            return this;
+        }
+
+        public Builder drain(boolean drain) {
+            returnExporter.drain = drain;
+            return this;
+        }
+
+        public Builder receiverThreads(int receiverThreads) {
+            returnExporter.receiverThreads = receiverThreads;
+            return this;
+        }
+
+        public Builder segmentMaxMessages(int segmentMaxMessages) {
+            returnExporter.segmentMaxMessages = segmentMaxMessages;
+            return this;
+        }
+
+        public Builder maxMessages(long maxMessages) {
+            returnExporter.maxMessages = maxMessages;
+            return this;
+        }
+
+        public Builder visibilityTimeoutSeconds(int visibilityTimeoutSeconds) {
+            returnExporter.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+            return this;
+        }
+
+        public QueueExporter build() {
+            returnExporter.validate();
+            return returnExporter;
+        }
+    }
+
+    private void validate() {
+
+        if( queueConfiguration == null || queueConfiguration.getOwningQueueManager() == null ) {
+            throw new IllegalStateException("queueConfiguration must be set to a queue registered with a QueueManager.");
+        }
+
+        if( archiveDirectory == null || archiveDirectory.isEmpty() ) {
+            throw new IllegalStateException("archiveDirectory must be set.");
+        }
+
+        if( receiverThreads < 1 ) {
+            throw new IllegalStateException("receiverThreads must be at least 1.");
+        }
+
+        if( segmentMaxMessages < 1 ) {
+            throw new IllegalStateException("segmentMaxMessages must be at least 1.");
+        }
+
+        if( maxMessages < 0 ) {
+            throw new IllegalStateException("maxMessages may not be negative.");
+        }
+
+        if( visibilityTimeoutSeconds < 1 || visibilityTimeoutSeconds > 43200 ) {
+            throw new IllegalStateException("visibilityTimeoutSeconds must be between 1 and 43200 (12 hours).");
+        }
+
+        if( queueConfiguration.isFifoQueue() && !drain ) {
+            throw new IllegalStateException("A FIFO queue can only be drained - a peek would hold each message group's first batch in flight and export nothing more from it.");
+        }
+    }
+
+    /**
+     * Returns the number of messages exported so far.
+     */
+    public long getExportedCount() {
+        return exportedCount.get();
+    }
+
+    /**
+     * Exports the queue until it comes back empty (or maxMessages have been exported), returning the number of
+     * messages exported.
+     */
+    public long export() {
+
+        Path archivePath = Paths.get(archiveDirectory);
+        try {
+            Files.createDirectories(archivePath);
+            List<Path> existingSegments = QueueArchiveFormat.listSegments(archivePath);
+            segmentIndex = existingSegments.isEmpty() ? 0 : QueueArchiveFormat.segmentIndex(existingSegments.get(existingSegments.size() - 1));
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException(e);
+        }
+        remainingMessages.set(maxMessages > 0 ? maxMessages : Long.MAX_VALUE);
+
+        // The receivers share out the shards of a sharded queue.
+        List<QueueConfiguration> shards = queueConfiguration.isSharded() ? queueConfiguration.getShards() : Collections.singletonList(queueConfiguration);
+        String queueName = queueConfiguration.getOwningQueueManager().fullQueueName(queueConfiguration);
+        List<Thread> receiverThreadList = new ArrayList<>(receiverThreads);
+        for( int receiverOffset = 0 ; receiverOffset < receiverThreads ; receiverOffset++ ) {
+
+            List<QueueConfiguration> receiverShards = new ArrayList<>();
+            for( int shardOffset = receiverOffset % shards.size() ; shardOffset < shards.size() ; shardOffset += receiverThreads ) {
+                receiverShards.add(shards.get(shardOffset));
+            }
+
+            Thread receiverThread = new Thread(() -> runReceiver(archivePath, receiverShards), "QueueExporter - " + queueName + " - " + (receiverOffset + 1));
+            receiverThread.setDaemon(true);
+            receiverThreadList.add(receiverThread);
+            receiverThread.start();
+        }
+
+        for( Thread nextThread : receiverThreadList ) {
+            try {
+                nextThread.join();
+            }
+            catch( InterruptedException e ) {
+                stopped = true;
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // Finish the last segment, then delete whatever it holds.
+        Map<QueueConfiguration, List<Message>> finalDeletes;
+        synchronized (writeLock) {
+            closeSegment();
+            finalDeletes = takePendingDeletes();
+        }
+        deleteMessages(finalDeletes);
+
+        RuntimeException failure = receiverFailure.get();
+        if( failure != null ) {
+            throw failure;
+        }
+        return exportedCount.get();
+    }
+
+    private void runReceiver(Path archivePath, List<QueueConfiguration> shards) {
+        try {
+            for( QueueConfiguration nextShard : shards ) {
+                exportShard(archivePath, nextShard);
+            }
+        }
+        catch( RuntimeException e ) {
+            receiverFailure.compareAndSet(null, e);
+            stopped = true;
+        }
+    }
+
+    private void exportShard(Path archivePath, QueueConfiguration shard) {
+
+        SqsClient sqsClient = shard.getOwningQueueManager().SqsClient();
+        ReceiveMessageRequest receiveMessageRequest = ReceiveMessageRequest.builder()
+                .queueUrl(shard.getQueueUrl())
+                .maxNumberOfMessages(10)
+                .waitTimeSeconds(RECEIVE_WAIT_TIME_SECONDS)
+                .visibilityTimeout(visibilityTimeoutSeconds)
+                .attributeNamesWithStrings(MessageSystemAttributeName.SENT_TIMESTAMP.toString(), MessageSystemAttributeName.MESSAGE_GROUP_ID.toString())
+                .messageAttributeNames("All")
+                .build();
+
+        int emptyReceives = 0;
+        while( !stopped && remainingMessages.get() > 0 && emptyReceives < EMPTY_RECEIVES_TO_FINISH ) {
+
+            List<Message> messages = shard.getSystemConfiguration().getCallController().call(() -> sqsClient.receiveMessage(receiveMessageRequest)).messages();
+            if( messages == null || messages.isEmpty() ) {
+                emptyReceives++;
+                continue;
+            }
+            emptyReceives = 0;
+
+            // Past maxMessages, messages are left for the visibility timeout to return.
+            long remaining = remainingMessages.getAndAdd(-messages.size());
+            if( remaining < messages.size() ) {
+                messages = messages.subList(0, (int) Math.max(0, remaining));
+            }
+
+            Map<QueueConfiguration, List<Message>> readyDeletes = null;
+            synchronized (writeLock) {
+                try {
+                    for( Message nextMessage : messages ) {
+                        if( segmentGenerator == null ) {
+                            openSegment(archivePath);
+                        }
+                        QueueArchiveFormat.writeMessage(segmentGenerator, nextMessage);
+                        if( ++segmentMessageCount >= segmentMaxMessages ) {
+                            closeSegment();
+                        }
+                    }
+                }
+                catch( IOException e ) {
+                    throw new UncheckedIOException(e);
+                }
+                exportedCount.addAndGet(messages.size());
+
+                // A drained message is deleted only once its record has left this process.  A FIFO queue's batch is
+                // deleted before the next receive, since its message groups return nothing more while it is in flight.
+                if( drain && !messages.isEmpty() ) {
+                    pendingDeletes.computeIfAbsent(shard, key -> new ArrayList<>()).addAll(messages);
+                    pendingDeleteCount += messages.size();
+                    if( pendingDeleteCount >= DELETE_INTERVAL_MESSAGES || shard.isFifoQueue() ) {
+                        flushSegment();
+                        readyDeletes = takePendingDeletes();
+                    }
+                }
+            }
+
+            if( readyDeletes != null ) {
+                deleteMessages(readyDeletes);
+            }
+        }
+    }
+
+    private void openSegment(Path archivePath) throws IOException {
+        segmentIndex++;
+        segmentPath = archivePath.resolve(QueueArchiveFormat.segmentFileName(segmentIndex));
+        Path temporaryPath = segmentPath.resolveSibling(segmentPath.getFileName() + QueueArchiveFormat.TEMPORARY_SUFFIX);
+        FileOutputStream fileOutput = new FileOutputStream(temporaryPath.toFile());
+        segmentGenerator = QueueArchiveFormat.jsonFactory().createGenerator(
+                new GZIPOutputStream(new BufferedOutputStream(fileOutput, WRITE_BUFFER_BYTES), 65536, true));
+        segmentGenerator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        segmentMessageCount = 0;
+    }
+
+    /**
+     * Pushes everything written so far out to the segment file.
+     */
+    private void flushSegment() {
+        if( segmentGenerator == null ) {
+            return;
+        }
+        try {
+            segmentGenerator.flush();
+            ((GZIPOutputStream) segmentGenerator.getOutputTarget()).flush();
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Completes the current segment and gives it its final name.
+     */
+    private void closeSegment() {
+        if( segmentGenerator == null ) {
+            return;
+        }
+        Path temporaryPath = segmentPath.resolveSibling(segmentPath.getFileName() + QueueArchiveFormat.TEMPORARY_SUFFIX);
+        try {
+            segmentGenerator.close();
+            segmentGenerator = null;
+            try( FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE) ) {
+                channel.force(true);
+            }
+            Files.move(temporaryPath, segmentPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException(e);
+        }
+        if( log.isDebugEnabled() ) {
+            log.debug(String.format("Wrote queue archive segment %1$s", segmentPath));
+        }
+    }
+
+    private Map<QueueConfiguration, List<Message>> takePendingDeletes() {
+        Map<QueueConfiguration, List<Message>> readyDeletes = new LinkedHashMap<>(pendingDeletes);
+        pendingDeletes.clear();
+        pendingDeleteCount = 0;
+        return readyDeletes;
+    }
+
+    private void deleteMessages(Map<QueueConfiguration, List<Message>> messagesByShard) {
+
+        for( Map.Entry<QueueConfiguration, List<Message>> nextShard : messagesByShard.entrySet() ) {
+
+            QueueConfiguration shard = nextShard.getKey();
+            SqsClient sqsClient = shard.getOwningQueueManager().SqsClient();
+            List<Message> messages = nextShard.getValue();
+
+            for( int batchStart = 0 ; batchStart < messages.size() ; batchStart += 10 ) {
+                List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(10);
+                for( Message nextMessage : messages.subList(batchStart, Math.min(batchStart + 10, messages.size())) ) {
+                    entries.add(DeleteMessageBatchRequestEntry.builder()
+                            .id(Integer.toString(entries.size()))
+                            .receiptHandle(nextMessage.receiptHandle())
+                            .build());
+                }
+
+                DeleteMessageBatchRequest deleteMessageBatchRequest = DeleteMessageBatchRequest.builder()
+                        .queueUrl(shard.getQueueUrl())
+                        .entries(entries)
+                        .build();
+
+                // A message that is not deleted is archived again by the next drain.
+                try {
+                    DeleteMessageBatchResponse deleteMessageBatchResponse = shard.getSystemConfiguration().getCallController()
+                            .call(() -> sqsClient.deleteMessageBatch(deleteMessageBatchRequest));
+                    if( !deleteMessageBatchResponse.failed().isEmpty() ) {
+                        log.warn(String.format("Failed to delete %1$d archived messages from %2$s", deleteMessageBatchResponse.failed().size(), shard.getQueueUrl()));
+                    }
+                }
+                catch( SdkException e ) {
+                    log.warn(String.format("Failed to delete %1$d archived messages from %2$s: %3$s", entries.size(), shard.getQueueUrl(), e.getMessage()));
+                }
+            }
+        }
+    }
+}
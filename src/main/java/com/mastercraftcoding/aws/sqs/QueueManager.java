@@ -1,5 +1,6 @@
 package com.mastercraftcoding.aws.sqs;
 
+import com.mastercraftcoding.aws.sqs.utility.MessageSizeUtility;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
@@ -7,23 +8,95 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.http.SdkHttpResponse;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.SqsClientBuilder;
 import software.amazon.awssdk.services.sqs.model.*;
 import software.amazon.awssdk.services.sqs.model.SqsException;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class QueueManager implements ApplicationContextAware, InitializingBean, DisposableBean {
 
+    private static final String DEDUPLICATION_SCOPE_ATTRIBUTE = "DeduplicationScope";
+    private static final String FIFO_THROUGHPUT_LIMIT_ATTRIBUTE = "FifoThroughputLimit";
+
+    // By default a batched message may move ahead of at most 40 messages sent before it.
+    private static final int DEFAULT_BATCH_REORDER_WINDOW = 4;
+
+    // Fan-out sends block on SQS, so they get their own small pool rather than the common fork-join pool.
+    private static final int FAN_OUT_SEND_THREADS = 16;
+
+    /**
+     * The custom attributes sendAndReceive() adds to a request.  A handler that replies with sendReply() must
+     * receive both of them.
+     */
+    public static final String CORRELATION_ID_ATTRIBUTE = "CorrelationId";
+    public static final String REPLY_TO_ATTRIBUTE = "ReplyTo";
+
+    /**
+     * The custom attribute holding the reason a poison message was moved to its dead letter queue.
+     */
+    public static final String POISON_REASON_ATTRIBUTE = "PoisonReason";
+
+    // SQS allows ten custom attributes per message, and a reason longer than this says nothing more.
+    private static final int MAX_MESSAGE_ATTRIBUTES = 10;
+    private static final int MAX_POISON_REASON_LENGTH = 1024;
+
+    private static final String[] LATENCY_SYSTEM_ATTRIBUTE_NAMES = new String[] {
+            MessageSystemAttributeName.SENT_TIMESTAMP.toString(),
+            MessageSystemAttributeName.APPROXIMATE_FIRST_RECEIVE_TIMESTAMP.toString(),
+            MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT.toString()
+    };
+
+    // FIFO queues with a dead letter queue also need each message's group, to move poison messages within it.
+    private static final String[] GROUP_SYSTEM_ATTRIBUTE_NAMES = new String[] {
+            MessageSystemAttributeName.MESSAGE_GROUP_ID.toString()
+    };
+    private static final String[] LATENCY_AND_GROUP_SYSTEM_ATTRIBUTE_NAMES = new String[] {
+            MessageSystemAttributeName.SENT_TIMESTAMP.toString(),
+            MessageSystemAttributeName.APPROXIMATE_FIRST_RECEIVE_TIMESTAMP.toString(),
+            MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT.toString(),
+            MessageSystemAttributeName.MESSAGE_GROUP_ID.toString()
+    };
+
     private ApplicationContext applicationContext;
-    private SqsClient sqsClient;
-    private Region targetRegion;
+    private volatile SqsClient sqsClient;
+    private boolean ownsSqsClient;
+    private SdkHttpClient sqsHttpClient;
+    private QueueTransportConfiguration transportConfiguration;
+    private QueueRetryConfiguration retryConfiguration;
+    private SendSpoolConfiguration sendSpoolConfiguration;
+    private SendSpool sendSpool;
+    private ThreadPoolExecutor fanOutExecutor;
+    private ScheduledExecutorService envelopeFlushExecutor;
+    private String replyQueueBaseName;
+    private ReplyDispatcher replyDispatcher;
+    private long shutdownDrainTimeoutMillis = 10000;
+    private final Region targetRegion;
     private final RuntimeEnvironment runtimeEnvironment;
     private final String applicationName;
 
@@ -45,14 +118,7 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
     }
 
     public QueueManager(Region targetRegion, String runtimeEnvironmentName, String applicationName) {
-        this.runtimeEnvironment = RuntimeEnvironment.createCustomEnvironment(runtimeEnvironmentName);
-        this.applicationName = applicationName;
-        this.registeredQueues = new HashSet<>();
-
-        this.sqsClient = SqsClient.builder()
-                .region(targetRegion)
-                .build();
-        this.messageHandlerDriverThreads = new HashSet<>();
+        this(targetRegion, RuntimeEnvironment.createCustomEnvironment(runtimeEnvironmentName), applicationName);
     }
 
     @Override
@@ -60,23 +126,132 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
         this.applicationContext = applicationContext;
     }
 
+    /**
+     * Sets the transport (HTTP client, connection pool and timeouts) used when this QueueManager creates its own
+     * SqsClient.  Must be called before the QueueManager is initialized.
+     */
+    public void setTransportConfiguration(QueueTransportConfiguration transportConfiguration) {
+        if( this.sqsClient != null ) {
+            throw new IllegalStateException("The transport configuration must be set before the SqsClient is created.");
+        }
+        this.transportConfiguration = transportConfiguration;
+    }
+
+    public QueueTransportConfiguration getTransportConfiguration() {
+        return transportConfiguration;
+    }
+
+    /**
+     * Sets how failing and throttled SQS calls are retried and paced.  Must be called before any queues are
+     * registered; when not set, the QueueRetryConfiguration defaults are used.
+     */
+    public synchronized void setRetryConfiguration(QueueRetryConfiguration retryConfiguration) {
+        if( !registeredQueues.isEmpty() ) {
+            throw new IllegalStateException("The retry configuration must be set before any queues are registered.");
+        }
+        this.retryConfiguration = retryConfiguration;
+    }
+
+    public synchronized QueueRetryConfiguration getRetryConfiguration() {
+        if( retryConfiguration == null ) {
+            retryConfiguration = QueueRetryConfiguration.builder().build();
+        }
+        return retryConfiguration;
+    }
+
+    /**
+     * Sets how long destroy() waits for message handlers to finish the messages they are handling before
+     * interrupting them.  Messages received but not yet started are handed back to their queues straight away.
+     */
+    public void setShutdownDrainTimeoutMillis(long shutdownDrainTimeoutMillis) {
+        if( shutdownDrainTimeoutMillis < 0 ) {
+            throw new IllegalArgumentException("shutdownDrainTimeoutMillis may not be negative.");
+        }
+        this.shutdownDrainTimeoutMillis = shutdownDrainTimeoutMillis;
+    }
+
+    public long getShutdownDrainTimeoutMillis() {
+        return shutdownDrainTimeoutMillis;
+    }
+
+    /**
+     * Sets the durable send spool used by queues with spoolSends enabled.  Must be called before the QueueManager is
+     * initialized.
+     */
+    public void setSendSpoolConfiguration(SendSpoolConfiguration sendSpoolConfiguration) {
+        if( this.sendSpool != null ) {
+            throw new IllegalStateException("The send spool configuration must be set before the send spool is opened.");
+        }
+        this.sendSpoolConfiguration = sendSpoolConfiguration;
+    }
+
+    public SendSpoolConfiguration getSendSpoolConfiguration() {
+        return sendSpoolConfiguration;
+    }
+
+    /**
+     * Returns the send spool, or null if no queue registered with this QueueManager spools its sends.
+     */
+    public synchronized SendSpool getSendSpool() {
+        return sendSpool;
+    }
+
+    /**
+     * Returns the send spool, opening it (and starting to send anything left in it by a previous run) on first use.
+     */
+    /* package */ synchronized SendSpool sendSpool() {
+        if( sendSpool == null ) {
+            if( sendSpoolConfiguration == null ) {
+                throw new IllegalStateException("A SendSpoolConfiguration must be set on the QueueManager to spool sends.");
+            }
+            sendSpool = new SendSpool(sendSpoolConfiguration, SqsClient(), this::callControllerFor);
+        }
+        return sendSpool;
+    }
+
+    /**
+     * Sets the base name of this node's reply queue for sendAndReceive(), which must be unique to the node and the
+     * same each time it starts.  The reply queue is kept when the QueueManager is destroyed, so a node that restarts
+     * picks up where it left off rather than leaving a queue behind.  Must be called before sendAndReceive().
+     */
+    public synchronized void setReplyQueueBaseName(String replyQueueBaseName) {
+        if( this.replyDispatcher != null ) {
+            throw new IllegalStateException("The reply queue name must be set before the reply queue is created.");
+        }
+        this.replyQueueBaseName = replyQueueBaseName;
+    }
+
+    /**
+     * Returns the reply dispatcher, creating the reply queue and starting its poller on first use.
+     */
+    /* package */ synchronized ReplyDispatcher replyDispatcher() {
+        if( replyDispatcher == null ) {
+            if( replyQueueBaseName == null ) {
+                throw new IllegalStateException("setReplyQueueBaseName() must be called before sendAndReceive().");
+            }
+            replyDispatcher = new ReplyDispatcher(this, replyQueueBaseName);
+        }
+        return replyDispatcher;
+    }
+
+    /**
+     * Supplies an existing SqsClient for this QueueManager to use, allowing a single client to be shared by several
+     * QueueManager instances.  A supplied client is never closed by this QueueManager.  Must be called before the
+     * QueueManager is initialized.
+     */
+    public void setSqsClient(SqsClient sqsClient) {
+        if( this.sqsClient != null ) {
+            throw new IllegalStateException("An SqsClient has already been set or created for this QueueManager.");
+        }
+        this.sqsClient = sqsClient;
+        this.ownsSqsClient = false;
+    }
+
     @Override
     public void afterPropertiesSet() {
 
-        this.sqsClient = SqsClient.builder()
-                .region(targetRegion)
-                .credentialsProvider(() -> new AwsCredentials() {
-                    @Override
-                    public String accessKeyId() {
-                        return awsAccessKeyId;
-                    }
-
-                    @Override
-                    public String secretAccessKey() {
-                        return awsSecretAccessKey;
-                    }
-                })
-                .build();
+        // Create the SqsClient now, unless one was supplied.
+        SqsClient();
 
         // Make sure things were injected properly
         if( applicationContext == null ) {
@@ -99,7 +274,29 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
         // interfaces.
         Map<String, MessageHandler> messageHandlerMap = applicationContext.getBeansOfType(MessageHandler.class);
         for(MessageHandler nextHandler : messageHandlerMap.values()) {
-            messageHandlerDriverThreads.add(new MessageHandlerDriverThread(this, nextHandler, nextHandler.getDesiredMessageAttributes()));
+            registerMessageHandler(nextHandler);
+        }
+    }
+
+    /**
+     * Starts delivering messages from the handler's target queue to the given MessageHandler.  Handlers that are
+     * Spring beans are registered automatically during initialization.  A handler whose target queue is sharded
+     * gets one driver thread per shard so that every shard is polled with the same effort.
+     */
+    public synchronized void registerMessageHandler(MessageHandler messageHandler) {
+
+        QueueConfiguration targetQueue = messageHandler.getTargetQueueConfiguration();
+        if( targetQueue == null || targetQueue.getOwningQueueManager() != this ) {
+            throw new IllegalArgumentException("The message handler's target queue is not registered with this QueueManager instance.");
+        }
+
+        if( targetQueue.isSharded() ) {
+            for( QueueConfiguration nextShard : targetQueue.getShards() ) {
+                messageHandlerDriverThreads.add(new MessageHandlerDriverThread(this, messageHandler, nextShard, messageHandler.getDesiredMessageAttributes()));
+            }
+        }
+        else {
+            messageHandlerDriverThreads.add(new MessageHandlerDriverThread(this, messageHandler, targetQueue, messageHandler.getDesiredMessageAttributes()));
         }
     }
 
@@ -122,11 +319,29 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
             throw new IllegalArgumentException("This QueueConfiguration is already registered with another QueueManager instance.");
         }
 
+        // A long poll must be able to complete before the transport gives up on the socket.
+        if( transportConfiguration != null &&
+                transportConfiguration.getSocketTimeoutMillis() <= queueConfiguration.getReceiveMessageWaitTimeSeconds() * 1000 ) {
+            throw new IllegalStateException(String.format("The transport socketTimeoutMillis must be longer than the receiveMessageWaitTimeSeconds of queue '%1$s'.", queueConfiguration.getQueueBaseName()));
+        }
+
+        // Spooled sends need somewhere to spool to.
+        if( queueConfiguration.isSpoolSends() && sendSpoolConfiguration == null ) {
+            throw new IllegalStateException(String.format("Queue '%1$s' spools its sends but no SendSpoolConfiguration has been set.", queueConfiguration.getQueueBaseName()));
+        }
+
         // Add the queue to the tracking hashmap
         registeredQueues.add(queueConfiguration);
 
         // Set the QueueConfiguration's owner to this queue manager
         queueConfiguration.getSystemConfiguration().setOwningQueueManager(this);
+        queueConfiguration.getSystemConfiguration().setCallController(new QueueCallController(getRetryConfiguration()));
+
+        // A sharded queue has no SQS queue of its own - it is a logical grouping of physical shard queues.
+        if( queueConfiguration.isSharded() ) {
+            registerShards(queueConfiguration);
+            return;
+        }
 
         // Make sure the queue in question has been created with AWS
         // First, if we need a dead letter queue, create it first since we have to
@@ -142,6 +357,28 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
         if( queueConfiguration.isCreateDeadLetterQueue()) {
             attachDeadLetterQueue(queueConfiguration);
         }
+
+        // Open the spool now, so anything left from a previous run starts sending straight away.
+        if( queueConfiguration.isSpoolSends() ) {
+            sendSpool();
+        }
+
+        if( queueConfiguration.isEnvelopeMessages() ) {
+            queueConfiguration.getSystemConfiguration().setEnvelopePacker(new EnvelopePacker(queueConfiguration, envelopeFlushExecutor()));
+        }
+    }
+
+    private void registerShards(QueueConfiguration queueConfiguration) {
+
+        List<QueueConfiguration> shards = new ArrayList<>();
+        for( int shardIndex = 0 ; shardIndex < queueConfiguration.getShardCount() ; shardIndex++ ) {
+            QueueConfiguration nextShard = queueConfiguration.createShardConfiguration(shardIndex);
+            registerQueue(nextShard);
+            shards.add(nextShard);
+        }
+
+        queueConfiguration.getSystemConfiguration().setShards(shards,
+                new ConsistentHashRing(fullQueueName(queueConfiguration), shards.size()));
     }
 
     public String fullQueueName(QueueConfiguration queueConfiguration) {
@@ -167,21 +404,33 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
         // ------------------------------------------------------
         // Set up the attributes for this queue
         // ------------------------------------------------------
-        HashMap<QueueAttributeName, String> attributes = new HashMap<>();
+        // Attribute names are passed as strings since the newer FIFO attributes are not known to every
+        // version of the AWS SDK.
+        HashMap<String, String> attributes = new HashMap<>();
         if( queueConfiguration.isFifoQueue() ) {
-            attributes.put(QueueAttributeName.FIFO_QUEUE, "True");
+            attributes.put(QueueAttributeName.FIFO_QUEUE.toString(), "True");
+
+            if( queueConfiguration.isContentBasedDeduplication() ) {
+                attributes.put(QueueAttributeName.CONTENT_BASED_DEDUPLICATION.toString(), "True");
+            }
+            if( queueConfiguration.getDeduplicationScope() != null ) {
+                attributes.put(DEDUPLICATION_SCOPE_ATTRIBUTE, queueConfiguration.getDeduplicationScope().getAttributeValue());
+            }
+            if( queueConfiguration.getFifoThroughputLimit() != null ) {
+                attributes.put(FIFO_THROUGHPUT_LIMIT_ATTRIBUTE, queueConfiguration.getFifoThroughputLimit().getAttributeValue());
+            }
         }
 
         // Set the default polling length for the queue
-        attributes.put(QueueAttributeName.RECEIVE_MESSAGE_WAIT_TIME_SECONDS,
+        attributes.put(QueueAttributeName.RECEIVE_MESSAGE_WAIT_TIME_SECONDS.toString(),
                 Integer.toString(queueConfiguration.getReceiveMessageWaitTimeSeconds()));
 
         // Set the visibility timeout for messages in this queue
-        attributes.put(QueueAttributeName.VISIBILITY_TIMEOUT,
+        attributes.put(QueueAttributeName.VISIBILITY_TIMEOUT.toString(),
                 Integer.toString(queueConfiguration.getMessageVisibilityTimeoutSeconds()));
 
         // Set the message retention period
-        attributes.put(QueueAttributeName.MESSAGE_RETENTION_PERIOD,
+        attributes.put(QueueAttributeName.MESSAGE_RETENTION_PERIOD.toString(),
                 Integer.toString(
                         isDeadLetterQueue ? queueConfiguration.getDeadLetterRetentionPeriodSeconds()
                                 : queueConfiguration.getMessageRetentionPeriodSeconds()));
@@ -194,10 +443,10 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
                         isDeadLetterQueue ?
                                 queueConfiguration.generateFullDeadLetterQueueName(this.runtimeEnvironment, this.applicationName) :
                                 queueConfiguration.generateFullQueueName(this.runtimeEnvironment, this.applicationName))
-                .attributes(attributes)
+                .attributesWithStrings(attributes)
                 .build();
 
-        CreateQueueResponse createResponse = sqsClient.createQueue(createQueueRequest);
+        CreateQueueResponse createResponse = SqsClient().createQueue(createQueueRequest);
         throwOnFailure(createResponse);
 
         // Update the configuration with the URL that we need to communicate
@@ -219,7 +468,7 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
                 .attributeNames(QueueAttributeName.QUEUE_ARN)
                 .build();
 
-        GetQueueAttributesResponse queueAttributesResponse = sqsClient.getQueueAttributes(queueAttributesRequest);
+        GetQueueAttributesResponse queueAttributesResponse = SqsClient().getQueueAttributes(queueAttributesRequest);
         throwOnFailure(createResponse);
 
         // Store the queueArn back to the configuration
@@ -232,7 +481,58 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
     }
 
     /* package */ SqsClient SqsClient() {
-        return this.sqsClient;
+        SqsClient currentClient = this.sqsClient;
+        if( currentClient == null ) {
+            synchronized (this) {
+                if( this.sqsClient == null ) {
+                    this.sqsClient = createSqsClient();
+                    this.ownsSqsClient = true;
+                }
+                currentClient = this.sqsClient;
+            }
+        }
+        return currentClient;
+    }
+
+    /**
+     * Returns the HTTP client instance this QueueManager's SqsClient was built with, or null when the SqsClient was
+     * supplied or built its own.
+     */
+    /* package */ synchronized SdkHttpClient sqsHttpClient() {
+        return sqsHttpClient;
+    }
+
+    private SqsClient createSqsClient() {
+
+        SqsClientBuilder sqsClientBuilder = SqsClient.builder()
+                .region(targetRegion);
+
+        // Use the configured credentials when they were injected, otherwise fall back to the
+        // default AWS credentials provider chain.
+        if( awsAccessKeyId != null && awsSecretAccessKey != null ) {
+            sqsClientBuilder.credentialsProvider(() -> new AwsCredentials() {
+                @Override
+                public String accessKeyId() {
+                    return awsAccessKeyId;
+                }
+
+                @Override
+                public String secretAccessKey() {
+                    return awsSecretAccessKey;
+                }
+            });
+        }
+
+        // Calls are retried by each queue's QueueCallController, within its retry budget and send rate limiter, so the
+        // SDK must not retry them as well.
+        ClientOverrideConfiguration.Builder overrideConfigurationBuilder = ClientOverrideConfiguration.builder()
+                .retryPolicy(RetryPolicy.none());
+
+        if( transportConfiguration != null ) {
+            sqsHttpClient = transportConfiguration.configure(sqsClientBuilder, overrideConfigurationBuilder);
+        }
+
+        return sqsClientBuilder.overrideConfiguration(overrideConfigurationBuilder.build()).build();
     }
 
     private void attachDeadLetterQueue(QueueConfiguration queueConfiguration) {
@@ -250,7 +550,7 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
                 .build();
 
         // Verify that the call was successful
-        SetQueueAttributesResponse queueAttributesResponse = sqsClient.setQueueAttributes(queueAttributesRequest);
+        SetQueueAttributesResponse queueAttributesResponse = SqsClient().setQueueAttributes(queueAttributesRequest);
         throwOnFailure(queueAttributesResponse);
     }
 
@@ -266,6 +566,15 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
             throw new IllegalStateException("the given target queue has not been registered with this QueueManager instance.");
         }
 
+        // Delete every shard of a sharded queue
+        if( targetQueue.isSharded() ) {
+            for( QueueConfiguration nextShard : targetQueue.getShards() ) {
+                deleteQueue(nextShard);
+            }
+            registeredQueues.remove(targetQueue);
+            return;
+        }
+
         // Delete the target queue
         deleteQueue(targetQueue.getQueueUrl());
 
@@ -283,7 +592,7 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
                 .queueUrl(queueUrl)
                 .build();
 
-        DeleteQueueResponse deleteQueueResponse = sqsClient.deleteQueue(deleteQueueRequest);
+        DeleteQueueResponse deleteQueueResponse = SqsClient().deleteQueue(deleteQueueRequest);
         throwOnFailure(deleteQueueResponse);
     }
 
@@ -292,17 +601,49 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
                 .queueNamePrefix(queueNamePrefix())
                 .build();
 
-        ListQueuesResponse listQueuesResponse = sqsClient.listQueues(listQueuesRequest);
+        ListQueuesResponse listQueuesResponse = SqsClient().listQueues(listQueuesRequest);
         throwOnFailure(listQueuesResponse);
 
         return new ArrayList<>(listQueuesResponse.queueUrls());
     }
 
+    /**
+     * Returns the call controller of the registered queue with the given URL, or null if there is none.
+     */
+    /* package */ synchronized QueueCallController callControllerFor(String queueUrl) {
+        for( QueueConfiguration nextQueue : registeredQueues ) {
+            if( queueUrl.equals(nextQueue.getQueueUrl()) ) {
+                return nextQueue.getSystemConfiguration().getCallController();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the registered queue with the given base name, or null if there is none.
+     */
+    /* package */ synchronized QueueConfiguration registeredQueue(String queueBaseName) {
+        for( QueueConfiguration nextQueue : registeredQueues ) {
+            if( nextQueue.getQueueBaseName().equals(queueBaseName) ) {
+                return nextQueue;
+            }
+        }
+        return null;
+    }
+
     private String queueNamePrefix() {
         return this.runtimeEnvironment.toString() + "_" + this.applicationName + "_";
     }
 
     public MessageReceiveContext[] readMessages(QueueConfiguration targetQueue, String[] messageAttributeNames, int maxMessageCount) {
+        return readMessages(targetQueue, messageAttributeNames, maxMessageCount, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads messages as readMessages() does, but long polls for no more than maxWaitTimeSeconds (or the queue's
+     * receiveMessageWaitTimeSeconds, if that is shorter).
+     */
+    /* package */ MessageReceiveContext[] readMessages(QueueConfiguration targetQueue, String[] messageAttributeNames, int maxMessageCount, int maxWaitTimeSeconds) {
 
         // Make sure this QueueConfiguration is registered with this QueueManager
         if(targetQueue.getOwningQueueManager() != this) {
@@ -314,40 +655,404 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
             throw new IllegalArgumentException("maxMessageCount cannot exceed 10.");
         }
 
-        ReceiveMessageRequest receiveMessageRequest = ReceiveMessageRequest.builder()
+        if( targetQueue.isSharded() ) {
+            return readShardedMessages(targetQueue, messageAttributeNames, maxMessageCount, maxWaitTimeSeconds);
+        }
+
+        return receiveMessages(targetQueue, messageAttributeNames, maxMessageCount, Math.min(maxWaitTimeSeconds, targetQueue.getReceiveMessageWaitTimeSeconds()));
+    }
+
+    private MessageReceiveContext[] readShardedMessages(QueueConfiguration targetQueue, String[] messageAttributeNames, int maxMessageCount, int maxWaitTimeSeconds) {
+
+        // Start at a random shard so that repeated reads spread their effort evenly, and check every shard
+        // without waiting before falling back to a long poll on the starting shard.
+        List<QueueConfiguration> shards = targetQueue.getShards();
+        int startingShard = ThreadLocalRandom.current().nextInt(shards.size());
+        for( int i = 0 ; i < shards.size() ; i++ ) {
+            QueueConfiguration nextShard = shards.get((startingShard + i) % shards.size());
+            MessageReceiveContext[] returnMessages = receiveMessages(nextShard, messageAttributeNames, maxMessageCount, 0);
+            if( returnMessages.length > 0 ) {
+                return returnMessages;
+            }
+        }
+
+        QueueConfiguration startingQueue = shards.get(startingShard);
+        return receiveMessages(startingQueue, messageAttributeNames, maxMessageCount, Math.min(maxWaitTimeSeconds, startingQueue.getReceiveMessageWaitTimeSeconds()));
+    }
+
+    private MessageReceiveContext[] receiveMessages(QueueConfiguration targetQueue, String[] messageAttributeNames, int maxMessageCount, int waitTimeSeconds) {
+
+        ReceiveMessageRequest.Builder receiveMessageRequestBuilder = ReceiveMessageRequest.builder()
                 .queueUrl(targetQueue.getQueueUrl())
                 .maxNumberOfMessages(maxMessageCount)
-                .waitTimeSeconds(targetQueue.getReceiveMessageWaitTimeSeconds())
+                .waitTimeSeconds(waitTimeSeconds)
                 .visibilityTimeout(targetQueue.getMessageVisibilityTimeoutSeconds())
-                .messageAttributeNames(messageAttributeNames)
-                .build();
+                .messageAttributeNames(messageAttributeNames);
+
+        // Ask SQS for the timestamps we need to measure queue lag (or that the queue's handler orders by), and for
+        // the message groups of FIFO messages that may be moved to the dead letter queue.
+        boolean trackMessageLatency = targetQueue.isTrackMessageLatency();
+        boolean receiveTimestamps = trackMessageLatency || targetQueue.getSystemConfiguration().isReceiveTimestamps();
+        boolean receiveGroups = targetQueue.isFifoQueue() && targetQueue.isCreateDeadLetterQueue();
+        if( receiveTimestamps || receiveGroups ) {
+            receiveMessageRequestBuilder.attributeNamesWithStrings(!receiveGroups ? LATENCY_SYSTEM_ATTRIBUTE_NAMES
+                    : receiveTimestamps ? LATENCY_AND_GROUP_SYSTEM_ATTRIBUTE_NAMES : GROUP_SYSTEM_ATTRIBUTE_NAMES);
+        }
 
-        ReceiveMessageResponse receiveMessageResponse = sqsClient.receiveMessage(receiveMessageRequest);
-        throwOnFailure(receiveMessageResponse);
+        ReceiveMessageRequest receiveMessageRequest = receiveMessageRequestBuilder.build();
+        ReceiveMessageResponse receiveMessageResponse = targetQueue.getSystemConfiguration().getCallController()
+                .call(() -> SqsClient().receiveMessage(receiveMessageRequest));
 
         List<Message> messageList = receiveMessageResponse.messages();
         if( messageList == null || messageList.isEmpty() ) {
             return new MessageReceiveContext[0];
         }
 
+        // Each context is a view over its SDK message, so nothing is copied here.
+        long receiveTimestamp = System.currentTimeMillis();
         MessageReceiveContext[] returnMessages = new MessageReceiveContext[messageList.size()];
-        int messageOffset = 0;
-        for(Message nextMessage : messageList) {
-
-            returnMessages[messageOffset] = MessageReceiveContext.builder()
-                    .messageId(nextMessage.messageId())
-                    .receiptHandle(nextMessage.receiptHandle())
-                    .messageText(nextMessage.body())
-                    .queueConfiguration(targetQueue)
-                    .customAttributes(nextMessage.messageAttributes())
-                    .build();
+        for( int messageOffset = 0 ; messageOffset < returnMessages.length ; messageOffset++ ) {
+            returnMessages[messageOffset] = MessageReceiveContext.fromSdkMessage(messageList.get(messageOffset), targetQueue, receiveTimestamp);
 
-            messageOffset++;
+            if( trackMessageLatency ) {
+                targetQueue.getSystemConfiguration().getMessageLatencyStatistics().recordReceive(returnMessages[messageOffset]);
+            }
         }
 
         return returnMessages;
     }
 
+    /**
+     * Sends the messages with as few SendMessageBatch requests as possible.  Messages are grouped by the physical
+     * queue (or shard) they are bound for and packed by size; FIFO order within each message group is kept.
+     * Messages larger than SQS allows are rejected before anything is sent.
+     */
+    public BatchSendResult sendMessages(List<MessageSendContext> messages) {
+        return sendMessages(messages, DEFAULT_BATCH_REORDER_WINDOW);
+    }
+
+    /**
+     * Sends the messages with as few SendMessageBatch requests as possible, packing up to reorderWindow batches at
+     * a time.  A wider window packs mixed sizes more tightly, at the cost of sending messages further out of their
+     * original order (never out of order within a FIFO message group).
+     */
+    public BatchSendResult sendMessages(List<MessageSendContext> messages, int reorderWindow) {
+
+        if( messages == null ) {
+            throw new IllegalArgumentException("messages may not be null.");
+        }
+
+        BatchSendResult result = new BatchSendResult();
+
+        // Split the messages by destination, rejecting any that are too large up front.
+        Map<QueueConfiguration, List<MessageSendContext>> messagesByQueue = new LinkedHashMap<>();
+        for( MessageSendContext nextMessage : messages ) {
+
+            QueueConfiguration targetQueue = nextMessage.getTargetQueueConfiguration();
+            if( targetQueue.getOwningQueueManager() != this ) {
+                throw new IllegalArgumentException("The message's queue is not registered with this QueueManager instance.");
+            }
+
+            int messageSize = nextMessage.getMessageSize();
+            if( messageSize > MessageBatchPacker.MAX_BATCH_BYTES ) {
+                result.addFailure(nextMessage, "MessageTooLong",
+                        String.format("The message is %1$d bytes, which exceeds the SQS maximum of %2$d bytes.", messageSize, MessageBatchPacker.MAX_BATCH_BYTES), true);
+                continue;
+            }
+
+            messagesByQueue.computeIfAbsent(targetQueue, queue -> new ArrayList<>()).add(nextMessage);
+        }
+
+        MessageBatchPacker batchPacker = new MessageBatchPacker(reorderWindow);
+        Map<MessageSendContext, CompletableFuture<Void>> envelopedMessages = new IdentityHashMap<>();
+        for( Map.Entry<QueueConfiguration, List<MessageSendContext>> nextQueue : messagesByQueue.entrySet() ) {
+
+            QueueConfiguration targetQueue = nextQueue.getKey();
+            List<MessageSendContext> queueMessages = nextQueue.getValue();
+
+            // Envelopes already share requests between messages - only delayed and oversized messages are left to batch.
+            if( targetQueue.isEnvelopeMessages() ) {
+                List<MessageSendContext> unpackedMessages = new ArrayList<>();
+                for( MessageSendContext nextMessage : queueMessages ) {
+                    CompletableFuture<Void> envelopeSent = nextMessage.getMessageDelaySeconds() == 0 ?
+                            targetQueue.getSystemConfiguration().getEnvelopePacker().add(nextMessage) : null;
+                    if( envelopeSent != null ) {
+                        envelopedMessages.put(nextMessage, envelopeSent);
+                    }
+                    else {
+                        unpackedMessages.add(nextMessage);
+                    }
+                }
+                queueMessages = unpackedMessages;
+            }
+
+            // The spool batches its own sends.
+            if( targetQueue.isSpoolSends() ) {
+                for( MessageSendContext nextMessage : queueMessages ) {
+                    sendSpool().append(nextMessage.toSendMessageRequest(targetQueue));
+                    result.addSuccess(nextMessage);
+                }
+                continue;
+            }
+
+            List<List<MessageSendContext>> batches = batchPacker.pack(queueMessages, MessageSendContext::getMessageSize,
+                    targetQueue.isFifoQueue() ? MessageSendContext::getMessageFifoGroupId : null);
+            sendBatches(targetQueue, batches, result);
+        }
+
+        // A message in an envelope has only been sent once its envelope has.
+        for( Map.Entry<MessageSendContext, CompletableFuture<Void>> nextEnveloped : envelopedMessages.entrySet() ) {
+            try {
+                EnvelopePacker.awaitSent(nextEnveloped.getValue());
+                result.addSuccess(nextEnveloped.getKey());
+            }
+            catch( RuntimeException e ) {
+                result.addFailure(nextEnveloped.getKey(), e instanceof SdkException ? errorCode((SdkException) e) : e.getClass().getSimpleName(), e.getMessage(), false);
+            }
+        }
+
+        return result;
+    }
+
+    private void sendBatches(QueueConfiguration targetQueue, List<List<MessageSendContext>> batches, BatchSendResult result) {
+
+        // Once a FIFO message fails, the later messages of its group must not overtake it.
+        Set<String> haltedGroups = targetQueue.isFifoQueue() ? new HashSet<>() : Collections.emptySet();
+
+        for( List<MessageSendContext> nextBatch : batches ) {
+
+            // Entries are identified by their position in the batch.
+            List<SendMessageBatchRequestEntry> entries = new ArrayList<>(nextBatch.size());
+            List<MessageSendContext> entryMessages = new ArrayList<>(nextBatch.size());
+            for( MessageSendContext nextMessage : nextBatch ) {
+                if( haltedGroups.contains(nextMessage.getMessageFifoGroupId()) ) {
+                    result.addFailure(nextMessage, "PreviousMessageInGroupFailed", "An earlier message in the same message group was not sent.", false);
+                    continue;
+                }
+                entries.add(nextMessage.toSendMessageBatchRequestEntry(Integer.toString(entryMessages.size())));
+                entryMessages.add(nextMessage);
+            }
+            if( entries.isEmpty() ) {
+                continue;
+            }
+
+            SendMessageBatchRequest sendMessageBatchRequest = SendMessageBatchRequest.builder()
+                    .queueUrl(targetQueue.getQueueUrl())
+                    .entries(entries)
+                    .build();
+
+            result.addRequest();
+            SendMessageBatchResponse sendMessageBatchResponse;
+            try {
+                sendMessageBatchResponse = targetQueue.getSystemConfiguration().getCallController()
+                        .send(() -> SqsClient().sendMessageBatch(sendMessageBatchRequest));
+            }
+            catch( SdkException e ) {
+                String errorCode = errorCode(e);
+                for( MessageSendContext nextMessage : entryMessages ) {
+                    result.addFailure(nextMessage, errorCode, e.getMessage(), false);
+                    haltGroup(haltedGroups, targetQueue, nextMessage);
+                }
+                continue;
+            }
+
+            for( SendMessageBatchResultEntry nextResult : sendMessageBatchResponse.successful() ) {
+                result.addSuccess(entryMessages.get(Integer.parseInt(nextResult.id())));
+            }
+            for( BatchResultErrorEntry nextFailure : sendMessageBatchResponse.failed() ) {
+                MessageSendContext failedMessage = entryMessages.get(Integer.parseInt(nextFailure.id()));
+                result.addFailure(failedMessage, nextFailure.code(), nextFailure.message(), Boolean.TRUE.equals(nextFailure.senderFault()));
+                haltGroup(haltedGroups, targetQueue, failedMessage);
+            }
+        }
+    }
+
+    /**
+     * Sends a request and returns a future for its reply.  The request is tagged with a CorrelationId and a ReplyTo
+     * attribute naming this node's reply queue, which a single poller thread long-polls for every caller, so a round
+     * trip costs two SQS hops and no per-call polling.  The future fails with a TimeoutException when no reply
+     * arrives within timeoutMillis, and with the SQS error if the request could not be sent.
+     */
+    public CompletableFuture<MessageReceiveContext> sendAndReceive(MessageSendContext request, long timeoutMillis) {
+
+        if( request == null ) {
+            throw new IllegalArgumentException("request may not be null.");
+        }
+        if( request.getQueueConfiguration().getOwningQueueManager() != this ) {
+            throw new IllegalArgumentException("The request's queue is not registered with this QueueManager instance.");
+        }
+        if( timeoutMillis <= 0 ) {
+            throw new IllegalArgumentException("timeoutMillis must be positive.");
+        }
+
+        return replyDispatcher().sendAndReceive(request, timeoutMillis);
+    }
+
+    /**
+     * Sends a reply to a request made with sendAndReceive().  The request must have been received with the
+     * CorrelationId and ReplyTo attributes.
+     */
+    public void sendReply(MessageReceiveContext request, String replyText) {
+        sendReply(request, replyText, Collections.emptyMap());
+    }
+
+    /**
+     * Sends a reply, with custom attributes, to a request made with sendAndReceive().  The request must have been
+     * received with the CorrelationId and ReplyTo attributes.
+     */
+    public void sendReply(MessageReceiveContext request, String replyText, Map<String, MessageAttributeValue> replyAttributes) {
+
+        MessageAttributeValue correlationId = request.getCustomAttribute(CORRELATION_ID_ATTRIBUTE);
+        MessageAttributeValue replyTo = request.getCustomAttribute(REPLY_TO_ATTRIBUTE);
+        if( correlationId == null || replyTo == null ) {
+            throw new IllegalArgumentException(String.format("The request has no %1$s and %2$s attributes to reply to.", CORRELATION_ID_ATTRIBUTE, REPLY_TO_ATTRIBUTE));
+        }
+
+        Map<String, MessageAttributeValue> messageAttributes = new HashMap<>(replyAttributes);
+        messageAttributes.put(CORRELATION_ID_ATTRIBUTE, correlationId);
+
+        SendMessageRequest sendMessageRequest = SendMessageRequest.builder()
+                .queueUrl(replyTo.stringValue())
+                .messageBody(replyText)
+                .messageAttributes(messageAttributes)
+                .build();
+
+        // The reply queue belongs to another node, so the reply is paced with the queue the request came from.
+        request.getQueueConfiguration().getSystemConfiguration().getCallController()
+                .send(() -> SqsClient().sendMessage(sendMessageRequest));
+    }
+
+    /* package */ FanOutSendResult sendFanOut(FanOutSendContext message) {
+
+        // Don't spend any requests on a message SQS will reject.
+        int messageSize = message.getMessageSize();
+        if( messageSize > MessageSizeUtility.MAXIMUM_MESSAGE_SIZE ) {
+            throw new IllegalArgumentException(String.format("The message is %1$d bytes, which exceeds the SQS maximum of %2$d bytes.", messageSize, MessageSizeUtility.MAXIMUM_MESSAGE_SIZE));
+        }
+
+        List<QueueConfiguration> queueConfigurations = message.getQueueConfigurations();
+        FanOutSendResult.Failure[] failures = new FanOutSendResult.Failure[queueConfigurations.size()];
+
+        // Send to all but the last queue on the pool, and the last on this thread while they run.
+        List<CompletableFuture<Void>> pendingSends = new ArrayList<>(queueConfigurations.size() - 1);
+        for( int queueOffset = 0 ; queueOffset < queueConfigurations.size() - 1 ; queueOffset++ ) {
+            int nextOffset = queueOffset;
+            pendingSends.add(CompletableFuture.runAsync(() -> failures[nextOffset] = sendFanOutTo(message, queueConfigurations.get(nextOffset)), fanOutExecutor()));
+        }
+        failures[failures.length - 1] = sendFanOutTo(message, queueConfigurations.get(failures.length - 1));
+
+        for( CompletableFuture<Void> nextSend : pendingSends ) {
+            try {
+                nextSend.join();
+            }
+            catch( CompletionException e ) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        FanOutSendResult result = new FanOutSendResult();
+        for( int queueOffset = 0 ; queueOffset < failures.length ; queueOffset++ ) {
+            if( failures[queueOffset] == null ) {
+                result.addSuccess(queueConfigurations.get(queueOffset));
+            }
+            else {
+                result.addFailure(queueConfigurations.get(queueOffset), failures[queueOffset].getErrorCode(),
+                        failures[queueOffset].getErrorMessage(), failures[queueOffset].isSenderFault());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sends the fanned out message to one queue, returning why it failed or null if it was sent.
+     */
+    private FanOutSendResult.Failure sendFanOutTo(FanOutSendContext message, QueueConfiguration queueConfiguration) {
+
+        QueueConfiguration targetQueue = message.targetQueueConfiguration(queueConfiguration);
+
+        if( targetQueue.isSpoolSends() ) {
+            sendSpool().append(message.toSendMessageRequest(targetQueue));
+            return null;
+        }
+
+        SendMessageBatchRequest sendMessageBatchRequest = SendMessageBatchRequest.builder()
+                .queueUrl(targetQueue.getQueueUrl())
+                .entries(message.toSendMessageBatchRequestEntry(targetQueue.isFifoQueue()))
+                .build();
+
+        SendMessageBatchResponse sendMessageBatchResponse;
+        try {
+            sendMessageBatchResponse = targetQueue.getSystemConfiguration().getCallController()
+                    .send(() -> SqsClient().sendMessageBatch(sendMessageBatchRequest));
+        }
+        catch( SdkException e ) {
+            return new FanOutSendResult.Failure(queueConfiguration, errorCode(e), e.getMessage(), false);
+        }
+
+        if( !sendMessageBatchResponse.failed().isEmpty() ) {
+            BatchResultErrorEntry failure = sendMessageBatchResponse.failed().get(0);
+            return new FanOutSendResult.Failure(queueConfiguration, failure.code(), failure.message(), Boolean.TRUE.equals(failure.senderFault()));
+        }
+        return null;
+    }
+
+    private synchronized ThreadPoolExecutor fanOutExecutor() {
+        if( fanOutExecutor == null ) {
+            AtomicInteger threadCount = new AtomicInteger();
+            fanOutExecutor = new ThreadPoolExecutor(FAN_OUT_SEND_THREADS, FAN_OUT_SEND_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread sendThread = new Thread(runnable, "FanOutSend - " + applicationName + " - " + threadCount.incrementAndGet());
+                sendThread.setDaemon(true);
+                return sendThread;
+            });
+            fanOutExecutor.allowCoreThreadTimeOut(true);
+        }
+        return fanOutExecutor;
+    }
+
+    private synchronized ScheduledExecutorService envelopeFlushExecutor() {
+        if( envelopeFlushExecutor == null ) {
+            envelopeFlushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread flushThread = new Thread(runnable, "EnvelopeFlusher - " + applicationName);
+                flushThread.setDaemon(true);
+                return flushThread;
+            });
+        }
+        return envelopeFlushExecutor;
+    }
+
+    private static String errorCode(SdkException e) {
+        return e instanceof AwsServiceException && ((AwsServiceException) e).awsErrorDetails() != null ?
+                ((AwsServiceException) e).awsErrorDetails().errorCode() : e.getClass().getSimpleName();
+    }
+
+    private static void haltGroup(Set<String> haltedGroups, QueueConfiguration targetQueue, MessageSendContext failedMessage) {
+        if( targetQueue.isFifoQueue() ) {
+            haltedGroups.add(failedMessage.getMessageFifoGroupId());
+        }
+    }
+
+    /**
+     * Moves messages out of a queue's dead letter queue - back to the queue itself, or to the request's target queue
+     * - and waits for the dead letter queue to come back empty.  Messages are received, sent and deleted in batches
+     * of ten by request.getParallelism() threads; only the messages the request's filters accept are moved.
+     * <p>
+     * A message is deleted from the dead letter queue only after the target queue has accepted it, so a message
+     * whose delete fails may be moved twice.
+     */
+    public RedriveResult redriveDeadLetterQueue(RedriveRequest request) {
+
+        if( request == null ) {
+            throw new IllegalArgumentException("request may not be null.");
+        }
+
+        // Make sure both queues are registered with this QueueManager
+        if( request.getSourceQueue().getOwningQueueManager() != this || request.getTargetQueue().getOwningQueueManager() != this ) {
+            throw new IllegalArgumentException("The source and target queues must be registered with this QueueManager instance.");
+        }
+
+        return new DeadLetterRedrive(this, request).run();
+    }
+
     /* package */ boolean deleteMessages(QueueConfiguration targetQueue, MessageReceiveContext messageContext) {
 
         // Make sure this QueueConfiguration is registered with this QueueManager
@@ -365,8 +1070,11 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
                 .queueUrl(targetQueue.getQueueUrl())
                 .build();
 
-        DeleteMessageResponse deleteMessageResponse = sqsClient.deleteMessage(deleteMessageRequest);
-        throwOnFailure(deleteMessageResponse);
+        targetQueue.getSystemConfiguration().getCallController().call(() -> SqsClient().deleteMessage(deleteMessageRequest));
+
+        if( targetQueue.isTrackMessageLatency() ) {
+            targetQueue.getSystemConfiguration().getMessageLatencyStatistics().recordAcknowledge(messageContext, System.currentTimeMillis());
+        }
 
         return true;
     }
@@ -380,14 +1088,15 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
 
         // Make sure there's something to do.
         if( messagesToDelete == null || messagesToDelete.isEmpty()) {
-            return new ArrayList<>();
+            return Collections.emptyList();
         }
 
-        List<DeleteMessageBatchRequestEntry> messageDeleteEntries = new ArrayList<>();
-        for(MessageReceiveContext nextMessage : messagesToDelete) {
+        // Entries are identified by their position in the list, which maps failures straight back to their message.
+        List<DeleteMessageBatchRequestEntry> messageDeleteEntries = new ArrayList<>(messagesToDelete.size());
+        for( int i = 0 ; i < messagesToDelete.size() ; i++ ) {
             DeleteMessageBatchRequestEntry nextEntry = DeleteMessageBatchRequestEntry.builder()
-                    .receiptHandle(nextMessage.getReceiptHandle())
-                    .id(nextMessage.getMessageId())
+                    .receiptHandle(messagesToDelete.get(i).getReceiptHandle())
+                    .id(Integer.toString(i))
                     .build();
             messageDeleteEntries.add(nextEntry);
         }
@@ -397,22 +1106,166 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
                 .entries(messageDeleteEntries)
                 .build();
 
-        DeleteMessageBatchResponse deleteMessageBatchResponse = sqsClient.deleteMessageBatch(deleteMessageBatchRequest);
-        throwOnFailure(deleteMessageBatchResponse);
+        DeleteMessageBatchResponse deleteMessageBatchResponse = targetQueue.getSystemConfiguration().getCallController()
+                .call(() -> SqsClient().deleteMessageBatch(deleteMessageBatchRequest));
 
-        List<MessageReceiveContext> failed = new ArrayList<>();
+        List<MessageReceiveContext> failed = Collections.emptyList();
 
-        if( deleteMessageBatchResponse.failed() != null ) {
+        if( deleteMessageBatchResponse.failed() != null && !deleteMessageBatchResponse.failed().isEmpty() ) {
+            failed = new ArrayList<>();
             for( BatchResultErrorEntry nextResult : deleteMessageBatchResponse.failed()) {
-                failed.add(messagesToDelete.stream().filter( mc -> mc.getMessageId().equals(nextResult.id())).findFirst().get());
+                failed.add(messagesToDelete.get(Integer.parseInt(nextResult.id())));
+            }
+        }
+
+        // Record the end-to-end latency of every message that was acknowledged.
+        if( targetQueue.isTrackMessageLatency() ) {
+            long acknowledgeTimestamp = System.currentTimeMillis();
+            for( MessageReceiveContext nextMessage : messagesToDelete ) {
+                if( !failed.contains(nextMessage) ) {
+                    targetQueue.getSystemConfiguration().getMessageLatencyStatistics().recordAcknowledge(nextMessage, acknowledgeTimestamp);
+                }
             }
         }
 
         return failed;
     }
 
+    /**
+     * Sends copies of poison messages to the queue's dead letter queue, with their poison reasons attached, and
+     * deletes the originals once copied if deleteOriginals is set.  Returns the messages that were copied; the rest
+     * are left to be received again.
+     */
+    /* package */ List<MessageReceiveContext> moveToDeadLetterQueue(QueueConfiguration targetQueue, List<MessageReceiveContext> messages, boolean deleteOriginals) {
+
+        if( !targetQueue.isCreateDeadLetterQueue() ) {
+            throw new IllegalStateException(String.format("Queue '%1$s' has no dead letter queue.", targetQueue.getQueueBaseName()));
+        }
+
+        List<MessageReceiveContext> movedMessages = new ArrayList<>(messages.size());
+        for( int batchStart = 0 ; batchStart < messages.size() ; batchStart += MessageBatchPacker.MAX_BATCH_ENTRIES ) {
+            List<MessageReceiveContext> batch = messages.subList(batchStart, Math.min(batchStart + MessageBatchPacker.MAX_BATCH_ENTRIES, messages.size()));
+
+            // Entries are identified by their position in the batch.
+            List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+            for( MessageReceiveContext nextMessage : batch ) {
+                Map<String, MessageAttributeValue> attributes = new HashMap<>();
+                for( String nextAttributeName : nextMessage.getCustomAttributeNames() ) {
+                    attributes.put(nextAttributeName, nextMessage.getCustomAttribute(nextAttributeName));
+                }
+                String poisonReason = nextMessage.getPoisonReason() != null ? nextMessage.getPoisonReason() : "Poison message";
+                if( attributes.size() < MAX_MESSAGE_ATTRIBUTES || attributes.containsKey(POISON_REASON_ATTRIBUTE) ) {
+                    attributes.put(POISON_REASON_ATTRIBUTE, MessageAttributeValue.builder().dataType("String")
+                            .stringValue(poisonReason.length() > MAX_POISON_REASON_LENGTH ? poisonReason.substring(0, MAX_POISON_REASON_LENGTH) : poisonReason).build());
+                }
+
+                SendMessageBatchRequestEntry.Builder entryBuilder = SendMessageBatchRequestEntry.builder()
+                        .id(Integer.toString(entries.size()))
+                        .messageBody(nextMessage.getMessageText())
+                        .messageAttributes(attributes);
+
+                // The message id is unique, and the same on a retry, so it makes a good de-duplication id.
+                if( targetQueue.isFifoQueue() ) {
+                    String groupId = nextMessage.getMessageGroupId();
+                    entryBuilder.messageGroupId(groupId != null ? groupId : nextMessage.getMessageId());
+                    entryBuilder.messageDeduplicationId(nextMessage.getMessageId());
+                }
+                entries.add(entryBuilder.build());
+            }
+
+            SendMessageBatchRequest sendMessageBatchRequest = SendMessageBatchRequest.builder()
+                    .queueUrl(targetQueue.getQueueDeadLetterUrl())
+                    .entries(entries)
+                    .build();
+            SendMessageBatchResponse sendMessageBatchResponse = targetQueue.getSystemConfiguration().getCallController()
+                    .send(() -> SqsClient().sendMessageBatch(sendMessageBatchRequest));
+
+            List<MessageReceiveContext> sentMessages = new ArrayList<>(batch.size());
+            for( SendMessageBatchResultEntry nextResult : sendMessageBatchResponse.successful() ) {
+                sentMessages.add(batch.get(Integer.parseInt(nextResult.id())));
+            }
+
+            if( deleteOriginals ) {
+                deleteMessages(targetQueue, sentMessages);
+            }
+            movedMessages.addAll(sentMessages);
+        }
+        return movedMessages;
+    }
+
+    /**
+     * Changes how long a received message stays hidden from other consumers.  A visibility timeout of zero makes
+     * the message available again immediately.
+     */
+    public void changeMessageVisibility(QueueConfiguration targetQueue, MessageReceiveContext messageContext, int visibilityTimeoutSeconds) {
+
+        // Make sure this QueueConfiguration is registered with this QueueManager
+        if(targetQueue.getOwningQueueManager() != this) {
+            throw new IllegalArgumentException("The given targetQueue is not registered with this QueueManager instance.");
+        }
+
+        // Make sure the incoming messageContext is valid
+        if( messageContext == null ) {
+            throw new IllegalArgumentException("messageContext may not be null.");
+        }
+
+        ChangeMessageVisibilityRequest changeMessageVisibilityRequest = ChangeMessageVisibilityRequest.builder()
+                .queueUrl(targetQueue.getQueueUrl())
+                .receiptHandle(messageContext.getReceiptHandle())
+                .visibilityTimeout(visibilityTimeoutSeconds)
+                .build();
+
+        targetQueue.getSystemConfiguration().getCallController().call(() -> SqsClient().changeMessageVisibility(changeMessageVisibilityRequest));
+    }
+
+    /**
+     * Changes the visibility timeout of several received messages, ten to a request.  A message whose change fails
+     * simply stays hidden for the rest of its current visibility timeout.
+     */
+    public void changeMessageVisibility(QueueConfiguration targetQueue, List<MessageReceiveContext> messages, int visibilityTimeoutSeconds) {
+
+        // Make sure this QueueConfiguration is registered with this QueueManager
+        if(targetQueue.getOwningQueueManager() != this) {
+            throw new IllegalArgumentException("The given targetQueue is not registered with this QueueManager instance.");
+        }
+
+        for( int batchStart = 0 ; batchStart < messages.size() ; batchStart += MessageBatchPacker.MAX_BATCH_ENTRIES ) {
+            List<MessageReceiveContext> batch = messages.subList(batchStart, Math.min(batchStart + MessageBatchPacker.MAX_BATCH_ENTRIES, messages.size()));
+
+            // Entries are identified by their position in the batch.
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(batch.size());
+            for( MessageReceiveContext nextMessage : batch ) {
+                entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(Integer.toString(entries.size()))
+                        .receiptHandle(nextMessage.getReceiptHandle())
+                        .visibilityTimeout(visibilityTimeoutSeconds)
+                        .build());
+            }
+
+            ChangeMessageVisibilityBatchRequest changeMessageVisibilityBatchRequest = ChangeMessageVisibilityBatchRequest.builder()
+                    .queueUrl(targetQueue.getQueueUrl())
+                    .entries(entries)
+                    .build();
+            targetQueue.getSystemConfiguration().getCallController().call(() -> SqsClient().changeMessageVisibilityBatch(changeMessageVisibilityBatchRequest));
+        }
+    }
+
     public QueueStatistics currentMessageCount(QueueConfiguration queueConfiguration) {
 
+        // The statistics for a sharded queue are the sum of its shards.
+        if( queueConfiguration.isSharded() ) {
+            int messageCount = 0;
+            int delayedMessageCount = 0;
+            int hiddenMessageCount = 0;
+            for( QueueConfiguration nextShard : queueConfiguration.getShards() ) {
+                QueueStatistics shardStatistics = currentMessageCount(nextShard);
+                messageCount += shardStatistics.getMessageCount();
+                delayedMessageCount += shardStatistics.getDelayedMessageCount();
+                hiddenMessageCount += shardStatistics.getInvisibleMessageCount();
+            }
+            return new QueueStatistics(messageCount, delayedMessageCount, hiddenMessageCount);
+        }
+
         GetQueueAttributesRequest getQueueAttributesRequest = GetQueueAttributesRequest.builder()
                 .queueUrl(queueConfiguration.getQueueUrl())
                 .attributeNamesWithStrings(
@@ -421,7 +1274,7 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
                         QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE.toString())
                 .build();
 
-        GetQueueAttributesResponse getQueueAttributesResponse = sqsClient.getQueueAttributes(getQueueAttributesRequest);
+        GetQueueAttributesResponse getQueueAttributesResponse = SqsClient().getQueueAttributes(getQueueAttributesRequest);
         throwOnFailure(getQueueAttributesResponse);
 
         String messageCountString = getQueueAttributesResponse.attributes().get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES);
@@ -445,7 +1298,7 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
         return new QueueStatistics(messageCount, delayedMessageCount, hiddenMessageCount);
     }
 
-    private void throwOnFailure(SqsResponse sqsResponse) {
+    /* package */ static void throwOnFailure(SqsResponse sqsResponse) {
         SdkHttpResponse sdkHttpResponse = sqsResponse.sdkHttpResponse();
 
         if(!sdkHttpResponse.isSuccessful()) {
@@ -461,8 +1314,73 @@ public class QueueManager implements ApplicationContextAware, InitializingBean,
 
     @Override
     public void destroy() {
+
+        // Stop receiving, let each handler finish the message it is on, and hand the rest of each batch back.
+        long drainDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownDrainTimeoutMillis);
+        for(MessageHandlerDriverThread nextDriverThread : messageHandlerDriverThreads) {
+            nextDriverThread.beginDrain();
+        }
+        for(MessageHandlerDriverThread nextDriverThread : messageHandlerDriverThreads) {
+            nextDriverThread.awaitDrained(drainDeadlineNanos);
+        }
+
+        // Anything still running is interrupted, and given until the deadline (or a second, if it has passed) to exit
+        // before the spool and executors its handler may send through are shut down.  A thread blocked in a long
+        // poll is not waited for: a client we created cuts the poll off when it closes below, and a supplied client
+        // is left open, so the poll runs out on its own and the driver hands back what it receives.
         for(MessageHandlerDriverThread nextDriverThread : messageHandlerDriverThreads) {
-            nextDriverThread.stop();
+            nextDriverThread.interrupt();
+        }
+        long stopDeadlineNanos = Math.max(drainDeadlineNanos, System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+        for(MessageHandlerDriverThread nextDriverThread : messageHandlerDriverThreads) {
+            nextDriverThread.awaitStopped(stopDeadlineNanos);
+        }
+
+        // Fail any requests still waiting for replies.
+        ReplyDispatcher currentReplyDispatcher;
+        synchronized (this) {
+            currentReplyDispatcher = replyDispatcher;
+            replyDispatcher = null;
+        }
+        if( currentReplyDispatcher != null ) {
+            currentReplyDispatcher.close();
+        }
+
+        // Send the envelopes still lingering, ahead of the spool's final flush.
+        for( QueueConfiguration nextQueue : registeredQueues ) {
+            if( nextQueue.getSystemConfiguration().getEnvelopePacker() != null ) {
+                nextQueue.getSystemConfiguration().getEnvelopePacker().flush();
+            }
+        }
+
+        synchronized (this) {
+            if( envelopeFlushExecutor != null ) {
+                envelopeFlushExecutor.shutdown();
+                envelopeFlushExecutor = null;
+            }
+            if( fanOutExecutor != null ) {
+                fanOutExecutor.shutdown();
+                fanOutExecutor = null;
+            }
+        }
+
+        // Give the spool a chance to empty before closing it - anything left is sent when it is next opened.
+        SendSpool currentSpool;
+        synchronized (this) {
+            currentSpool = sendSpool;
+            sendSpool = null;
+        }
+        if( currentSpool != null ) {
+            currentSpool.flush(sendSpoolConfiguration.getShutdownFlushTimeoutMillis());
+            currentSpool.close();
+        }
+
+        // Only close the client if we created it - a supplied client may be shared.
+        synchronized (this) {
+            if( ownsSqsClient && sqsClient != null ) {
+                sqsClient.close();
+                sqsClient = null;
+            }
         }
     }
 }
@@ -0,0 +1,266 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * QueueReplayer sends the messages in an archive written by QueueExporter to a queue, with the same bodies and
+ * attributes.  Segments are memory-mapped and decompressed as they are read, and messages are sent in chunks
+ * through QueueManager.sendMessages(), so they go out in packed SendMessageBatch requests.
+ * <p>
+ * Messages are sent at the pace they were originally sent (by their SentTimestamp) multiplied by speedFactor - 1.0
+ * replays in real time, 10.0 ten times faster - or as fast as possible when speedFactor is zero.
+ * <p>
+ * {@code
+ * QueueReplayer replayer = QueueReplayer.builder()
+ *     .queueConfiguration( loadTestQueue )
+ *     .archiveDirectory( "/var/archive/orders" )
+ *     .speedFactor( 5.0 )
+ *     .build();
+ * replayer.replay();
+ * }
+ */
+public class QueueReplayer {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueReplayer.class);
+
+    // Messages are handed to the senders in chunks of up to this many, and sooner if the next one is not yet due.
+    private static final int CHUNK_MESSAGES = 100;
+    private static final int READ_BUFFER_BYTES = 65536;
+
+    private QueueConfiguration queueConfiguration;
+
+    /**
+     * archiveDirectory is the directory of segment files to replay, oldest first.
+     */
+    private String archiveDirectory;
+
+    /**
+     * speedFactor scales the original pace of the messages; zero sends them as fast as possible.
+     */
+    private double speedFactor = 1.0;
+
+    /**
+     * senderThreads is the number of chunks being sent at once.  Chunks for a FIFO queue are sent one at a time by
+     * the thread replaying, to keep each message group in order.
+     */
+    private int senderThreads = 4;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private QueueReplayer() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final QueueReplayer returnReplayer;
+
+        private Builder() {
+            this.returnReplayer = new QueueReplayer();
+        }
+
+        public Builder queueConfiguration(QueueConfiguration queueConfiguration) {
+            returnReplayer.queueConfiguration = queueConfiguration;
+            return this;
+        }
+
+        public Builder archiveDirectory(String archiveDirectory) {
+            returnReplayer.archiveDirectory = archiveDirectory;
+            return this;
+        }
+
+        public Builder speedFactor(double speedFactor) {
+            returnReplayer.speedFactor = speedFactor;
+            return this;
+        }
+
+        public Builder senderThreads(int senderThreads) {
+            returnReplayer.senderThreads = senderThreads;
+            return this;
+        }
+
+        public QueueReplayer build() {
+            returnReplayer.validate();
+            return returnReplayer;
+        }
+    }
+
+    private void validate() {
+
+        if( queueConfiguration == null || queueConfiguration.getOwningQueueManager() == null ) {
+            throw new IllegalStateException("queueConfiguration must be set to a queue registered with a QueueManager.");
+        }
+
+        if( archiveDirectory == null || archiveDirectory.isEmpty() ) {
+            throw new IllegalStateException("archiveDirectory must be set.");
+        }
+
+        if( speedFactor < 0 || Double.isNaN(speedFactor) ) {
+            throw new IllegalStateException("speedFactor may not be negative.");
+        }
+
+        if( senderThreads < 1 ) {
+            throw new IllegalStateException("senderThreads must be at least 1.");
+        }
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * Returns the number of messages the queue did not accept.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Replays every segment in the archive, returning the number of messages sent.
+     */
+    public long replay() {
+
+        List<Path> segments;
+        try {
+            segments = QueueArchiveFormat.listSegments(Paths.get(archiveDirectory));
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException(e);
+        }
+
+        // A full work queue makes the reader send the chunk itself, which keeps it from running ahead.  That would send
+        // chunks out of order, so FIFO chunks are all sent by the reader, one after another.
+        ThreadPoolExecutor senderPool = queueConfiguration.isFifoQueue() ? null : new ThreadPoolExecutor(senderThreads, senderThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(senderThreads), runnable -> {
+                    Thread senderThread = new Thread(runnable, "QueueReplayer - " + queueConfiguration.getOwningQueueManager().fullQueueName(queueConfiguration));
+                    senderThread.setDaemon(true);
+                    return senderThread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+        try {
+            long startNanos = System.nanoTime();
+            long firstSentTimestamp = -1;
+            List<MessageSendContext> chunk = new ArrayList<>(CHUNK_MESSAGES);
+
+            for( Path nextSegment : segments ) {
+                try( FileChannel channel = FileChannel.open(nextSegment, StandardOpenOption.READ) ) {
+
+                    MappedByteBuffer segmentBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(
+                            new GZIPInputStream(QueueArchiveFormat.bufferInputStream(segmentBuffer), READ_BUFFER_BYTES), StandardCharsets.UTF_8), READ_BUFFER_BYTES);
+
+                    String nextLine;
+                    while( (nextLine = reader.readLine()) != null ) {
+
+                        if( nextLine.isEmpty() ) {
+                            continue;
+                        }
+                        QueueArchiveFormat.ArchivedMessage archivedMessage = QueueArchiveFormat.readMessage(nextLine);
+
+                        // Hold the message back until it is due, sending what has been read meanwhile.
+                        if( speedFactor > 0 && archivedMessage.sentTimestamp > 0 ) {
+                            if( firstSentTimestamp < 0 ) {
+                                firstSentTimestamp = archivedMessage.sentTimestamp;
+                            }
+                            long dueNanos = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(archivedMessage.sentTimestamp - firstSentTimestamp) / speedFactor);
+                            if( dueNanos - System.nanoTime() > 0 ) {
+                                submitChunk(senderPool, chunk);
+                                chunk = new ArrayList<>(CHUNK_MESSAGES);
+                                TimeUnit.NANOSECONDS.sleep(dueNanos - System.nanoTime());
+                            }
+                        }
+
+                        chunk.add(toMessageSendContext(archivedMessage));
+                        if( chunk.size() >= CHUNK_MESSAGES ) {
+                            submitChunk(senderPool, chunk);
+                            chunk = new ArrayList<>(CHUNK_MESSAGES);
+                        }
+                    }
+                }
+                catch( IOException e ) {
+                    throw new UncheckedIOException(e);
+                }
+
+                if( log.isDebugEnabled() ) {
+                    log.debug(String.format("Replayed queue archive segment %1$s", nextSegment));
+                }
+            }
+
+            submitChunk(senderPool, chunk);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            if( senderPool != null ) {
+                senderPool.shutdown();
+                try {
+                    senderPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        return sentCount.get();
+    }
+
+    private void submitChunk(ThreadPoolExecutor senderPool, List<MessageSendContext> chunk) {
+        if( chunk.isEmpty() ) {
+            return;
+        }
+        if( senderPool == null ) {
+            sendChunk(chunk);
+        }
+        else {
+            senderPool.execute(() -> sendChunk(chunk));
+        }
+    }
+
+    private void sendChunk(List<MessageSendContext> chunk) {
+        BatchSendResult result = queueConfiguration.getOwningQueueManager().sendMessages(chunk);
+        sentCount.addAndGet(result.getSuccessful().size());
+        failedCount.addAndGet(result.getFailed().size());
+    }
+
+    private MessageSendContext toMessageSendContext(QueueArchiveFormat.ArchivedMessage archivedMessage) {
+
+        MessageSendContext.Builder messageBuilder = MessageSendContext.builder()
+                .queueConfiguration(queueConfiguration)
+                .messageText(archivedMessage.body)
+                .customAttributes(archivedMessage.attributes);
+
+        // Messages from a standard queue have no group, so each is its own.  The archived message id is unique to each
+        // message, so it also serves as the de-duplication id.
+        if( queueConfiguration.isFifoQueue() ) {
+            messageBuilder.messageFifoGroupId(archivedMessage.messageGroupId != null ? archivedMessage.messageGroupId : archivedMessage.messageId);
+            messageBuilder.messageFifoDeduplicationId(archivedMessage.messageId);
+        }
+
+        return messageBuilder.build();
+    }
+}
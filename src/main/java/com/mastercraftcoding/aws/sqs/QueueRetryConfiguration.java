@@ -0,0 +1,243 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * The QueueRetryConfiguration class controls how a QueueManager reacts to failing and throttled SQS calls.  Send,
+ * receive, delete and change visibility calls that fail with a throttling, server or network error are retried with
+ * jittered exponential back-off, limited by a per queue retry budget so that an outage does not multiply the load on
+ * SQS.  Sends are also paced by an additive-increase/multiplicative-decrease rate limiter driven by throttling
+ * responses, and message handler driver threads back off while their queue keeps failing.
+ * <p>
+ * When no retry configuration is given to a QueueManager, the defaults below are used.
+ * <p>
+ * {@code
+ * return QueueRetryConfiguration.builder()
+ *     .maxAttempts( 5 )
+ *     .maxSendRatePerSecond( 500 )
+ *     .build();
+ * }
+ */
+public class QueueRetryConfiguration implements InitializingBean {
+
+    /**
+     * maxAttempts is the most times a single call is attempted, including the first attempt.
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * initialBackoffMillis and maxBackoffMillis bound the exponential back-off between attempts, and between
+     * consecutive failures of a message handler driver thread.
+     */
+    private long initialBackoffMillis = 50;
+    private long maxBackoffMillis = 20000;
+
+    /**
+     * retryBudgetRatio is the share of requests to a queue that may be retries.  Each request earns the queue
+     * retryBudgetRatio retries, up to retryBudgetCapacity.
+     */
+    private double retryBudgetRatio = 0.1;
+    private int retryBudgetCapacity = 10;
+
+    /**
+     * adaptiveSendRate enables the additive-increase/multiplicative-decrease send rate limiter for each queue.
+     */
+    private boolean adaptiveSendRate = true;
+
+    /**
+     * maxSendRatePerSecond caps the send rate of each queue.  Zero leaves sends unlimited until SQS throttles them.
+     */
+    private double maxSendRatePerSecond = 0;
+
+    /**
+     * minSendRatePerSecond is the lowest rate throttling can drive the send rate of a queue down to.
+     */
+    private double minSendRatePerSecond = 1;
+
+    /**
+     * sendRateIncreasePerSecond is how much the permitted send rate grows for each second without throttling.
+     */
+    private double sendRateIncreasePerSecond = 5;
+
+    /**
+     * sendRateDecreaseFactor is what the permitted send rate is multiplied by when SQS throttles a send.
+     */
+    private double sendRateDecreaseFactor = 0.5;
+
+    public QueueRetryConfiguration() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final QueueRetryConfiguration returnConfiguration;
+
+        private Builder() {
+            returnConfiguration = new QueueRetryConfiguration();
+        }
+
+        public Builder maxAttempts(int maxAttempts) {
+            returnConfiguration.setMaxAttempts(maxAttempts);
+            return this;
+        }
+
+        public Builder initialBackoffMillis(long initialBackoffMillis) {
+            returnConfiguration.setInitialBackoffMillis(initialBackoffMillis);
+            return this;
+        }
+
+        public Builder maxBackoffMillis(long maxBackoffMillis) {
+            returnConfiguration.setMaxBackoffMillis(maxBackoffMillis);
+            return this;
+        }
+
+        public Builder retryBudgetRatio(double retryBudgetRatio) {
+            returnConfiguration.setRetryBudgetRatio(retryBudgetRatio);
+            return this;
+        }
+
+        public Builder retryBudgetCapacity(int retryBudgetCapacity) {
+            returnConfiguration.setRetryBudgetCapacity(retryBudgetCapacity);
+            return this;
+        }
+
+        public Builder adaptiveSendRate(boolean adaptiveSendRate) {
+            returnConfiguration.setAdaptiveSendRate(adaptiveSendRate);
+            return this;
+        }
+
+        public Builder maxSendRatePerSecond(double maxSendRatePerSecond) {
+            returnConfiguration.setMaxSendRatePerSecond(maxSendRatePerSecond);
+            return this;
+        }
+
+        public Builder minSendRatePerSecond(double minSendRatePerSecond) {
+            returnConfiguration.setMinSendRatePerSecond(minSendRatePerSecond);
+            return this;
+        }
+
+        public Builder sendRateIncreasePerSecond(double sendRateIncreasePerSecond) {
+            returnConfiguration.setSendRateIncreasePerSecond(sendRateIncreasePerSecond);
+            return this;
+        }
+
+        public Builder sendRateDecreaseFactor(double sendRateDecreaseFactor) {
+            returnConfiguration.setSendRateDecreaseFactor(sendRateDecreaseFactor);
+            return this;
+        }
+
+        public QueueRetryConfiguration build() {
+            returnConfiguration.validate();
+            return returnConfiguration;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        validate();
+    }
+
+    private void validate() {
+        if( maxAttempts < 1 ) {
+            throw new IllegalStateException("maxAttempts must be at least 1.");
+        }
+        if( initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis ) {
+            throw new IllegalStateException("initialBackoffMillis must be greater than zero and no more than maxBackoffMillis.");
+        }
+        if( retryBudgetRatio < 0 || retryBudgetCapacity < 0 ) {
+            throw new IllegalStateException("retryBudgetRatio and retryBudgetCapacity may not be negative.");
+        }
+        if( maxSendRatePerSecond < 0 || minSendRatePerSecond <= 0 || sendRateIncreasePerSecond < 0 ) {
+            throw new IllegalStateException("minSendRatePerSecond must be greater than zero, and maxSendRatePerSecond and sendRateIncreasePerSecond may not be negative.");
+        }
+        if( maxSendRatePerSecond > 0 && maxSendRatePerSecond < minSendRatePerSecond ) {
+            throw new IllegalStateException("maxSendRatePerSecond may not be less than minSendRatePerSecond.");
+        }
+        if( sendRateDecreaseFactor <= 0 || sendRateDecreaseFactor >= 1 ) {
+            throw new IllegalStateException("sendRateDecreaseFactor must be between 0 and 1.");
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public double getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    public void setRetryBudgetRatio(double retryBudgetRatio) {
+        this.retryBudgetRatio = retryBudgetRatio;
+    }
+
+    public int getRetryBudgetCapacity() {
+        return retryBudgetCapacity;
+    }
+
+    public void setRetryBudgetCapacity(int retryBudgetCapacity) {
+        this.retryBudgetCapacity = retryBudgetCapacity;
+    }
+
+    public boolean isAdaptiveSendRate() {
+        return adaptiveSendRate;
+    }
+
+    public void setAdaptiveSendRate(boolean adaptiveSendRate) {
+        this.adaptiveSendRate = adaptiveSendRate;
+    }
+
+    public double getMaxSendRatePerSecond() {
+        return maxSendRatePerSecond;
+    }
+
+    public void setMaxSendRatePerSecond(double maxSendRatePerSecond) {
+        this.maxSendRatePerSecond = maxSendRatePerSecond;
+    }
+
+    public double getMinSendRatePerSecond() {
+        return minSendRatePerSecond;
+    }
+
+    public void setMinSendRatePerSecond(double minSendRatePerSecond) {
+        this.minSendRatePerSecond = minSendRatePerSecond;
+    }
+
+    public double getSendRateIncreasePerSecond() {
+        return sendRateIncreasePerSecond;
+    }
+
+    public void setSendRateIncreasePerSecond(double sendRateIncreasePerSecond) {
+        this.sendRateIncreasePerSecond = sendRateIncreasePerSecond;
+    }
+
+    public double getSendRateDecreaseFactor() {
+        return sendRateDecreaseFactor;
+    }
+
+    public void setSendRateDecreaseFactor(double sendRateDecreaseFactor) {
+        this.sendRateDecreaseFactor = sendRateDecreaseFactor;
+    }
+}
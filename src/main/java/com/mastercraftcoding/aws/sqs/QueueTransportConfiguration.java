@@ -0,0 +1,362 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.services.sqs.SqsClientBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * The QueueTransportConfiguration class controls how a QueueManager talks to the AWS SQS service - the HTTP client
+ * implementation, the size of its connection pool and its timeouts.  When no transport configuration is given to a
+ * QueueManager, the AWS SDK defaults are used.
+ * <p>
+ * By default the HTTP client created from this configuration is shared, so every QueueManager that references the
+ * same QueueTransportConfiguration instance uses a single connection pool.  The shared client is closed when this
+ * bean is destroyed.  A fully custom SdkHttpClient may also be supplied, in which case the pool and timeout settings
+ * below are ignored and the caller remains responsible for closing it.
+ * <p>
+ * {@code
+ * return QueueTransportConfiguration.builder()
+ *     .maxConnections( 200 )
+ *     .connectionTimeoutMillis( 1000 )
+ *     .socketTimeoutMillis( 25000 )
+ *     .build();
+ * }
+ */
+public class QueueTransportConfiguration implements InitializingBean, DisposableBean {
+
+    /**
+     * maxConnections is the maximum number of pooled HTTP connections.  Every driver thread performing a long
+     * poll holds a connection for the full wait time, so this should be at least the number of message handlers plus
+     * the expected number of concurrent senders.
+     */
+    private int maxConnections = 50; // Default matches the AWS SDK's default pool size.
+
+    /**
+     * connectionTimeoutMillis is the amount of time to wait while establishing a new connection.
+     */
+    private int connectionTimeoutMillis = 2000;
+
+    /**
+     * socketTimeoutMillis is the amount of time to wait for data on an established connection.  It must be longer
+     * than the receiveMessageWaitTimeSeconds of every queue using this transport, otherwise long polls will time out.
+     */
+    private int socketTimeoutMillis = 30000;
+
+    /**
+     * connectionAcquisitionTimeoutMillis is the amount of time a request will wait for a free connection from the
+     * pool before failing.
+     */
+    private int connectionAcquisitionTimeoutMillis = 10000;
+
+    /**
+     * connectionTimeToLiveMillis is the maximum lifetime of a pooled connection.  Zero keeps connections alive
+     * indefinitely, which avoids TLS handshakes but will not pick up DNS changes.
+     */
+    private long connectionTimeToLiveMillis = 0;
+
+    /**
+     * connectionMaxIdleTimeMillis is the amount of time an unused connection is kept alive in the pool.
+     */
+    private long connectionMaxIdleTimeMillis = 60000;
+
+    /**
+     * useIdleConnectionReaper enables a background thread that closes connections that have been idle for longer than
+     * connectionMaxIdleTimeMillis.
+     */
+    private boolean useIdleConnectionReaper = true;
+
+    /**
+     * apiCallTimeoutMillis bounds the total time of a single API call.  The SDK does not retry (the QueueManager's
+     * QueueRetryConfiguration does), so this bounds each attempt the retry layer makes.  Zero means no limit.
+     */
+    private long apiCallTimeoutMillis = 0;
+
+    /**
+     * apiCallAttemptTimeoutMillis bounds the time of each individual HTTP attempt.  Zero means no limit.
+     */
+    private long apiCallAttemptTimeoutMillis = 0;
+
+    /**
+     * endpointOverride replaces the regional SQS endpoint, for example to reach a VPC endpoint or a local SQS
+     * compatible service.
+     */
+    private String endpointOverride;
+
+    /**
+     * shareHttpClient controls whether one HTTP client is created and shared by every QueueManager using this
+     * configuration, or whether each QueueManager gets a private client with its own connection pool.
+     */
+    private boolean shareHttpClient = true;
+
+    /**
+     * httpClient is a caller supplied HTTP client implementation.  When set it is used as-is by every QueueManager
+     * using this configuration and is never closed by this library.
+     */
+    private SdkHttpClient httpClient;
+
+    private SdkHttpClient sharedHttpClient;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final QueueTransportConfiguration returnConfiguration;
+
+        private Builder() {
+            returnConfiguration = new QueueTransportConfiguration();
+        }
+
+        public Builder maxConnections(int maxConnections) {
+            returnConfiguration.setMaxConnections(maxConnections);
+            return this;
+        }
+
+        public Builder connectionTimeoutMillis(int connectionTimeoutMillis) {
+            returnConfiguration.setConnectionTimeoutMillis(connectionTimeoutMillis);
+            return this;
+        }
+
+        public Builder socketTimeoutMillis(int socketTimeoutMillis) {
+            returnConfiguration.setSocketTimeoutMillis(socketTimeoutMillis);
+            return this;
+        }
+
+        public Builder connectionAcquisitionTimeoutMillis(int connectionAcquisitionTimeoutMillis) {
+            returnConfiguration.setConnectionAcquisitionTimeoutMillis(connectionAcquisitionTimeoutMillis);
+            return this;
+        }
+
+        public Builder connectionTimeToLiveMillis(long connectionTimeToLiveMillis) {
+            returnConfiguration.setConnectionTimeToLiveMillis(connectionTimeToLiveMillis);
+            return this;
+        }
+
+        public Builder connectionMaxIdleTimeMillis(long connectionMaxIdleTimeMillis) {
+            returnConfiguration.setConnectionMaxIdleTimeMillis(connectionMaxIdleTimeMillis);
+            return this;
+        }
+
+        public Builder useIdleConnectionReaper(boolean useIdleConnectionReaper) {
+            returnConfiguration.setUseIdleConnectionReaper(useIdleConnectionReaper);
+            return this;
+        }
+
+        public Builder apiCallTimeoutMillis(long apiCallTimeoutMillis) {
+            returnConfiguration.setApiCallTimeoutMillis(apiCallTimeoutMillis);
+            return this;
+        }
+
+        public Builder apiCallAttemptTimeoutMillis(long apiCallAttemptTimeoutMillis) {
+            returnConfiguration.setApiCallAttemptTimeoutMillis(apiCallAttemptTimeoutMillis);
+            return this;
+        }
+
+        public Builder endpointOverride(String endpointOverride) {
+            returnConfiguration.setEndpointOverride(endpointOverride);
+            return this;
+        }
+
+        public Builder shareHttpClient(boolean shareHttpClient) {
+            returnConfiguration.setShareHttpClient(shareHttpClient);
+            return this;
+        }
+
+        public Builder httpClient(SdkHttpClient httpClient) {
+            returnConfiguration.setHttpClient(httpClient);
+            return this;
+        }
+
+        public QueueTransportConfiguration build() {
+
+            returnConfiguration.validate();
+
+            return returnConfiguration;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        validate();
+    }
+
+    private void validate() {
+        if( maxConnections <= 0 ) {
+            throw new IllegalStateException("maxConnections must be greater than zero.");
+        }
+
+        if( connectionTimeoutMillis <= 0 || socketTimeoutMillis <= 0 || connectionAcquisitionTimeoutMillis <= 0 ) {
+            throw new IllegalStateException("connectionTimeoutMillis, socketTimeoutMillis and connectionAcquisitionTimeoutMillis must be greater than zero.");
+        }
+
+        if( connectionTimeToLiveMillis < 0 || connectionMaxIdleTimeMillis < 0 || apiCallTimeoutMillis < 0 || apiCallAttemptTimeoutMillis < 0 ) {
+            throw new IllegalStateException("Transport durations may not be negative.");
+        }
+    }
+
+    /**
+     * Applies this transport configuration to an SqsClient builder and its override configuration.  Returns the HTTP
+     * client instance handed to the builder, or null when the SDK builds a private one.
+     */
+    /* package */ SdkHttpClient configure(SqsClientBuilder sqsClientBuilder, ClientOverrideConfiguration.Builder overrideConfigurationBuilder) {
+
+        // Pick the HTTP client.  A caller supplied or shared client is handed to the SDK as an instance, which
+        // the SDK will not close.  A private client is handed over as a builder so that it is closed along with
+        // the SqsClient.
+        SdkHttpClient configuredHttpClient = httpClient != null ? httpClient : shareHttpClient ? sharedHttpClient() : null;
+        if( configuredHttpClient != null ) {
+            sqsClientBuilder.httpClient(configuredHttpClient);
+        }
+        else {
+            sqsClientBuilder.httpClientBuilder(apacheHttpClientBuilder());
+        }
+
+        // Set up the overall API call timeouts
+        if( apiCallTimeoutMillis > 0 ) {
+            overrideConfigurationBuilder.apiCallTimeout(Duration.ofMillis(apiCallTimeoutMillis));
+        }
+        if( apiCallAttemptTimeoutMillis > 0 ) {
+            overrideConfigurationBuilder.apiCallAttemptTimeout(Duration.ofMillis(apiCallAttemptTimeoutMillis));
+        }
+
+        if( endpointOverride != null ) {
+            sqsClientBuilder.endpointOverride(URI.create(endpointOverride));
+        }
+
+        return configuredHttpClient;
+    }
+
+    /* package */ synchronized SdkHttpClient sharedHttpClient() {
+        if( sharedHttpClient == null ) {
+            sharedHttpClient = apacheHttpClientBuilder().build();
+        }
+        return sharedHttpClient;
+    }
+
+    private ApacheHttpClient.Builder apacheHttpClientBuilder() {
+        ApacheHttpClient.Builder httpClientBuilder = ApacheHttpClient.builder()
+                .maxConnections(maxConnections)
+                .connectionTimeout(Duration.ofMillis(connectionTimeoutMillis))
+                .socketTimeout(Duration.ofMillis(socketTimeoutMillis))
+                .connectionAcquisitionTimeout(Duration.ofMillis(connectionAcquisitionTimeoutMillis))
+                .connectionMaxIdleTime(Duration.ofMillis(connectionMaxIdleTimeMillis))
+                .useIdleConnectionReaper(useIdleConnectionReaper);
+
+        if( connectionTimeToLiveMillis > 0 ) {
+            httpClientBuilder.connectionTimeToLive(Duration.ofMillis(connectionTimeToLiveMillis));
+        }
+
+        return httpClientBuilder;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if( sharedHttpClient != null ) {
+            sharedHttpClient.close();
+            sharedHttpClient = null;
+        }
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getConnectionTimeoutMillis() {
+        return connectionTimeoutMillis;
+    }
+
+    public void setConnectionTimeoutMillis(int connectionTimeoutMillis) {
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    public int getConnectionAcquisitionTimeoutMillis() {
+        return connectionAcquisitionTimeoutMillis;
+    }
+
+    public void setConnectionAcquisitionTimeoutMillis(int connectionAcquisitionTimeoutMillis) {
+        this.connectionAcquisitionTimeoutMillis = connectionAcquisitionTimeoutMillis;
+    }
+
+    public long getConnectionTimeToLiveMillis() {
+        return connectionTimeToLiveMillis;
+    }
+
+    public void setConnectionTimeToLiveMillis(long connectionTimeToLiveMillis) {
+        this.connectionTimeToLiveMillis = connectionTimeToLiveMillis;
+    }
+
+    public long getConnectionMaxIdleTimeMillis() {
+        return connectionMaxIdleTimeMillis;
+    }
+
+    public void setConnectionMaxIdleTimeMillis(long connectionMaxIdleTimeMillis) {
+        this.connectionMaxIdleTimeMillis = connectionMaxIdleTimeMillis;
+    }
+
+    public boolean isUseIdleConnectionReaper() {
+        return useIdleConnectionReaper;
+    }
+
+    public void setUseIdleConnectionReaper(boolean useIdleConnectionReaper) {
+        this.useIdleConnectionReaper = useIdleConnectionReaper;
+    }
+
+    public long getApiCallTimeoutMillis() {
+        return apiCallTimeoutMillis;
+    }
+
+    public void setApiCallTimeoutMillis(long apiCallTimeoutMillis) {
+        this.apiCallTimeoutMillis = apiCallTimeoutMillis;
+    }
+
+    public long getApiCallAttemptTimeoutMillis() {
+        return apiCallAttemptTimeoutMillis;
+    }
+
+    public void setApiCallAttemptTimeoutMillis(long apiCallAttemptTimeoutMillis) {
+        this.apiCallAttemptTimeoutMillis = apiCallAttemptTimeoutMillis;
+    }
+
+    public String getEndpointOverride() {
+        return endpointOverride;
+    }
+
+    public void setEndpointOverride(String endpointOverride) {
+        this.endpointOverride = endpointOverride;
+    }
+
+    public boolean isShareHttpClient() {
+        return shareHttpClient;
+    }
+
+    public void setShareHttpClient(boolean shareHttpClient) {
+        this.shareHttpClient = shareHttpClient;
+    }
+
+    public SdkHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public void setHttpClient(SdkHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+}
@@ -0,0 +1,9 @@
+package com.mastercraftcoding.aws.sqs;
+
+/**
+ * Receives progress reports from QueueManager.redriveDeadLetterQueue().  Reports are made from the redrive's worker
+ * threads, one at a time.
+ */
+public interface RedriveProgressListener {
+    void onProgress(RedriveResult progress);
+}
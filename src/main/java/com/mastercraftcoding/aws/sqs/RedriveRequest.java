@@ -0,0 +1,289 @@
+package com.mastercraftcoding.aws.sqs;
+
+import java.util.function.Predicate;
+
+/**
+ * The RedriveRequest class describes a move of messages out of a queue's dead letter queue, made with
+ * QueueManager.redriveDeadLetterQueue().  By default every message is moved back to the queue it came from.
+ * <p>
+ * {@code
+ * RedriveResult result = queueManager.redriveDeadLetterQueue( RedriveRequest.builder()
+ *     .sourceQueue( orderQueue )
+ *     .minimumMessageAgeSeconds( 600 )
+ *     .attributeEquals( "EventType", "OrderPlaced" )
+ *     .maxMessagesPerSecond( 2000 )
+ *     .build() );
+ * }
+ */
+public class RedriveRequest {
+
+    /**
+     * sourceQueue is the queue whose dead letter queue is emptied.  It must have been created with a dead letter
+     * queue.
+     */
+    private QueueConfiguration sourceQueue;
+
+    /**
+     * targetQueue is where the messages are moved to, or null to move them back to sourceQueue.
+     */
+    private QueueConfiguration targetQueue;
+
+    /**
+     * parallelism is the number of threads receiving and moving batches at once.
+     */
+    private int parallelism = 8;
+
+    /**
+     * maxMessagesPerSecond caps the rate messages are moved at, or is zero for no cap beyond what SQS allows.
+     */
+    private int maxMessagesPerSecond;
+
+    /**
+     * maxMessages stops the redrive after this many messages have been moved, or is zero for no limit.
+     */
+    private long maxMessages;
+
+    /**
+     * minimumMessageAgeSeconds and maximumMessageAgeSeconds only move messages first sent at least, or at most,
+     * this long ago.  Zero disables the check.
+     */
+    private long minimumMessageAgeSeconds;
+    private long maximumMessageAgeSeconds;
+
+    /**
+     * attributeName and attributeValue only move messages with a custom attribute of this string value.
+     */
+    private String attributeName;
+    private String attributeValue;
+
+    /**
+     * messageFilter only moves the messages it accepts.
+     */
+    private Predicate<MessageReceiveContext> messageFilter;
+
+    /**
+     * dryRun counts the messages that would be moved without moving any.
+     */
+    private boolean dryRun;
+
+    /**
+     * visibilityTimeoutSeconds is how long received messages stay hidden.  Messages that are not moved - filtered
+     * out, counted in a dry run, or failed - reappear in the dead letter queue after this long, so it must outlast
+     * the redrive for each message to be looked at once.
+     */
+    private int visibilityTimeoutSeconds = 900;
+
+    /**
+     * progressListener is told of the redrive's progress every progressIntervalMillis, and once more at the end.
+     */
+    private RedriveProgressListener progressListener;
+    private long progressIntervalMillis = 5000;
+
+    private RedriveRequest() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final RedriveRequest returnRequest;
+
+        private Builder() {
+            this.returnRequest = new RedriveRequest();
+        }
+
+        public Builder sourceQueue(QueueConfiguration sourceQueue) {
+            returnRequest.sourceQueue = sourceQueue;
+            return this;
+        }
+
+        public Builder targetQueue(QueueConfiguration targetQueue) {
+            returnRequest.targetQueue = targetQueue;
+            return this;
+        }
+
+        public Builder parallelism(int parallelism) {
+            returnRequest.parallelism = parallelism;
+            return this;
+        }
+
+        public Builder maxMessagesPerSecond(int maxMessagesPerSecond) {
+            returnRequest.maxMessagesPerSecond = maxMessagesPerSecond;
+            return this;
+        }
+
+        public Builder maxMessages(long maxMessages) {
+            returnRequest.maxMessages = maxMessages;
+            return this;
+        }
+
+        public Builder minimumMessageAgeSeconds(long minimumMessageAgeSeconds) {
+            returnRequest.minimumMessageAgeSeconds = minimumMessageAgeSeconds;
+            return this;
+        }
+
+        public Builder maximumMessageAgeSeconds(long maximumMessageAgeSeconds) {
+            returnRequest.maximumMessageAgeSeconds = maximumMessageAgeSeconds;
+            return this;
+        }
+
+        public Builder attributeEquals(String attributeName, String attributeValue) {
+            returnRequest.attributeName = attributeName;
+            returnRequest.attributeValue = attributeValue;
+            return this;
+        }
+
+        public Builder messageFilter(Predicate<MessageReceiveContext> messageFilter) {
+            returnRequest.messageFilter = messageFilter;
+            return this;
+        }
+
+        public Builder dryRun(boolean dryRun) {
+            returnRequest.dryRun = dryRun;
+            return this;
+        }
+
+        public Builder visibilityTimeoutSeconds(int visibilityTimeoutSeconds) {
+            returnRequest.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+            return this;
+        }
+
+        public Builder progressListener(RedriveProgressListener progressListener) {
+            returnRequest.progressListener = progressListener;
+            return this;
+        }
+
+        public Builder progressIntervalMillis(long progressIntervalMillis) {
+            returnRequest.progressIntervalMillis = progressIntervalMillis;
+            return this;
+        }
+
+        public RedriveRequest build() {
+            returnRequest.validate();
+            return returnRequest;
+        }
+    }
+
+    private void validate() {
+
+        if( sourceQueue == null ) {
+            throw new IllegalStateException("sourceQueue must be set.");
+        }
+
+        if( !sourceQueue.isCreateDeadLetterQueue() ) {
+            throw new IllegalStateException("sourceQueue does not have a dead letter queue.");
+        }
+
+        if( targetQueue != null && targetQueue.isFifoQueue() && !sourceQueue.isFifoQueue() ) {
+            throw new IllegalStateException("Messages from a standard dead letter queue have no message group to send to a FIFO targetQueue with.");
+        }
+
+        if( parallelism < 1 ) {
+            throw new IllegalStateException("parallelism must be at least 1.");
+        }
+
+        if( maxMessagesPerSecond < 0 || maxMessages < 0 || minimumMessageAgeSeconds < 0 || maximumMessageAgeSeconds < 0 ) {
+            throw new IllegalStateException("maxMessagesPerSecond, maxMessages and the message age limits may not be negative.");
+        }
+
+        if( visibilityTimeoutSeconds < 1 || visibilityTimeoutSeconds > 43200 ) {
+            throw new IllegalStateException("visibilityTimeoutSeconds must be between 1 and 43200 (12 hours).");
+        }
+
+        if( (attributeName == null) != (attributeValue == null) ) {
+            throw new IllegalStateException("attributeName and attributeValue must be set together.");
+        }
+
+        if( progressIntervalMillis < 1 ) {
+            throw new IllegalStateException("progressIntervalMillis must be at least 1.");
+        }
+    }
+
+    /**
+     * Returns true if the message should be moved.
+     */
+    /* package */ boolean accepts(MessageReceiveContext message) {
+
+        if( minimumMessageAgeSeconds > 0 || maximumMessageAgeSeconds > 0 ) {
+            long messageAgeSeconds = message.getMessageAgeMillis() / 1000;
+            if( messageAgeSeconds < 0 ) {
+                return false;
+            }
+            if( minimumMessageAgeSeconds > 0 && messageAgeSeconds < minimumMessageAgeSeconds ) {
+                return false;
+            }
+            if( maximumMessageAgeSeconds > 0 && messageAgeSeconds > maximumMessageAgeSeconds ) {
+                return false;
+            }
+        }
+
+        if( attributeName != null ) {
+            if( !message.hasCustomAttribute(attributeName) || !attributeValue.equals(message.getCustomAttribute(attributeName).stringValue()) ) {
+                return false;
+            }
+        }
+
+        return messageFilter == null || messageFilter.test(message);
+    }
+
+    public QueueConfiguration getSourceQueue() {
+        return sourceQueue;
+    }
+
+    /**
+     * Returns the queue messages are moved to - the target queue if one was set, otherwise the source queue.
+     */
+    public QueueConfiguration getTargetQueue() {
+        return targetQueue != null ? targetQueue : sourceQueue;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getMaxMessagesPerSecond() {
+        return maxMessagesPerSecond;
+    }
+
+    public long getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMinimumMessageAgeSeconds() {
+        return minimumMessageAgeSeconds;
+    }
+
+    public long getMaximumMessageAgeSeconds() {
+        return maximumMessageAgeSeconds;
+    }
+
+    public String getAttributeName() {
+        return attributeName;
+    }
+
+    public String getAttributeValue() {
+        return attributeValue;
+    }
+
+    public Predicate<MessageReceiveContext> getMessageFilter() {
+        return messageFilter;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public int getVisibilityTimeoutSeconds() {
+        return visibilityTimeoutSeconds;
+    }
+
+    public RedriveProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    public long getProgressIntervalMillis() {
+        return progressIntervalMillis;
+    }
+}
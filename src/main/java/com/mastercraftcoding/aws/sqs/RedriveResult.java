@@ -0,0 +1,82 @@
+package com.mastercraftcoding.aws.sqs;
+
+/**
+ * The progress, or final outcome, of a dead letter queue redrive.
+ */
+public class RedriveResult {
+
+    private final boolean dryRun;
+    private final boolean complete;
+    private final long receivedCount;
+    private final long matchedCount;
+    private final long movedCount;
+    private final long failedCount;
+    private final long elapsedMillis;
+
+    /* package */ RedriveResult(boolean dryRun, boolean complete, long receivedCount, long matchedCount, long movedCount, long failedCount, long elapsedMillis) {
+        this.dryRun = dryRun;
+        this.complete = complete;
+        this.receivedCount = receivedCount;
+        this.matchedCount = matchedCount;
+        this.movedCount = movedCount;
+        this.failedCount = failedCount;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * True for the final report of a redrive.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * The number of messages received from the dead letter queue.
+     */
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * The number of received messages the request's filters accepted - in a dry run, the number that would have
+     * been moved.
+     */
+    public long getMatchedCount() {
+        return matchedCount;
+    }
+
+    /**
+     * The number of messages sent to the target queue and deleted from the dead letter queue.
+     */
+    public long getMovedCount() {
+        return movedCount;
+    }
+
+    /**
+     * The number of matched messages that could not be moved.  They stay in the dead letter queue.
+     */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Returns the rate messages have been moved at (or matched, in a dry run).
+     */
+    public double getMessagesPerSecond() {
+        return elapsedMillis > 0 ? (dryRun ? matchedCount : movedCount) * 1000.0 / elapsedMillis : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("received %1$d, matched %2$d, moved %3$d, failed %4$d in %5$d ms%6$s",
+                receivedCount, matchedCount, movedCount, failedCount, elapsedMillis, dryRun ? " (dry run)" : "");
+    }
+}
@@ -0,0 +1,190 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ReplyDispatcher is the reply side of QueueManager.sendAndReceive().  Each QueueManager has one reply queue,
+ * long-polled by a single poller thread, and every request it sends names that queue in its ReplyTo attribute along
+ * with a CorrelationId.  Replies are matched back to their waiting futures through a concurrent correlation map, so
+ * no caller ever polls for its own reply.
+ * <p>
+ * Futures are completed on the poller thread - dependent stages that do real work should use the async variants.
+ */
+/* package */ class ReplyDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplyDispatcher.class);
+
+    private static final int MAX_RECEIVE_WAIT_SECONDS = 20;
+    private static final int REPLY_RETENTION_SECONDS = 60;
+    private static final long POLL_INITIAL_BACKOFF_MILLIS = 100;
+    private static final long POLL_MAX_BACKOFF_MILLIS = 10000;
+
+    private final QueueManager queueManager;
+    private final QueueConfiguration replyQueue;
+
+    // Correlation ids are unique to this dispatcher, so a reply to an earlier process using the same reply queue
+    // never completes a new request.
+    private final String correlationPrefix = UUID.randomUUID().toString() + "-";
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    private final ConcurrentHashMap<String, CompletableFuture<MessageReceiveContext>> pendingRequests = new ConcurrentHashMap<>();
+
+    private final Thread pollerThread;
+    private volatile boolean closed;
+
+    /**
+     * Creates and registers the reply queue and starts the poller.  The queue is kept when the dispatcher is closed,
+     * so a node that restarts uses it again.
+     */
+    /* package */ ReplyDispatcher(QueueManager queueManager, String replyQueueBaseName) {
+        this.queueManager = queueManager;
+
+        // The long poll must finish within the transport's socket timeout.
+        int receiveWaitSeconds = MAX_RECEIVE_WAIT_SECONDS;
+        if( queueManager.getTransportConfiguration() != null ) {
+            receiveWaitSeconds = Math.max(0, Math.min(receiveWaitSeconds, queueManager.getTransportConfiguration().getSocketTimeoutMillis() / 1000 - 1));
+        }
+
+        this.replyQueue = QueueConfiguration.builder()
+                .queueBaseName(replyQueueBaseName)
+                .receiveMessageWaitTimeSeconds(receiveWaitSeconds)
+                .messageRetentionPeriodSeconds(REPLY_RETENTION_SECONDS)
+                .build();
+        queueManager.registerQueue(replyQueue);
+
+        this.pollerThread = new Thread(this::runPoller, "ReplyPoller - " + queueManager.fullQueueName(replyQueue));
+        this.pollerThread.setDaemon(true);
+        this.pollerThread.start();
+    }
+
+    /* package */ QueueConfiguration getReplyQueue() {
+        return replyQueue;
+    }
+
+    /* package */ int getPendingCount() {
+        return pendingRequests.size();
+    }
+
+    /**
+     * Sends the request with a fresh correlation id and this dispatcher's reply queue, returning a future for the
+     * reply that fails with a TimeoutException after timeoutMillis.
+     */
+    /* package */ CompletableFuture<MessageReceiveContext> sendAndReceive(MessageSendContext request, long timeoutMillis) {
+
+        if( closed ) {
+            throw new IllegalStateException("The reply dispatcher has been closed.");
+        }
+
+        // Every request to a FIFO queue is a distinct message, so identical requests inside the de-duplication window
+        // are not collapsed into one - unless the caller chose the deduplication id.
+        String correlationId = correlationPrefix + nextCorrelationId.incrementAndGet();
+        String deduplicationId = request.getMessageFifoDeduplicationId();
+        if( request.getQueueConfiguration().isFifoQueue() && (deduplicationId == null || request.isDeduplicationIdGenerated()) ) {
+            deduplicationId = correlationId;
+        }
+        MessageSendContext taggedRequest = MessageSendContext.builder()
+                .queueConfiguration(request.getQueueConfiguration())
+                .messageText(request.getMessageText())
+                .messageFifoGroupId(request.getMessageFifoGroupId())
+                .messageFifoDeduplicationId(deduplicationId)
+                .shardKey(request.getShardKey())
+                .messageDelaySeconds(request.getMessageDelaySeconds())
+                .customAttributes(customAttributes(request))
+                .customAttribute(QueueManager.CORRELATION_ID_ATTRIBUTE, stringAttribute(correlationId))
+                .customAttribute(QueueManager.REPLY_TO_ATTRIBUTE, stringAttribute(replyQueue.getQueueUrl()))
+                .build();
+
+        // Register before sending, so even the fastest reply finds its future.
+        CompletableFuture<MessageReceiveContext> replyFuture = new CompletableFuture<>();
+        pendingRequests.put(correlationId, replyFuture);
+        replyFuture.whenComplete((reply, failure) -> pendingRequests.remove(correlationId));
+        replyFuture.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+
+        try {
+            taggedRequest.sendMessage();
+        }
+        catch( RuntimeException e ) {
+            replyFuture.completeExceptionally(e);
+        }
+
+        return replyFuture;
+    }
+
+    /**
+     * Stops the poller and fails every request still waiting for a reply.
+     */
+    /* package */ void close() {
+
+        closed = true;
+        for( CompletableFuture<MessageReceiveContext> nextFuture : pendingRequests.values() ) {
+            nextFuture.completeExceptionally(new IllegalStateException("The QueueManager was shut down before the reply arrived."));
+        }
+    }
+
+    private void runPoller() {
+
+        ExponentialBackoff backoff = new ExponentialBackoff(POLL_INITIAL_BACKOFF_MILLIS, POLL_MAX_BACKOFF_MILLIS);
+        String[] attributeNames = new String[] { QueueManager.CORRELATION_ID_ATTRIBUTE };
+
+        while( !closed ) {
+            try {
+                MessageReceiveContext[] replies = queueManager.readMessages(replyQueue, attributeNames, 10);
+                if( replies.length == 0 ) {
+                    continue;
+                }
+
+                // Replies are only read once, so delete them before handing them out.
+                queueManager.deleteMessages(replyQueue, Arrays.asList(replies));
+                for( MessageReceiveContext nextReply : replies ) {
+                    dispatch(nextReply);
+                }
+                backoff.reset();
+            }
+            catch( RuntimeException e ) {
+                if( closed ) {
+                    return;
+                }
+                log.warn(String.format("Could not read replies from '%1$s': %2$s", queueManager.fullQueueName(replyQueue), e.getMessage()));
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoff.nextDelayMillis()));
+            }
+        }
+    }
+
+    private void dispatch(MessageReceiveContext reply) {
+
+        MessageAttributeValue correlationId = reply.getCustomAttribute(QueueManager.CORRELATION_ID_ATTRIBUTE);
+        CompletableFuture<MessageReceiveContext> replyFuture = correlationId != null ? pendingRequests.remove(correlationId.stringValue()) : null;
+        if( replyFuture == null ) {
+            // Most likely the request already timed out.
+            if( log.isDebugEnabled() ) {
+                log.debug(String.format("Discarding a reply with no waiting request (correlation id %1$s)",
+                        correlationId != null ? correlationId.stringValue() : null));
+            }
+            return;
+        }
+        replyFuture.complete(reply);
+    }
+
+    private static Map<String, MessageAttributeValue> customAttributes(MessageSendContext message) {
+        Map<String, MessageAttributeValue> attributes = new HashMap<>();
+        for( String nextName : message.getCustomAttributeNames() ) {
+            attributes.put(nextName, message.getCustomAttribute(nextName));
+        }
+        return attributes;
+    }
+
+    private static MessageAttributeValue stringAttribute(String value) {
+        return MessageAttributeValue.builder().dataType("String").stringValue(value).build();
+    }
+}
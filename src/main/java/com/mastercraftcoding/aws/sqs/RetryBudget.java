@@ -0,0 +1,38 @@
+package com.mastercraftcoding.aws.sqs;
+
+/**
+ * A token bucket that limits retries to a share of the requests made.  Every request deposits retryRatio tokens and
+ * every retry withdraws one, so while SQS is failing the retries add at most retryRatio to the request volume
+ * instead of multiplying it.  The bucket starts full so that occasional failures are always retried.
+ */
+/* package */ final class RetryBudget {
+
+    private final double retryRatio;
+    private final double capacity;
+    private double tokens;
+
+    /* package */ RetryBudget(double retryRatio, int capacity) {
+        this.retryRatio = retryRatio;
+        this.capacity = capacity;
+        this.tokens = capacity;
+    }
+
+    /* package */ synchronized void recordRequest() {
+        tokens = Math.min(capacity, tokens + retryRatio);
+    }
+
+    /**
+     * Returns true, and spends a token, if a retry is allowed.
+     */
+    /* package */ synchronized boolean tryAcquireRetry() {
+        if( tokens < 1.0 ) {
+            return false;
+        }
+        tokens -= 1.0;
+        return true;
+    }
+
+    /* package */ synchronized double getAvailableRetries() {
+        return tokens;
+    }
+}
@@ -0,0 +1,823 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+
+/**
+ * SendSpool is the durable send log of a QueueManager.  Messages for queues with spoolSends enabled are appended to
+ * a series of memory-mapped segment files and a background flusher thread sends them on to SQS in batches.
+ * <p>
+ * Each segment is a sequence of records - a payload length, a CRC32C of the payload and the payload itself, the
+ * encoded SendMessageRequest.  A zero length marks the unused end of a segment.  Concurrent appends share a single
+ * force() of the mapped segments (group commit), so the cost of syncing is spread across every sender waiting on it.
+ * <p>
+ * The flusher only reads records that are durable, and records its progress in a checkpoint file once each batch has
+ * been accepted by SQS.  Segments behind the checkpoint are deleted.  The checkpoint itself is not synced, so after a
+ * crash the last few batches may be sent again; FIFO queues de-duplicate these within the SQS five minute window.
+ */
+public class SendSpool {
+
+    private static final Logger log = LoggerFactory.getLogger(SendSpool.class);
+
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final byte RECORD_VERSION = 1;
+
+    private static final int MAX_BATCH_ENTRIES = 10;
+    private static final int MAX_BATCH_BYTES = 262144;
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "spool.checkpoint";
+    private static final String LOCK_FILE = "spool.lock";
+
+    private final SendSpoolConfiguration configuration;
+    private final SqsClient sqsClient;
+    private final Function<String, QueueCallController> callControllers;
+    private final Path spoolDirectory;
+
+    private FileChannel lockChannel;
+    private FileLock directoryLock;
+    private FileChannel checkpointChannel;
+
+    // Every open segment, by index.  Segments are added by appenders and removed by the flusher.
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // Append state, guarded by appendLock.
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition syncCompleted = appendLock.newCondition();
+    private final Set<Segment> unsyncedSegments = new LinkedHashSet<>();
+    private Segment writeSegment;
+    private long writePosition;
+    private boolean syncInProgress;
+
+    // Positions are (segment index << 32) | offset, so they order the same way as the log.
+    private volatile long durablePosition;
+    private volatile long readPosition;
+    private volatile boolean closed;
+
+    // Flusher state, only touched by the flusher thread.
+    private final Thread flusherThread;
+    private volatile boolean flusherIdle;
+    private final List<SpooledMessage> pendingBatch = new ArrayList<>(MAX_BATCH_ENTRIES);
+    private String pendingBatchQueueUrl;
+    private long pendingBatchEndPosition;
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(8);
+
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicLong appendedCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /* package */ SendSpool(SendSpoolConfiguration configuration, SqsClient sqsClient) {
+        this(configuration, sqsClient, queueUrl -> null);
+    }
+
+    /**
+     * Opens the spool in the configured directory, recovering any messages left by a previous run, and starts the
+     * flusher.  Each batch is sent through the call controller callControllers returns for its queue URL, so spooled
+     * sends share the queue's send rate and retry budget; a queue with no controller is sent to directly.
+     */
+    /* package */ SendSpool(SendSpoolConfiguration configuration, SqsClient sqsClient, Function<String, QueueCallController> callControllers) {
+        this.configuration = configuration;
+        this.sqsClient = sqsClient;
+        this.callControllers = callControllers;
+        this.spoolDirectory = Paths.get(configuration.getSpoolDirectory());
+
+        try {
+            open();
+        }
+        catch( IOException e ) {
+            closeFiles();
+            throw new IllegalStateException(String.format("Could not open the send spool in '%1$s'.", spoolDirectory), e);
+        }
+
+        if( log.isInfoEnabled() ) {
+            log.info(String.format("Send spool opened in '%1$s' with %2$d messages waiting to be sent", spoolDirectory, pendingCount.get()));
+        }
+
+        this.flusherThread = new Thread(this::runFlusher, "SendSpoolFlusher - " + spoolDirectory);
+        this.flusherThread.setDaemon(true);
+        this.flusherThread.start();
+    }
+
+    /**
+     * The number of messages that have been spooled but not yet accepted (or permanently rejected) by SQS.
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * The number of messages appended since the spool was opened.
+     */
+    public long getAppendedCount() {
+        return appendedCount.get();
+    }
+
+    /**
+     * The number of messages accepted by SQS since the spool was opened.
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * The number of messages SQS rejected as invalid (sender faults) since the spool was opened.  These can never
+     * succeed, so they are logged and dropped rather than retried.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Waits for every spooled message to be sent.  Returns false if messages are still spooled after timeoutMillis.
+     */
+    public boolean flush(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while( pendingCount.get() > 0 ) {
+            if( closed || System.nanoTime() >= deadline ) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+        return true;
+    }
+
+    /**
+     * Appends a message to the spool, returning once it is durable.
+     */
+    /* package */ void append(SendMessageRequest sendMessageRequest) {
+
+        byte[] payload = encode(sendMessageRequest);
+        int recordBytes = RECORD_HEADER_BYTES + payload.length;
+        if( recordBytes > configuration.getSegmentSizeBytes() ) {
+            throw new IllegalArgumentException(String.format("The message is too large (%1$d bytes) for the spool segment size.", payload.length));
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+
+        long appendedPosition;
+        appendLock.lock();
+        try {
+            if( closed ) {
+                throw new IllegalStateException("The send spool has been closed.");
+            }
+
+            // Move to a new segment when the record does not fit in the rest of this one.  The unused space is
+            // already zero, which marks the end of the segment.
+            int offset = offset(writePosition);
+            if( offset + recordBytes > writeSegment.size ) {
+                writeSegment = openSegment(writeSegment.index + 1);
+                offset = 0;
+            }
+
+            // Write the payload before the length, so a torn write reads as the end of the log.
+            ByteBuffer writeBuffer = writeSegment.writeBuffer;
+            writeBuffer.position(offset + RECORD_HEADER_BYTES);
+            writeBuffer.put(payload);
+            writeBuffer.putInt(offset + 4, (int) crc.getValue());
+            writeBuffer.putInt(offset, payload.length);
+
+            writePosition = position(writeSegment.index, offset + recordBytes);
+            appendedPosition = writePosition;
+            appendedCount.incrementAndGet();
+            pendingCount.incrementAndGet();
+
+            if( configuration.isSyncToDisk() ) {
+                unsyncedSegments.add(writeSegment);
+            }
+            else {
+                durablePosition = writePosition;
+            }
+        }
+        finally {
+            appendLock.unlock();
+        }
+
+        if( configuration.isSyncToDisk() ) {
+            awaitDurable(appendedPosition);
+        }
+
+        if( flusherIdle ) {
+            LockSupport.unpark(flusherThread);
+        }
+    }
+
+    private void awaitDurable(long targetPosition) {
+
+        appendLock.lock();
+        try {
+            while( durablePosition < targetPosition ) {
+
+                // Someone else is already syncing - wait for them, then check whether it covered this record.
+                if( syncInProgress ) {
+                    syncCompleted.awaitUninterruptibly();
+                    continue;
+                }
+
+                // Lead the next sync.  Hold it open for the group commit interval so concurrent appends can join it,
+                // then force every segment written since the last sync without holding the lock.
+                syncInProgress = true;
+                List<Segment> syncSegments = null;
+                long syncPosition = 0;
+                boolean synced = false;
+                appendLock.unlock();
+                try {
+                    if( configuration.getGroupCommitIntervalMillis() > 0 ) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(configuration.getGroupCommitIntervalMillis()));
+                    }
+
+                    appendLock.lock();
+                    try {
+                        syncPosition = writePosition;
+                        syncSegments = new ArrayList<>(unsyncedSegments);
+                        unsyncedSegments.clear();
+                    }
+                    finally {
+                        appendLock.unlock();
+                    }
+
+                    for( Segment nextSegment : syncSegments ) {
+                        nextSegment.writeBuffer.force();
+                    }
+                    synced = true;
+                }
+                catch( UncheckedIOException e ) {
+                    throw new IllegalStateException("Could not sync the send spool to disk.", e);
+                }
+                finally {
+                    appendLock.lock();
+                    if( synced ) {
+                        durablePosition = Math.max(durablePosition, syncPosition);
+                    }
+                    else if( syncSegments != null ) {
+                        unsyncedSegments.addAll(syncSegments);
+                    }
+                    syncInProgress = false;
+                    syncCompleted.signalAll();
+                }
+            }
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the flusher and closes the spool.  Anything not yet sent stays on disk and is sent the next time the
+     * spool is opened.
+     */
+    /* package */ void close() {
+
+        if( closed ) {
+            return;
+        }
+        closed = true;
+
+        LockSupport.unpark(flusherThread);
+        try {
+            flusherThread.join(configuration.getRetryMaxBackoffMillis() + 5000);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Make sure everything that was appended reaches the disk.
+        appendLock.lock();
+        try {
+            while( syncInProgress ) {
+                syncCompleted.awaitUninterruptibly();
+            }
+            for( Segment nextSegment : unsyncedSegments ) {
+                nextSegment.writeBuffer.force();
+            }
+            unsyncedSegments.clear();
+        }
+        finally {
+            appendLock.unlock();
+        }
+
+        closeFiles();
+
+        if( pendingCount.get() > 0 && log.isWarnEnabled() ) {
+            log.warn(String.format("Send spool in '%1$s' closed with %2$d messages still to be sent", spoolDirectory, pendingCount.get()));
+        }
+    }
+
+    // ------------------------------------------------------
+    // Flusher
+    // ------------------------------------------------------
+
+    private void runFlusher() {
+
+        ExponentialBackoff backoff = new ExponentialBackoff(configuration.getRetryInitialBackoffMillis(), configuration.getRetryMaxBackoffMillis());
+
+        while( !closed ) {
+            try {
+                // Pick up the next batch when the last one is done.
+                if( pendingBatch.isEmpty() ) {
+                    readBatch(durablePosition);
+
+                    if( pendingBatch.isEmpty() ) {
+                        // Nothing to send, but the read position may have moved past the end of a segment.
+                        if( pendingBatchEndPosition > readPosition ) {
+                            commitReadPosition(pendingBatchEndPosition);
+                        }
+                        idle();
+                        continue;
+                    }
+                }
+
+                if( sendPendingBatch() ) {
+                    commitReadPosition(pendingBatchEndPosition);
+                    backoff.reset();
+                    continue;
+                }
+            }
+            catch( RuntimeException e ) {
+                if( log.isWarnEnabled() ) {
+                    log.warn(String.format("Send spool could not send to '%1$s': %2$s", pendingBatchQueueUrl, e.getMessage()));
+                }
+            }
+
+            // Back off before retrying what is left of the batch.
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoff.nextDelayMillis()));
+        }
+    }
+
+    private void idle() {
+        flusherIdle = true;
+        try {
+            // Check again after announcing we are idle, so a wake up from an append can't be missed.
+            if( readPosition >= durablePosition && !closed ) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(configuration.getFlusherIdleMillis()));
+            }
+        }
+        finally {
+            flusherIdle = false;
+        }
+    }
+
+    /**
+     * Reads the longest run of durable records for the same queue that fits in one SendMessageBatch request.
+     */
+    private void readBatch(long durable) {
+
+        long position = readPosition;
+        pendingBatchQueueUrl = null;
+        pendingBatchEndPosition = position;
+        int batchBytes = 0;
+
+        while( pendingBatch.size() < MAX_BATCH_ENTRIES && position < durable ) {
+
+            Segment segment = segments.get(segmentIndex(position));
+            int offset = offset(position);
+            if( segment == null ) {
+                log.error(String.format("Send spool segment %1$d is missing - skipping it", segmentIndex(position)));
+                position = position(segmentIndex(position) + 1, 0);
+                pendingBatchEndPosition = position;
+                continue;
+            }
+
+            // A zero length, or no room for another record, is the end of this segment.
+            int payloadLength = offset + RECORD_HEADER_BYTES <= segment.size ? segment.readBuffer.getInt(offset) : 0;
+            if( payloadLength == 0 ) {
+                position = position(segment.index + 1, 0);
+                pendingBatchEndPosition = position;
+                continue;
+            }
+
+            long endPosition = position(segment.index, offset + RECORD_HEADER_BYTES + payloadLength);
+            SpooledMessage nextMessage = decode(segment.readBuffer, offset + RECORD_HEADER_BYTES, Integer.toString(pendingBatch.size()));
+            if( pendingBatchQueueUrl != null &&
+                    (!pendingBatchQueueUrl.equals(nextMessage.queueUrl) || batchBytes + nextMessage.messageSize > MAX_BATCH_BYTES) ) {
+                break;
+            }
+
+            pendingBatchQueueUrl = nextMessage.queueUrl;
+            batchBytes += nextMessage.messageSize;
+            pendingBatch.add(nextMessage);
+            position = endPosition;
+            pendingBatchEndPosition = position;
+        }
+    }
+
+    /**
+     * Sends what is left of the pending batch.  Returns true once every message in it has been accepted or
+     * permanently rejected.
+     */
+    private boolean sendPendingBatch() {
+
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(pendingBatch.size());
+        for( SpooledMessage nextMessage : pendingBatch ) {
+            entries.add(nextMessage.entry);
+        }
+
+        SendMessageBatchRequest sendMessageBatchRequest = SendMessageBatchRequest.builder()
+                .queueUrl(pendingBatchQueueUrl)
+                .entries(entries)
+                .build();
+
+        // The queue's own rate limiter and retries come first; the flusher backs off once they give up.
+        Supplier<SendMessageBatchResponse> sendCall = () -> sqsClient.sendMessageBatch(sendMessageBatchRequest);
+        QueueCallController callController = callControllers.apply(pendingBatchQueueUrl);
+        SendMessageBatchResponse response = callController != null ? callController.send(sendCall) : sendCall.get();
+        if( !response.sdkHttpResponse().isSuccessful() ) {
+            throw new IllegalStateException(String.format("SendMessageBatch failed with status %1$d", response.sdkHttpResponse().statusCode()));
+        }
+
+        Set<String> completedIds = new HashSet<>();
+        for( SendMessageBatchResultEntry nextResult : response.successful() ) {
+            completedIds.add(nextResult.id());
+        }
+        sentCount.addAndGet(completedIds.size());
+
+        // Sender faults will fail every time, so drop them.  Anything else is retried.
+        for( BatchResultErrorEntry nextFailure : response.failed() ) {
+            if( Boolean.TRUE.equals(nextFailure.senderFault()) ) {
+                completedIds.add(nextFailure.id());
+                droppedCount.incrementAndGet();
+                log.error(String.format("Dropping spooled message for '%1$s' rejected by SQS: %2$s %3$s",
+                        pendingBatchQueueUrl, nextFailure.code(), nextFailure.message()));
+            }
+        }
+
+        pendingBatch.removeIf(nextMessage -> completedIds.contains(nextMessage.entry.id()));
+        pendingCount.addAndGet(-completedIds.size());
+
+        return pendingBatch.isEmpty();
+    }
+
+    private void commitReadPosition(long position) {
+
+        readPosition = position;
+
+        try {
+            checkpointBuffer.clear();
+            checkpointBuffer.putLong(position).flip();
+            checkpointChannel.write(checkpointBuffer, 0);
+        }
+        catch( IOException e ) {
+            log.warn(String.format("Could not write the send spool checkpoint: %1$s", e.getMessage()));
+        }
+
+        // Every message before the read position has been sent, so those segments can go.
+        for( Segment nextSegment : segments.headMap(segmentIndex(position)).values() ) {
+            deleteSegment(nextSegment);
+        }
+    }
+
+    // ------------------------------------------------------
+    // Recovery and segment files
+    // ------------------------------------------------------
+
+    private void open() throws IOException {
+
+        Files.createDirectories(spoolDirectory);
+
+        // Two spools writing to the same directory would corrupt each other.
+        lockChannel = FileChannel.open(spoolDirectory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            directoryLock = lockChannel.tryLock();
+        }
+        catch( OverlappingFileLockException e ) {
+            directoryLock = null;
+        }
+        if( directoryLock == null ) {
+            throw new IllegalStateException(String.format("The spool directory '%1$s' is already in use.", spoolDirectory));
+        }
+
+        checkpointChannel = FileChannel.open(spoolDirectory.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long checkpoint = readCheckpoint();
+
+        List<Long> segmentIndexes = listSegmentIndexes();
+        if( segmentIndexes.isEmpty() ) {
+            long firstIndex = checkpoint >= 0 ? segmentIndex(checkpoint) + 1 : 0;
+            writeSegment = openSegment(firstIndex);
+            writePosition = position(firstIndex, 0);
+            durablePosition = writePosition;
+            readPosition = writePosition;
+            return;
+        }
+
+        // Start from the checkpoint, dropping any segments that were fully sent but not yet deleted.
+        long startPosition = Math.max(checkpoint, position(segmentIndexes.get(0), 0));
+        for( Long nextIndex : segmentIndexes ) {
+            if( nextIndex < segmentIndex(startPosition) ) {
+                Files.deleteIfExists(segmentPath(nextIndex));
+            }
+            else {
+                openSegment(nextIndex);
+            }
+        }
+        if( segments.isEmpty() ) {
+            startPosition = position(segmentIndex(startPosition) + 1, 0);
+            openSegment(segmentIndex(startPosition));
+        }
+
+        // Count the records still to be sent and find the end of the log.  Anything after a bad record in the
+        // last segment is the remains of an append that never completed.
+        long recordCount = 0;
+        int endOffset = 0;
+        for( Segment nextSegment : segments.values() ) {
+            int offset = nextSegment.index == segmentIndex(startPosition) ? offset(startPosition) : 0;
+            while( offset + RECORD_HEADER_BYTES <= nextSegment.size ) {
+                int payloadLength = nextSegment.readBuffer.getInt(offset);
+                if( payloadLength <= 0 || offset + RECORD_HEADER_BYTES + payloadLength > nextSegment.size
+                        || !isValidRecord(nextSegment.readBuffer, offset, payloadLength) ) {
+                    break;
+                }
+                recordCount++;
+                offset += RECORD_HEADER_BYTES + payloadLength;
+            }
+            endOffset = offset;
+        }
+
+        writeSegment = segments.lastEntry().getValue();
+        if( endOffset + RECORD_HEADER_BYTES <= writeSegment.size ) {
+            writeSegment.writeBuffer.putInt(endOffset, 0);
+        }
+        writePosition = position(writeSegment.index, endOffset);
+        durablePosition = writePosition;
+        readPosition = startPosition;
+        pendingCount.set(recordCount);
+    }
+
+    private long readCheckpoint() throws IOException {
+        checkpointBuffer.clear();
+        if( checkpointChannel.read(checkpointBuffer, 0) < 8 ) {
+            return -1;
+        }
+        checkpointBuffer.flip();
+        return checkpointBuffer.getLong();
+    }
+
+    private List<Long> listSegmentIndexes() throws IOException {
+        List<Long> segmentIndexes = new ArrayList<>();
+        try( DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(spoolDirectory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX) ) {
+            for( Path nextFile : segmentFiles ) {
+                String fileName = nextFile.getFileName().toString();
+                try {
+                    segmentIndexes.add(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())));
+                }
+                catch( NumberFormatException e ) {
+                    log.warn(String.format("Ignoring unexpected file '%1$s' in the spool directory", fileName));
+                }
+            }
+        }
+        Collections.sort(segmentIndexes);
+        return segmentIndexes;
+    }
+
+    private Path segmentPath(long segmentIndex) {
+        return spoolDirectory.resolve(String.format("%1$s%2$020d%3$s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+    }
+
+    private Segment openSegment(long segmentIndex) {
+        Path segmentPath = segmentPath(segmentIndex);
+        try {
+            FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long existingSize = channel.size();
+            int size = existingSize > 0 ? (int) Math.min(existingSize, Integer.MAX_VALUE) : configuration.getSegmentSizeBytes();
+            Segment segment = new Segment(segmentIndex, segmentPath, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            segments.put(segmentIndex, segment);
+            return segment;
+        }
+        catch( IOException e ) {
+            throw new IllegalStateException(String.format("Could not open the spool segment '%1$s'.", segmentPath), e);
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        segments.remove(segment.index);
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        }
+        catch( IOException e ) {
+            log.warn(String.format("Could not delete the spool segment '%1$s': %2$s", segment.path, e.getMessage()));
+        }
+    }
+
+    private void closeFiles() {
+        for( Segment nextSegment : segments.values() ) {
+            closeQuietly(nextSegment.channel);
+        }
+        segments.clear();
+        closeQuietly(checkpointChannel);
+        if( directoryLock != null ) {
+            try {
+                directoryLock.release();
+            }
+            catch( IOException e ) {
+                // Closing the channel releases the lock anyway.
+            }
+        }
+        closeQuietly(lockChannel);
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if( channel == null ) {
+            return;
+        }
+        try {
+            channel.close();
+        }
+        catch( IOException e ) {
+            log.warn(String.format("Could not close a send spool file: %1$s", e.getMessage()));
+        }
+    }
+
+    // ------------------------------------------------------
+    // Record encoding
+    // ------------------------------------------------------
+
+    private static byte[] encode(SendMessageRequest sendMessageRequest) {
+
+        ByteArrayOutputStream encodedBytes = new ByteArrayOutputStream(sendMessageRequest.messageBody().length() + 256);
+        try( DataOutputStream output = new DataOutputStream(encodedBytes) ) {
+            output.writeByte(RECORD_VERSION);
+            writeString(output, sendMessageRequest.queueUrl());
+            writeString(output, sendMessageRequest.messageBody());
+            writeString(output, sendMessageRequest.messageGroupId());
+            writeString(output, sendMessageRequest.messageDeduplicationId());
+            output.writeInt(sendMessageRequest.delaySeconds() != null ? sendMessageRequest.delaySeconds() : 0);
+
+            Map<String, MessageAttributeValue> messageAttributes = sendMessageRequest.messageAttributes();
+            output.writeInt(messageAttributes.size());
+            for( Map.Entry<String, MessageAttributeValue> nextAttribute : messageAttributes.entrySet() ) {
+                MessageAttributeValue attributeValue = nextAttribute.getValue();
+                writeString(output, nextAttribute.getKey());
+                writeString(output, attributeValue.dataType());
+                writeString(output, attributeValue.stringValue());
+                writeBytes(output, attributeValue.binaryValue() != null ? attributeValue.binaryValue().asByteArray() : null);
+            }
+        }
+        catch( IOException e ) {
+            // Writes to a ByteArrayOutputStream do not fail.
+            throw new UncheckedIOException(e);
+        }
+        return encodedBytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        writeBytes(output, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] value) throws IOException {
+        if( value == null ) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(value.length);
+        output.write(value);
+    }
+
+    private static SpooledMessage decode(ByteBuffer readBuffer, int payloadOffset, String entryId) {
+
+        readBuffer.position(payloadOffset);
+        byte version = readBuffer.get();
+        if( version != RECORD_VERSION ) {
+            throw new IllegalStateException(String.format("Unsupported send spool record version %1$d.", version));
+        }
+
+        String queueUrl = readString(readBuffer);
+        byte[] body = readBytes(readBuffer);
+        int messageSize = body.length;
+
+        SendMessageBatchRequestEntry.Builder entryBuilder = SendMessageBatchRequestEntry.builder()
+                .id(entryId)
+                .messageBody(new String(body, StandardCharsets.UTF_8))
+                .messageGroupId(readString(readBuffer))
+                .messageDeduplicationId(readString(readBuffer))
+                .delaySeconds(readBuffer.getInt());
+
+        int attributeCount = readBuffer.getInt();
+        if( attributeCount > 0 ) {
+            Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
+            for( int i = 0 ; i < attributeCount ; i++ ) {
+                byte[] name = readBytes(readBuffer);
+                byte[] dataType = readBytes(readBuffer);
+                byte[] stringValue = readBytes(readBuffer);
+                byte[] binaryValue = readBytes(readBuffer);
+
+                MessageAttributeValue.Builder attributeBuilder = MessageAttributeValue.builder()
+                        .dataType(new String(dataType, StandardCharsets.UTF_8));
+                if( stringValue != null ) {
+                    attributeBuilder.stringValue(new String(stringValue, StandardCharsets.UTF_8));
+                }
+                if( binaryValue != null ) {
+                    attributeBuilder.binaryValue(SdkBytes.fromByteArray(binaryValue));
+                }
+                messageAttributes.put(new String(name, StandardCharsets.UTF_8), attributeBuilder.build());
+
+                messageSize += name.length + dataType.length
+                        + (stringValue != null ? stringValue.length : 0) + (binaryValue != null ? binaryValue.length : 0);
+            }
+            entryBuilder.messageAttributes(messageAttributes);
+        }
+
+        return new SpooledMessage(queueUrl, entryBuilder.build(), messageSize);
+    }
+
+    private static String readString(ByteBuffer readBuffer) {
+        byte[] value = readBytes(readBuffer);
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+
+    private static byte[] readBytes(ByteBuffer readBuffer) {
+        int length = readBuffer.getInt();
+        if( length < 0 ) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        readBuffer.get(value);
+        return value;
+    }
+
+    private static boolean isValidRecord(ByteBuffer readBuffer, int offset, int payloadLength) {
+        ByteBuffer payload = readBuffer.duplicate();
+        payload.limit(offset + RECORD_HEADER_BYTES + payloadLength).position(offset + RECORD_HEADER_BYTES);
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        return (int) crc.getValue() == readBuffer.getInt(offset + 4);
+    }
+
+    private static long position(long segmentIndex, int offset) {
+        return (segmentIndex << 32) | offset;
+    }
+
+    private static long segmentIndex(long position) {
+        return position >>> 32;
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    private static final class Segment {
+
+        private final long index;
+        private final Path path;
+        private final FileChannel channel;
+        private final int size;
+
+        // Appenders write through writeBuffer (under the append lock); the flusher reads through its own view so
+        // the two never share a buffer position.
+        private final MappedByteBuffer writeBuffer;
+        private final ByteBuffer readBuffer;
+
+        private Segment(long index, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.index = index;
+            this.path = path;
+            this.channel = channel;
+            this.size = buffer.capacity();
+            this.writeBuffer = buffer;
+            this.readBuffer = buffer.duplicate();
+        }
+    }
+
+    private static final class SpooledMessage {
+
+        private final String queueUrl;
+        private final SendMessageBatchRequestEntry entry;
+        private final int messageSize;
+
+        private SpooledMessage(String queueUrl, SendMessageBatchRequestEntry entry, int messageSize) {
+            this.queueUrl = queueUrl;
+            this.entry = entry;
+            this.messageSize = messageSize;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * The SendSpoolConfiguration class configures the durable send spool of a QueueManager.  Queues with spoolSends
+ * enabled do not call SQS from MessageSendContext.sendMessage() - the message is appended to a memory-mapped log in
+ * spoolDirectory and sendMessage() returns as soon as it is on disk.  A background flusher thread then sends the
+ * spooled messages to SQS in batches, retrying for as long as SQS is slow or unreachable.
+ * <p>
+ * Delivery from the spool is at-least-once: a message that was sent just before a crash may be sent again when the
+ * spool is reopened.
+ * <p>
+ * {@code
+ * return SendSpoolConfiguration.builder()
+ *     .spoolDirectory( "/var/spool/my-application/sqs" )
+ *     .groupCommitIntervalMillis( 2 )
+ *     .build();
+ * }
+ */
+public class SendSpoolConfiguration implements InitializingBean {
+
+    /**
+     * spoolDirectory is the directory holding the spool's segment files.  It is created if it does not exist and
+     * may only be used by one QueueManager at a time.
+     */
+    private String spoolDirectory;
+
+    /**
+     * segmentSizeBytes is the size of each memory-mapped segment file.  Segments are deleted once every message
+     * in them has been sent, so this bounds the disk space that sent messages continue to use.
+     */
+    private int segmentSizeBytes = 16 * 1024 * 1024;
+
+    /**
+     * groupCommitIntervalMillis is how long the first sender waiting for a sync holds it open so that concurrent
+     * senders can share it.  Zero syncs immediately, which is best for a single sender.
+     */
+    private long groupCommitIntervalMillis = 1;
+
+    /**
+     * syncToDisk forces every append to the storage device before sendMessage() returns.  When false, appends only
+     * reach the operating system's page cache, which survives a process crash but not a machine crash.
+     */
+    private boolean syncToDisk = true;
+
+    /**
+     * flusherIdleMillis is how long the flusher waits for new messages when the spool is empty.
+     */
+    private long flusherIdleMillis = 50;
+
+    /**
+     * retryInitialBackoffMillis and retryMaxBackoffMillis bound the exponential back-off of the flusher while SQS
+     * is failing.
+     */
+    private long retryInitialBackoffMillis = 100;
+    private long retryMaxBackoffMillis = 10000;
+
+    /**
+     * shutdownFlushTimeoutMillis is how long QueueManager.destroy() waits for the spool to empty before closing it.
+     * Anything still spooled is sent the next time the spool is opened.
+     */
+    private long shutdownFlushTimeoutMillis = 5000;
+
+    public SendSpoolConfiguration() {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final SendSpoolConfiguration returnConfiguration;
+
+        private Builder() {
+            returnConfiguration = new SendSpoolConfiguration();
+        }
+
+        public Builder spoolDirectory(String spoolDirectory) {
+            returnConfiguration.setSpoolDirectory(spoolDirectory);
+            return this;
+        }
+
+        public Builder segmentSizeBytes(int segmentSizeBytes) {
+            returnConfiguration.setSegmentSizeBytes(segmentSizeBytes);
+            return this;
+        }
+
+        public Builder groupCommitIntervalMillis(long groupCommitIntervalMillis) {
+            returnConfiguration.setGroupCommitIntervalMillis(groupCommitIntervalMillis);
+            return this;
+        }
+
+        public Builder syncToDisk(boolean syncToDisk) {
+            returnConfiguration.setSyncToDisk(syncToDisk);
+            return this;
+        }
+
+        public Builder flusherIdleMillis(long flusherIdleMillis) {
+            returnConfiguration.setFlusherIdleMillis(flusherIdleMillis);
+            return this;
+        }
+
+        public Builder retryInitialBackoffMillis(long retryInitialBackoffMillis) {
+            returnConfiguration.setRetryInitialBackoffMillis(retryInitialBackoffMillis);
+            return this;
+        }
+
+        public Builder retryMaxBackoffMillis(long retryMaxBackoffMillis) {
+            returnConfiguration.setRetryMaxBackoffMillis(retryMaxBackoffMillis);
+            return this;
+        }
+
+        public Builder shutdownFlushTimeoutMillis(long shutdownFlushTimeoutMillis) {
+            returnConfiguration.setShutdownFlushTimeoutMillis(shutdownFlushTimeoutMillis);
+            return this;
+        }
+
+        public SendSpoolConfiguration build() {
+            returnConfiguration.validate();
+            return returnConfiguration;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        validate();
+    }
+
+    private void validate() {
+        if( spoolDirectory == null || spoolDirectory.isEmpty() ) {
+            throw new IllegalStateException("spoolDirectory must be set.");
+        }
+        // A segment must hold at least one maximum size (256 KB) message with its attributes and record header.
+        if( segmentSizeBytes < 1024 * 1024 ) {
+            throw new IllegalStateException("segmentSizeBytes must be at least 1 MB.");
+        }
+        if( groupCommitIntervalMillis < 0 || shutdownFlushTimeoutMillis < 0 ) {
+            throw new IllegalStateException("groupCommitIntervalMillis and shutdownFlushTimeoutMillis may not be negative.");
+        }
+        if( flusherIdleMillis <= 0 || retryInitialBackoffMillis <= 0 || retryMaxBackoffMillis < retryInitialBackoffMillis ) {
+            throw new IllegalStateException("flusherIdleMillis and retryInitialBackoffMillis must be greater than zero, and retryMaxBackoffMillis may not be less than retryInitialBackoffMillis.");
+        }
+    }
+
+    public String getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    public void setSpoolDirectory(String spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public int getSegmentSizeBytes() {
+        return segmentSizeBytes;
+    }
+
+    public void setSegmentSizeBytes(int segmentSizeBytes) {
+        this.segmentSizeBytes = segmentSizeBytes;
+    }
+
+    public long getGroupCommitIntervalMillis() {
+        return groupCommitIntervalMillis;
+    }
+
+    public void setGroupCommitIntervalMillis(long groupCommitIntervalMillis) {
+        this.groupCommitIntervalMillis = groupCommitIntervalMillis;
+    }
+
+    public boolean isSyncToDisk() {
+        return syncToDisk;
+    }
+
+    public void setSyncToDisk(boolean syncToDisk) {
+        this.syncToDisk = syncToDisk;
+    }
+
+    public long getFlusherIdleMillis() {
+        return flusherIdleMillis;
+    }
+
+    public void setFlusherIdleMillis(long flusherIdleMillis) {
+        this.flusherIdleMillis = flusherIdleMillis;
+    }
+
+    public long getRetryInitialBackoffMillis() {
+        return retryInitialBackoffMillis;
+    }
+
+    public void setRetryInitialBackoffMillis(long retryInitialBackoffMillis) {
+        this.retryInitialBackoffMillis = retryInitialBackoffMillis;
+    }
+
+    public long getRetryMaxBackoffMillis() {
+        return retryMaxBackoffMillis;
+    }
+
+    public void setRetryMaxBackoffMillis(long retryMaxBackoffMillis) {
+        this.retryMaxBackoffMillis = retryMaxBackoffMillis;
+    }
+
+    public long getShutdownFlushTimeoutMillis() {
+        return shutdownFlushTimeoutMillis;
+    }
+
+    public void setShutdownFlushTimeoutMillis(long shutdownFlushTimeoutMillis) {
+        this.shutdownFlushTimeoutMillis = shutdownFlushTimeoutMillis;
+    }
+}
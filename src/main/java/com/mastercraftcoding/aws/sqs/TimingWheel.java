@@ -0,0 +1,178 @@
+package com.mastercraftcoding.aws.sqs;
+
+import java.util.Arrays;
+
+/**
+ * A hierarchical timing wheel of (due time, value) pairs, with O(1) insert and expiry.  Level 0 has one slot per
+ * tick; each higher level has slots 64 times as wide as the level below.  An entry is placed in the lowest level
+ * whose span covers its due time and is cascaded down a level each time the wheel below it wraps, so each entry
+ * moves at most once per level.
+ * <p>
+ * Entries are kept as pairs of longs in per-slot arrays rather than as objects, so millions of them cost a few tens
+ * of megabytes.  The wheel is not thread safe.
+ */
+/* package */ final class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_COUNT = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOT_COUNT - 1;
+
+    // With 64 slots per level, seven levels span 2^42 ticks - over a hundred years of one millisecond ticks.  Entries
+    // further out than that wait in the top level and are placed again when it wraps.
+    private static final int LEVEL_COUNT = 7;
+
+    private static final int INITIAL_SLOT_CAPACITY = 8;
+
+    /**
+     * Receives each entry as it expires.
+     */
+    /* package */ interface ExpiryHandler {
+        void expired(long dueMillis, long value);
+    }
+
+    private final long tickMillis;
+    private long currentTick;
+
+    // slots[level * SLOT_COUNT + slot] holds the slot's entries as dueMillis, value pairs.
+    private final long[][] slots = new long[LEVEL_COUNT * SLOT_COUNT][];
+    private final int[] slotSizes = new int[LEVEL_COUNT * SLOT_COUNT];
+
+    // Entries added at or behind the current tick, expired on the next advance.
+    private long[] overdue = new long[INITIAL_SLOT_CAPACITY];
+    private int overdueSize;
+
+    private int size;
+
+    /* package */ TimingWheel(long tickMillis, long startMillis) {
+        if( tickMillis < 1 ) {
+            throw new IllegalArgumentException("tickMillis must be at least 1.");
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /* package */ int size() {
+        return size;
+    }
+
+    /* package */ void add(long dueMillis, long value) {
+        size++;
+        place(dueMillis, value);
+    }
+
+    /**
+     * Moves the wheel forward to nowMillis, passing every entry that is due by then to the handler.
+     */
+    /* package */ void advance(long nowMillis, ExpiryHandler handler) {
+
+        long targetTick = nowMillis / tickMillis;
+
+        expireOverdue(handler);
+        while( currentTick < targetTick ) {
+            currentTick++;
+
+            // Cascade every level whose lower levels have just wrapped, highest first, so entries can fall through
+            // more than one level on the same tick.
+            int cascadeLevel = 0;
+            while( cascadeLevel + 1 < LEVEL_COUNT && (currentTick & ((1L << (SLOT_BITS * (cascadeLevel + 1))) - 1)) == 0 ) {
+                cascadeLevel++;
+            }
+            for( int level = cascadeLevel ; level >= 1 ; level-- ) {
+                cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK));
+            }
+
+            cascade(0, (int) (currentTick & SLOT_MASK));
+            expireOverdue(handler);
+        }
+    }
+
+    /**
+     * Removes every entry from the wheel, returning them as dueMillis, value pairs.
+     */
+    /* package */ long[] removeAll() {
+
+        long[] entries = new long[size * 2];
+        int entryCount = 0;
+        for( int i = 0 ; i < slots.length ; i++ ) {
+            if( slotSizes[i] > 0 ) {
+                System.arraycopy(slots[i], 0, entries, entryCount, slotSizes[i]);
+                entryCount += slotSizes[i];
+            }
+            slots[i] = null;
+            slotSizes[i] = 0;
+        }
+        System.arraycopy(overdue, 0, entries, entryCount, overdueSize);
+        overdueSize = 0;
+        size = 0;
+        return entries;
+    }
+
+    private void place(long dueMillis, long value) {
+
+        long dueTick = dueMillis / tickMillis;
+        long deltaTicks = dueTick - currentTick;
+        if( deltaTicks <= 0 ) {
+            overdue = append(overdue, overdueSize, dueMillis, value);
+            overdueSize += 2;
+            return;
+        }
+
+        int level = 0;
+        while( level + 1 < LEVEL_COUNT && deltaTicks >= (1L << (SLOT_BITS * (level + 1))) ) {
+            level++;
+        }
+
+        int slotIndex = level * SLOT_COUNT + (int) ((dueTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        slots[slotIndex] = append(slots[slotIndex], slotSizes[slotIndex], dueMillis, value);
+        slotSizes[slotIndex] += 2;
+    }
+
+    /**
+     * Empties a slot, placing each of its entries again relative to the current tick.  Entries that are now due
+     * move to the overdue list.
+     */
+    private void cascade(int level, int slot) {
+
+        int slotIndex = level * SLOT_COUNT + slot;
+        long[] entries = slots[slotIndex];
+        int entryCount = slotSizes[slotIndex];
+        if( entryCount == 0 ) {
+            return;
+        }
+
+        slots[slotIndex] = null;
+        slotSizes[slotIndex] = 0;
+        for( int i = 0 ; i < entryCount ; i += 2 ) {
+            place(entries[i], entries[i + 1]);
+        }
+    }
+
+    private void expireOverdue(ExpiryHandler handler) {
+
+        if( overdueSize == 0 ) {
+            return;
+        }
+
+        long[] entries = overdue;
+        int entryCount = overdueSize;
+        overdue = new long[INITIAL_SLOT_CAPACITY];
+        overdueSize = 0;
+        size -= entryCount / 2;
+
+        for( int i = 0 ; i < entryCount ; i += 2 ) {
+            handler.expired(entries[i], entries[i + 1]);
+        }
+    }
+
+    private static long[] append(long[] entries, int entryCount, long dueMillis, long value) {
+        if( entries == null ) {
+            entries = new long[INITIAL_SLOT_CAPACITY];
+        }
+        else if( entryCount + 2 > entries.length ) {
+            entries = Arrays.copyOf(entries, entries.length + (entries.length >> 1) + 2);
+        }
+        entries[entryCount] = dueMillis;
+        entries[entryCount + 1] = value;
+        return entries;
+    }
+}
@@ -0,0 +1,99 @@
+package com.mastercraftcoding.aws.sqs.emulator;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.sqs.model.*;
+
+/**
+ * Builds the exceptions thrown by the emulator.  Every exception carries the same error code that SQS itself
+ * returns, so callers that inspect awsErrorDetails().errorCode() behave the same against both backends.
+ */
+/* package */ class EmulatedErrors {
+
+    /* package */ static final String SERVICE_NAME = "sqs";
+
+    /* package */ static final String INVALID_PARAMETER_VALUE = "InvalidParameterValue";
+    /* package */ static final String MISSING_PARAMETER = "MissingParameter";
+
+    private EmulatedErrors() {
+    }
+
+    /* package */ static SqsException invalidParameterValue(String message) {
+        return build(SqsException.builder(), INVALID_PARAMETER_VALUE, message);
+    }
+
+    /* package */ static SqsException missingParameter(String parameterName) {
+        return build(SqsException.builder(), MISSING_PARAMETER,
+                String.format("The request must contain the parameter %1$s.", parameterName));
+    }
+
+    /* package */ static SqsException queueDoesNotExist() {
+        return build(QueueDoesNotExistException.builder(), "AWS.SimpleQueueService.NonExistentQueue",
+                "The specified queue does not exist for this wsdl version.");
+    }
+
+    /* package */ static SqsException queueNameExists(String queueName) {
+        return build(QueueNameExistsException.builder(), "QueueAlreadyExists",
+                String.format("A queue already exists with the same name '%1$s' and a different value for attribute(s).", queueName));
+    }
+
+    /* package */ static SqsException invalidAttributeName(String attributeName) {
+        return build(InvalidAttributeNameException.builder(), "InvalidAttributeName",
+                String.format("Unknown Attribute %1$s.", attributeName));
+    }
+
+    /* package */ static SqsException receiptHandleIsInvalid(String receiptHandle) {
+        return build(ReceiptHandleIsInvalidException.builder(), "ReceiptHandleIsInvalid",
+                String.format("The input receipt handle \"%1$s\" is not a valid receipt handle.", receiptHandle));
+    }
+
+    /* package */ static SqsException messageNotInflight() {
+        return build(MessageNotInflightException.builder(), "AWS.SimpleQueueService.MessageNotInflight",
+                "The message referred to isn't in flight.");
+    }
+
+    /* package */ static SqsException emptyBatchRequest() {
+        return build(EmptyBatchRequestException.builder(), "AWS.SimpleQueueService.EmptyBatchRequest",
+                "There should be at least one entry in the request.");
+    }
+
+    /* package */ static SqsException tooManyEntriesInBatchRequest(int entryCount) {
+        return build(TooManyEntriesInBatchRequestException.builder(), "AWS.SimpleQueueService.TooManyEntriesInBatchRequest",
+                String.format("Maximum number of entries per request are 10. You have sent %1$d.", entryCount));
+    }
+
+    /* package */ static SqsException batchEntryIdsNotDistinct(String entryId) {
+        return build(BatchEntryIdsNotDistinctException.builder(), "AWS.SimpleQueueService.BatchEntryIdsNotDistinct",
+                String.format("Id %1$s repeated.", entryId));
+    }
+
+    /* package */ static SqsException invalidBatchEntryId(String entryId) {
+        return build(InvalidBatchEntryIdException.builder(), "AWS.SimpleQueueService.InvalidBatchEntryId",
+                String.format("A batch entry id can only contain alphanumeric characters, hyphens and underscores. It can be at most 80 letters long. Invalid id: '%1$s'.", entryId));
+    }
+
+    /* package */ static SqsException batchRequestTooLong(int maximumSize) {
+        return build(BatchRequestTooLongException.builder(), "AWS.SimpleQueueService.BatchRequestTooLong",
+                String.format("Batch requests cannot be longer than %1$d bytes.", maximumSize));
+    }
+
+    /* package */ static String errorCode(SqsException e) {
+        return e.awsErrorDetails() != null && e.awsErrorDetails().errorCode() != null ?
+                e.awsErrorDetails().errorCode() : INVALID_PARAMETER_VALUE;
+    }
+
+    /* package */ static String errorMessage(SqsException e) {
+        return e.awsErrorDetails() != null && e.awsErrorDetails().errorMessage() != null ?
+                e.awsErrorDetails().errorMessage() : e.getMessage();
+    }
+
+    private static SqsException build(SqsException.Builder builder, String errorCode, String message) {
+        builder.awsErrorDetails(AwsErrorDetails.builder()
+                .errorCode(errorCode)
+                .errorMessage(message)
+                .serviceName(SERVICE_NAME)
+                .build());
+        builder.statusCode(400);
+        builder.message(message);
+        return (SqsException) builder.build();
+    }
+}
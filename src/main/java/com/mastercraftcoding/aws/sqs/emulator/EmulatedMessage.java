@@ -0,0 +1,59 @@
+package com.mastercraftcoding.aws.sqs.emulator;
+
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.Map;
+
+/**
+ * A single message held by an EmulatedQueue.  The immutable fields describe the message as it was sent; the
+ * mutable fields track its delivery state and are only touched while holding the lock of the queue stripe that
+ * owns the message.
+ */
+/* package */ class EmulatedMessage {
+
+    /* package */ enum State {
+        Delayed,
+        Ready,
+        InFlight,
+        Deleted
+    }
+
+    final String messageId;
+    final long sequenceNumber;
+    final String body;
+    final String md5OfBody;
+    final Map<String, MessageAttributeValue> messageAttributes;
+    final String messageGroupId;
+    final String messageDeduplicationId;
+    final long sentTimestamp;
+
+    State state;
+
+    /**
+     * visibleAtMillis is the time at which a delayed message becomes available, or at which an in-flight
+     * message's visibility timeout expires.
+     */
+    long visibleAtMillis;
+    int receiveCount;
+    long firstReceiveTimestamp;
+
+    /**
+     * receiveGeneration is incremented on every receive so that stale receipt handles and visibility timers
+     * from earlier receives can be recognised and ignored.
+     */
+    long receiveGeneration;
+    String receiptHandle;
+
+    EmulatedMessage(String messageId, long sequenceNumber, String body, String md5OfBody,
+                    Map<String, MessageAttributeValue> messageAttributes, String messageGroupId,
+                    String messageDeduplicationId, long sentTimestamp) {
+        this.messageId = messageId;
+        this.sequenceNumber = sequenceNumber;
+        this.body = body;
+        this.md5OfBody = md5OfBody;
+        this.messageAttributes = messageAttributes;
+        this.messageGroupId = messageGroupId;
+        this.messageDeduplicationId = messageDeduplicationId;
+        this.sentTimestamp = sentTimestamp;
+    }
+}
@@ -0,0 +1,910 @@
+package com.mastercraftcoding.aws.sqs.emulator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mastercraftcoding.aws.sqs.utility.MessageSizeUtility;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * EmulatedQueue holds the messages of one emulated SQS queue.  Messages are spread over a number of stripes, each
+ * with its own lock, so that concurrent producers and consumers rarely contend.  FIFO messages are placed on a
+ * stripe chosen by their message group, which keeps every group in order on a single stripe; standard messages
+ * are spread round-robin.
+ */
+/* package */ class EmulatedQueue {
+
+    private static final long DEDUPLICATION_INTERVAL_MILLIS = 5 * 60 * 1000L;
+    private static final int DEDUPLICATION_SWEEP_THRESHOLD = 10000;
+    private static final String SENDER_ID = "AIDAEMULATEDSENDER";
+    private static final String ALL_ATTRIBUTES = "All";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final Set<String> SETTABLE_ATTRIBUTE_NAMES = new HashSet<>(Arrays.asList(
+            QueueAttributeName.DELAY_SECONDS.toString(),
+            QueueAttributeName.MAXIMUM_MESSAGE_SIZE.toString(),
+            QueueAttributeName.MESSAGE_RETENTION_PERIOD.toString(),
+            QueueAttributeName.POLICY.toString(),
+            QueueAttributeName.RECEIVE_MESSAGE_WAIT_TIME_SECONDS.toString(),
+            QueueAttributeName.REDRIVE_POLICY.toString(),
+            QueueAttributeName.VISIBILITY_TIMEOUT.toString(),
+            QueueAttributeName.KMS_MASTER_KEY_ID.toString(),
+            QueueAttributeName.KMS_DATA_KEY_REUSE_PERIOD_SECONDS.toString(),
+            QueueAttributeName.FIFO_QUEUE.toString(),
+            QueueAttributeName.CONTENT_BASED_DEDUPLICATION.toString(),
+            "DeduplicationScope",
+            "FifoThroughputLimit",
+            "RedriveAllowPolicy",
+            "SqsManagedSseEnabled"));
+
+    private final String queueName;
+    private final String queueUrl;
+    private final String queueArn;
+    private final boolean fifoQueue;
+    private final long createdTimestamp;
+    private volatile long lastModifiedTimestamp;
+    private final Map<String, String> userAttributes = new ConcurrentHashMap<>();
+
+    private volatile int visibilityTimeoutSeconds = 30;
+    private volatile int delaySeconds = 0;
+    private volatile int receiveMessageWaitTimeSeconds = 0;
+    private volatile int maximumMessageSize = 262144;
+    private volatile long messageRetentionPeriodMillis = 345600 * 1000L;
+    private volatile boolean contentBasedDeduplication;
+    private volatile boolean messageGroupDeduplicationScope;
+    private volatile int maxReceiveCount;
+    private volatile String deadLetterTargetArn;
+    private volatile boolean deleted;
+
+    private final Stripe[] stripes;
+    private final AtomicLong sequenceNumbers = new AtomicLong();
+    private final AtomicInteger sendRotation = new AtomicInteger();
+    private final AtomicInteger receiveRotation = new AtomicInteger();
+    private final ConcurrentHashMap<String, DeduplicationEntry> deduplicationEntries = new ConcurrentHashMap<>();
+    private final AtomicLong nextDeduplicationSweep = new AtomicLong();
+
+    // Long polling receivers wait here until a send makes messages available.
+    private final ReentrantLock availabilityLock = new ReentrantLock();
+    private final Condition messagesAvailable = availabilityLock.newCondition();
+    private final AtomicLong availabilityVersion = new AtomicLong();
+    private final AtomicInteger waitingReceivers = new AtomicInteger();
+
+    /* package */ EmulatedQueue(String queueName, String queueUrl, String queueArn, int stripeCount, Map<String, String> attributes) {
+
+        this.queueName = queueName;
+        this.queueUrl = queueUrl;
+        this.queueArn = queueArn;
+        this.createdTimestamp = System.currentTimeMillis();
+        this.lastModifiedTimestamp = this.createdTimestamp;
+
+        // A FIFO queue is identified by its name and must say so in its attributes as well.
+        boolean fifoAttribute = attributes != null && Boolean.parseBoolean(attributes.get(QueueAttributeName.FIFO_QUEUE.toString()));
+        this.fifoQueue = queueName.endsWith(".fifo");
+        if( fifoAttribute != fifoQueue ) {
+            throw EmulatedErrors.invalidParameterValue("The name of a FIFO queue can only include alphanumeric characters, hyphens, or underscores, must end with .fifo suffix and be 1 to 80 in length.");
+        }
+
+        this.stripes = new Stripe[stripeCount];
+        for( int i = 0 ; i < stripeCount ; i++ ) {
+            this.stripes[i] = new Stripe(i);
+        }
+
+        if( attributes != null ) {
+            setAttributes(attributes, true);
+        }
+    }
+
+    /* package */ String getQueueName() {
+        return queueName;
+    }
+
+    /* package */ String getQueueUrl() {
+        return queueUrl;
+    }
+
+    /* package */ String getQueueArn() {
+        return queueArn;
+    }
+
+    /* package */ boolean isFifoQueue() {
+        return fifoQueue;
+    }
+
+    /* package */ int getVisibilityTimeoutSeconds() {
+        return visibilityTimeoutSeconds;
+    }
+
+    /* package */ int getReceiveMessageWaitTimeSeconds() {
+        return receiveMessageWaitTimeSeconds;
+    }
+
+    /* package */ int getMaximumMessageSize() {
+        return maximumMessageSize;
+    }
+
+    /* package */ String getDeadLetterTargetArn() {
+        return deadLetterTargetArn;
+    }
+
+    /* package */ boolean isDeleted() {
+        return deleted;
+    }
+
+    /* package */ void markDeleted() {
+        this.deleted = true;
+        signalAvailable();
+    }
+
+    /**
+     * Returns true when the given creation attributes match the attributes this queue was created with, which
+     * makes a repeated CreateQueue call for the same name succeed as it does in SQS.
+     */
+    /* package */ boolean hasSameCreationAttributes(Map<String, String> attributes) {
+        if( attributes == null ) {
+            return true;
+        }
+        for( Map.Entry<String, String> nextAttribute : attributes.entrySet() ) {
+            String currentValue = userAttributes.get(nextAttribute.getKey());
+            if( currentValue == null || !currentValue.equalsIgnoreCase(nextAttribute.getValue()) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------------------------------------
+    // Attributes
+    // ------------------------------------------------------------------------------------------------------
+
+    /* package */ synchronized void setAttributes(Map<String, String> attributes, boolean creating) {
+
+        // Validate everything first so that a bad attribute leaves the queue unchanged.
+        for( Map.Entry<String, String> nextAttribute : attributes.entrySet() ) {
+            String name = nextAttribute.getKey();
+            String value = nextAttribute.getValue();
+            if( !SETTABLE_ATTRIBUTE_NAMES.contains(name) ) {
+                throw EmulatedErrors.invalidAttributeName(name);
+            }
+            if( value == null ) {
+                throw EmulatedErrors.invalidParameterValue(String.format("Invalid value for the parameter %1$s.", name));
+            }
+            if( QueueAttributeName.FIFO_QUEUE.toString().equals(name) && !creating ) {
+                throw EmulatedErrors.invalidAttributeName(name);
+            }
+            if( !fifoQueue && (QueueAttributeName.CONTENT_BASED_DEDUPLICATION.toString().equals(name)
+                    || "DeduplicationScope".equals(name) || "FifoThroughputLimit".equals(name)) ) {
+                throw EmulatedErrors.invalidAttributeName(name);
+            }
+        }
+
+        for( Map.Entry<String, String> nextAttribute : attributes.entrySet() ) {
+            applyAttribute(nextAttribute.getKey(), nextAttribute.getValue());
+            userAttributes.put(nextAttribute.getKey(), nextAttribute.getValue());
+        }
+        lastModifiedTimestamp = System.currentTimeMillis();
+    }
+
+    private void applyAttribute(String name, String value) {
+
+        QueueAttributeName attributeName = QueueAttributeName.fromValue(name);
+        switch( attributeName ) {
+            case DELAY_SECONDS:
+                delaySeconds = parseRange(name, value, 0, 900);
+                break;
+            case MAXIMUM_MESSAGE_SIZE:
+                maximumMessageSize = parseRange(name, value, 1024, 262144);
+                break;
+            case MESSAGE_RETENTION_PERIOD:
+                messageRetentionPeriodMillis = parseRange(name, value, 60, 1209600) * 1000L;
+                break;
+            case RECEIVE_MESSAGE_WAIT_TIME_SECONDS:
+                receiveMessageWaitTimeSeconds = parseRange(name, value, 0, 20);
+                break;
+            case VISIBILITY_TIMEOUT:
+                visibilityTimeoutSeconds = parseRange(name, value, 0, 43200);
+                break;
+            case CONTENT_BASED_DEDUPLICATION:
+                contentBasedDeduplication = Boolean.parseBoolean(value);
+                break;
+            case REDRIVE_POLICY:
+                applyRedrivePolicy(value);
+                break;
+            default:
+                // DeduplicationScope is not known to every SDK version, so it arrives as UNKNOWN_TO_SDK_VERSION.
+                if( "DeduplicationScope".equals(name) ) {
+                    messageGroupDeduplicationScope = "messageGroup".equals(value);
+                }
+                break;
+        }
+    }
+
+    private void applyRedrivePolicy(String redrivePolicy) {
+
+        if( redrivePolicy.isEmpty() ) {
+            maxReceiveCount = 0;
+            deadLetterTargetArn = null;
+            return;
+        }
+
+        try {
+            JsonNode policy = objectMapper.readTree(redrivePolicy);
+            JsonNode maxReceiveCountNode = policy.get("maxReceiveCount");
+            JsonNode deadLetterTargetArnNode = policy.get("deadLetterTargetArn");
+            if( maxReceiveCountNode == null || deadLetterTargetArnNode == null ) {
+                throw EmulatedErrors.invalidParameterValue("Value for parameter RedrivePolicy is invalid. Reason: Redrive policy does not contain mandatory attribute: maxReceiveCount or deadLetterTargetArn.");
+            }
+
+            int receiveCount = maxReceiveCountNode.asInt();
+            if( receiveCount < 1 || receiveCount > 1000 ) {
+                throw EmulatedErrors.invalidParameterValue("Value for parameter RedrivePolicy is invalid. Reason: Invalid value for maxReceiveCount.");
+            }
+
+            maxReceiveCount = receiveCount;
+            deadLetterTargetArn = deadLetterTargetArnNode.asText();
+        }
+        catch( IOException e ) {
+            throw EmulatedErrors.invalidParameterValue("Value for parameter RedrivePolicy is invalid. Reason: Redrive policy is not a valid JSON map.");
+        }
+    }
+
+    private static int parseRange(String name, String value, int minimum, int maximum) {
+        try {
+            int parsedValue = Integer.parseInt(value.trim());
+            if( parsedValue >= minimum && parsedValue <= maximum ) {
+                return parsedValue;
+            }
+        }
+        catch( NumberFormatException e ) {
+            // Fall through to the error below
+        }
+        throw EmulatedErrors.invalidParameterValue(String.format("Invalid value for the parameter %1$s.", name));
+    }
+
+    /* package */ Map<String, String> getAttributes(Collection<String> attributeNames) {
+
+        boolean allAttributes = attributeNames.contains(ALL_ATTRIBUTES);
+        Map<String, String> attributes = new HashMap<>();
+
+        // Reject unknown names up front, as SQS does.
+        for( String nextName : attributeNames ) {
+            if( !ALL_ATTRIBUTES.equals(nextName) && !SETTABLE_ATTRIBUTE_NAMES.contains(nextName)
+                    && QueueAttributeName.fromValue(nextName) == QueueAttributeName.UNKNOWN_TO_SDK_VERSION ) {
+                throw EmulatedErrors.invalidAttributeName(nextName);
+            }
+        }
+
+        for( Map.Entry<String, String> nextAttribute : userAttributes.entrySet() ) {
+            if( allAttributes || attributeNames.contains(nextAttribute.getKey()) ) {
+                attributes.put(nextAttribute.getKey(), nextAttribute.getValue());
+            }
+        }
+
+        putIfRequested(attributes, attributeNames, allAttributes, QueueAttributeName.QUEUE_ARN, queueArn);
+        putIfRequested(attributes, attributeNames, allAttributes, QueueAttributeName.CREATED_TIMESTAMP, Long.toString(createdTimestamp / 1000));
+        putIfRequested(attributes, attributeNames, allAttributes, QueueAttributeName.LAST_MODIFIED_TIMESTAMP, Long.toString(lastModifiedTimestamp / 1000));
+        putIfRequested(attributes, attributeNames, allAttributes, QueueAttributeName.VISIBILITY_TIMEOUT, Integer.toString(visibilityTimeoutSeconds));
+        putIfRequested(attributes, attributeNames, allAttributes, QueueAttributeName.DELAY_SECONDS, Integer.toString(delaySeconds));
+        putIfRequested(attributes, attributeNames, allAttributes, QueueAttributeName.RECEIVE_MESSAGE_WAIT_TIME_SECONDS, Integer.toString(receiveMessageWaitTimeSeconds));
+        putIfRequested(attributes, attributeNames, allAttributes, QueueAttributeName.MAXIMUM_MESSAGE_SIZE, Integer.toString(maximumMessageSize));
+        putIfRequested(attributes, attributeNames, allAttributes, QueueAttributeName.MESSAGE_RETENTION_PERIOD, Long.toString(messageRetentionPeriodMillis / 1000));
+
+        // The message counts need a consistent view of every stripe.
+        if( allAttributes
+                || attributeNames.contains(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES.toString())
+                || attributeNames.contains(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE.toString())
+                || attributeNames.contains(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED.toString()) ) {
+
+            long readyCount = 0;
+            long inFlightCount = 0;
+            long delayedCount = 0;
+            long now = System.currentTimeMillis();
+            for( Stripe nextStripe : stripes ) {
+                nextStripe.lock.lock();
+                try {
+                    nextStripe.promote(now);
+                    readyCount += nextStripe.ready.size();
+                    inFlightCount += nextStripe.inFlightCount;
+                    delayedCount += nextStripe.delayed.size();
+                }
+                finally {
+                    nextStripe.lock.unlock();
+                }
+            }
+
+            putIfRequested(attributes, attributeNames, allAttributes, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, Long.toString(readyCount));
+            putIfRequested(attributes, attributeNames, allAttributes, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE, Long.toString(inFlightCount));
+            putIfRequested(attributes, attributeNames, allAttributes, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED, Long.toString(delayedCount));
+        }
+
+        return attributes;
+    }
+
+    private static void putIfRequested(Map<String, String> attributes, Collection<String> attributeNames, boolean allAttributes,
+                                       QueueAttributeName attributeName, String value) {
+        if( allAttributes || attributeNames.contains(attributeName.toString()) ) {
+            attributes.put(attributeName.toString(), value);
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------
+    // Sending
+    // ------------------------------------------------------------------------------------------------------
+
+    /**
+     * Adds a message to the queue and returns it.  When a FIFO message is a duplicate of one sent within the
+     * de-duplication interval, the original message is returned instead and nothing is added.
+     */
+    /* package */ EmulatedMessage send(String body, Map<String, MessageAttributeValue> messageAttributes, Integer messageDelaySeconds,
+                                       String messageGroupId, String messageDeduplicationId, long now) {
+
+        if( body == null ) {
+            throw EmulatedErrors.missingParameter("MessageBody");
+        }
+        if( body.isEmpty() ) {
+            throw EmulatedErrors.invalidParameterValue("The request must contain a non-empty message body.");
+        }
+        if( MessageSizeUtility.messageSize(body, messageAttributes) > maximumMessageSize ) {
+            throw EmulatedErrors.invalidParameterValue(String.format("One or more parameters are invalid. Reason: Message must be shorter than %1$d bytes.", maximumMessageSize));
+        }
+        if( messageDelaySeconds != null && (messageDelaySeconds < 0 || messageDelaySeconds > 900) ) {
+            throw EmulatedErrors.invalidParameterValue(String.format("Value %1$d for parameter DelaySeconds is invalid. Reason: must be between 0 and 900, if provided.", messageDelaySeconds));
+        }
+
+        Map<String, MessageAttributeValue> attributesCopy = messageAttributes == null || messageAttributes.isEmpty() ?
+                Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(messageAttributes));
+
+        if( !fifoQueue ) {
+            EmulatedMessage message = new EmulatedMessage(UUID.randomUUID().toString(), sequenceNumbers.incrementAndGet(),
+                    body, md5Hex(body), attributesCopy, null, null, now);
+            enqueue(message, messageDelaySeconds != null ? messageDelaySeconds : delaySeconds, now);
+            return message;
+        }
+
+        // FIFO queues require a group, allow only the queue's delay, and de-duplicate within a five minute window.
+        if( messageGroupId == null ) {
+            throw EmulatedErrors.missingParameter("MessageGroupId");
+        }
+        if( messageDelaySeconds != null && messageDelaySeconds != 0 ) {
+            throw EmulatedErrors.invalidParameterValue(String.format("Value %1$d for parameter DelaySeconds is invalid. Reason: The request include parameter that is not valid for this queue type.", messageDelaySeconds));
+        }
+        if( messageDeduplicationId == null ) {
+            if( !contentBasedDeduplication ) {
+                throw EmulatedErrors.invalidParameterValue("The queue should either have ContentBasedDeduplication enabled or MessageDeduplicationId provided explicitly");
+            }
+            messageDeduplicationId = sha256Hex(body);
+        }
+
+        EmulatedMessage candidate = new EmulatedMessage(UUID.randomUUID().toString(), sequenceNumbers.incrementAndGet(),
+                body, md5Hex(body), attributesCopy, messageGroupId, messageDeduplicationId, now);
+
+        String deduplicationKey = messageGroupDeduplicationScope ? messageGroupId + "\u0000" + messageDeduplicationId : messageDeduplicationId;
+        DeduplicationEntry entry = deduplicationEntries.compute(deduplicationKey, (key, existing) ->
+                existing != null && existing.expiresAtMillis > now ? existing : new DeduplicationEntry(candidate, now + DEDUPLICATION_INTERVAL_MILLIS));
+        if( entry.message != candidate ) {
+            return entry.message;
+        }
+
+        sweepDeduplicationEntries(now);
+        enqueue(candidate, delaySeconds, now);
+        return candidate;
+    }
+
+    /**
+     * Places a message that exceeded the source queue's maxReceiveCount onto this (dead letter) queue.  The message
+     * keeps its id, body, attributes and original sent timestamp, as it does in SQS.
+     */
+    /* package */ void acceptDeadLetter(EmulatedMessage sourceMessage, long now) {
+        EmulatedMessage message = new EmulatedMessage(sourceMessage.messageId, sequenceNumbers.incrementAndGet(),
+                sourceMessage.body, sourceMessage.md5OfBody, sourceMessage.messageAttributes,
+                sourceMessage.messageGroupId, sourceMessage.messageDeduplicationId, sourceMessage.sentTimestamp);
+        enqueue(message, 0, now);
+    }
+
+    private void enqueue(EmulatedMessage message, int messageDelaySeconds, long now) {
+
+        Stripe stripe = stripeFor(message);
+        stripe.lock.lock();
+        try {
+            if( messageDelaySeconds > 0 ) {
+                message.state = EmulatedMessage.State.Delayed;
+                message.visibleAtMillis = now + messageDelaySeconds * 1000L;
+                stripe.delayed.add(message);
+            }
+            else {
+                message.state = EmulatedMessage.State.Ready;
+                stripe.ready.put(message.sequenceNumber, message);
+            }
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+
+        if( messageDelaySeconds <= 0 ) {
+            signalAvailable();
+        }
+    }
+
+    private Stripe stripeFor(EmulatedMessage message) {
+        if( message.messageGroupId != null ) {
+            return stripes[Math.floorMod(message.messageGroupId.hashCode(), stripes.length)];
+        }
+        return stripes[Math.floorMod(sendRotation.getAndIncrement(), stripes.length)];
+    }
+
+    private void sweepDeduplicationEntries(long now) {
+        long nextSweep = nextDeduplicationSweep.get();
+        if( deduplicationEntries.size() > DEDUPLICATION_SWEEP_THRESHOLD && now >= nextSweep
+                && nextDeduplicationSweep.compareAndSet(nextSweep, now + 1000) ) {
+            deduplicationEntries.values().removeIf(entry -> entry.expiresAtMillis <= now);
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------
+    // Receiving
+    // ------------------------------------------------------------------------------------------------------
+
+    /**
+     * Takes up to maxMessageCount visible messages without waiting.  Messages that have already been received
+     * maxReceiveCount times are not returned; when deadLetterQueueAvailable is set they are removed and added to
+     * deadLetterMessages so that the caller can move them once no stripe lock is held.
+     */
+    /* package */ List<Message> receive(int maxMessageCount, int visibilityTimeoutSeconds, long now,
+                                        AttributeSelector systemAttributes, AttributeSelector messageAttributes,
+                                        boolean deadLetterQueueAvailable, List<EmulatedMessage> deadLetterMessages) {
+
+        List<Message> returnMessages = new ArrayList<>(maxMessageCount);
+        int startingStripe = Math.floorMod(receiveRotation.getAndIncrement(), stripes.length);
+        int redriveThreshold = deadLetterQueueAvailable ? maxReceiveCount : 0;
+        long retentionMillis = messageRetentionPeriodMillis;
+
+        for( int i = 0 ; i < stripes.length && returnMessages.size() < maxMessageCount ; i++ ) {
+            Stripe stripe = stripes[(startingStripe + i) % stripes.length];
+
+            stripe.lock.lock();
+            try {
+                stripe.promote(now);
+                if( stripe.ready.isEmpty() ) {
+                    continue;
+                }
+
+                // A FIFO group stays locked while any of its messages are in flight, except to this receive, which
+                // may return several messages from a group it has just unlocked.
+                Set<String> groupsTaken = fifoQueue ? new HashSet<>() : null;
+
+                Iterator<EmulatedMessage> readyMessages = stripe.ready.values().iterator();
+                while( readyMessages.hasNext() && returnMessages.size() < maxMessageCount ) {
+                    EmulatedMessage nextMessage = readyMessages.next();
+
+                    if( nextMessage.sentTimestamp + retentionMillis <= now ) {
+                        readyMessages.remove();
+                        stripe.forgetReceipt(nextMessage);
+                        nextMessage.state = EmulatedMessage.State.Deleted;
+                        continue;
+                    }
+
+                    if( fifoQueue && stripe.inFlightGroups.containsKey(nextMessage.messageGroupId)
+                            && !groupsTaken.contains(nextMessage.messageGroupId) ) {
+                        continue;
+                    }
+
+                    readyMessages.remove();
+                    stripe.forgetReceipt(nextMessage);
+
+                    if( redriveThreshold > 0 && nextMessage.receiveCount >= redriveThreshold ) {
+                        nextMessage.state = EmulatedMessage.State.Deleted;
+                        deadLetterMessages.add(nextMessage);
+                        continue;
+                    }
+
+                    stripe.takeInFlight(nextMessage, visibilityTimeoutSeconds, now);
+                    if( fifoQueue ) {
+                        groupsTaken.add(nextMessage.messageGroupId);
+                    }
+                    returnMessages.add(toMessage(nextMessage, systemAttributes, messageAttributes));
+                }
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return returnMessages;
+    }
+
+    private Message toMessage(EmulatedMessage message, AttributeSelector systemAttributes, AttributeSelector messageAttributes) {
+
+        Message.Builder messageBuilder = Message.builder()
+                .messageId(message.messageId)
+                .receiptHandle(message.receiptHandle)
+                .body(message.body)
+                .md5OfBody(message.md5OfBody);
+
+        if( !systemAttributes.isEmpty() ) {
+            Map<String, String> attributes = new HashMap<>();
+            putIfSelected(attributes, systemAttributes, MessageSystemAttributeName.SENDER_ID, SENDER_ID);
+            putIfSelected(attributes, systemAttributes, MessageSystemAttributeName.SENT_TIMESTAMP, Long.toString(message.sentTimestamp));
+            putIfSelected(attributes, systemAttributes, MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT, Integer.toString(message.receiveCount));
+            putIfSelected(attributes, systemAttributes, MessageSystemAttributeName.APPROXIMATE_FIRST_RECEIVE_TIMESTAMP, Long.toString(message.firstReceiveTimestamp));
+            if( fifoQueue ) {
+                putIfSelected(attributes, systemAttributes, MessageSystemAttributeName.SEQUENCE_NUMBER, Long.toString(message.sequenceNumber));
+                putIfSelected(attributes, systemAttributes, MessageSystemAttributeName.MESSAGE_DEDUPLICATION_ID, message.messageDeduplicationId);
+                putIfSelected(attributes, systemAttributes, MessageSystemAttributeName.MESSAGE_GROUP_ID, message.messageGroupId);
+            }
+            messageBuilder.attributesWithStrings(attributes);
+        }
+
+        if( !messageAttributes.isEmpty() && !message.messageAttributes.isEmpty() ) {
+            Map<String, MessageAttributeValue> attributes = new HashMap<>();
+            for( Map.Entry<String, MessageAttributeValue> nextAttribute : message.messageAttributes.entrySet() ) {
+                if( messageAttributes.matches(nextAttribute.getKey()) ) {
+                    attributes.put(nextAttribute.getKey(), nextAttribute.getValue());
+                }
+            }
+            messageBuilder.messageAttributes(attributes);
+        }
+
+        return messageBuilder.build();
+    }
+
+    private static void putIfSelected(Map<String, String> attributes, AttributeSelector selector, MessageSystemAttributeName attributeName, String value) {
+        if( selector.matches(attributeName.toString()) ) {
+            attributes.put(attributeName.toString(), value);
+        }
+    }
+
+    /* package */ long getAvailabilityVersion() {
+        return availabilityVersion.get();
+    }
+
+    /**
+     * Blocks for up to maxWaitMillis until a message is made available, unless one has already been made available
+     * since the caller read observedVersion.
+     */
+    /* package */ void awaitAvailability(long observedVersion, long maxWaitMillis) {
+        waitingReceivers.incrementAndGet();
+        availabilityLock.lock();
+        try {
+            if( availabilityVersion.get() == observedVersion ) {
+                messagesAvailable.await(maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            availabilityLock.unlock();
+            waitingReceivers.decrementAndGet();
+        }
+    }
+
+    private void signalAvailable() {
+        availabilityVersion.incrementAndGet();
+        if( waitingReceivers.get() > 0 ) {
+            availabilityLock.lock();
+            try {
+                messagesAvailable.signalAll();
+            }
+            finally {
+                availabilityLock.unlock();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------
+    // Acknowledging
+    // ------------------------------------------------------------------------------------------------------
+
+    /**
+     * Deletes the message identified by the receipt handle.  As in SQS, a handle that is well formed but no longer
+     * current is ignored.
+     */
+    /* package */ void delete(String receiptHandle) {
+
+        Stripe stripe = stripeForReceipt(receiptHandle);
+        stripe.lock.lock();
+        try {
+            EmulatedMessage message = stripe.receipts.remove(receiptHandle);
+            if( message == null ) {
+                return;
+            }
+
+            if( message.state == EmulatedMessage.State.InFlight ) {
+                stripe.releaseInFlight(message);
+            }
+            else if( message.state == EmulatedMessage.State.Ready ) {
+                stripe.ready.remove(message.sequenceNumber);
+            }
+            message.state = EmulatedMessage.State.Deleted;
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /* package */ void changeVisibility(String receiptHandle, int visibilityTimeoutSeconds, long now) {
+
+        if( visibilityTimeoutSeconds < 0 || visibilityTimeoutSeconds > 43200 ) {
+            throw EmulatedErrors.invalidParameterValue(String.format("Value %1$d for parameter VisibilityTimeout is invalid. Reason: Must be between 0 and 43200.", visibilityTimeoutSeconds));
+        }
+
+        boolean madeVisible = false;
+        Stripe stripe = stripeForReceipt(receiptHandle);
+        stripe.lock.lock();
+        try {
+            stripe.promote(now);
+            EmulatedMessage message = stripe.receipts.get(receiptHandle);
+            if( message == null || message.state != EmulatedMessage.State.InFlight ) {
+                throw EmulatedErrors.messageNotInflight();
+            }
+
+            if( visibilityTimeoutSeconds == 0 ) {
+                stripe.returnToReady(message);
+                madeVisible = true;
+            }
+            else {
+                message.visibleAtMillis = now + visibilityTimeoutSeconds * 1000L;
+                stripe.inFlightTimers.add(new InFlightTimer(message, message.visibleAtMillis, message.receiveGeneration));
+            }
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+
+        if( madeVisible ) {
+            signalAvailable();
+        }
+    }
+
+    /* package */ void purge() {
+        for( Stripe nextStripe : stripes ) {
+            nextStripe.lock.lock();
+            try {
+                nextStripe.clear();
+            }
+            finally {
+                nextStripe.lock.unlock();
+            }
+        }
+    }
+
+    private Stripe stripeForReceipt(String receiptHandle) {
+
+        // Receipt handles have the form <stripe>:<sequence number>:<receive generation>
+        int separator = receiptHandle == null ? -1 : receiptHandle.indexOf(':');
+        if( separator <= 0 || receiptHandle.indexOf(':', separator + 1) < 0 ) {
+            throw EmulatedErrors.receiptHandleIsInvalid(receiptHandle);
+        }
+
+        try {
+            int stripeIndex = Integer.parseInt(receiptHandle.substring(0, separator));
+            if( stripeIndex >= 0 && stripeIndex < stripes.length ) {
+                return stripes[stripeIndex];
+            }
+        }
+        catch( NumberFormatException e ) {
+            // Fall through to the error below
+        }
+        throw EmulatedErrors.receiptHandleIsInvalid(receiptHandle);
+    }
+
+    // ------------------------------------------------------------------------------------------------------
+    // Helpers
+    // ------------------------------------------------------------------------------------------------------
+
+    /* package */ static String md5Hex(String value) {
+        return digestHex("MD5", value);
+    }
+
+    private static String sha256Hex(String value) {
+        return digestHex("SHA-256", value);
+    }
+
+    private static String digestHex(String algorithm, String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance(algorithm).digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for( byte nextByte : digest ) {
+                hex.append(Character.forDigit((nextByte >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(nextByte & 0xF, 16));
+            }
+            return hex.toString();
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException(String.format("The %1$s message digest is not available.", algorithm), e);
+        }
+    }
+
+    /**
+     * Selects attributes by name, by a "prefix.*" pattern, or all of them with "All" or ".*".
+     */
+    /* package */ static class AttributeSelector {
+
+        private static final AttributeSelector NONE = new AttributeSelector(Collections.emptyList());
+
+        private final boolean all;
+        private final Set<String> names = new HashSet<>();
+        private final List<String> prefixes = new ArrayList<>();
+
+        private AttributeSelector(Collection<String> attributeNames) {
+            boolean selectAll = false;
+            for( String nextName : attributeNames ) {
+                if( ALL_ATTRIBUTES.equals(nextName) || ".*".equals(nextName) ) {
+                    selectAll = true;
+                }
+                else if( nextName.endsWith(".*") ) {
+                    prefixes.add(nextName.substring(0, nextName.length() - 1));
+                }
+                else {
+                    names.add(nextName);
+                }
+            }
+            this.all = selectAll;
+        }
+
+        /* package */ static AttributeSelector of(Collection<String> attributeNames) {
+            return attributeNames == null || attributeNames.isEmpty() ? NONE : new AttributeSelector(attributeNames);
+        }
+
+        /* package */ boolean isEmpty() {
+            return !all && names.isEmpty() && prefixes.isEmpty();
+        }
+
+        /* package */ boolean matches(String attributeName) {
+            if( all || names.contains(attributeName) ) {
+                return true;
+            }
+            for( String nextPrefix : prefixes ) {
+                if( attributeName.startsWith(nextPrefix) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class DeduplicationEntry {
+        private final EmulatedMessage message;
+        private final long expiresAtMillis;
+
+        private DeduplicationEntry(EmulatedMessage message, long expiresAtMillis) {
+            this.message = message;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /**
+     * A visibility timer for an in-flight message.  Timers are never removed when a message is deleted or its
+     * visibility changes; instead a timer is ignored when it no longer matches the message's current receive.
+     */
+    private static class InFlightTimer {
+        private final EmulatedMessage message;
+        private final long deadlineMillis;
+        private final long receiveGeneration;
+
+        private InFlightTimer(EmulatedMessage message, long deadlineMillis, long receiveGeneration) {
+            this.message = message;
+            this.deadlineMillis = deadlineMillis;
+            this.receiveGeneration = receiveGeneration;
+        }
+
+        private boolean isCurrent() {
+            return message.state == EmulatedMessage.State.InFlight
+                    && message.receiveGeneration == receiveGeneration
+                    && message.visibleAtMillis == deadlineMillis;
+        }
+    }
+
+    /**
+     * One stripe of the queue.  Every field is guarded by the stripe's lock.
+     */
+    private static class Stripe {
+
+        private final int stripeIndex;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final TreeMap<Long, EmulatedMessage> ready = new TreeMap<>();
+        private final PriorityQueue<EmulatedMessage> delayed = new PriorityQueue<>(Comparator.comparingLong((EmulatedMessage m) -> m.visibleAtMillis));
+        private final PriorityQueue<InFlightTimer> inFlightTimers = new PriorityQueue<>(Comparator.comparingLong((InFlightTimer t) -> t.deadlineMillis));
+        private final HashMap<String, EmulatedMessage> receipts = new HashMap<>();
+        private final HashMap<String, Integer> inFlightGroups = new HashMap<>();
+        private int inFlightCount;
+
+        private Stripe(int stripeIndex) {
+            this.stripeIndex = stripeIndex;
+        }
+
+        /**
+         * Moves delayed messages whose delay has passed, and in-flight messages whose visibility timeout has
+         * expired, back to the ready set.
+         */
+        private void promote(long now) {
+            while( !delayed.isEmpty() && delayed.peek().visibleAtMillis <= now ) {
+                EmulatedMessage message = delayed.poll();
+                message.state = EmulatedMessage.State.Ready;
+                ready.put(message.sequenceNumber, message);
+            }
+
+            while( !inFlightTimers.isEmpty() && inFlightTimers.peek().deadlineMillis <= now ) {
+                InFlightTimer timer = inFlightTimers.poll();
+                if( timer.isCurrent() ) {
+                    returnToReady(timer.message);
+                }
+            }
+        }
+
+        private void takeInFlight(EmulatedMessage message, int visibilityTimeoutSeconds, long now) {
+            message.receiveCount++;
+            if( message.receiveCount == 1 ) {
+                message.firstReceiveTimestamp = now;
+            }
+            message.receiveGeneration++;
+            message.receiptHandle = stripeIndex + ":" + message.sequenceNumber + ":" + message.receiveGeneration;
+            message.visibleAtMillis = now + visibilityTimeoutSeconds * 1000L;
+            message.state = EmulatedMessage.State.InFlight;
+
+            receipts.put(message.receiptHandle, message);
+            inFlightTimers.add(new InFlightTimer(message, message.visibleAtMillis, message.receiveGeneration));
+            inFlightCount++;
+            if( message.messageGroupId != null ) {
+                inFlightGroups.merge(message.messageGroupId, 1, Integer::sum);
+            }
+        }
+
+        private void returnToReady(EmulatedMessage message) {
+            releaseInFlight(message);
+            message.state = EmulatedMessage.State.Ready;
+            ready.put(message.sequenceNumber, message);
+        }
+
+        private void releaseInFlight(EmulatedMessage message) {
+            inFlightCount--;
+            if( message.messageGroupId != null ) {
+                inFlightGroups.computeIfPresent(message.messageGroupId, (group, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+
+        /**
+         * Drops the receipt handle from an earlier receive once the message is received again or removed, so the
+         * old handle can no longer delete it.
+         */
+        private void forgetReceipt(EmulatedMessage message) {
+            if( message.receiptHandle != null ) {
+                receipts.remove(message.receiptHandle);
+                message.receiptHandle = null;
+            }
+        }
+
+        private void clear() {
+            for( EmulatedMessage nextMessage : ready.values() ) {
+                nextMessage.state = EmulatedMessage.State.Deleted;
+            }
+            for( EmulatedMessage nextMessage : delayed ) {
+                nextMessage.state = EmulatedMessage.State.Deleted;
+            }
+            for( EmulatedMessage nextMessage : receipts.values() ) {
+                nextMessage.state = EmulatedMessage.State.Deleted;
+            }
+            ready.clear();
+            delayed.clear();
+            inFlightTimers.clear();
+            receipts.clear();
+            inFlightGroups.clear();
+            inFlightCount = 0;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package com.mastercraftcoding.aws.sqs.emulator;
+
+import com.mastercraftcoding.aws.sqs.utility.MessageSizeUtility;
+import software.amazon.awssdk.core.SdkResponse;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**
+ * InMemorySqsClient is an SqsClient that keeps its queues in memory instead of calling AWS.  It supports the
+ * operations QueueManager relies on - creating and deleting queues, queue attributes, sending, receiving and
+ * deleting messages singly and in batches, visibility timeouts, delays, FIFO message groups and de-duplication,
+ * and redrive to dead letter queues - so that consumers can be tested and benchmarked without a network.
+ *
+ * Give an instance to QueueManager.setSqsClient(...) before the QueueManager is initialized.  An optional fixed
+ * latency plus random jitter can be added to every call to approximate the round trip to a real queue.
+ */
+public class InMemorySqsClient implements SqsClient {
+
+    private static final String DEFAULT_REGION = "us-east-1";
+    private static final String DEFAULT_ACCOUNT_ID = "000000000000";
+    private static final int MAXIMUM_BATCH_ENTRIES = 10;
+    private static final int MAXIMUM_BATCH_SIZE = 262144;
+    private static final long LONG_POLL_SLICE_MILLIS = 50;
+    private static final Pattern BATCH_ENTRY_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,80}");
+    private static final Pattern QUEUE_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,80}|[A-Za-z0-9_-]{1,75}\\.fifo");
+
+    private static final SdkHttpResponse OK_RESPONSE = SdkHttpResponse.builder()
+            .statusCode(200)
+            .statusText("OK")
+            .build();
+
+    private final ConcurrentHashMap<String, EmulatedQueue> queuesByName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, EmulatedQueue> queuesByUrl = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, EmulatedQueue> queuesByArn = new ConcurrentHashMap<>();
+
+    private final int stripeCount;
+    private final long apiLatencyMillis;
+    private final long apiLatencyJitterMillis;
+    private final String region;
+    private final String accountId;
+
+    private InMemorySqsClient(Builder builder) {
+        this.stripeCount = builder.stripeCount;
+        this.apiLatencyMillis = builder.apiLatencyMillis;
+        this.apiLatencyJitterMillis = builder.apiLatencyJitterMillis;
+        this.region = builder.region;
+        this.accountId = builder.accountId;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static InMemorySqsClient create() {
+        return builder().build();
+    }
+
+    public static class Builder {
+
+        private int stripeCount = Math.max(4, Runtime.getRuntime().availableProcessors());
+        private long apiLatencyMillis = 0;
+        private long apiLatencyJitterMillis = 0;
+        private String region = DEFAULT_REGION;
+        private String accountId = DEFAULT_ACCOUNT_ID;
+
+        /**
+         * The number of independently locked stripes each queue is split into.  More stripes reduce contention
+         * between concurrent producers and consumers.
+         */
+        public Builder stripeCount(int stripeCount) {
+            this.stripeCount = stripeCount;
+            return this;
+        }
+
+        /**
+         * A fixed delay added to every call, approximating the network round trip to SQS.
+         */
+        public Builder apiLatencyMillis(long apiLatencyMillis) {
+            this.apiLatencyMillis = apiLatencyMillis;
+            return this;
+        }
+
+        /**
+         * The upper bound of a uniformly distributed random delay added on top of apiLatencyMillis.
+         */
+        public Builder apiLatencyJitterMillis(long apiLatencyJitterMillis) {
+            this.apiLatencyJitterMillis = apiLatencyJitterMillis;
+            return this;
+        }
+
+        /**
+         * The region used when generating queue URLs and ARNs.
+         */
+        public Builder region(String region) {
+            this.region = region;
+            return this;
+        }
+
+        /**
+         * The account id used when generating queue URLs and ARNs.
+         */
+        public Builder accountId(String accountId) {
+            this.accountId = accountId;
+            return this;
+        }
+
+        public InMemorySqsClient build() {
+
+            if( stripeCount <= 0 ) {
+                throw new IllegalArgumentException("stripeCount must be greater than zero.");
+            }
+            if( apiLatencyMillis < 0 || apiLatencyJitterMillis < 0 ) {
+                throw new IllegalArgumentException("apiLatencyMillis and apiLatencyJitterMillis may not be negative.");
+            }
+            if( region == null || accountId == null ) {
+                throw new IllegalArgumentException("region and accountId may not be null.");
+            }
+
+            return new InMemorySqsClient(this);
+        }
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release - the queues simply become garbage with the client.
+    }
+
+    // ------------------------------------------------------------------------------------------------------
+    // Queues
+    // ------------------------------------------------------------------------------------------------------
+
+    @Override
+    public CreateQueueResponse createQueue(CreateQueueRequest createQueueRequest) {
+        injectLatency();
+
+        String queueName = createQueueRequest.queueName();
+        if( queueName == null ) {
+            throw EmulatedErrors.missingParameter("QueueName");
+        }
+        if( !QUEUE_NAME_PATTERN.matcher(queueName).matches() ) {
+            throw EmulatedErrors.invalidParameterValue("Can only include alphanumeric characters, hyphens, or underscores. 1 to 80 in length");
+        }
+
+        Map<String, String> attributes = createQueueRequest.attributesAsStrings();
+
+        // Creating an existing queue with the same attributes returns the existing queue.
+        EmulatedQueue queue = queuesByName.computeIfAbsent(queueName, name -> {
+            EmulatedQueue newQueue = new EmulatedQueue(name,
+                    String.format("https://sqs.%1$s.amazonaws.com/%2$s/%3$s", region, accountId, name),
+                    String.format("arn:aws:sqs:%1$s:%2$s:%3$s", region, accountId, name),
+                    stripeCount, attributes);
+            queuesByUrl.put(newQueue.getQueueUrl(), newQueue);
+            queuesByArn.put(newQueue.getQueueArn(), newQueue);
+            return newQueue;
+        });
+
+        if( !queue.hasSameCreationAttributes(attributes) ) {
+            throw EmulatedErrors.queueNameExists(queueName);
+        }
+
+        return ok(CreateQueueResponse.builder()
+                .queueUrl(queue.getQueueUrl()));
+    }
+
+    @Override
+    public DeleteQueueResponse deleteQueue(DeleteQueueRequest deleteQueueRequest) {
+        injectLatency();
+
+        EmulatedQueue queue = queue(deleteQueueRequest.queueUrl());
+        queuesByName.remove(queue.getQueueName(), queue);
+        queuesByUrl.remove(queue.getQueueUrl(), queue);
+        queuesByArn.remove(queue.getQueueArn(), queue);
+        queue.markDeleted();
+
+        return ok(DeleteQueueResponse.builder());
+    }
+
+    @Override
+    public GetQueueUrlResponse getQueueUrl(GetQueueUrlRequest getQueueUrlRequest) {
+        injectLatency();
+
+        if( getQueueUrlRequest.queueName() == null ) {
+            throw EmulatedErrors.missingParameter("QueueName");
+        }
+
+        EmulatedQueue queue = queuesByName.get(getQueueUrlRequest.queueName());
+        if( queue == null ) {
+            throw EmulatedErrors.queueDoesNotExist();
+        }
+
+        return ok(GetQueueUrlResponse.builder()
+                .queueUrl(queue.getQueueUrl()));
+    }
+
+    @Override
+    public ListQueuesResponse listQueues(ListQueuesRequest listQueuesRequest) {
+        injectLatency();
+
+        String queueNamePrefix = listQueuesRequest.queueNamePrefix();
+        List<String> queueUrls = new ArrayList<>();
+        for( EmulatedQueue nextQueue : queuesByName.values() ) {
+            if( queueNamePrefix == null || nextQueue.getQueueName().startsWith(queueNamePrefix) ) {
+                queueUrls.add(nextQueue.getQueueUrl());
+            }
+        }
+        Collections.sort(queueUrls);
+
+        return ok(ListQueuesResponse.builder()
+                .queueUrls(queueUrls.size() > 1000 ? queueUrls.subList(0, 1000) : queueUrls));
+    }
+
+    @Override
+    public ListQueuesResponse listQueues() {
+        return listQueues(ListQueuesRequest.builder().build());
+    }
+
+    @Override
+    public GetQueueAttributesResponse getQueueAttributes(GetQueueAttributesRequest getQueueAttributesRequest) {
+        injectLatency();
+
+        EmulatedQueue queue = queue(getQueueAttributesRequest.queueUrl());
+        List<String> attributeNames = getQueueAttributesRequest.attributeNamesAsStrings();
+
+        return ok(GetQueueAttributesResponse.builder()
+                .attributesWithStrings(queue.getAttributes(attributeNames == null ? Collections.emptyList() : attributeNames)));
+    }
+
+    @Override
+    public SetQueueAttributesResponse setQueueAttributes(SetQueueAttributesRequest setQueueAttributesRequest) {
+        injectLatency();
+
+        EmulatedQueue queue = queue(setQueueAttributesRequest.queueUrl());
+        Map<String, String> attributes = setQueueAttributesRequest.attributesAsStrings();
+        if( attributes == null || attributes.isEmpty() ) {
+            throw EmulatedErrors.missingParameter("Attribute.Name");
+        }
+        queue.setAttributes(attributes, false);
+
+        return ok(SetQueueAttributesResponse.builder());
+    }
+
+    @Override
+    public PurgeQueueResponse purgeQueue(PurgeQueueRequest purgeQueueRequest) {
+        injectLatency();
+
+        queue(purgeQueueRequest.queueUrl()).purge();
+
+        return ok(PurgeQueueResponse.builder());
+    }
+
+    // ------------------------------------------------------------------------------------------------------
+    // Messages
+    // ------------------------------------------------------------------------------------------------------
+
+    @Override
+    public SendMessageResponse sendMessage(SendMessageRequest sendMessageRequest) {
+        injectLatency();
+
+        EmulatedQueue queue = queue(sendMessageRequest.queueUrl());
+        EmulatedMessage message = queue.send(sendMessageRequest.messageBody(), sendMessageRequest.messageAttributes(),
+                sendMessageRequest.delaySeconds(), sendMessageRequest.messageGroupId(),
+                sendMessageRequest.messageDeduplicationId(), System.currentTimeMillis());
+
+        return ok(SendMessageResponse.builder()
+                .messageId(message.messageId)
+                .md5OfMessageBody(message.md5OfBody)
+                .sequenceNumber(queue.isFifoQueue() ? Long.toString(message.sequenceNumber) : null));
+    }
+
+    @Override
+    public SendMessageBatchResponse sendMessageBatch(SendMessageBatchRequest sendMessageBatchRequest) {
+        injectLatency();
+
+        EmulatedQueue queue = queue(sendMessageBatchRequest.queueUrl());
+        List<SendMessageBatchRequestEntry> entries = sendMessageBatchRequest.entries();
+        validateBatch(entries, SendMessageBatchRequestEntry::id);
+
+        // The whole batch counts against the maximum message size.
+        int batchSize = 0;
+        for( SendMessageBatchRequestEntry nextEntry : entries ) {
+            batchSize += MessageSizeUtility.messageSize(nextEntry.messageBody(), nextEntry.messageAttributes());
+        }
+        if( batchSize > MAXIMUM_BATCH_SIZE ) {
+            throw EmulatedErrors.batchRequestTooLong(MAXIMUM_BATCH_SIZE);
+        }
+
+        long now = System.currentTimeMillis();
+        List<SendMessageBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for( SendMessageBatchRequestEntry nextEntry : entries ) {
+            try {
+                EmulatedMessage message = queue.send(nextEntry.messageBody(), nextEntry.messageAttributes(),
+                        nextEntry.delaySeconds(), nextEntry.messageGroupId(), nextEntry.messageDeduplicationId(), now);
+
+                successful.add(SendMessageBatchResultEntry.builder()
+                        .id(nextEntry.id())
+                        .messageId(message.messageId)
+                        .md5OfMessageBody(message.md5OfBody)
+                        .sequenceNumber(queue.isFifoQueue() ? Long.toString(message.sequenceNumber) : null)
+                        .build());
+            }
+            catch( SqsException e ) {
+                failed.add(errorEntry(nextEntry.id(), e));
+            }
+        }
+
+        return ok(SendMessageBatchResponse.builder()
+                .successful(successful)
+                .failed(failed));
+    }
+
+    @Override
+    public ReceiveMessageResponse receiveMessage(ReceiveMessageRequest receiveMessageRequest) {
+        injectLatency();
+
+        EmulatedQueue queue = queue(receiveMessageRequest.queueUrl());
+
+        int maxMessageCount = receiveMessageRequest.maxNumberOfMessages() != null ? receiveMessageRequest.maxNumberOfMessages() : 1;
+        if( maxMessageCount < 1 || maxMessageCount > 10 ) {
+            throw EmulatedErrors.invalidParameterValue(String.format("Value %1$d for parameter MaxNumberOfMessages is invalid. Reason: Must be between 1 and 10, if provided.", maxMessageCount));
+        }
+
+        int visibilityTimeoutSeconds = receiveMessageRequest.visibilityTimeout() != null ?
+                receiveMessageRequest.visibilityTimeout() : queue.getVisibilityTimeoutSeconds();
+        if( visibilityTimeoutSeconds < 0 || visibilityTimeoutSeconds > 43200 ) {
+            throw EmulatedErrors.invalidParameterValue(String.format("Value %1$d for parameter VisibilityTimeout is invalid. Reason: Must be between 0 and 43200.", visibilityTimeoutSeconds));
+        }
+
+        int waitTimeSeconds = receiveMessageRequest.waitTimeSeconds() != null ?
+                receiveMessageRequest.waitTimeSeconds() : queue.getReceiveMessageWaitTimeSeconds();
+        if( waitTimeSeconds < 0 || waitTimeSeconds > 20 ) {
+            throw EmulatedErrors.invalidParameterValue(String.format("Value %1$d for parameter WaitTimeSeconds is invalid. Reason: Must be >= 0 and <= 20, if provided.", waitTimeSeconds));
+        }
+
+        EmulatedQueue.AttributeSelector systemAttributes = EmulatedQueue.AttributeSelector.of(receiveMessageRequest.attributeNamesAsStrings());
+        EmulatedQueue.AttributeSelector messageAttributes = EmulatedQueue.AttributeSelector.of(receiveMessageRequest.messageAttributeNames());
+
+        long now = System.currentTimeMillis();
+        long deadline = now + waitTimeSeconds * 1000L;
+        List<EmulatedMessage> deadLetterMessages = new ArrayList<>();
+
+        while( true ) {
+            long observedVersion = queue.getAvailabilityVersion();
+
+            String deadLetterTargetArn = queue.getDeadLetterTargetArn();
+            EmulatedQueue deadLetterQueue = deadLetterTargetArn != null ? queuesByArn.get(deadLetterTargetArn) : null;
+
+            List<Message> messages = queue.receive(maxMessageCount, visibilityTimeoutSeconds, now,
+                    systemAttributes, messageAttributes, deadLetterQueue != null, deadLetterMessages);
+
+            // Move any messages that exhausted their receives now that no stripe lock is held.
+            if( !deadLetterMessages.isEmpty() ) {
+                for( EmulatedMessage nextMessage : deadLetterMessages ) {
+                    deadLetterQueue.acceptDeadLetter(nextMessage, now);
+                }
+                deadLetterMessages.clear();
+            }
+
+            if( !messages.isEmpty() ) {
+                return ok(ReceiveMessageResponse.builder()
+                        .messages(messages));
+            }
+
+            // Wait in short slices so that delayed and expired in-flight messages are noticed promptly.
+            now = System.currentTimeMillis();
+            if( now >= deadline || queue.isDeleted() || Thread.currentThread().isInterrupted() ) {
+                return ok(ReceiveMessageResponse.builder()
+                        .messages(Collections.emptyList()));
+            }
+            queue.awaitAvailability(observedVersion, Math.min(deadline - now, LONG_POLL_SLICE_MILLIS));
+            now = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public DeleteMessageResponse deleteMessage(DeleteMessageRequest deleteMessageRequest) {
+        injectLatency();
+
+        EmulatedQueue queue = queue(deleteMessageRequest.queueUrl());
+        queue.delete(deleteMessageRequest.receiptHandle());
+
+        return ok(DeleteMessageResponse.builder());
+    }
+
+    @Override
+    public DeleteMessageBatchResponse deleteMessageBatch(DeleteMessageBatchRequest deleteMessageBatchRequest) {
+        injectLatency();
+
+        EmulatedQueue queue = queue(deleteMessageBatchRequest.queueUrl());
+        List<DeleteMessageBatchRequestEntry> entries = deleteMessageBatchRequest.entries();
+        validateBatch(entries, DeleteMessageBatchRequestEntry::id);
+
+        List<DeleteMessageBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for( DeleteMessageBatchRequestEntry nextEntry : entries ) {
+            try {
+                queue.delete(nextEntry.receiptHandle());
+                successful.add(DeleteMessageBatchResultEntry.builder()
+                        .id(nextEntry.id())
+                        .build());
+            }
+            catch( SqsException e ) {
+                failed.add(errorEntry(nextEntry.id(), e));
+            }
+        }
+
+        return ok(DeleteMessageBatchResponse.builder()
+                .successful(successful)
+                .failed(failed));
+    }
+
+    @Override
+    public ChangeMessageVisibilityResponse changeMessageVisibility(ChangeMessageVisibilityRequest changeMessageVisibilityRequest) {
+        injectLatency();
+
+        EmulatedQueue queue = queue(changeMessageVisibilityRequest.queueUrl());
+        if( changeMessageVisibilityRequest.visibilityTimeout() == null ) {
+            throw EmulatedErrors.missingParameter("VisibilityTimeout");
+        }
+        queue.changeVisibility(changeMessageVisibilityRequest.receiptHandle(),
+                changeMessageVisibilityRequest.visibilityTimeout(), System.currentTimeMillis());
+
+        return ok(ChangeMessageVisibilityResponse.builder());
+    }
+
+    @Override
+    public ChangeMessageVisibilityBatchResponse changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest changeMessageVisibilityBatchRequest) {
+        injectLatency();
+
+        EmulatedQueue queue = queue(changeMessageVisibilityBatchRequest.queueUrl());
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = changeMessageVisibilityBatchRequest.entries();
+        validateBatch(entries, ChangeMessageVisibilityBatchRequestEntry::id);
+
+        long now = System.currentTimeMillis();
+        List<ChangeMessageVisibilityBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for( ChangeMessageVisibilityBatchRequestEntry nextEntry : entries ) {
+            try {
+                if( nextEntry.visibilityTimeout() == null ) {
+                    throw EmulatedErrors.missingParameter("VisibilityTimeout");
+                }
+                queue.changeVisibility(nextEntry.receiptHandle(), nextEntry.visibilityTimeout(), now);
+                successful.add(ChangeMessageVisibilityBatchResultEntry.builder()
+                        .id(nextEntry.id())
+                        .build());
+            }
+            catch( SqsException e ) {
+                failed.add(errorEntry(nextEntry.id(), e));
+            }
+        }
+
+        return ok(ChangeMessageVisibilityBatchResponse.builder()
+                .successful(successful)
+                .failed(failed));
+    }
+
+    // ------------------------------------------------------------------------------------------------------
+    // Helpers
+    // ------------------------------------------------------------------------------------------------------
+
+    private EmulatedQueue queue(String queueUrl) {
+        if( queueUrl == null ) {
+            throw EmulatedErrors.missingParameter("QueueUrl");
+        }
+
+        EmulatedQueue queue = queuesByUrl.get(queueUrl);
+        if( queue == null ) {
+            throw EmulatedErrors.queueDoesNotExist();
+        }
+        return queue;
+    }
+
+    private static <T> void validateBatch(List<T> entries, java.util.function.Function<T, String> idFunction) {
+
+        if( entries == null || entries.isEmpty() ) {
+            throw EmulatedErrors.emptyBatchRequest();
+        }
+        if( entries.size() > MAXIMUM_BATCH_ENTRIES ) {
+            throw EmulatedErrors.tooManyEntriesInBatchRequest(entries.size());
+        }
+
+        Set<String> entryIds = new HashSet<>();
+        for( T nextEntry : entries ) {
+            String entryId = idFunction.apply(nextEntry);
+            if( entryId == null || !BATCH_ENTRY_ID_PATTERN.matcher(entryId).matches() ) {
+                throw EmulatedErrors.invalidBatchEntryId(entryId);
+            }
+            if( !entryIds.add(entryId) ) {
+                throw EmulatedErrors.batchEntryIdsNotDistinct(entryId);
+            }
+        }
+    }
+
+    private static BatchResultErrorEntry errorEntry(String entryId, SqsException e) {
+        return BatchResultErrorEntry.builder()
+                .id(entryId)
+                .code(EmulatedErrors.errorCode(e))
+                .message(EmulatedErrors.errorMessage(e))
+                .senderFault(true)
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends SqsResponse> T ok(SqsResponse.Builder responseBuilder) {
+        SdkResponse.Builder builder = responseBuilder.sdkHttpResponse(OK_RESPONSE);
+        return (T) builder.build();
+    }
+
+    private void injectLatency() {
+        long latencyMillis = apiLatencyMillis;
+        if( apiLatencyJitterMillis > 0 ) {
+            latencyMillis += ThreadLocalRandom.current().nextLong(apiLatencyJitterMillis + 1);
+        }
+        if( latencyMillis <= 0 ) {
+            return;
+        }
+
+        // Park rather than sleep so that an interrupted caller returns promptly.
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        long remaining;
+        while( (remaining = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted() ) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
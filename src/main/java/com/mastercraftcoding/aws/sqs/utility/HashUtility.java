@@ -0,0 +1,110 @@
+package com.mastercraftcoding.aws.sqs.utility;
+
+/**
+ * Fast, non-cryptographic hashing of character data.  The implementation is MurmurHash3 (x64, 128 bit) applied
+ * directly to the UTF-16 code units of the input, which avoids encoding the input to a byte array first.  The
+ * results are stable across JVMs and releases, so they may be used for routing and de-duplication decisions
+ * that are shared between processes.
+ */
+public class HashUtility {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private HashUtility() {
+    }
+
+    /**
+     * Returns a 64 bit hash of the given character sequence.
+     */
+    public static long hash64(CharSequence value) {
+        return murmurHash3_128(value, 0)[0];
+    }
+
+    /**
+     * Returns the 128 bit hash of the given character sequence as a 32 character lower case hex string.  The
+     * seed allows callers to mix an additional value (such as a FIFO message group id) into the hash without
+     * concatenating strings.
+     */
+    public static String hash128Hex(CharSequence value, long seed) {
+        long[] hash = murmurHash3_128(value, seed);
+
+        char[] hexChars = new char[32];
+        for( int i = 0 ; i < 16 ; i++ ) {
+            hexChars[i] = HEX_DIGITS[(int) (hash[0] >>> (60 - 4 * i)) & 0xF];
+            hexChars[16 + i] = HEX_DIGITS[(int) (hash[1] >>> (60 - 4 * i)) & 0xF];
+        }
+        return new String(hexChars);
+    }
+
+    /**
+     * Returns the full 128 bit MurmurHash3 of the given character sequence as two longs.
+     */
+    public static long[] murmurHash3_128(CharSequence value, long seed) {
+
+        int length = value.length();
+        int blockCount = length / 8;
+
+        long h1 = seed;
+        long h2 = seed;
+
+        // Process the body in blocks of eight characters (16 bytes)
+        for( int i = 0 ; i < blockCount ; i++ ) {
+            int offset = i * 8;
+            long k1 = packChars(value, offset, 4);
+            long k2 = packChars(value, offset + 4, 4);
+
+            k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // Process any remaining characters
+        int tailOffset = blockCount * 8;
+        int tailLength = length - tailOffset;
+        if( tailLength > 4 ) {
+            long k2 = packChars(value, tailOffset + 4, tailLength - 4);
+            k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+        }
+        if( tailLength > 0 ) {
+            long k1 = packChars(value, tailOffset, Math.min(tailLength, 4));
+            k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+        }
+
+        // Finalization
+        long byteLength = 2L * length;
+        h1 ^= byteLength;
+        h2 ^= byteLength;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+
+        h1 += h2;
+        h2 += h1;
+
+        return new long[] { h1, h2 };
+    }
+
+    private static long packChars(CharSequence value, int offset, int count) {
+        long packed = 0;
+        for( int i = 0 ; i < count ; i++ ) {
+            packed |= ((long) value.charAt(offset + i)) << (16 * i);
+        }
+        return packed;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,61 @@
+package com.mastercraftcoding.aws.sqs.utility;
+
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.Map;
+
+/**
+ * Computes message sizes the way SQS counts them against its limits: the UTF-8 encoded body plus the name, data type
+ * and value of every message attribute.  Both the 256 KB maximum message size and the 256 KB total of a
+ * SendMessageBatch request are measured this way.  Lengths are computed from the characters directly, without
+ * encoding the strings.
+ */
+public class MessageSizeUtility {
+
+    /**
+     * The largest message, and the largest SendMessageBatch request, SQS accepts.
+     */
+    public static final int MAXIMUM_MESSAGE_SIZE = 262144;
+
+    private MessageSizeUtility() {
+    }
+
+    public static int messageSize(String body, Map<String, MessageAttributeValue> messageAttributes) {
+        int size = utf8Length(body);
+        if( messageAttributes != null ) {
+            for( Map.Entry<String, MessageAttributeValue> nextAttribute : messageAttributes.entrySet() ) {
+                MessageAttributeValue value = nextAttribute.getValue();
+                size += utf8Length(nextAttribute.getKey());
+                size += utf8Length(value.dataType());
+                size += utf8Length(value.stringValue());
+                size += value.binaryValue() != null ? value.binaryValue().asByteBuffer().remaining() : 0;
+            }
+        }
+        return size;
+    }
+
+    public static int utf8Length(CharSequence value) {
+        if( value == null ) {
+            return 0;
+        }
+
+        int length = 0;
+        for( int i = 0 ; i < value.length() ; i++ ) {
+            char c = value.charAt(i);
+            if( c < 0x80 ) {
+                length += 1;
+            }
+            else if( c < 0x800 ) {
+                length += 2;
+            }
+            else if( Character.isHighSurrogate(c) ) {
+                length += 4;
+                i++;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,110 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CoalescingSenderTest {
+
+    private QueueManager queueManager;
+    private QueueConfiguration queueConfiguration;
+
+    @BeforeEach
+    public void createQueue() {
+        queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "CoalescingTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+
+        queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("EntityChanges")
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+    }
+
+    @AfterEach
+    public void deleteQueue() {
+        queueManager.deleteQueue(queueConfiguration);
+        queueManager.destroy();
+    }
+
+    private MessageSendContext change(String text) {
+        return MessageSendContext.builder()
+                .queueConfiguration(queueConfiguration)
+                .messageText(text)
+                .build();
+    }
+
+    private Map<String, String> readAll() {
+        Map<String, String> bodies = new HashMap<>();
+        MessageReceiveContext[] messages;
+        do {
+            messages = queueManager.readMessages(queueConfiguration, new String[0], 10);
+            for( MessageReceiveContext nextMessage : messages ) {
+                bodies.put(nextMessage.getMessageText().split(":")[0], nextMessage.getMessageText());
+                nextMessage.delete();
+            }
+        } while( messages.length > 0 );
+        return bodies;
+    }
+
+    @Test
+    public void testOnlyTheLatestMessagePerKeyIsSent() throws InterruptedException {
+
+        CoalescingSender sender = CoalescingSender.builder()
+                .coalescingWindowMillis(200)
+                .build();
+        try {
+            for( int version = 1 ; version <= 20 ; version++ ) {
+                for( int entity = 0 ; entity < 5 ; entity++ ) {
+                    sender.send("entity-" + entity, change("entity-" + entity + ":v" + version));
+                }
+            }
+            Thread.sleep(500);
+
+            Assertions.assertEquals(100, sender.getSubmittedCount());
+            Assertions.assertEquals(95, sender.getCoalescedCount());
+            Assertions.assertEquals(5, sender.getSentCount());
+
+            Map<String, String> sent = readAll();
+            Assertions.assertEquals(5, sent.size());
+            Assertions.assertEquals("entity-3:v20", sent.get("entity-3"));
+        }
+        finally {
+            sender.destroy();
+        }
+    }
+
+    @Test
+    public void testMergeFunctionAndBoundedStripes() {
+
+        // One stripe of two keys - the third key sends the first two straight away.
+        CoalescingSender sender = CoalescingSender.builder()
+                .coalescingWindowMillis(60000)
+                .stripeCount(1)
+                .maxPendingKeys(2)
+                .mergeFunction((waiting, newer) -> change(waiting.getMessageText() + "+" + newer.getMessageText().split(":")[1]))
+                .build();
+        try {
+            sender.send("a", change("a:1"));
+            sender.send("a", change("a:2"));
+            sender.send("b", change("b:1"));
+            sender.send("c", change("c:1"));
+            Assertions.assertEquals(2, sender.getSentCount());
+
+            sender.flush();
+            Assertions.assertEquals(3, sender.getSentCount());
+
+            Map<String, String> sent = readAll();
+            Assertions.assertEquals("a:1+2", sent.get("a"));
+            Assertions.assertEquals("c:1", sent.get("c"));
+        }
+        finally {
+            sender.destroy();
+        }
+    }
+}
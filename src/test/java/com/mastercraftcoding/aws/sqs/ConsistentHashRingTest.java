@@ -0,0 +1,52 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ConsistentHashRingTest {
+
+    @Test
+    public void testKeysAreSpreadEvenly() {
+
+        int shardCount = 8;
+        int keyCount = 80000;
+        ConsistentHashRing ring = new ConsistentHashRing("UnitTest_Ring_Queue", shardCount);
+
+        int[] shardKeyCounts = new int[shardCount];
+        for( int i = 0 ; i < keyCount ; i++ ) {
+            shardKeyCounts[ring.shardFor("customer-" + i)]++;
+        }
+
+        int expectedPerShard = keyCount / shardCount;
+        for( int nextCount : shardKeyCounts ) {
+            Assertions.assertTrue(Math.abs(nextCount - expectedPerShard) < expectedPerShard * 0.25,
+                    "Shard received " + nextCount + " keys, expected about " + expectedPerShard);
+        }
+    }
+
+    @Test
+    public void testRoutingIsStableAndMinimallyDisrupted() {
+
+        ConsistentHashRing ring8 = new ConsistentHashRing("UnitTest_Ring_Queue", 8);
+        ConsistentHashRing ring8Again = new ConsistentHashRing("UnitTest_Ring_Queue", 8);
+        ConsistentHashRing ring9 = new ConsistentHashRing("UnitTest_Ring_Queue", 9);
+
+        int keyCount = 20000;
+        int movedKeys = 0;
+        for( int i = 0 ; i < keyCount ; i++ ) {
+            String nextKey = "order-" + i;
+            Assertions.assertEquals(ring8.shardFor(nextKey), ring8Again.shardFor(nextKey));
+
+            int shard8 = ring8.shardFor(nextKey);
+            int shard9 = ring9.shardFor(nextKey);
+            if( shard8 != shard9 ) {
+                // Keys only ever move to the new shard.
+                Assertions.assertEquals(8, shard9);
+                movedKeys++;
+            }
+        }
+
+        // Roughly 1/9th of the keys should move when a ninth shard is added.
+        Assertions.assertTrue(movedKeys < keyCount / 9 * 1.5);
+    }
+}
@@ -0,0 +1,156 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class ConsumerCoalescingTest {
+
+    private QueueManager queueManager;
+    private QueueConfiguration queueConfiguration;
+
+    @BeforeEach
+    public void createQueue() {
+        queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "ConsumerCoalescingTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+
+        queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("EntityStates")
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+    }
+
+    @AfterEach
+    public void deleteQueue() {
+        queueManager.deleteQueue(queueConfiguration);
+        queueManager.destroy();
+    }
+
+    private void sendStates(int entityCount, int versionCount) throws InterruptedException {
+        for( int version = 1 ; version <= versionCount ; version++ ) {
+            for( int entity = 0 ; entity < entityCount ; entity++ ) {
+                MessageSendContext.Builder messageBuilder = MessageSendContext.builder()
+                        .queueConfiguration(queueConfiguration)
+                        .messageText("entity-" + entity + ":" + version);
+                if( entity > 0 ) {
+                    messageBuilder.customAttribute("EntityId", MessageAttributeValue.builder().dataType("String").stringValue("entity-" + entity).build());
+                }
+                messageBuilder.build().sendMessage();
+            }
+            Thread.sleep(2);
+        }
+    }
+
+    private abstract class TestHandler implements CoalescingMessageHandler {
+
+        final Map<String, String> handledStates = new HashMap<>();
+        int handleCount;
+
+        @Override
+        public QueueConfiguration getTargetQueueConfiguration() {
+            return queueConfiguration;
+        }
+
+        @Override
+        public String[] getDesiredMessageAttributes() {
+            return new String[] { "EntityId" };
+        }
+
+        @Override
+        public String getCoalescingKey(MessageReceiveContext messageReceiveContext) {
+            MessageAttributeValue entityId = messageReceiveContext.getCustomAttribute("EntityId");
+            return entityId != null ? entityId.stringValue() : null;
+        }
+
+        @Override
+        public long getCoalescingWindowMillis() {
+            return 1000;
+        }
+
+        @Override
+        public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
+            handleCount++;
+            String[] state = messageReceiveContext.getMessageText().split(":");
+            handledStates.merge(state[0], state[1], (previous, next) -> previous + "," + next);
+            return MessageHandlerStatus.Message_Processed_Successfully;
+        }
+    }
+
+    @Test
+    public void testOnlyTheNewestMessagePerKeyIsHandled() throws InterruptedException {
+
+        sendStates(5, 10);
+
+        TestHandler handler = new TestHandler() {};
+        MessageHandlerDriverThread driver = new MessageHandlerDriverThread(queueManager, handler, queueConfiguration, handler.getDesiredMessageAttributes(), false);
+
+        Assertions.assertEquals(50, driver.processNextBatch());
+
+        // entity-0 has no key, so each of its messages is handled.
+        Assertions.assertEquals(14, handler.handleCount);
+        Assertions.assertEquals("10", handler.handledStates.get("entity-3"));
+        Assertions.assertEquals(10, handler.handledStates.get("entity-0").split(",").length);
+
+        // Superseded messages were deleted along with the newest.
+        Assertions.assertEquals(0, driver.processNextBatch());
+    }
+
+    @Test
+    public void testMergeCallbackSeesEveryMessageOldestFirst() throws InterruptedException {
+
+        sendStates(3, 8);
+
+        List<Integer> groupSizes = new ArrayList<>();
+        TestHandler handler = new TestHandler() {
+            @Override
+            public MessageHandlerStatus handleCoalescedMessages(List<MessageReceiveContext> messages) {
+                groupSizes.add(messages.size());
+                for( int i = 0 ; i < messages.size() ; i++ ) {
+                    Assertions.assertTrue(messages.get(i).getMessageText().endsWith(":" + (i + 1)));
+                }
+                return MessageHandlerStatus.Message_Processed_Successfully;
+            }
+        };
+        MessageHandlerDriverThread driver = new MessageHandlerDriverThread(queueManager, handler, queueConfiguration, handler.getDesiredMessageAttributes(), false);
+
+        Assertions.assertEquals(24, driver.processNextBatch());
+        Assertions.assertEquals(List.of(8, 8), groupSizes);
+        Assertions.assertEquals(0, driver.processNextBatch());
+    }
+
+    @Test
+    public void testWindowDoesNotLongPollPastItsEnd() throws InterruptedException {
+
+        queueManager.deleteQueue(queueConfiguration);
+        queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("EntityStates")
+                .receiveMessageWaitTimeSeconds(5)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        sendStates(2, 2);
+
+        TestHandler handler = new TestHandler() {
+            @Override
+            public long getCoalescingWindowMillis() {
+                return 200;
+            }
+        };
+        MessageHandlerDriverThread driver = new MessageHandlerDriverThread(queueManager, handler, queueConfiguration, handler.getDesiredMessageAttributes(), false);
+
+        // Once the queue is empty, the window's next receive must not wait out the queue's five second long poll.
+        long startNanos = System.nanoTime();
+        Assertions.assertEquals(4, driver.processNextBatch());
+        Assertions.assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(2));
+    }
+}
@@ -0,0 +1,114 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class DeadLetterRedriveTest {
+
+    private QueueManager queueManager;
+    private QueueConfiguration queueConfiguration;
+
+    @BeforeEach
+    public void createQueues() {
+        queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "RedriveTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+
+        queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Redriven")
+                .createDeadLetterQueue(true)
+                .deadLetterRetryCount(3)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        // Half of the dead letters are of type A and half of type B.
+        for( int batch = 0 ; batch < 20 ; batch++ ) {
+            List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+            for( int i = 0 ; i < 10 ; i++ ) {
+                entries.add(SendMessageBatchRequestEntry.builder()
+                        .id(Integer.toString(i))
+                        .messageBody("dead" + (batch * 10 + i))
+                        .messageAttributes(Collections.singletonMap("Type",
+                                MessageAttributeValue.builder().dataType("String").stringValue(i % 2 == 0 ? "A" : "B").build()))
+                        .build());
+            }
+            queueManager.SqsClient().sendMessageBatch(SendMessageBatchRequest.builder()
+                    .queueUrl(queueConfiguration.getQueueDeadLetterUrl())
+                    .entries(entries)
+                    .build());
+        }
+    }
+
+    @AfterEach
+    public void deleteQueues() {
+        queueManager.deleteQueue(queueConfiguration);
+        queueManager.destroy();
+    }
+
+    @Test
+    public void testFilteredMessagesAreMovedBack() {
+
+        List<RedriveResult> progressReports = new ArrayList<>();
+        RedriveResult result = queueManager.redriveDeadLetterQueue(RedriveRequest.builder()
+                .sourceQueue(queueConfiguration)
+                .attributeEquals("Type", "A")
+                .parallelism(4)
+                .progressListener(progressReports::add)
+                .build());
+
+        Assertions.assertEquals(200, result.getReceivedCount());
+        Assertions.assertEquals(100, result.getMatchedCount());
+        Assertions.assertEquals(100, result.getMovedCount());
+        Assertions.assertEquals(0, result.getFailedCount());
+        Assertions.assertTrue(progressReports.get(progressReports.size() - 1).isComplete());
+
+        // The moved messages keep their attributes.
+        int receivedCount = 0;
+        MessageReceiveContext[] messages;
+        do {
+            messages = queueManager.readMessages(queueConfiguration, new String[] { "Type" }, 10);
+            for( MessageReceiveContext nextMessage : messages ) {
+                Assertions.assertEquals("A", nextMessage.getCustomAttribute("Type").stringValue());
+                receivedCount++;
+            }
+        } while( messages.length > 0 );
+        Assertions.assertEquals(100, receivedCount);
+    }
+
+    @Test
+    public void testDryRunMovesNothing() {
+
+        RedriveResult result = queueManager.redriveDeadLetterQueue(RedriveRequest.builder()
+                .sourceQueue(queueConfiguration)
+                .dryRun(true)
+                .build());
+
+        Assertions.assertTrue(result.isDryRun());
+        Assertions.assertEquals(200, result.getMatchedCount());
+        Assertions.assertEquals(0, result.getMovedCount());
+        Assertions.assertEquals(0, queueManager.currentMessageCount(queueConfiguration).getMessageCount());
+    }
+
+    @Test
+    public void testMaxMessagesLimitsTheMove() {
+
+        RedriveResult result = queueManager.redriveDeadLetterQueue(RedriveRequest.builder()
+                .sourceQueue(queueConfiguration)
+                .maxMessages(45)
+                .maxMessagesPerSecond(1000)
+                .build());
+
+        Assertions.assertEquals(45, result.getMovedCount());
+        Assertions.assertEquals(45, queueManager.currentMessageCount(queueConfiguration).getMessageCount());
+    }
+}
@@ -0,0 +1,151 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class EnvelopeTest {
+
+    private QueueManager queueManager;
+    private QueueConfiguration queueConfiguration;
+
+    @BeforeEach
+    public void createQueue() {
+        queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "EnvelopeTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+
+        queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Events")
+                .envelopeMessages(true)
+                .envelopeMaxBytes(4096)
+                .envelopeLingerMillis(100)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+    }
+
+    @AfterEach
+    public void deleteQueue() {
+        queueManager.deleteQueue(queueConfiguration);
+        queueManager.destroy();
+    }
+
+    private void sendEvents(int eventCount) {
+        List<CompletableFuture<Void>> sends = new ArrayList<>();
+        for( int i = 0 ; i < eventCount ; i++ ) {
+            sends.add(MessageSendContext.builder()
+                    .queueConfiguration(queueConfiguration)
+                    .messageText("event-" + i)
+                    .customAttribute("Type", MessageAttributeValue.builder().dataType("String").stringValue("Type" + (i % 3)).build())
+                    .build()
+                    .sendMessageAsync());
+        }
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    @Test
+    public void testSmallMessagesShareEnvelopes() {
+
+        sendEvents(200);
+
+        int envelopeCount = 0;
+        Set<String> events = new HashSet<>();
+        MessageReceiveContext[] messages;
+        do {
+            messages = queueManager.readMessages(queueConfiguration, new String[] { MessageEnvelope.ENVELOPE_ATTRIBUTE }, 10);
+            for( MessageReceiveContext nextMessage : messages ) {
+                Assertions.assertTrue(MessageEnvelope.isEnvelope(nextMessage));
+                Assertions.assertTrue(nextMessage.getMessageText().length() <= 4096);
+                envelopeCount++;
+
+                List<MessageEnvelope.Entry> entries = MessageEnvelope.unpack(nextMessage);
+                Assertions.assertEquals(Integer.parseInt(nextMessage.getCustomAttribute(MessageEnvelope.ENVELOPE_ATTRIBUTE).stringValue()), entries.size());
+                for( MessageEnvelope.Entry nextEntry : entries ) {
+                    int eventNumber = Integer.parseInt(nextEntry.message.getMessageText().substring("event-".length()));
+                    Assertions.assertEquals("Type" + (eventNumber % 3), nextEntry.message.getCustomAttribute("Type").stringValue());
+                    events.add(nextEntry.message.getMessageText());
+                }
+                nextMessage.delete();
+            }
+        } while( messages.length > 0 );
+
+        Assertions.assertEquals(200, events.size());
+        Assertions.assertTrue(envelopeCount < 20, "Expected a few envelopes, got " + envelopeCount);
+    }
+
+    @Test
+    public void testOnlyFailedMessagesAreReEnqueued() throws InterruptedException {
+
+        Set<String> handledEvents = new HashSet<>();
+        Set<String> failedOnce = new HashSet<>();
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public QueueConfiguration getTargetQueueConfiguration() {
+                return queueConfiguration;
+            }
+
+            @Override
+            public String[] getDesiredMessageAttributes() {
+                return new String[] { "Type" };
+            }
+
+            @Override
+            public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
+                // Every Type0 event fails the first time it is seen.
+                String event = messageReceiveContext.getMessageText();
+                if( "Type0".equals(messageReceiveContext.getCustomAttribute("Type").stringValue()) && failedOnce.add(event) ) {
+                    return MessageHandlerStatus.Message_Processing_Failed;
+                }
+                Assertions.assertTrue(handledEvents.add(event), "Handled twice: " + event);
+                return MessageHandlerStatus.Message_Processed_Successfully;
+            }
+        };
+
+        sendEvents(30);
+
+        MessageHandlerDriverThread driver = new MessageHandlerDriverThread(queueManager, handler, queueConfiguration, handler.getDesiredMessageAttributes(), false);
+
+        // The first envelope is deleted, and its ten Type0 events come back in an envelope of their own.
+        Assertions.assertEquals(1, driver.processNextBatch());
+        Assertions.assertEquals(20, handledEvents.size());
+
+        Thread.sleep(300);
+        Assertions.assertEquals(1, driver.processNextBatch());
+        Assertions.assertEquals(30, handledEvents.size());
+        Assertions.assertEquals(0, driver.processNextBatch());
+    }
+
+    @Test
+    public void testFailedEnvelopesAreReportedToTheirSenders() {
+
+        QueueConfiguration missingQueue = QueueConfiguration.builder()
+                .queueBaseName("Missing")
+                .envelopeMessages(true)
+                .envelopeLingerMillis(20)
+                .build();
+        queueManager.registerQueue(missingQueue);
+        queueManager.SqsClient().deleteQueue(request -> request.queueUrl(missingQueue.getQueueUrl()));
+
+        List<MessageSendContext> messages = new ArrayList<>();
+        for( int i = 0 ; i < 3 ; i++ ) {
+            messages.add(MessageSendContext.builder().queueConfiguration(missingQueue).messageText("lost-" + i).build());
+        }
+        BatchSendResult result = queueManager.sendMessages(messages);
+        Assertions.assertEquals(0, result.getSuccessful().size());
+        Assertions.assertEquals(3, result.getFailed().size());
+
+        MessageSendContext message = MessageSendContext.builder().queueConfiguration(missingQueue).messageText("lost").build();
+        Assertions.assertThrows(RuntimeException.class, message::sendMessage);
+        Assertions.assertThrows(CompletionException.class, () -> message.sendMessageAsync().join());
+    }
+}
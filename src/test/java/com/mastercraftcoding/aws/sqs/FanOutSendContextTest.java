@@ -0,0 +1,94 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FanOutSendContextTest {
+
+    private static List<QueueConfiguration> registerQueues(QueueManager queueManager, int queueCount) {
+        List<QueueConfiguration> queueConfigurations = new ArrayList<>();
+        for( int i = 0 ; i < queueCount ; i++ ) {
+            QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                    .queueBaseName("FanOut" + i)
+                    .isFifoQueue(i % 2 == 0)
+                    .build();
+            queueManager.registerQueue(queueConfiguration);
+            queueConfigurations.add(queueConfiguration);
+        }
+        return queueConfigurations;
+    }
+
+    @Test
+    public void testMessageIsSentToEveryQueueInParallel() {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "FanOutTest");
+        queueManager.setSqsClient(InMemorySqsClient.builder()
+                .apiLatencyMillis(100)
+                .build());
+        List<QueueConfiguration> queueConfigurations = registerQueues(queueManager, 8);
+
+        long startNanos = System.nanoTime();
+        FanOutSendResult result = FanOutSendContext.builder()
+                .queueConfigurations(queueConfigurations)
+                .messageText("event")
+                .messageFifoGroupId("group")
+                .customAttribute("Type", MessageAttributeValue.builder().dataType("String").stringValue("Created").build())
+                .build()
+                .sendMessage();
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+
+        Assertions.assertTrue(result.isAllSuccessful());
+        Assertions.assertEquals(queueConfigurations, result.getSuccessful());
+
+        // Eight sends one after another would take at least 800 ms.
+        Assertions.assertTrue(elapsedMillis < 500, String.format("fan-out took %1$d ms", elapsedMillis));
+
+        for( QueueConfiguration nextQueueConfiguration : queueConfigurations ) {
+            MessageReceiveContext[] messages = queueManager.readMessages(nextQueueConfiguration, new String[] { "Type" }, 10);
+            Assertions.assertEquals(1, messages.length);
+            Assertions.assertEquals("event", messages[0].getMessageText());
+            Assertions.assertEquals("Created", messages[0].getCustomAttribute("Type").stringValue());
+            queueManager.deleteQueue(nextQueueConfiguration);
+        }
+        queueManager.destroy();
+    }
+
+    @Test
+    public void testFailuresAreReportedPerQueue() {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "FanOutTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+        List<QueueConfiguration> queueConfigurations = registerQueues(queueManager, 4);
+
+        // Sends to a queue that no longer exists fail without affecting the others.
+        QueueConfiguration deletedQueue = queueConfigurations.get(1);
+        queueManager.deleteQueue(deletedQueue);
+
+        FanOutSendResult result = FanOutSendContext.builder()
+                .queueConfigurations(queueConfigurations)
+                .messageText("event")
+                .messageFifoGroupId("group")
+                .build()
+                .sendMessage();
+
+        Assertions.assertFalse(result.isAllSuccessful());
+        Assertions.assertEquals(3, result.getSuccessful().size());
+        Assertions.assertEquals(1, result.getFailed().size());
+        Assertions.assertSame(deletedQueue, result.getFailed().get(0).getQueueConfiguration());
+        Assertions.assertEquals("AWS.SimpleQueueService.NonExistentQueue", result.getFailed().get(0).getErrorCode());
+
+        for( QueueConfiguration nextQueueConfiguration : queueConfigurations ) {
+            if( nextQueueConfiguration != deletedQueue ) {
+                Assertions.assertEquals(1, queueManager.currentMessageCount(nextQueueConfiguration).getMessageCount());
+                queueManager.deleteQueue(nextQueueConfiguration);
+            }
+        }
+        queueManager.destroy();
+    }
+}
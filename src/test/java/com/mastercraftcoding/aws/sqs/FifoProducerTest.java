@@ -0,0 +1,125 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class FifoProducerTest {
+
+    private static MessageSendContext message(QueueConfiguration queueConfiguration, String group, String text) {
+        return MessageSendContext.builder()
+                .queueConfiguration(queueConfiguration)
+                .messageFifoGroupId(group)
+                .messageText(text)
+                .build();
+    }
+
+    @Test
+    public void testGroupsAreSentConcurrentlyAndInOrder() throws InterruptedException {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "FifoProducerTest");
+        queueManager.setSqsClient(InMemorySqsClient.builder()
+                .apiLatencyMillis(20)
+                .build());
+        QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Ordered")
+                .isFifoQueue(true)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        FifoProducer producer = FifoProducer.builder()
+                .queueConfiguration(queueConfiguration)
+                .senderThreads(4)
+                .maxPendingMessages(100)
+                .build();
+
+        // 400 messages one at a time would take at least 8 seconds at 20 ms a request.
+        int groupCount = 20;
+        int messagesPerGroup = 20;
+        long startNanos = System.nanoTime();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for( int sequence = 0 ; sequence < messagesPerGroup ; sequence++ ) {
+            for( int group = 0 ; group < groupCount ; group++ ) {
+                futures.add(producer.send(message(queueConfiguration, "group" + group, "group" + group + ":" + sequence)));
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+
+        Assertions.assertTrue(elapsedMillis < 4000, String.format("sending took %1$d ms", elapsedMillis));
+        Assertions.assertEquals(0, producer.getPendingCount());
+        Assertions.assertEquals(0, producer.getActiveGroupCount());
+        producer.destroy();
+
+        // Each group's messages arrive in the order they were sent.
+        Map<String, Integer> lastSequenceOfGroup = new HashMap<>();
+        int receivedCount = 0;
+        MessageReceiveContext[] messages;
+        do {
+            messages = queueManager.readMessages(queueConfiguration, new String[0], 10);
+            for( MessageReceiveContext nextMessage : messages ) {
+                String[] parts = nextMessage.getMessageText().split(":");
+                int sequence = Integer.parseInt(parts[1]);
+                Assertions.assertEquals(lastSequenceOfGroup.getOrDefault(parts[0], -1) + 1, sequence);
+                lastSequenceOfGroup.put(parts[0], sequence);
+                queueManager.deleteMessages(queueConfiguration, nextMessage);
+                receivedCount++;
+            }
+        } while( messages.length > 0 );
+        Assertions.assertEquals(groupCount * messagesPerGroup, receivedCount);
+
+        queueManager.deleteQueue(queueConfiguration);
+        queueManager.destroy();
+    }
+
+    @Test
+    public void testFailedMessageFailsTheRestOfItsGroup() throws InterruptedException {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "FifoProducerTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+        QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Halted")
+                .isFifoQueue(true)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        FifoProducer producer = FifoProducer.builder()
+                .queueConfiguration(queueConfiguration)
+                .senderThreads(1)
+                .build();
+
+        // SQS rejects an empty body, which stops the rest of group "bad" but not group "good".
+        List<CompletableFuture<Void>> badFutures = new ArrayList<>();
+        List<CompletableFuture<Void>> goodFutures = new ArrayList<>();
+        badFutures.add(producer.send(message(queueConfiguration, "bad", "")));
+        for( int i = 0 ; i < 5 ; i++ ) {
+            badFutures.add(producer.send(message(queueConfiguration, "bad", "bad" + i)));
+            goodFutures.add(producer.send(message(queueConfiguration, "good", "good" + i)));
+        }
+        Assertions.assertTrue(producer.flush(10000));
+
+        CompletionException firstFailure = Assertions.assertThrows(CompletionException.class, () -> badFutures.get(0).join());
+        Assertions.assertEquals("InvalidParameterValue", ((SqsException) firstFailure.getCause()).awsErrorDetails().errorCode());
+        for( CompletableFuture<Void> nextFuture : badFutures.subList(1, badFutures.size()) ) {
+            CompletionException groupFailure = Assertions.assertThrows(CompletionException.class, nextFuture::join);
+            Assertions.assertEquals("PreviousMessageInGroupFailed", ((SqsException) groupFailure.getCause()).awsErrorDetails().errorCode());
+        }
+        for( CompletableFuture<Void> nextFuture : goodFutures ) {
+            nextFuture.join();
+        }
+        Assertions.assertEquals(5, queueManager.currentMessageCount(queueConfiguration).getMessageCount());
+
+        producer.destroy();
+        queueManager.deleteQueue(queueConfiguration);
+        queueManager.destroy();
+    }
+}
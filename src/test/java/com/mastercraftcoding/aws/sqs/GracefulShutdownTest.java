@@ -0,0 +1,128 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class GracefulShutdownTest {
+
+    @Test
+    public void testShutdownFinishesTheCurrentMessageAndHandsBackTheRest() throws InterruptedException {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "ShutdownTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+        QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Deploys")
+                .messageVisibilityTimeoutSeconds(60)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        for( int i = 0 ; i < 10 ; i++ ) {
+            MessageSendContext.builder().queueConfiguration(queueConfiguration).messageText("deploy-" + i).build().sendMessage();
+        }
+
+        CountDownLatch handlerStarted = new CountDownLatch(1);
+        Set<String> handledMessages = Collections.synchronizedSet(new HashSet<>());
+        queueManager.registerMessageHandler(new MessageHandler() {
+            @Override
+            public QueueConfiguration getTargetQueueConfiguration() {
+                return queueConfiguration;
+            }
+
+            @Override
+            public String[] getDesiredMessageAttributes() {
+                return new String[0];
+            }
+
+            @Override
+            public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
+                handlerStarted.countDown();
+                try {
+                    Thread.sleep(300);
+                }
+                catch( InterruptedException e ) {
+                    return MessageHandlerStatus.Message_Processing_Failed;
+                }
+                handledMessages.add(messageReceiveContext.getMessageText());
+                return MessageHandlerStatus.Message_Processed_Successfully;
+            }
+        });
+
+        try {
+            Assertions.assertTrue(handlerStarted.await(5, TimeUnit.SECONDS));
+
+            // The message being handled is finished and deleted; the other nine are visible again straight away.
+            long startNanos = System.nanoTime();
+            queueManager.destroy();
+            Assertions.assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(2));
+            Assertions.assertEquals(1, handledMessages.size());
+            Assertions.assertEquals(9, queueManager.currentMessageCount(queueConfiguration).getMessageCount());
+        }
+        finally {
+            queueManager.deleteQueue(queueConfiguration);
+        }
+    }
+
+    @Test
+    public void testShutdownWaitsForAnOverrunningHandlerBeforeTearingDown() throws InterruptedException {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "ShutdownTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+        queueManager.setShutdownDrainTimeoutMillis(100);
+        QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Builds")
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+        MessageSendContext.builder().queueConfiguration(queueConfiguration).messageText("build").build().sendMessage();
+
+        // A handler that ignores interrupts and runs past the drain deadline.
+        CountDownLatch handlerStarted = new CountDownLatch(1);
+        AtomicBoolean handlerFinished = new AtomicBoolean();
+        queueManager.registerMessageHandler(new MessageHandler() {
+            @Override
+            public QueueConfiguration getTargetQueueConfiguration() {
+                return queueConfiguration;
+            }
+
+            @Override
+            public String[] getDesiredMessageAttributes() {
+                return new String[0];
+            }
+
+            @Override
+            public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
+                handlerStarted.countDown();
+                long endNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+                while( System.nanoTime() - endNanos < 0 ) {
+                    try {
+                        Thread.sleep(10);
+                    }
+                    catch( InterruptedException e ) {
+                        // Carry on regardless.
+                    }
+                }
+                handlerFinished.set(true);
+                return MessageHandlerStatus.Message_Processed_Successfully;
+            }
+        });
+
+        try {
+            Assertions.assertTrue(handlerStarted.await(5, TimeUnit.SECONDS));
+
+            // The driver thread is joined before anything its handler could send through is shut down.
+            queueManager.destroy();
+            Assertions.assertTrue(handlerFinished.get());
+        }
+        finally {
+            queueManager.deleteQueue(queueConfiguration);
+        }
+    }
+}
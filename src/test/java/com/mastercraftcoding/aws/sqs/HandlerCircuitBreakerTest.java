@@ -0,0 +1,196 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class HandlerCircuitBreakerTest {
+
+    @Test
+    public void testBreakerOpensOnFailuresAndClosesAfterProbes() throws InterruptedException {
+
+        HandlerCircuitBreaker breaker = HandlerCircuitBreaker.builder()
+                .windowSize(10)
+                .minimumCalls(4)
+                .failureRateThreshold(0.5)
+                .openDurationMillis(100)
+                .closeAfterSuccesses(4)
+                .build();
+
+        breaker.recordCall(false, 0);
+        breaker.recordCall(true, 0);
+        breaker.recordCall(false, 0);
+        Assertions.assertEquals(HandlerCircuitBreaker.State.Closed, breaker.getState());
+        breaker.recordCall(true, 0);
+        Assertions.assertEquals(HandlerCircuitBreaker.State.Open, breaker.getState());
+        Assertions.assertEquals(0, breaker.permittedMessages());
+
+        // Probing starts with one message and widens with each success.
+        Thread.sleep(150);
+        Assertions.assertEquals(1, breaker.permittedMessages());
+        breaker.recordCall(false, 0);
+        breaker.finished(1);
+        Assertions.assertEquals(1, breaker.permittedMessages());
+        breaker.recordCall(false, 0);
+        breaker.finished(1);
+        Assertions.assertEquals(2, breaker.permittedMessages());
+
+        // A failed probe opens the breaker again.
+        breaker.recordCall(true, 0);
+        Assertions.assertEquals(HandlerCircuitBreaker.State.Open, breaker.getState());
+        Assertions.assertEquals(2, breaker.getOpenCount());
+
+        Thread.sleep(150);
+        for( int i = 0 ; i < 4 ; i++ ) {
+            int permittedCount = breaker.permittedMessages();
+            Assertions.assertTrue(permittedCount > 0);
+            breaker.recordCall(false, 0);
+            breaker.finished(permittedCount);
+        }
+        Assertions.assertEquals(HandlerCircuitBreaker.State.Closed, breaker.getState());
+        Assertions.assertEquals(10, breaker.permittedMessages());
+    }
+
+    @Test
+    public void testHalfOpenProbesAreSharedByAllDriverThreads() throws InterruptedException {
+
+        HandlerCircuitBreaker breaker = HandlerCircuitBreaker.builder()
+                .minimumCalls(1)
+                .openDurationMillis(50)
+                .build();
+        breaker.recordCall(true, 0);
+        Thread.sleep(100);
+
+        // One probe between all the driver threads until it is handed back.
+        Assertions.assertEquals(1, breaker.permittedMessages());
+        Assertions.assertEquals(0, breaker.permittedMessages());
+        Assertions.assertEquals(0, breaker.permittedMessages());
+        breaker.recordCall(false, 0);
+        breaker.finished(1);
+
+        Assertions.assertEquals(1, breaker.permittedMessages());
+        breaker.recordCall(false, 0);
+        Assertions.assertEquals(1, breaker.permittedMessages());
+        Assertions.assertEquals(0, breaker.permittedMessages());
+    }
+
+    @Test
+    public void testBreakerConfiguredWithSetters() {
+
+        // Without the builder, and with the window resized after use.
+        HandlerCircuitBreaker breaker = new HandlerCircuitBreaker();
+        breaker.setMinimumCalls(4);
+        breaker.recordCall(false, 0);
+        breaker.setWindowSize(5);
+        for( int i = 0 ; i < 12 ; i++ ) {
+            breaker.recordCall(i % 4 == 0, 0);
+        }
+        Assertions.assertEquals(HandlerCircuitBreaker.State.Closed, breaker.getState());
+
+        breaker.setWindowSize(4);
+        for( int i = 0 ; i < 4 ; i++ ) {
+            breaker.recordCall(true, 0);
+        }
+        Assertions.assertEquals(HandlerCircuitBreaker.State.Open, breaker.getState());
+    }
+
+    @Test
+    public void testSlowCallsOpenTheBreaker() {
+
+        HandlerCircuitBreaker breaker = HandlerCircuitBreaker.builder()
+                .minimumCalls(5)
+                .slowCallMillis(100)
+                .slowCallRateThreshold(0.8)
+                .build();
+
+        for( int i = 0 ; i < 4 ; i++ ) {
+            breaker.recordCall(false, TimeUnit.MILLISECONDS.toNanos(500));
+        }
+        breaker.recordCall(false, TimeUnit.MILLISECONDS.toNanos(10));
+        Assertions.assertEquals(HandlerCircuitBreaker.State.Open, breaker.getState());
+    }
+
+    @Test
+    public void testOpenBreakerReleasesTheRestOfTheBatch() throws InterruptedException {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "CircuitBreakerTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+        QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Writes")
+                .messageVisibilityTimeoutSeconds(1)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        HandlerCircuitBreaker breaker = HandlerCircuitBreaker.builder()
+                .minimumCalls(3)
+                .openDurationMillis(200)
+                .closeAfterSuccesses(3)
+                .releaseVisibilitySeconds(0)
+                .build();
+
+        boolean[] downstreamUp = new boolean[1];
+        Set<String> handledMessages = new HashSet<>();
+        int[] callCount = new int[1];
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public QueueConfiguration getTargetQueueConfiguration() {
+                return queueConfiguration;
+            }
+
+            @Override
+            public String[] getDesiredMessageAttributes() {
+                return new String[0];
+            }
+
+            @Override
+            public HandlerCircuitBreaker getCircuitBreaker() {
+                return breaker;
+            }
+
+            @Override
+            public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
+                callCount[0]++;
+                if( !downstreamUp[0] ) {
+                    throw new IllegalStateException("The database is down");
+                }
+                handledMessages.add(messageReceiveContext.getMessageText());
+                return MessageHandlerStatus.Message_Processed_Successfully;
+            }
+        };
+
+        try {
+            for( int i = 0 ; i < 10 ; i++ ) {
+                MessageSendContext.builder().queueConfiguration(queueConfiguration).messageText("write-" + i).build().sendMessage();
+            }
+
+            MessageHandlerDriverThread driver = new MessageHandlerDriverThread(queueManager, handler, queueConfiguration, new String[0], false);
+
+            // Three failures open the breaker, and the other seven messages are handed straight back.
+            Assertions.assertEquals(10, driver.processNextBatch());
+            Assertions.assertEquals(3, callCount[0]);
+            Assertions.assertEquals(7, queueManager.currentMessageCount(queueConfiguration).getMessageCount());
+
+            // While open, nothing is received.
+            Assertions.assertEquals(0, driver.processNextBatch());
+            Assertions.assertEquals(3, callCount[0]);
+
+            // Once the downstream recovers, probing drains the queue and closes the breaker.
+            downstreamUp[0] = true;
+            Thread.sleep(1100);
+            for( int attempt = 0 ; attempt < 20 && handledMessages.size() < 10 ; attempt++ ) {
+                driver.processNextBatch();
+            }
+            Assertions.assertEquals(10, handledMessages.size());
+            Assertions.assertEquals(HandlerCircuitBreaker.State.Closed, breaker.getState());
+        }
+        finally {
+            queueManager.deleteQueue(queueConfiguration);
+            queueManager.destroy();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class HandlerThrottleTest {
+
+    @Test
+    public void testBulkheadLimitsMessagesInFlight() throws Exception {
+
+        HandlerThrottle throttle = HandlerThrottle.builder()
+                .maxMessagesInFlight(3)
+                .build();
+
+        Assertions.assertEquals(3, throttle.acquire(10));
+        Assertions.assertEquals(0, throttle.tryAcquire(10));
+
+        // A waiting driver gets in as soon as the bulkhead is widened at runtime.
+        CompletableFuture<Integer> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return throttle.acquire(10);
+            }
+            catch( InterruptedException e ) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        Assertions.assertFalse(waiting.isDone());
+        throttle.setMaxMessagesInFlight(5);
+        Assertions.assertEquals(2, waiting.get(1, TimeUnit.SECONDS));
+
+        // Unused permits and finished messages both free their slots.
+        throttle.release(2);
+        throttle.finished(3);
+        Assertions.assertEquals(0, throttle.getMessagesInFlight());
+    }
+
+    @Test
+    public void testRateLimitAllowsABurstThenPacesMessages() throws InterruptedException {
+
+        HandlerThrottle throttle = HandlerThrottle.builder()
+                .messagesPerSecond(20)
+                .burstMessages(5)
+                .build();
+
+        Assertions.assertEquals(5, throttle.acquire(10));
+        Assertions.assertEquals(0, throttle.tryAcquire(10));
+
+        long startNanos = System.nanoTime();
+        Assertions.assertEquals(1, throttle.acquire(10));
+        Assertions.assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(30));
+
+        // Returned permits go back in the bucket.
+        throttle.release(1);
+        Assertions.assertEquals(1, throttle.tryAcquire(10));
+    }
+
+    @Test
+    public void testDriverReceivesOnlyWhatTheThrottlePermits() {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "ThrottleTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+        QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("PartnerCalls")
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        HandlerThrottle throttle = HandlerThrottle.builder()
+                .messagesPerSecond(20)
+                .burstMessages(5)
+                .maxMessagesInFlight(4)
+                .build();
+
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public QueueConfiguration getTargetQueueConfiguration() {
+                return queueConfiguration;
+            }
+
+            @Override
+            public String[] getDesiredMessageAttributes() {
+                return new String[0];
+            }
+
+            @Override
+            public HandlerThrottle getThrottle() {
+                return throttle;
+            }
+
+            @Override
+            public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
+                Assertions.assertTrue(throttle.getMessagesInFlight() <= 4);
+                return MessageHandlerStatus.Message_Processed_Successfully;
+            }
+        };
+
+        try {
+            for( int i = 0 ; i < 12 ; i++ ) {
+                MessageSendContext.builder().queueConfiguration(queueConfiguration).messageText("call-" + i).build().sendMessage();
+            }
+
+            MessageHandlerDriverThread driver = new MessageHandlerDriverThread(queueManager, handler, queueConfiguration, new String[0], false);
+            long startNanos = System.nanoTime();
+            int handledCount = 0;
+            while( handledCount < 12 ) {
+                int batchCount = driver.processNextBatch();
+                Assertions.assertTrue(batchCount <= 4);
+                handledCount += batchCount;
+            }
+
+            // Five in the first burst, and the other seven at twenty a second.
+            Assertions.assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(300));
+            Assertions.assertEquals(0, throttle.getMessagesInFlight());
+            Assertions.assertEquals(0, queueManager.currentMessageCount(queueConfiguration).getMessageCount());
+        }
+        finally {
+            queueManager.deleteQueue(queueConfiguration);
+            queueManager.destroy();
+        }
+    }
+}
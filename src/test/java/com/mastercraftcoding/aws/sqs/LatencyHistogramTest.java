@@ -0,0 +1,103 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentilesWithinBucketPrecision() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for( long i = 1 ; i <= 10000 ; i++ ) {
+            histogram.record(i);
+        }
+
+        Assertions.assertEquals(10000, histogram.getCount());
+        Assertions.assertEquals(10000, histogram.getMax());
+        Assertions.assertEquals(5000.5, histogram.getMean(), 0.001);
+
+        // Each bucket is at most ~3% wide, so the reported values must be close to the exact percentiles.
+        Assertions.assertEquals(5000, histogram.getValueAtPercentile(50.0), 5000 * 0.04);
+        Assertions.assertEquals(9900, histogram.getValueAtPercentile(99.0), 9900 * 0.04);
+        Assertions.assertEquals(10000, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void testSmallAndNegativeValues() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-25);
+        histogram.record(3);
+        histogram.record(3);
+
+        Assertions.assertEquals(3, histogram.getCount());
+        Assertions.assertEquals(0, histogram.getValueAtPercentile(10.0));
+        Assertions.assertEquals(3, histogram.getValueAtPercentile(50.0));
+
+        histogram.reset();
+        Assertions.assertEquals(0, histogram.getCount());
+        Assertions.assertEquals(0, histogram.getValueAtPercentile(99.0));
+    }
+
+    @Test
+    public void testLatencyStatisticsFromReceiveContext() {
+
+        MessageLatencyStatistics statistics = new MessageLatencyStatistics();
+
+        MessageReceiveContext messageReceiveContext = MessageReceiveContext.builder()
+                .messageId("m1")
+                .messageText("Hello World")
+                .sentTimestamp(1000)
+                .receiveTimestamp(1250)
+                .approximateReceiveCount(2)
+                .build();
+
+        statistics.recordReceive(messageReceiveContext);
+        statistics.recordAcknowledge(messageReceiveContext, 1400);
+
+        Assertions.assertEquals(250, messageReceiveContext.getMessageAgeMillis());
+        Assertions.assertEquals(250, statistics.getEnqueueToReceive().getMax());
+        Assertions.assertEquals(400, statistics.getEnqueueToAcknowledge().getMax());
+        Assertions.assertEquals(1, statistics.getRedeliveredMessageCount());
+    }
+
+    @Test
+    public void testShardedQueueStatisticsAreSummedOverShards() {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "LatencyTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+        QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Clicks")
+                .shardCount(4)
+                .trackMessageLatency(true)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        try {
+            for( int i = 0 ; i < 40 ; i++ ) {
+                MessageSendContext.builder().queueConfiguration(queueConfiguration).messageText("click " + i).shardKey("user" + i).build().sendMessage();
+            }
+
+            int receivedCount = 0;
+            MessageReceiveContext[] messages;
+            do {
+                messages = queueManager.readMessages(queueConfiguration, new String[0], 10);
+                for( MessageReceiveContext nextMessage : messages ) {
+                    nextMessage.delete();
+                }
+                receivedCount += messages.length;
+            } while( messages.length > 0 );
+
+            Assertions.assertEquals(40, receivedCount);
+            Assertions.assertEquals(40, queueConfiguration.getMessageLatencyStatistics().getEnqueueToReceive().getCount());
+            Assertions.assertEquals(40, queueConfiguration.getMessageLatencyStatistics().getEnqueueToAcknowledge().getCount());
+        }
+        finally {
+            queueManager.deleteQueue(queueConfiguration);
+            queueManager.destroy();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class LoadSheddingTest {
+
+    private QueueManager queueManager;
+    private QueueConfiguration sideQueue;
+    private final List<QueueConfiguration> queues = new ArrayList<>();
+
+    @BeforeEach
+    public void createQueues() {
+        queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "LoadSheddingTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+
+        sideQueue = register(QueueConfiguration.builder()
+                .queueBaseName("ShedOrders")
+                .build());
+    }
+
+    @AfterEach
+    public void deleteQueues() {
+        for( QueueConfiguration nextQueue : queues ) {
+            queueManager.deleteQueue(nextQueue);
+        }
+        queueManager.destroy();
+    }
+
+    private QueueConfiguration register(QueueConfiguration queueConfiguration) {
+        queueManager.registerQueue(queueConfiguration);
+        queues.add(queueConfiguration);
+        return queueConfiguration;
+    }
+
+    private void send(QueueConfiguration queueConfiguration, String text, int priority) {
+        MessageSendContext.builder()
+                .queueConfiguration(queueConfiguration)
+                .messageText(text)
+                .customAttribute("Priority", MessageAttributeValue.builder().dataType("Number").stringValue(Integer.toString(priority)).build())
+                .build()
+                .sendMessage();
+    }
+
+    private int handleAll(QueueConfiguration queueConfiguration, Set<String> handledMessages) {
+
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public QueueConfiguration getTargetQueueConfiguration() {
+                return queueConfiguration;
+            }
+
+            @Override
+            public String[] getDesiredMessageAttributes() {
+                return new String[0];
+            }
+
+            @Override
+            public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
+                handledMessages.add(messageReceiveContext.getMessageText());
+                return MessageHandlerStatus.Message_Processed_Successfully;
+            }
+        };
+
+        MessageHandlerDriverThread driver = new MessageHandlerDriverThread(queueManager, handler, queueConfiguration, handler.getDesiredMessageAttributes(), false);
+        int readCount = 0;
+        int batchCount;
+        while( (batchCount = driver.processNextBatch()) > 0 ) {
+            readCount += batchCount;
+        }
+        return readCount;
+    }
+
+    private Set<String> drain(QueueConfiguration queueConfiguration) {
+        Set<String> messages = new HashSet<>();
+        MessageReceiveContext[] batch;
+        while( (batch = queueManager.readMessages(queueConfiguration, new String[] { "Priority" }, 10)).length > 0 ) {
+            for( MessageReceiveContext nextMessage : batch ) {
+                Assertions.assertNotNull(nextMessage.getCustomAttribute("Priority"));
+                messages.add(nextMessage.getMessageText());
+                nextMessage.delete();
+            }
+        }
+        return messages;
+    }
+
+    @Test
+    public void testStaleMessagesAreMovedWithoutBeingHandled() throws InterruptedException {
+
+        LoadSheddingPolicy policy = LoadSheddingPolicy.builder()
+                .messageTimeToLiveMillis(200)
+                .staleMessageQueue(sideQueue)
+                .build();
+        QueueConfiguration orders = register(QueueConfiguration.builder()
+                .queueBaseName("Orders")
+                .loadSheddingPolicy(policy)
+                .build());
+
+        for( int i = 0 ; i < 15 ; i++ ) {
+            send(orders, "stale-" + i, 5);
+        }
+        Thread.sleep(400);
+        for( int i = 0 ; i < 5 ; i++ ) {
+            send(orders, "fresh-" + i, 5);
+        }
+
+        Set<String> handledMessages = new HashSet<>();
+        Assertions.assertEquals(20, handleAll(orders, handledMessages));
+        Assertions.assertEquals(Set.of("fresh-0", "fresh-1", "fresh-2", "fresh-3", "fresh-4"), handledMessages);
+        Assertions.assertEquals(15, policy.getExpiredMessageCount());
+        Assertions.assertEquals(15, drain(sideQueue).size());
+    }
+
+    @Test
+    public void testLowPriorityMessagesAreDeferredUnderOverload() {
+
+        LoadSheddingPolicy policy = LoadSheddingPolicy.builder()
+                .priorityAttributeName("Priority")
+                .minimumPriority(5)
+                .overloadAgeMillis(0)
+                .deferralQueue(sideQueue)
+                .build();
+        QueueConfiguration orders = register(QueueConfiguration.builder()
+                .queueBaseName("Orders")
+                .loadSheddingPolicy(policy)
+                .build());
+
+        for( int i = 0 ; i < 12 ; i++ ) {
+            send(orders, "order-" + i, i % 2 == 0 ? 1 : 9);
+        }
+
+        Set<String> handledMessages = new HashSet<>();
+        Assertions.assertEquals(12, handleAll(orders, handledMessages));
+        Assertions.assertEquals(6, handledMessages.size());
+        Assertions.assertTrue(handledMessages.contains("order-1"));
+        Assertions.assertEquals(6, policy.getDeferredMessageCount());
+
+        Set<String> deferredMessages = drain(sideQueue);
+        Assertions.assertEquals(6, deferredMessages.size());
+        Assertions.assertTrue(deferredMessages.contains("order-0"));
+    }
+}
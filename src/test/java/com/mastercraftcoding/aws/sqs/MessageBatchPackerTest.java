@@ -0,0 +1,116 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class MessageBatchPackerTest {
+
+    private static class Item {
+        private final String group;
+        private final int sequence;
+        private final int size;
+
+        private Item(String group, int sequence, int size) {
+            this.group = group;
+            this.sequence = sequence;
+            this.size = size;
+        }
+    }
+
+    private static List<Item> mixedSizes(int count, int groupCount) {
+        Random random = new Random(42);
+        List<Item> items = new ArrayList<>();
+        for( int i = 0 ; i < count ; i++ ) {
+            // Mostly small messages with the occasional very large one.
+            int size = random.nextInt(10) == 0 ? 100000 + random.nextInt(100000) : 200 + random.nextInt(4000);
+            items.add(new Item("group" + random.nextInt(groupCount), i, size));
+        }
+        return items;
+    }
+
+    private static void assertWithinLimits(List<List<Item>> batches) {
+        for( List<Item> nextBatch : batches ) {
+            Assertions.assertTrue(nextBatch.size() <= MessageBatchPacker.MAX_BATCH_ENTRIES);
+            Assertions.assertTrue(nextBatch.stream().mapToInt(item -> item.size).sum() <= MessageBatchPacker.MAX_BATCH_BYTES);
+        }
+    }
+
+    @Test
+    public void testPackingUsesFewerRequestsThanInOrderBatching() {
+
+        List<Item> items = mixedSizes(1000, 16);
+
+        List<List<Item>> inOrderBatches = new MessageBatchPacker(1).pack(items, item -> item.size, null);
+        List<List<Item>> packedBatches = new MessageBatchPacker(8).pack(items, item -> item.size, null);
+
+        assertWithinLimits(inOrderBatches);
+        assertWithinLimits(packedBatches);
+        Assertions.assertEquals(items.size(), packedBatches.stream().mapToInt(List::size).sum());
+        Assertions.assertTrue(packedBatches.size() < inOrderBatches.size(),
+                String.format("packed %1$d, in order %2$d", packedBatches.size(), inOrderBatches.size()));
+    }
+
+    @Test
+    public void testGroupOrderIsKept() {
+
+        List<Item> items = mixedSizes(1000, 4);
+        List<List<Item>> packedBatches = new MessageBatchPacker(8).pack(items, item -> item.size, item -> item.group);
+        assertWithinLimits(packedBatches);
+
+        Map<String, Integer> lastSequenceOfGroup = new HashMap<>();
+        for( List<Item> nextBatch : packedBatches ) {
+            for( Item nextItem : nextBatch ) {
+                Integer lastSequence = lastSequenceOfGroup.put(nextItem.group, nextItem.sequence);
+                Assertions.assertTrue(lastSequence == null || lastSequence < nextItem.sequence);
+            }
+        }
+    }
+
+    @Test
+    public void testOversizedMessagesAreRejectedUpFront() {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "PackerTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+
+        QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Packed")
+                .isFifoQueue(true)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        String largeText = new String(new char[200000]).replace('\0', 'x');
+        List<MessageSendContext> messages = new ArrayList<>();
+        for( int i = 0 ; i < 30 ; i++ ) {
+            messages.add(MessageSendContext.builder()
+                    .queueConfiguration(queueConfiguration)
+                    .messageFifoGroupId("group" + (i % 3))
+                    .messageText(i % 10 == 0 ? largeText : "m" + i)
+                    .build());
+        }
+        messages.add(MessageSendContext.builder()
+                .queueConfiguration(queueConfiguration)
+                .messageFifoGroupId("group0")
+                .messageText(largeText + largeText)
+                .build());
+
+        BatchSendResult result = queueManager.sendMessages(messages);
+
+        Assertions.assertEquals(30, result.getSuccessful().size());
+        Assertions.assertEquals(1, result.getFailed().size());
+        Assertions.assertEquals("MessageTooLong", result.getFailed().get(0).getErrorCode());
+        Assertions.assertTrue(result.getFailed().get(0).isSenderFault());
+        Assertions.assertEquals(3, result.getRequestCount());
+        Assertions.assertEquals(30, queueManager.currentMessageCount(queueConfiguration).getMessageCount());
+
+        queueManager.deleteQueue(queueConfiguration);
+        queueManager.destroy();
+    }
+}
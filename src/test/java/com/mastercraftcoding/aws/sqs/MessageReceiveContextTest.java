@@ -0,0 +1,61 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class MessageReceiveContextTest {
+
+    @Test
+    public void testContextReadsThroughToSdkMessage() {
+
+        Map<String, String> systemAttributes = new HashMap<>();
+        systemAttributes.put("SentTimestamp", "1000");
+        systemAttributes.put("ApproximateFirstReceiveTimestamp", "1100");
+        systemAttributes.put("ApproximateReceiveCount", "3");
+
+        Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
+        messageAttributes.put("TheAnswer", MessageAttributeValue.builder().dataType("Number").stringValue("42").build());
+
+        Message sdkMessage = Message.builder()
+                .messageId("m1")
+                .receiptHandle("r1")
+                .body("Hello World")
+                .attributesWithStrings(systemAttributes)
+                .messageAttributes(messageAttributes)
+                .build();
+
+        MessageReceiveContext messageReceiveContext = MessageReceiveContext.fromSdkMessage(sdkMessage, null, 1250);
+
+        Assertions.assertEquals("m1", messageReceiveContext.getMessageId());
+        Assertions.assertEquals("r1", messageReceiveContext.getReceiptHandle());
+        Assertions.assertEquals("Hello World", messageReceiveContext.getMessageText());
+        Assertions.assertEquals(1000, messageReceiveContext.getSentTimestamp());
+        Assertions.assertEquals(1100, messageReceiveContext.getApproximateFirstReceiveTimestamp());
+        Assertions.assertEquals(3, messageReceiveContext.getApproximateReceiveCount());
+        Assertions.assertEquals(250, messageReceiveContext.getMessageAgeMillis());
+        Assertions.assertTrue(messageReceiveContext.hasCustomAttribute("TheAnswer"));
+        Assertions.assertEquals("42", messageReceiveContext.getCustomAttribute("TheAnswer").stringValue());
+    }
+
+    @Test
+    public void testContextWithoutSystemAttributes() {
+
+        Message sdkMessage = Message.builder()
+                .messageId("m2")
+                .body("No attributes")
+                .build();
+
+        MessageReceiveContext messageReceiveContext = MessageReceiveContext.fromSdkMessage(sdkMessage, null, 1250);
+
+        Assertions.assertEquals(0, messageReceiveContext.getSentTimestamp());
+        Assertions.assertEquals(0, messageReceiveContext.getApproximateReceiveCount());
+        Assertions.assertEquals(-1, messageReceiveContext.getMessageAgeMillis());
+        Assertions.assertFalse(messageReceiveContext.hasCustomAttribute("TheAnswer"));
+        Assertions.assertTrue(messageReceiveContext.getCustomAttributeNames().isEmpty());
+    }
+}
@@ -0,0 +1,167 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class MessageSchedulerTest {
+
+    private QueueManager queueManager;
+    private QueueConfiguration queueConfiguration;
+    private Path scheduleDirectory;
+
+    @BeforeEach
+    public void createQueue() throws IOException {
+        queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "SchedulerTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+
+        queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Reminders")
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        scheduleDirectory = Files.createTempDirectory("MessageSchedulerTest");
+    }
+
+    @AfterEach
+    public void deleteQueue() throws IOException {
+        queueManager.deleteQueue(queueConfiguration);
+        queueManager.destroy();
+
+        try( Stream<Path> files = Files.list(scheduleDirectory) ) {
+            for( Path nextFile : (Iterable<Path>) files::iterator ) {
+                Files.delete(nextFile);
+            }
+        }
+        Files.delete(scheduleDirectory);
+    }
+
+    private MessageScheduler buildScheduler() {
+        return MessageScheduler.builder()
+                .queueManager(queueManager)
+                .scheduleDirectory(scheduleDirectory.toString())
+                .tickMillis(50)
+                .releaseAheadSeconds(1)
+                .syncToDisk(false)
+                .build();
+    }
+
+    private MessageSendContext reminder(String text) {
+        return MessageSendContext.builder()
+                .queueConfiguration(queueConfiguration)
+                .messageText(text)
+                .customAttribute("Type", MessageAttributeValue.builder().dataType("String").stringValue("Reminder").build())
+                .build();
+    }
+
+    private List<MessageReceiveContext> receiveUntil(long deadlineMillis, int expectedCount) throws InterruptedException {
+        List<MessageReceiveContext> received = new ArrayList<>();
+        while( received.size() < expectedCount && System.currentTimeMillis() < deadlineMillis ) {
+            for( MessageReceiveContext nextMessage : queueManager.readMessages(queueConfiguration, new String[] { "Type" }, 10) ) {
+                received.add(nextMessage);
+                nextMessage.delete();
+            }
+            Thread.sleep(20);
+        }
+        return received;
+    }
+
+    @Test
+    public void testMessageIsDeliveredAtItsTime() throws InterruptedException {
+
+        MessageScheduler scheduler = buildScheduler();
+        try {
+            // Released a second early with the rest of the wait as a delivery delay.
+            Instant deliverAt = Instant.now().plusMillis(2000);
+            scheduler.schedule(reminder("wake up"), deliverAt);
+            Assertions.assertEquals(1, scheduler.getPendingCount());
+
+            List<MessageReceiveContext> received = receiveUntil(System.currentTimeMillis() + 5000, 1);
+            long receivedAtMillis = System.currentTimeMillis();
+
+            Assertions.assertEquals(1, received.size());
+            Assertions.assertEquals("wake up", received.get(0).getMessageText());
+            Assertions.assertEquals("Reminder", received.get(0).getCustomAttribute("Type").stringValue());
+            Assertions.assertTrue(receivedAtMillis >= deliverAt.toEpochMilli() - 100, "delivered early");
+            Assertions.assertEquals(1, scheduler.getReleasedCount());
+            Assertions.assertEquals(0, scheduler.getPendingCount());
+        }
+        finally {
+            scheduler.destroy();
+        }
+    }
+
+    @Test
+    public void testSchedulesSurviveARestart() throws InterruptedException {
+
+        MessageScheduler scheduler = buildScheduler();
+        scheduler.schedule(reminder("tomorrow"), Instant.now().plus(1, ChronoUnit.DAYS));
+        long cancelledId = scheduler.schedule(reminder("never"), Instant.now().plus(2, ChronoUnit.DAYS));
+        scheduler.schedule(reminder("soon"), Instant.now().plusMillis(1500));
+        scheduler.cancel(cancelledId);
+        scheduler.destroy();
+
+        scheduler = buildScheduler();
+        try {
+            Assertions.assertEquals(2, scheduler.getPendingCount());
+
+            List<MessageReceiveContext> received = receiveUntil(System.currentTimeMillis() + 5000, 1);
+            Assertions.assertEquals(1, received.size());
+            Assertions.assertEquals("soon", received.get(0).getMessageText());
+            Assertions.assertEquals(1, scheduler.getPendingCount());
+
+            // New schedules don't reuse the ids of old ones.
+            Assertions.assertTrue(scheduler.schedule(reminder("later"), Instant.now().plus(1, ChronoUnit.HOURS)) > cancelledId);
+        }
+        finally {
+            scheduler.destroy();
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsOnlyPendingSchedules() throws IOException {
+
+        MessageScheduler scheduler = MessageScheduler.builder()
+                .queueManager(queueManager)
+                .scheduleDirectory(scheduleDirectory.toString())
+                .syncToDisk(false)
+                .compactionThresholdBytes(1)
+                .build();
+        List<Long> scheduleIds = new ArrayList<>();
+        for( int i = 0 ; i < 100 ; i++ ) {
+            scheduleIds.add(scheduler.schedule(reminder("reminder " + i), Instant.now().plus(1, ChronoUnit.DAYS)));
+        }
+        for( int i = 0 ; i < 90 ; i++ ) {
+            scheduler.cancel(scheduleIds.get(i));
+        }
+        scheduler.destroy();
+        long logSize = Files.size(scheduleDirectory.resolve("schedule.log"));
+
+        // Reopening compacts away the cancelled schedules.
+        scheduler = MessageScheduler.builder()
+                .queueManager(queueManager)
+                .scheduleDirectory(scheduleDirectory.toString())
+                .compactionThresholdBytes(1)
+                .build();
+        try {
+            Assertions.assertEquals(10, scheduler.getPendingCount());
+            Assertions.assertTrue(Files.size(scheduleDirectory.resolve("schedule.log")) < logSize / 5);
+        }
+        finally {
+            scheduler.destroy();
+        }
+    }
+}
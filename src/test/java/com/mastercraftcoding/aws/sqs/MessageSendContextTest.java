@@ -0,0 +1,99 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MessageSendContextTest {
+
+    private final QueueConfiguration fifoQueue = QueueConfiguration.builder()
+            .queueBaseName("TestQueue1")
+            .isFifoQueue(true)
+            .highThroughputFifo(true)
+            .build();
+
+    @Test
+    public void testGeneratedDeduplicationIds() {
+
+        MessageSendContext message1 = MessageSendContext.builder()
+                .queueConfiguration(fifoQueue)
+                .messageFifoGroupId("group1")
+                .messageText("Hello World")
+                .build();
+
+        MessageSendContext message1Again = MessageSendContext.builder()
+                .queueConfiguration(fifoQueue)
+                .messageFifoGroupId("group1")
+                .messageText("Hello World")
+                .build();
+
+        MessageSendContext message2 = MessageSendContext.builder()
+                .queueConfiguration(fifoQueue)
+                .messageFifoGroupId("group2")
+                .messageText("Hello World")
+                .build();
+
+        Assertions.assertNotNull(message1.getMessageFifoDeduplicationId());
+        Assertions.assertEquals(32, message1.getMessageFifoDeduplicationId().length());
+        Assertions.assertEquals(message1.getMessageFifoDeduplicationId(), message1Again.getMessageFifoDeduplicationId());
+        Assertions.assertNotEquals(message1.getMessageFifoDeduplicationId(), message2.getMessageFifoDeduplicationId());
+    }
+
+    @Test
+    public void testExplicitAndContentBasedDeduplication() {
+
+        MessageSendContext explicitMessage = MessageSendContext.builder()
+                .queueConfiguration(fifoQueue)
+                .messageFifoGroupId("group1")
+                .messageFifoDeduplicationId("dedup-1")
+                .messageText("Hello World")
+                .build();
+        Assertions.assertEquals("dedup-1", explicitMessage.getMessageFifoDeduplicationId());
+
+        QueueConfiguration contentBasedQueue = QueueConfiguration.builder()
+                .queueBaseName("TestQueue2")
+                .isFifoQueue(true)
+                .contentBasedDeduplication(true)
+                .build();
+
+        MessageSendContext contentBasedMessage = MessageSendContext.builder()
+                .queueConfiguration(contentBasedQueue)
+                .messageFifoGroupId("group1")
+                .messageText("Hello World")
+                .build();
+        Assertions.assertNull(contentBasedMessage.getMessageFifoDeduplicationId());
+
+        Assertions.assertThrows(IllegalStateException.class, () -> MessageSendContext.builder()
+                .queueConfiguration(fifoQueue)
+                .messageText("Hello World")
+                .build());
+    }
+
+    @Test
+    public void testFifoSettingsValidation() {
+
+        Assertions.assertThrows(IllegalStateException.class, () -> QueueConfiguration.builder()
+                .queueBaseName("TestQueue3")
+                .isFifoQueue(false)
+                .contentBasedDeduplication(true)
+                .build());
+
+        Assertions.assertThrows(IllegalStateException.class, () -> QueueConfiguration.builder()
+                .queueBaseName("TestQueue4")
+                .isFifoQueue(true)
+                .fifoThroughputLimit(FifoThroughputLimit.PerMessageGroupId)
+                .build());
+
+        Assertions.assertTrue(fifoQueue.isHighThroughputFifo());
+
+        // Turning the shorthand off doesn't undo settings made earlier in the chain.
+        QueueConfiguration scopedQueue = QueueConfiguration.builder()
+                .queueBaseName("TestQueue5")
+                .isFifoQueue(true)
+                .deduplicationScope(FifoDeduplicationScope.MessageGroup)
+                .fifoThroughputLimit(FifoThroughputLimit.PerMessageGroupId)
+                .highThroughputFifo(false)
+                .build();
+        Assertions.assertEquals(FifoDeduplicationScope.MessageGroup, scopedQueue.getDeduplicationScope());
+        Assertions.assertEquals(FifoThroughputLimit.PerMessageGroupId, scopedQueue.getFifoThroughputLimit());
+    }
+}
@@ -0,0 +1,151 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import com.mastercraftcoding.aws.sqs.messages.EmailPasswordResetMessage;
+import com.mastercraftcoding.aws.sqs.messages.NewUserEmailMessage;
+import com.mastercraftcoding.aws.sqs.utility.JsonUtility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class PoisonMessageTest {
+
+    private QueueManager queueManager;
+    private QueueConfiguration queueConfiguration;
+
+    @BeforeEach
+    public void createQueue() {
+        queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "PoisonTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+
+        queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("NewUsers")
+                .createDeadLetterQueue(true)
+                .deadLetterRetryCount(5)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+    }
+
+    @AfterEach
+    public void deleteQueue() {
+        queueManager.deleteQueue(queueConfiguration);
+        queueManager.destroy();
+    }
+
+    private void send(String messageText) {
+        MessageSendContext.builder()
+                .queueConfiguration(queueConfiguration)
+                .messageText(messageText)
+                .customAttribute("Source", MessageAttributeValue.builder().dataType("String").stringValue("signup").build())
+                .customAttribute("Tenant", MessageAttributeValue.builder().dataType("String").stringValue("acme").build())
+                .build()
+                .sendMessage();
+    }
+
+    private List<Message> readDeadLetters() {
+        List<Message> deadLetters = new ArrayList<>();
+        List<Message> batch;
+        do {
+            batch = queueManager.SqsClient().receiveMessage(ReceiveMessageRequest.builder()
+                    .queueUrl(queueConfiguration.getQueueDeadLetterUrl())
+                    .messageAttributeNames("All")
+                    .maxNumberOfMessages(10)
+                    .build()).messages();
+            deadLetters.addAll(batch);
+        } while( !batch.isEmpty() );
+        return deadLetters;
+    }
+
+    @Test
+    public void testUnparseableMessagesGoStraightToTheDeadLetterQueue() throws Exception {
+
+        List<Object> handledMessages = new ArrayList<>();
+        JsonMessageHandlerAbstractBase handler = new JsonMessageHandlerAbstractBase(NewUserEmailMessage.class) {
+            @Override
+            public QueueConfiguration getTargetQueueConfiguration() {
+                return queueConfiguration;
+            }
+
+            @Override
+            protected MessageHandlerStatus handleObjectMessage(MessageReceiveContext messageReceiveContext, Object messageObject) {
+                handledMessages.add(messageObject);
+                return MessageHandlerStatus.Message_Processed_Successfully;
+            }
+        };
+
+        send(JsonUtility.objectToJson(new NewUserEmailMessage("someone", "Someone")));
+        send("{ this is not json");
+        send(JsonUtility.objectToJson(new EmailPasswordResetMessage()));
+
+        MessageHandlerDriverThread driver = new MessageHandlerDriverThread(queueManager, handler, queueConfiguration, new String[] { "Source" }, false);
+        Assertions.assertEquals(3, driver.processNextBatch());
+        Assertions.assertEquals(1, handledMessages.size());
+
+        // Nothing is left to be received again.
+        Assertions.assertEquals(0, driver.processNextBatch());
+
+        List<Message> deadLetters = readDeadLetters();
+        Assertions.assertEquals(2, deadLetters.size());
+        for( Message nextDeadLetter : deadLetters ) {
+            Assertions.assertEquals("signup", nextDeadLetter.messageAttributes().get("Source").stringValue());
+            // Attributes the handler didn't ask for are kept as well.
+            Assertions.assertEquals("acme", nextDeadLetter.messageAttributes().get("Tenant").stringValue());
+            Assertions.assertNotNull(nextDeadLetter.messageAttributes().get(QueueManager.POISON_REASON_ATTRIBUTE));
+        }
+    }
+
+    @Test
+    public void testPoisonedEnvelopeEntriesAreMovedOnTheirOwn() {
+
+        queueManager.deleteQueue(queueConfiguration);
+        queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Events")
+                .createDeadLetterQueue(true)
+                .deadLetterRetryCount(5)
+                .envelopeMessages(true)
+                .envelopeLingerMillis(50)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public QueueConfiguration getTargetQueueConfiguration() {
+                return queueConfiguration;
+            }
+
+            @Override
+            public String[] getDesiredMessageAttributes() {
+                return new String[0];
+            }
+
+            @Override
+            public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
+                return messageReceiveContext.getMessageText().startsWith("bad") ? messageReceiveContext.poison("Bad event")
+                        : MessageHandlerStatus.Message_Processed_Successfully;
+            }
+        };
+
+        List<CompletableFuture<Void>> sends = new ArrayList<>();
+        for( int i = 0 ; i < 10 ; i++ ) {
+            sends.add(MessageSendContext.builder().queueConfiguration(queueConfiguration).messageText((i % 5 == 0 ? "bad-" : "good-") + i).build().sendMessageAsync());
+        }
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0])).join();
+
+        MessageHandlerDriverThread driver = new MessageHandlerDriverThread(queueManager, handler, queueConfiguration, new String[0], false);
+        Assertions.assertEquals(1, driver.processNextBatch());
+        Assertions.assertEquals(0, driver.processNextBatch());
+
+        List<Message> deadLetters = readDeadLetters();
+        Assertions.assertEquals(2, deadLetters.size());
+        Assertions.assertEquals("Bad event", deadLetters.get(0).messageAttributes().get(QueueManager.POISON_REASON_ATTRIBUTE).stringValue());
+    }
+}
@@ -0,0 +1,220 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+public class QueueArchiveTest {
+
+    private QueueManager queueManager;
+    private QueueConfiguration sourceQueue;
+    private QueueConfiguration replayQueue;
+    private Path archiveDirectory;
+
+    @BeforeEach
+    public void createQueues() throws IOException {
+        queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "ArchiveTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+
+        sourceQueue = QueueConfiguration.builder()
+                .queueBaseName("Production")
+                .build();
+        queueManager.registerQueue(sourceQueue);
+
+        replayQueue = QueueConfiguration.builder()
+                .queueBaseName("LoadTest")
+                .build();
+        queueManager.registerQueue(replayQueue);
+
+        archiveDirectory = Files.createTempDirectory("QueueArchiveTest");
+    }
+
+    @AfterEach
+    public void deleteQueues() throws IOException {
+        queueManager.deleteQueue(sourceQueue);
+        queueManager.deleteQueue(replayQueue);
+        queueManager.destroy();
+
+        for( Path nextFile : QueueArchiveFormat.listSegments(archiveDirectory) ) {
+            Files.delete(nextFile);
+        }
+        Files.delete(archiveDirectory);
+    }
+
+    private List<String> readAll(QueueConfiguration queueConfiguration) {
+        List<String> bodies = new ArrayList<>();
+        MessageReceiveContext[] messages;
+        do {
+            messages = queueManager.readMessages(queueConfiguration, new String[] { "Type", "Key" }, 10);
+            for( MessageReceiveContext nextMessage : messages ) {
+                Assertions.assertEquals("Order", nextMessage.getCustomAttribute("Type").stringValue());
+                Assertions.assertArrayEquals(new byte[] { 1, 2, 3 }, nextMessage.getCustomAttribute("Key").binaryValue().asByteArray());
+                bodies.add(nextMessage.getMessageText());
+                nextMessage.delete();
+            }
+        } while( messages.length > 0 );
+        return bodies;
+    }
+
+    @Test
+    public void testDrainedQueueIsReplayed() {
+
+        List<MessageSendContext> messages = new ArrayList<>();
+        for( int i = 0 ; i < 250 ; i++ ) {
+            messages.add(MessageSendContext.builder()
+                    .queueConfiguration(sourceQueue)
+                    .messageText("order \u00e9 " + i)
+                    .customAttribute("Type", MessageAttributeValue.builder().dataType("String").stringValue("Order").build())
+                    .customAttribute("Key", MessageAttributeValue.builder().dataType("Binary").binaryValue(SdkBytes.fromByteArray(new byte[] { 1, 2, 3 })).build())
+                    .build());
+        }
+        Assertions.assertTrue(queueManager.sendMessages(messages).isAllSuccessful());
+
+        long exportedCount = QueueExporter.builder()
+                .queueConfiguration(sourceQueue)
+                .archiveDirectory(archiveDirectory.toString())
+                .segmentMaxMessages(100)
+                .drain(true)
+                .build()
+                .export();
+
+        Assertions.assertEquals(250, exportedCount);
+        Assertions.assertEquals(0, queueManager.currentMessageCount(sourceQueue).getMessageCount());
+        Assertions.assertEquals(0, queueManager.currentMessageCount(sourceQueue).getInvisibleMessageCount());
+
+        QueueReplayer replayer = QueueReplayer.builder()
+                .queueConfiguration(replayQueue)
+                .archiveDirectory(archiveDirectory.toString())
+                .speedFactor(0)
+                .build();
+        Assertions.assertEquals(250, replayer.replay());
+        Assertions.assertEquals(0, replayer.getFailedCount());
+
+        Set<String> replayedBodies = new HashSet<>(readAll(replayQueue));
+        Assertions.assertEquals(250, replayedBodies.size());
+        Assertions.assertTrue(replayedBodies.contains("order \u00e9 249"));
+    }
+
+    @Test
+    public void testFifoQueueIsDrainedPastEachGroupsFirstBatch() {
+
+        QueueConfiguration fifoQueue = QueueConfiguration.builder()
+                .queueBaseName("FifoProduction")
+                .isFifoQueue(true)
+                .build();
+        queueManager.registerQueue(fifoQueue);
+        try {
+            List<MessageSendContext> messages = new ArrayList<>();
+            for( int i = 0 ; i < 250 ; i++ ) {
+                messages.add(MessageSendContext.builder()
+                        .queueConfiguration(fifoQueue)
+                        .messageText("order " + i)
+                        .messageFifoGroupId("customer" + (i % 5))
+                        .build());
+            }
+            Assertions.assertTrue(queueManager.sendMessages(messages).isAllSuccessful());
+
+            // A peek would stop at the first batch of each group.
+            Assertions.assertThrows(IllegalStateException.class, () -> QueueExporter.builder()
+                    .queueConfiguration(fifoQueue)
+                    .archiveDirectory(archiveDirectory.toString())
+                    .build());
+
+            long exportedCount = QueueExporter.builder()
+                    .queueConfiguration(fifoQueue)
+                    .archiveDirectory(archiveDirectory.toString())
+                    .drain(true)
+                    .build()
+                    .export();
+
+            Assertions.assertEquals(250, exportedCount);
+            Assertions.assertEquals(0, queueManager.currentMessageCount(fifoQueue).getMessageCount());
+            Assertions.assertEquals(0, queueManager.currentMessageCount(fifoQueue).getInvisibleMessageCount());
+        }
+        finally {
+            queueManager.deleteQueue(fifoQueue);
+        }
+    }
+
+    @Test
+    public void testFifoReplayKeepsGroupOrder() throws IOException {
+
+        // Enough chunks of one message group that sender threads would have sent some out of order.
+        try( OutputStream output = new GZIPOutputStream(Files.newOutputStream(archiveDirectory.resolve(QueueArchiveFormat.segmentFileName(1)))) ) {
+            for( int i = 0 ; i < 500 ; i++ ) {
+                String line = String.format("{\"messageId\":\"m%1$d\",\"messageGroupId\":\"orders\",\"body\":\"%1$d\",\"attributes\":{"
+                        + "\"Type\":{\"dataType\":\"String\",\"stringValue\":\"Order\"},\"Key\":{\"dataType\":\"Binary\",\"binaryValue\":\"AQID\"}}}\n", i);
+                output.write(line.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        QueueConfiguration fifoQueue = QueueConfiguration.builder()
+                .queueBaseName("FifoLoadTest")
+                .isFifoQueue(true)
+                .build();
+        queueManager.registerQueue(fifoQueue);
+        try {
+            long sentCount = QueueReplayer.builder()
+                    .queueConfiguration(fifoQueue)
+                    .archiveDirectory(archiveDirectory.toString())
+                    .speedFactor(0)
+                    .senderThreads(4)
+                    .build()
+                    .replay();
+            Assertions.assertEquals(500, sentCount);
+
+            List<String> replayedBodies = readAll(fifoQueue);
+            Assertions.assertEquals(500, replayedBodies.size());
+            for( int i = 0 ; i < 500 ; i++ ) {
+                Assertions.assertEquals(Integer.toString(i), replayedBodies.get(i));
+            }
+        }
+        finally {
+            queueManager.deleteQueue(fifoQueue);
+        }
+    }
+
+    @Test
+    public void testReplayIsTimeScaled() throws IOException {
+
+        // Three messages originally sent half a second apart.
+        try( OutputStream output = new GZIPOutputStream(Files.newOutputStream(archiveDirectory.resolve(QueueArchiveFormat.segmentFileName(1)))) ) {
+            for( int i = 0 ; i < 3 ; i++ ) {
+                String line = String.format("{\"messageId\":\"m%1$d\",\"sentTimestamp\":%2$d,\"body\":\"paced %1$d\",\"attributes\":{"
+                        + "\"Type\":{\"dataType\":\"String\",\"stringValue\":\"Order\"},\"Key\":{\"dataType\":\"Binary\",\"binaryValue\":\"AQID\"}}}\n",
+                        i, 1556000000000L + i * 500);
+                output.write(line.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        // Twice as fast takes about half a second.
+        long startNanos = System.nanoTime();
+        long sentCount = QueueReplayer.builder()
+                .queueConfiguration(replayQueue)
+                .archiveDirectory(archiveDirectory.toString())
+                .speedFactor(2.0)
+                .build()
+                .replay();
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+
+        Assertions.assertEquals(3, sentCount);
+        Assertions.assertTrue(elapsedMillis >= 450 && elapsedMillis < 2000, String.format("replay took %1$d ms", elapsedMillis));
+        Assertions.assertEquals(3, readAll(replayQueue).size());
+    }
+}
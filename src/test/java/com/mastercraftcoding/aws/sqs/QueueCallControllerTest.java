@@ -0,0 +1,126 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class QueueCallControllerTest {
+
+    private static SqsException sqsException(String errorCode, int statusCode) {
+        return (SqsException) SqsException.builder()
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+                .statusCode(statusCode)
+                .build();
+    }
+
+    private static SendMessageResponse successfulResponse() {
+        return (SendMessageResponse) SendMessageResponse.builder()
+                .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                .build();
+    }
+
+    private static QueueRetryConfiguration.Builder fastRetries() {
+        return QueueRetryConfiguration.builder()
+                .initialBackoffMillis(1)
+                .maxBackoffMillis(2);
+    }
+
+    @Test
+    public void testRetryableFailuresAreRetried() {
+
+        QueueCallController callController = new QueueCallController(fastRetries().maxAttempts(3).build());
+        AtomicInteger attempts = new AtomicInteger();
+
+        SendMessageResponse response = callController.call(() -> {
+            if( attempts.incrementAndGet() < 3 ) {
+                throw SdkClientException.builder().message("Connection reset").build();
+            }
+            return successfulResponse();
+        });
+
+        Assertions.assertTrue(response.sdkHttpResponse().isSuccessful());
+        Assertions.assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testClientErrorsAreNotRetried() {
+
+        QueueCallController callController = new QueueCallController(fastRetries().build());
+        AtomicInteger attempts = new AtomicInteger();
+
+        Assertions.assertThrows(SqsException.class, () -> callController.call(() -> {
+            attempts.incrementAndGet();
+            throw sqsException("InvalidParameterValue", 400);
+        }));
+        Assertions.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testRetryBudgetLimitsRetries() {
+
+        QueueCallController callController = new QueueCallController(fastRetries()
+                .maxAttempts(5)
+                .retryBudgetCapacity(3)
+                .retryBudgetRatio(0.0)
+                .build());
+        AtomicInteger attempts = new AtomicInteger();
+
+        // The budget allows three retries in total, however many calls are made.
+        for( int i = 0 ; i < 3 ; i++ ) {
+            Assertions.assertThrows(SqsException.class, () -> callController.call(() -> {
+                attempts.incrementAndGet();
+                throw sqsException("InternalError", 500);
+            }));
+        }
+        Assertions.assertEquals(6, attempts.get());
+    }
+
+    @Test
+    public void testThrottlingReducesTheSendRate() {
+
+        QueueCallController callController = new QueueCallController(fastRetries()
+                .maxAttempts(1)
+                .maxSendRatePerSecond(100)
+                .sendRateDecreaseFactor(0.5)
+                .build());
+        Assertions.assertEquals(100.0, callController.getSendRatePerSecond());
+
+        Assertions.assertThrows(SqsException.class, () -> callController.send(() -> {
+            throw sqsException("RequestThrottled", 400);
+        }));
+        Assertions.assertEquals(50.0, callController.getSendRatePerSecond());
+
+        // Throttling straight after a cut is part of the same congestion event.
+        Assertions.assertThrows(SqsException.class, () -> callController.send(() -> {
+            throw sqsException("ThrottlingException", 400);
+        }));
+        Assertions.assertEquals(50.0, callController.getSendRatePerSecond(), 0.1);
+
+        // Successful sends grow the rate back.
+        for( int i = 0 ; i < 20 ; i++ ) {
+            callController.send(QueueCallControllerTest::successfulResponse);
+        }
+        Assertions.assertTrue(callController.getSendRatePerSecond() > 50.0);
+    }
+
+    @Test
+    public void testUnlimitedSendsAreCutFromTheObservedRate() {
+
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(1, 0, 5, 0.5);
+        Assertions.assertTrue(Double.isInfinite(rateLimiter.getRatePerSecond()));
+
+        for( int i = 0 ; i < 100 ; i++ ) {
+            rateLimiter.acquire();
+        }
+        rateLimiter.onThrottle();
+
+        Assertions.assertFalse(Double.isInfinite(rateLimiter.getRatePerSecond()));
+        Assertions.assertTrue(rateLimiter.getRatePerSecond() >= 1.0);
+    }
+}
@@ -0,0 +1,78 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class QueueManagerTests_Emulator {
+
+    @Test
+    public void testHandlerConsumesFromEmulatedQueues() throws InterruptedException {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "EmulatorTest");
+        queueManager.setSqsClient(InMemorySqsClient.builder()
+                .apiLatencyMillis(1)
+                .build());
+
+        QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("Work")
+                .isFifoQueue(true)
+                .createDeadLetterQueue(true)
+                .deadLetterRetryCount(3)
+                .receiveMessageWaitTimeSeconds(1)
+                .trackMessageLatency(true)
+                .build();
+        queueManager.registerQueue(queueConfiguration);
+
+        int messageCount = 200;
+        CountDownLatch handledLatch = new CountDownLatch(messageCount);
+        Set<String> handledMessages = ConcurrentHashMap.newKeySet();
+
+        queueManager.registerMessageHandler(new MessageHandler() {
+            @Override
+            public QueueConfiguration getTargetQueueConfiguration() {
+                return queueConfiguration;
+            }
+
+            @Override
+            public String[] getDesiredMessageAttributes() {
+                return new String[0];
+            }
+
+            @Override
+            public MessageHandlerStatus handleMessage(MessageReceiveContext messageReceiveContext) {
+                handledMessages.add(messageReceiveContext.getMessageText());
+                handledLatch.countDown();
+                return MessageHandlerStatus.Message_Processed_Successfully;
+            }
+        });
+
+        for( int i = 0 ; i < messageCount ; i++ ) {
+            MessageSendContext.builder()
+                    .queueConfiguration(queueConfiguration)
+                    .messageText("m" + i)
+                    .messageFifoGroupId("group" + (i % 8))
+                    .build()
+                    .sendMessage();
+        }
+
+        Assertions.assertTrue(handledLatch.await(30, TimeUnit.SECONDS));
+        Assertions.assertEquals(messageCount, handledMessages.size());
+        Assertions.assertEquals(messageCount, queueConfiguration.getMessageLatencyStatistics().getEnqueueToReceive().getCount());
+
+        queueManager.destroy();
+
+        QueueStatistics queueStatistics = queueManager.currentMessageCount(queueConfiguration);
+        Assertions.assertEquals(0, queueStatistics.getMessageCount());
+        Assertions.assertEquals(0, queueStatistics.getInvisibleMessageCount());
+
+        queueManager.deleteQueue(queueConfiguration);
+        Assertions.assertTrue(queueManager.queueUrlList().isEmpty());
+    }
+}
@@ -0,0 +1,123 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.http.ExecutableHttpRequest;
+import software.amazon.awssdk.http.HttpExecuteRequest;
+import software.amazon.awssdk.http.HttpExecuteResponse;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.regions.Region;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class QueueTransportConfigurationTest {
+
+    @Test
+    public void testInvalidPoolSizeRejected() {
+        Assertions.assertThrows(IllegalStateException.class, () -> QueueTransportConfiguration.builder()
+                .maxConnections(0)
+                .build());
+    }
+
+    @Test
+    public void testSocketTimeoutMustExceedLongPoll() {
+
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.UnitTest, "TransportTest");
+        queueManager.setTransportConfiguration(QueueTransportConfiguration.builder()
+                .socketTimeoutMillis(10000)
+                .build());
+
+        QueueConfiguration queueConfiguration = QueueConfiguration.builder()
+                .queueBaseName("TestQueue1")
+                .receiveMessageWaitTimeSeconds(20)
+                .build();
+
+        Assertions.assertThrows(IllegalStateException.class, () -> queueManager.registerQueue(queueConfiguration));
+    }
+
+    @Test
+    public void testSharedHttpClientAcrossQueueManagers() {
+
+        QueueTransportConfiguration transportConfiguration = QueueTransportConfiguration.builder()
+                .maxConnections(200)
+                .shareHttpClient(true)
+                .build();
+
+        QueueManager queueManager1 = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.UnitTest, "TransportTest1");
+        QueueManager queueManager2 = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.UnitTest, "TransportTest2");
+        queueManager1.setTransportConfiguration(transportConfiguration);
+        queueManager2.setTransportConfiguration(transportConfiguration);
+
+        // Two SqsClients, both sending through the one HTTP client the transport configuration built.
+        Assertions.assertNotSame(queueManager1.SqsClient(), queueManager2.SqsClient());
+        Assertions.assertNotNull(queueManager1.sqsHttpClient());
+        Assertions.assertSame(transportConfiguration.sharedHttpClient(), queueManager1.sqsHttpClient());
+        Assertions.assertSame(transportConfiguration.sharedHttpClient(), queueManager2.sqsHttpClient());
+
+        // The client has been created, so the transport can no longer be changed.
+        Assertions.assertThrows(IllegalStateException.class, () -> queueManager1.setTransportConfiguration(transportConfiguration));
+
+        queueManager1.destroy();
+        queueManager2.destroy();
+        transportConfiguration.destroy();
+    }
+
+    @Test
+    public void testSdkRetriesAreTurnedOff() {
+
+        // An HTTP client on which every attempt fails with a retryable server error.
+        AtomicInteger attemptCount = new AtomicInteger();
+        SdkHttpClient failingHttpClient = new SdkHttpClient() {
+            @Override
+            public ExecutableHttpRequest prepareRequest(HttpExecuteRequest request) {
+                return new ExecutableHttpRequest() {
+                    @Override
+                    public HttpExecuteResponse call() {
+                        attemptCount.incrementAndGet();
+                        return HttpExecuteResponse.builder()
+                                .response(SdkHttpResponse.builder().statusCode(500).statusText("Internal Error").build())
+                                .build();
+                    }
+
+                    @Override
+                    public void abort() {
+                    }
+                };
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        // Credentials only for this test - later tests in the same JVM must see the real ones again.
+        String previousAccessKeyId = System.setProperty("aws.accessKeyId", "TransportTest");
+        String previousSecretAccessKey = System.setProperty("aws.secretAccessKey", "TransportTest");
+        QueueManager queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.UnitTest, "TransportTest");
+        try {
+            queueManager.setTransportConfiguration(QueueTransportConfiguration.builder()
+                    .httpClient(failingHttpClient)
+                    .build());
+
+            // Retries belong to the QueueRetryConfiguration alone, so the SDK makes a single attempt.
+            Assertions.assertThrows(SdkException.class, () -> queueManager.SqsClient().listQueues());
+            Assertions.assertEquals(1, attemptCount.get());
+        }
+        finally {
+            queueManager.destroy();
+            restoreSystemProperty("aws.accessKeyId", previousAccessKeyId);
+            restoreSystemProperty("aws.secretAccessKey", previousSecretAccessKey);
+        }
+    }
+
+    private static void restoreSystemProperty(String name, String previousValue) {
+        if( previousValue != null ) {
+            System.setProperty(name, previousValue);
+        }
+        else {
+            System.clearProperty(name);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.regions.Region;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+public class RequestReplyTest {
+
+    private QueueManager queueManager;
+    private QueueConfiguration requestQueue;
+    private volatile boolean serving;
+
+    @BeforeEach
+    public void createQueue() {
+        queueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "RequestReplyTest");
+        queueManager.setSqsClient(InMemorySqsClient.create());
+        queueManager.setReplyQueueBaseName("Replies-Node1");
+
+        requestQueue = QueueConfiguration.builder()
+                .queueBaseName("Quotes")
+                .receiveMessageWaitTimeSeconds(1)
+                .build();
+        queueManager.registerQueue(requestQueue);
+    }
+
+    @AfterEach
+    public void deleteQueue() {
+        serving = false;
+        queueManager.destroy();
+        queueManager.deleteQueue(requestQueue);
+    }
+
+    private Thread startServer() {
+        return startServer(requestQueue);
+    }
+
+    private Thread startServer(QueueConfiguration requestQueue) {
+        serving = true;
+        Thread serverThread = new Thread(() -> {
+            String[] attributeNames = new String[] { QueueManager.CORRELATION_ID_ATTRIBUTE, QueueManager.REPLY_TO_ATTRIBUTE };
+            while( serving ) {
+                for( MessageReceiveContext nextRequest : queueManager.readMessages(requestQueue, attributeNames, 10) ) {
+                    queueManager.sendReply(nextRequest, "quote for " + nextRequest.getMessageText());
+                    nextRequest.delete();
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        return serverThread;
+    }
+
+    @Test
+    public void testRepliesAreMatchedToTheirRequests() throws Exception {
+
+        startServer();
+
+        List<CompletableFuture<MessageReceiveContext>> replies = new ArrayList<>();
+        for( int i = 0 ; i < 50 ; i++ ) {
+            replies.add(queueManager.sendAndReceive(MessageSendContext.builder()
+                    .queueConfiguration(requestQueue)
+                    .messageText("item " + i)
+                    .build(), 10000));
+        }
+
+        for( int i = 0 ; i < 50 ; i++ ) {
+            Assertions.assertEquals("quote for item " + i, replies.get(i).get().getMessageText());
+        }
+        Assertions.assertEquals(0, queueManager.replyDispatcher().getPendingCount());
+    }
+
+    @Test
+    public void testIdenticalFifoRequestsAreBothAnswered() throws Exception {
+
+        QueueConfiguration fifoRequestQueue = QueueConfiguration.builder()
+                .queueBaseName("FifoQuotes")
+                .isFifoQueue(true)
+                .receiveMessageWaitTimeSeconds(1)
+                .build();
+        queueManager.registerQueue(fifoRequestQueue);
+        try {
+            startServer(fifoRequestQueue);
+
+            // The same text and group would get the same generated deduplication id.
+            List<CompletableFuture<MessageReceiveContext>> replies = new ArrayList<>();
+            for( int i = 0 ; i < 2 ; i++ ) {
+                replies.add(queueManager.sendAndReceive(MessageSendContext.builder()
+                        .queueConfiguration(fifoRequestQueue)
+                        .messageText("item 1")
+                        .messageFifoGroupId("quotes")
+                        .build(), 5000));
+            }
+
+            for( CompletableFuture<MessageReceiveContext> nextReply : replies ) {
+                Assertions.assertEquals("quote for item 1", nextReply.get().getMessageText());
+            }
+        }
+        finally {
+            serving = false;
+            queueManager.deleteQueue(fifoRequestQueue);
+        }
+    }
+
+    @Test
+    public void testUnansweredRequestTimesOut() {
+
+        CompletableFuture<MessageReceiveContext> reply = queueManager.sendAndReceive(MessageSendContext.builder()
+                .queueConfiguration(requestQueue)
+                .messageText("anyone there?")
+                .build(), 200);
+
+        ExecutionException failure = Assertions.assertThrows(ExecutionException.class, reply::get);
+        Assertions.assertTrue(failure.getCause() instanceof TimeoutException);
+
+        // The timed out request leaves the correlation map.
+        long deadlineMillis = System.currentTimeMillis() + 1000;
+        while( queueManager.replyDispatcher().getPendingCount() > 0 && System.currentTimeMillis() < deadlineMillis ) {
+            Thread.yield();
+        }
+        Assertions.assertEquals(0, queueManager.replyDispatcher().getPendingCount());
+    }
+
+    @Test
+    public void testReplyQueueMustBeNamed() {
+
+        QueueManager unnamedQueueManager = new QueueManager(Region.US_EAST_1, RuntimeEnvironment.IntegrationTesting, "RequestReplyTest");
+        unnamedQueueManager.setSqsClient(queueManager.SqsClient());
+        QueueConfiguration orderQueue = QueueConfiguration.builder()
+                .queueBaseName("Orders")
+                .build();
+        unnamedQueueManager.registerQueue(orderQueue);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> unnamedQueueManager.sendAndReceive(MessageSendContext.builder()
+                .queueConfiguration(orderQueue)
+                .messageText("who do I reply to?")
+                .build(), 200));
+        unnamedQueueManager.deleteQueue(orderQueue);
+        unnamedQueueManager.destroy();
+    }
+}
@@ -0,0 +1,176 @@
+package com.mastercraftcoding.aws.sqs;
+
+import com.mastercraftcoding.aws.sqs.emulator.InMemorySqsClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+public class SendSpoolTest {
+
+    private final InMemorySqsClient sqsClient = InMemorySqsClient.create();
+
+    private SendSpoolConfiguration spoolConfiguration(Path spoolDirectory) {
+        return SendSpoolConfiguration.builder()
+                .spoolDirectory(spoolDirectory.toString())
+                .segmentSizeBytes(1024 * 1024)
+                .flusherIdleMillis(5)
+                .retryInitialBackoffMillis(5)
+                .retryMaxBackoffMillis(20)
+                .build();
+    }
+
+    private SendMessageRequest request(String queueUrl, String body) {
+        HashMap<String, MessageAttributeValue> messageAttributes = new HashMap<>();
+        messageAttributes.put("Origin", MessageAttributeValue.builder().dataType("String").stringValue("SendSpoolTest").build());
+        return SendMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .messageBody(body)
+                .messageAttributes(messageAttributes)
+                .build();
+    }
+
+    private List<String> receiveAll(String queueUrl) {
+        List<String> bodies = new ArrayList<>();
+        List<Message> messages;
+        do {
+            messages = sqsClient.receiveMessage(ReceiveMessageRequest.builder()
+                    .queueUrl(queueUrl)
+                    .maxNumberOfMessages(10)
+                    .messageAttributeNames("All")
+                    .build()).messages();
+            for( Message nextMessage : messages ) {
+                Assertions.assertEquals("SendSpoolTest", nextMessage.messageAttributes().get("Origin").stringValue());
+                bodies.add(nextMessage.body());
+            }
+        } while( !messages.isEmpty() );
+        return bodies;
+    }
+
+    @Test
+    public void testSpooledMessagesAreSent() throws IOException {
+
+        String queueUrl = sqsClient.createQueue(CreateQueueRequest.builder().queueName("Spooled").build()).queueUrl();
+        SendSpool sendSpool = new SendSpool(spoolConfiguration(Files.createTempDirectory("spool")), sqsClient);
+
+        // Enough messages to fill several segments.
+        String padding = new String(new char[4000]).replace('\0', 'x');
+        for( int i = 0 ; i < 1000 ; i++ ) {
+            sendSpool.append(request(queueUrl, i + padding));
+        }
+
+        Assertions.assertTrue(sendSpool.flush(10000));
+        Assertions.assertEquals(1000, sendSpool.getSentCount());
+        Assertions.assertEquals(1000, receiveAll(queueUrl).size());
+        sendSpool.close();
+    }
+
+    @Test
+    public void testSpooledBatchesGoThroughTheQueuesCallController() throws IOException {
+
+        String queueUrl = sqsClient.createQueue(CreateQueueRequest.builder().queueName("Controlled").build()).queueUrl();
+        QueueCallController callController = new QueueCallController(QueueRetryConfiguration.builder().build());
+        List<String> controlledQueueUrls = Collections.synchronizedList(new ArrayList<>());
+        SendSpool sendSpool = new SendSpool(spoolConfiguration(Files.createTempDirectory("spool")), sqsClient, nextQueueUrl -> {
+            controlledQueueUrls.add(nextQueueUrl);
+            return callController;
+        });
+
+        for( int i = 0 ; i < 25 ; i++ ) {
+            sendSpool.append(request(queueUrl, "controlled " + i));
+        }
+
+        Assertions.assertTrue(sendSpool.flush(10000));
+        Assertions.assertEquals(25, receiveAll(queueUrl).size());
+        Assertions.assertFalse(controlledQueueUrls.isEmpty());
+        Assertions.assertTrue(controlledQueueUrls.stream().allMatch(queueUrl::equals));
+        sendSpool.close();
+    }
+
+    @Test
+    public void testSpoolSurvivesOutageAndRestart() throws IOException {
+
+        String queueUrl = sqsClient.createQueue(CreateQueueRequest.builder().queueName("Outage").build()).queueUrl();
+        Path spoolDirectory = Files.createTempDirectory("spool");
+
+        // While SQS is unreachable, sends still succeed and the messages wait in the spool.
+        SendSpool sendSpool = new SendSpool(spoolConfiguration(spoolDirectory), new UnavailableSqsClient());
+        for( int i = 0 ; i < 25 ; i++ ) {
+            sendSpool.append(request(queueUrl, "m" + i));
+        }
+        Assertions.assertFalse(sendSpool.flush(100));
+        Assertions.assertEquals(25, sendSpool.getPendingCount());
+        sendSpool.close();
+
+        // Reopening the spool recovers the messages and sends them in order.
+        SendSpool reopenedSpool = new SendSpool(spoolConfiguration(spoolDirectory), sqsClient);
+        Assertions.assertTrue(reopenedSpool.flush(10000));
+        reopenedSpool.close();
+
+        List<String> expectedBodies = new ArrayList<>();
+        for( int i = 0 ; i < 25 ; i++ ) {
+            expectedBodies.add("m" + i);
+        }
+        List<String> receivedBodies = receiveAll(queueUrl);
+        receivedBodies.sort((first, second) -> Integer.compare(Integer.parseInt(first.substring(1)), Integer.parseInt(second.substring(1))));
+        Assertions.assertEquals(expectedBodies, receivedBodies);
+
+        // Everything was sent, so a third opening has nothing to do.
+        SendSpool emptySpool = new SendSpool(spoolConfiguration(spoolDirectory), sqsClient);
+        Assertions.assertEquals(0, emptySpool.getPendingCount());
+        emptySpool.close();
+    }
+
+    @Test
+    public void testRejectedMessagesAreDropped() throws IOException {
+
+        String queueUrl = sqsClient.createQueue(CreateQueueRequest.builder().queueName("Rejected").build()).queueUrl();
+        SendSpool sendSpool = new SendSpool(spoolConfiguration(Files.createTempDirectory("spool")), sqsClient);
+
+        sendSpool.append(request(queueUrl, "good"));
+        sendSpool.append(SendMessageRequest.builder().queueUrl(queueUrl).messageBody("bad").delaySeconds(3600).build());
+
+        Assertions.assertTrue(sendSpool.flush(10000));
+        Assertions.assertEquals(1, sendSpool.getSentCount());
+        Assertions.assertEquals(1, sendSpool.getDroppedCount());
+        sendSpool.close();
+    }
+
+    @Test
+    public void testSpoolDirectoryIsLocked() throws IOException {
+
+        SendSpoolConfiguration configuration = spoolConfiguration(Files.createTempDirectory("spool"));
+        SendSpool sendSpool = new SendSpool(configuration, sqsClient);
+        Assertions.assertThrows(IllegalStateException.class, () -> new SendSpool(configuration, sqsClient));
+        sendSpool.close();
+    }
+
+    private static class UnavailableSqsClient implements SqsClient {
+
+        @Override
+        public String serviceName() {
+            return SqsClient.SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public SendMessageBatchResponse sendMessageBatch(SendMessageBatchRequest sendMessageBatchRequest) {
+            throw (SqsException) SqsException.builder()
+                    .awsErrorDetails(AwsErrorDetails.builder().errorCode("ServiceUnavailable").build())
+                    .statusCode(503)
+                    .build();
+        }
+    }
+}
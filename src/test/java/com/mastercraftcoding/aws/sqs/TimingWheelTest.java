@@ -0,0 +1,72 @@
+package com.mastercraftcoding.aws.sqs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testEntriesExpireOnTheirTickAtEveryLevel() {
+
+        long startMillis = 1556000000000L;
+        TimingWheel timingWheel = new TimingWheel(10, startMillis);
+
+        // Due times spread from the first tick to well past the span of the third level.
+        Random random = new Random(17);
+        long[] dueMillis = new long[20000];
+        for( int i = 0 ; i < dueMillis.length ; i++ ) {
+            dueMillis[i] = startMillis + 1 + (long) (random.nextDouble() * random.nextDouble() * 10L * 64 * 64 * 64 * 4);
+            timingWheel.add(dueMillis[i], i);
+        }
+        Assertions.assertEquals(dueMillis.length, timingWheel.size());
+
+        long[] expiredAt = new long[dueMillis.length];
+        for( long nowMillis = startMillis ; timingWheel.size() > 0 ; nowMillis += 37 ) {
+            long currentMillis = nowMillis;
+            timingWheel.advance(currentMillis, (due, value) -> {
+                Assertions.assertEquals(0, expiredAt[(int) value], "expired twice");
+                expiredAt[(int) value] = currentMillis;
+            });
+        }
+
+        // Each entry expires on the first advance that reaches its tick.
+        for( int i = 0 ; i < dueMillis.length ; i++ ) {
+            Assertions.assertTrue(expiredAt[i] >= dueMillis[i] / 10 * 10, "expired early");
+            Assertions.assertTrue(expiredAt[i] < dueMillis[i] / 10 * 10 + 37, "expired late");
+        }
+    }
+
+    @Test
+    public void testOverdueEntriesExpireOnTheNextAdvance() {
+
+        TimingWheel timingWheel = new TimingWheel(1000, 100000);
+        timingWheel.add(5000, 1);
+        timingWheel.add(100000, 2);
+
+        long[] expiredCount = new long[1];
+        timingWheel.advance(100000, (due, value) -> expiredCount[0]++);
+        Assertions.assertEquals(2, expiredCount[0]);
+        Assertions.assertEquals(0, timingWheel.size());
+    }
+
+    @Test
+    public void testRemoveAllEmptiesTheWheel() {
+
+        TimingWheel timingWheel = new TimingWheel(1, 0);
+        for( int i = 1 ; i <= 1000 ; i++ ) {
+            timingWheel.add(i * 997L, i);
+        }
+
+        long[] entries = timingWheel.removeAll();
+        Assertions.assertEquals(2000, entries.length);
+        Assertions.assertEquals(0, timingWheel.size());
+
+        long valueSum = 0;
+        for( int i = 1 ; i < entries.length ; i += 2 ) {
+            valueSum += entries[i];
+        }
+        Assertions.assertEquals(500500, valueSum);
+    }
+}
@@ -0,0 +1,195 @@
+package com.mastercraftcoding.aws.sqs.emulator;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class InMemorySqsClientTest {
+
+    private final InMemorySqsClient sqsClient = InMemorySqsClient.builder()
+            .stripeCount(4)
+            .build();
+
+    private String createQueue(String queueName, Map<String, String> attributes) {
+        return sqsClient.createQueue(CreateQueueRequest.builder()
+                .queueName(queueName)
+                .attributesWithStrings(attributes)
+                .build()).queueUrl();
+    }
+
+    private List<Message> receive(String queueUrl, int maxMessageCount, int visibilityTimeoutSeconds) {
+        return sqsClient.receiveMessage(ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .maxNumberOfMessages(maxMessageCount)
+                .visibilityTimeout(visibilityTimeoutSeconds)
+                .waitTimeSeconds(0)
+                .attributeNamesWithStrings("All")
+                .build()).messages();
+    }
+
+    private int attribute(String queueUrl, QueueAttributeName attributeName) {
+        return Integer.parseInt(sqsClient.getQueueAttributes(GetQueueAttributesRequest.builder()
+                .queueUrl(queueUrl)
+                .attributeNames(attributeName)
+                .build()).attributes().get(attributeName));
+    }
+
+    @Test
+    public void testSendReceiveDelete() {
+
+        String queueUrl = createQueue("Standard", new HashMap<>());
+        for( int i = 0 ; i < 25 ; i++ ) {
+            sqsClient.sendMessage(SendMessageRequest.builder().queueUrl(queueUrl).messageBody("m" + i).build());
+        }
+        Assertions.assertEquals(25, attribute(queueUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES));
+
+        List<Message> messages = receive(queueUrl, 10, 30);
+        Assertions.assertEquals(10, messages.size());
+        Assertions.assertEquals(15, attribute(queueUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES));
+        Assertions.assertEquals(10, attribute(queueUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE));
+        Assertions.assertEquals("1", messages.get(0).attributesAsStrings().get("ApproximateReceiveCount"));
+
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+        for( int i = 0 ; i < messages.size() ; i++ ) {
+            entries.add(DeleteMessageBatchRequestEntry.builder().id("e" + i).receiptHandle(messages.get(i).receiptHandle()).build());
+        }
+        DeleteMessageBatchResponse deleteResponse = sqsClient.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build());
+
+        Assertions.assertEquals(10, deleteResponse.successful().size());
+        Assertions.assertEquals(0, attribute(queueUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE));
+    }
+
+    @Test
+    public void testVisibilityTimeoutAndDelay() throws InterruptedException {
+
+        String queueUrl = createQueue("Visibility", new HashMap<>());
+        sqsClient.sendMessage(SendMessageRequest.builder().queueUrl(queueUrl).messageBody("delayed").delaySeconds(1).build());
+        Assertions.assertEquals(1, attribute(queueUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED));
+        Assertions.assertTrue(receive(queueUrl, 10, 1).isEmpty());
+
+        // A long poll picks the message up as soon as its delay has passed.
+        List<Message> messages = sqsClient.receiveMessage(ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .visibilityTimeout(1)
+                .waitTimeSeconds(3)
+                .build()).messages();
+        Assertions.assertEquals(1, messages.size());
+
+        // Once the visibility timeout expires the message is delivered again with a new receipt handle, and the
+        // old handle can no longer delete it.
+        Thread.sleep(1100);
+        List<Message> redelivered = receive(queueUrl, 10, 30);
+        Assertions.assertEquals(1, redelivered.size());
+        Assertions.assertEquals("2", redelivered.get(0).attributesAsStrings().get("ApproximateReceiveCount"));
+
+        sqsClient.deleteMessage(DeleteMessageRequest.builder().queueUrl(queueUrl).receiptHandle(messages.get(0).receiptHandle()).build());
+        Assertions.assertEquals(1, attribute(queueUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE));
+
+        // Releasing the message makes it visible immediately.
+        sqsClient.changeMessageVisibility(ChangeMessageVisibilityRequest.builder()
+                .queueUrl(queueUrl)
+                .receiptHandle(redelivered.get(0).receiptHandle())
+                .visibilityTimeout(0)
+                .build());
+        Assertions.assertEquals(1, receive(queueUrl, 10, 30).size());
+
+        Assertions.assertThrows(ReceiptHandleIsInvalidException.class, () ->
+                sqsClient.deleteMessage(DeleteMessageRequest.builder().queueUrl(queueUrl).receiptHandle("garbage").build()));
+    }
+
+    @Test
+    public void testFifoGroupOrderingAndDeduplication() {
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(QueueAttributeName.FIFO_QUEUE.toString(), "true");
+        attributes.put(QueueAttributeName.CONTENT_BASED_DEDUPLICATION.toString(), "true");
+        String queueUrl = createQueue("Ordered.fifo", attributes);
+
+        for( int i = 0 ; i < 3 ; i++ ) {
+            sqsClient.sendMessage(SendMessageRequest.builder().queueUrl(queueUrl).messageBody("a" + i).messageGroupId("A").build());
+            sqsClient.sendMessage(SendMessageRequest.builder().queueUrl(queueUrl).messageBody("b" + i).messageGroupId("B").build());
+        }
+
+        // Sending the same content again within five minutes is de-duplicated.
+        SendMessageResponse duplicate = sqsClient.sendMessage(SendMessageRequest.builder().queueUrl(queueUrl).messageBody("a0").messageGroupId("A").build());
+        Assertions.assertNotNull(duplicate.messageId());
+        Assertions.assertEquals(6, attribute(queueUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES));
+
+        // Take the first message of each group; both groups are then locked until those messages are deleted.
+        List<Message> first = receive(queueUrl, 1, 30);
+        List<Message> second = receive(queueUrl, 1, 30);
+        Assertions.assertEquals(1, first.size());
+        Assertions.assertEquals(1, second.size());
+        Assertions.assertTrue(receive(queueUrl, 10, 30).isEmpty());
+        Assertions.assertTrue(first.get(0).body().endsWith("0"));
+        Assertions.assertTrue(second.get(0).body().endsWith("0"));
+
+        sqsClient.deleteMessage(DeleteMessageRequest.builder().queueUrl(queueUrl).receiptHandle(first.get(0).receiptHandle()).build());
+        List<Message> next = receive(queueUrl, 10, 30);
+        Assertions.assertEquals(2, next.size());
+        Assertions.assertEquals(first.get(0).body().substring(0, 1) + "1", next.get(0).body());
+        Assertions.assertEquals(first.get(0).body().substring(0, 1) + "2", next.get(1).body());
+
+        Assertions.assertThrows(SqsException.class, () ->
+                sqsClient.sendMessage(SendMessageRequest.builder().queueUrl(queueUrl).messageBody("no group").build()));
+    }
+
+    @Test
+    public void testRedriveToDeadLetterQueue() {
+
+        String deadLetterUrl = createQueue("Redrive_DL", new HashMap<>());
+        String queueUrl = createQueue("Redrive", new HashMap<>());
+        String deadLetterArn = sqsClient.getQueueAttributes(GetQueueAttributesRequest.builder()
+                .queueUrl(deadLetterUrl)
+                .attributeNames(QueueAttributeName.QUEUE_ARN)
+                .build()).attributes().get(QueueAttributeName.QUEUE_ARN);
+
+        Map<String, String> redrivePolicy = new HashMap<>();
+        redrivePolicy.put(QueueAttributeName.REDRIVE_POLICY.toString(),
+                "{\"maxReceiveCount\":\"2\", \"deadLetterTargetArn\":\"" + deadLetterArn + "\"}");
+        sqsClient.setQueueAttributes(SetQueueAttributesRequest.builder().queueUrl(queueUrl).attributesWithStrings(redrivePolicy).build());
+
+        SendMessageResponse sendResponse = sqsClient.sendMessage(SendMessageRequest.builder().queueUrl(queueUrl).messageBody("poison").build());
+
+        // Two receives are allowed; the third moves the message to the dead letter queue instead.
+        Assertions.assertEquals(1, receive(queueUrl, 1, 0).size());
+        Assertions.assertEquals(1, receive(queueUrl, 1, 0).size());
+        Assertions.assertTrue(receive(queueUrl, 1, 0).isEmpty());
+
+        List<Message> deadLetters = receive(deadLetterUrl, 10, 30);
+        Assertions.assertEquals(1, deadLetters.size());
+        Assertions.assertEquals(sendResponse.messageId(), deadLetters.get(0).messageId());
+        Assertions.assertEquals("poison", deadLetters.get(0).body());
+    }
+
+    @Test
+    public void testBatchValidation() {
+
+        String queueUrl = createQueue("Batch", new HashMap<>());
+
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+        for( int i = 0 ; i < 11 ; i++ ) {
+            entries.add(SendMessageBatchRequestEntry.builder().id("e" + i).messageBody("m" + i).build());
+        }
+        Assertions.assertThrows(TooManyEntriesInBatchRequestException.class, () ->
+                sqsClient.sendMessageBatch(SendMessageBatchRequest.builder().queueUrl(queueUrl).entries(entries).build()));
+
+        entries.remove(10);
+        entries.set(9, SendMessageBatchRequestEntry.builder().id("e9").messageBody("").build());
+        SendMessageBatchResponse response = sqsClient.sendMessageBatch(SendMessageBatchRequest.builder().queueUrl(queueUrl).entries(entries).build());
+        Assertions.assertEquals(9, response.successful().size());
+        Assertions.assertEquals(1, response.failed().size());
+        Assertions.assertEquals("e9", response.failed().get(0).id());
+
+        Assertions.assertThrows(QueueDoesNotExistException.class, () ->
+                sqsClient.sendMessage(SendMessageRequest.builder().queueUrl(queueUrl + "_Missing").messageBody("m").build()));
+    }
+}